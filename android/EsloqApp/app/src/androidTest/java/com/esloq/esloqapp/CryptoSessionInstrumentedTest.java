@@ -0,0 +1,141 @@
+package com.esloq.esloqapp;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the encryption of {@link CryptoSession}, which uses the native library and therefore
+ * runs on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class CryptoSessionInstrumentedTest {
+
+    private static final byte[] MESSAGE = {5, 6, 7};
+
+    private byte[] mSessionKey;
+    private CryptoSession mAppSession;
+    private CryptoSession mLockSession;
+
+    @Before
+    public void setUp() {
+        mSessionKey = new byte[Cryptography.KEY_LENGTH];
+        for (int i = 0; i < mSessionKey.length; i++) {
+            mSessionKey[i] = (byte) (i * 7);
+        }
+        byte[] lockTicket = new byte[Cryptography.TICKET_LENGTH];
+        mAppSession = new CryptoSession(mSessionKey, lockTicket);
+        mLockSession = new CryptoSession(mSessionKey, lockTicket);
+    }
+
+    @Test
+    public void testInPlaceRoundTrip() {
+        ByteBuffer frame = encryptInPlace(MESSAGE);
+
+        assertEquals(MESSAGE.length, mLockSession.authDecrypt(frame, 0, MESSAGE.length));
+        assertArrayEquals(MESSAGE, plaintext(frame, MESSAGE.length));
+    }
+
+    @Test
+    public void testInPlaceEncrypt_matchesArrayDecrypt() {
+        ByteBuffer frame = encryptInPlace(MESSAGE);
+
+        byte[] nonce = new byte[Cryptography.NONCE_LENGTH];
+        byte[] ciphertext = new byte[Cryptography.MAC_LENGTH + MESSAGE.length];
+        frame.get(nonce);
+        frame.get(ciphertext);
+        assertArrayEquals(MESSAGE, Cryptography.decrypt(ciphertext, nonce, mSessionKey));
+    }
+
+    @Test
+    public void testArrayEncrypt_matchesInPlaceDecrypt() {
+        byte[] nonce = mAppSession.getNextSessionNonce();
+        byte[] ciphertext = mAppSession.authEncrypt(MESSAGE);
+        ByteBuffer frame = ByteBuffer.allocateDirect(nonce.length + ciphertext.length);
+        frame.put(nonce);
+        frame.put(ciphertext);
+
+        assertEquals(MESSAGE.length, mLockSession.authDecrypt(frame, 0, MESSAGE.length));
+        assertArrayEquals(MESSAGE, plaintext(frame, MESSAGE.length));
+    }
+
+    @Test
+    public void testTamperedFrame_doesNotAdvanceNonce() {
+        byte[] nextNonce = mLockSession.getNextSessionNonce();
+        ByteBuffer frame = encryptInPlace(MESSAGE);
+        int last = Cryptography.FRAME_HEADER_LENGTH + MESSAGE.length - 1;
+        frame.put(last, (byte) (frame.get(last) ^ 1));
+
+        assertEquals(-1, mLockSession.authDecrypt(frame, 0, MESSAGE.length));
+        assertArrayEquals(nextNonce, mLockSession.getNextSessionNonce());
+    }
+
+    @Test
+    public void testArrayRoundTrip() {
+        byte[] nonce = mAppSession.getNextSessionNonce();
+        byte[] ciphertext = mAppSession.authEncrypt(MESSAGE);
+        assertArrayEquals(MESSAGE, mLockSession.authDecrypt(nonce, ciphertext));
+    }
+
+    @Test
+    public void testOutOfOrderFrames() {
+        ByteBuffer first = encryptInPlace(MESSAGE);
+        ByteBuffer second = encryptInPlace(MESSAGE);
+
+        assertEquals(MESSAGE.length, mLockSession.authDecrypt(second, 0, MESSAGE.length));
+        assertEquals(MESSAGE.length, mLockSession.authDecrypt(first, 0, MESSAGE.length));
+        assertArrayEquals(MESSAGE, plaintext(first, MESSAGE.length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReflectedFrame() {
+        // A frame that was sent by the app is not accepted as a response.
+        ByteBuffer frame = encryptInPlace(MESSAGE);
+        mAppSession.authDecrypt(frame, 0, MESSAGE.length);
+    }
+
+    @Test
+    public void testSessionsAreIndependent() {
+        encryptInPlace(MESSAGE);
+        byte[] expected = new byte[Cryptography.NONCE_LENGTH];
+        expected[Cryptography.NONCE_LENGTH - 1] = 1;
+        assertArrayEquals(expected, mLockSession.getNextSessionNonce());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReplayedFrame() {
+        ByteBuffer frame = encryptInPlace(MESSAGE);
+        ByteBuffer replay = ByteBuffer.allocateDirect(frame.capacity());
+        replay.put(frame.duplicate());
+
+        mLockSession.authDecrypt(frame, 0, MESSAGE.length);
+        mLockSession.authDecrypt(replay, 0, MESSAGE.length);
+    }
+
+    private ByteBuffer encryptInPlace(byte[] message) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(Cryptography.FRAME_HEADER_LENGTH +
+                message.length);
+        frame.position(Cryptography.FRAME_HEADER_LENGTH);
+        frame.put(message);
+        assertEquals(message.length, mAppSession.authEncrypt(frame, 0, message.length));
+        frame.clear();
+        return frame;
+    }
+
+    private static byte[] plaintext(ByteBuffer frame, int length) {
+        byte[] plaintext = new byte[length];
+        for (int i = 0; i < length; i++) {
+            plaintext[i] = frame.get(Cryptography.FRAME_HEADER_LENGTH + i);
+        }
+        return plaintext;
+    }
+}
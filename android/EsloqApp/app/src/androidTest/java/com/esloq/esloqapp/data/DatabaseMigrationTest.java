@@ -0,0 +1,277 @@
+package com.esloq.esloqapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Upgrades databases of every past version with {@link DatabaseHelper} and checks that the
+ * result has the schema of a new database and keeps the stored data.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class DatabaseMigrationTest {
+
+    /**
+     * The schema of version 2. The statements are copied as they were, they must not follow
+     * later changes of {@link DatabaseHelper}.
+     */
+    private static final String[] SCHEMA_VERSION_2 = {
+            "CREATE TABLE lock (mac TEXT PRIMARY KEY,name TEXT, lock_clockwise INTEGER)",
+            "CREATE TABLE user (id INTEGER PRIMARY KEY,name TEXT,validated INTEGER)",
+            "CREATE TABLE lock_access (lock_mac TEXT,is_admin INTEGER,user_id INTEGER," +
+                    "PRIMARY KEY (lock_mac, user_id)" +
+                    "FOREIGN KEY (lock_mac)REFERENCES lock(mac) ON DELETE CASCADE," +
+                    "FOREIGN KEY (user_id)REFERENCES user(id) ON DELETE CASCADE)",
+            "CREATE TABLE log (lock_mac TEXT,user_id INTEGER,lock_state INTEGER," +
+                    "timestamp INTEGER," +
+                    "FOREIGN KEY (lock_mac)REFERENCES lock(mac) ON DELETE CASCADE)",
+    };
+
+    /**
+     * The schema of version 3, which added the id of the log table and the indexes.
+     */
+    private static final String[] SCHEMA_VERSION_3 = {
+            SCHEMA_VERSION_2[0],
+            SCHEMA_VERSION_2[1],
+            SCHEMA_VERSION_2[2],
+            "CREATE TABLE log (_id INTEGER PRIMARY KEY,lock_mac TEXT,user_id INTEGER," +
+                    "lock_state INTEGER,timestamp INTEGER," +
+                    "FOREIGN KEY (lock_mac)REFERENCES lock(mac) ON DELETE CASCADE)",
+            "CREATE INDEX log_lock_mac_timestamp ON log (lock_mac, timestamp, user_id, " +
+                    "lock_state)",
+            "CREATE INDEX lock_access_user_id ON lock_access (user_id, lock_mac, is_admin)",
+    };
+
+    /**
+     * The schema of version 4, which added the id to the index of the log table.
+     */
+    private static final String[] SCHEMA_VERSION_4 = {
+            SCHEMA_VERSION_3[0],
+            SCHEMA_VERSION_3[1],
+            SCHEMA_VERSION_3[2],
+            SCHEMA_VERSION_3[3],
+            "CREATE INDEX log_lock_mac_timestamp ON log (lock_mac, timestamp, _id, user_id, " +
+                    "lock_state)",
+            SCHEMA_VERSION_3[5],
+    };
+
+    /**
+     * The schema of version 5, which added the daily log counts.
+     */
+    private static final String[] SCHEMA_VERSION_5 = {
+            SCHEMA_VERSION_4[0],
+            SCHEMA_VERSION_4[1],
+            SCHEMA_VERSION_4[2],
+            SCHEMA_VERSION_4[3],
+            SCHEMA_VERSION_4[4],
+            SCHEMA_VERSION_4[5],
+            "CREATE TABLE log_rollup (lock_mac TEXT,user_id INTEGER,day INTEGER," +
+                    "locked_count INTEGER,unlocked_count INTEGER," +
+                    "PRIMARY KEY (lock_mac, day, user_id)FOREIGN KEY (lock_mac)" +
+                    "REFERENCES lock(mac) ON DELETE CASCADE)",
+    };
+
+    /**
+     * The rows that are stored before the upgrade, in the columns of every past version.
+     */
+    private static final String[] DATA = {
+            "INSERT INTO lock VALUES ('AA:BB:CC:DD:EE:FF', 'Front door', 1)",
+            "INSERT INTO user VALUES (1, 'me', 1)",
+            "INSERT INTO user VALUES (2, 'Guest', 0)",
+            "INSERT INTO lock_access VALUES ('AA:BB:CC:DD:EE:FF', 1, 1)",
+            "INSERT INTO lock_access VALUES ('AA:BB:CC:DD:EE:FF', 0, 2)",
+            "INSERT INTO log (lock_mac, user_id, lock_state, timestamp) " +
+                    "VALUES ('AA:BB:CC:DD:EE:FF', 1, 1, 1469000000000)",
+            "INSERT INTO log (lock_mac, user_id, lock_state, timestamp) " +
+                    "VALUES ('AA:BB:CC:DD:EE:FF', 2, 0, 1469000060000)",
+    };
+
+    private RenamingDelegatingContext mContext;
+    private DatabaseHelper mDatabaseHelper;
+
+    @Before
+    public void setUp() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "migration.");
+        mContext.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mDatabaseHelper != null) {
+            mDatabaseHelper.close();
+        }
+        mContext.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void testUpgradeFromVersion1_recreatesDatabase() {
+        SQLiteDatabase old = mContext.openOrCreateDatabase(DatabaseHelper.DATABASE_NAME, 0, null);
+        old.execSQL("CREATE TABLE lock (mac TEXT PRIMARY KEY, name TEXT)");
+        old.execSQL("INSERT INTO lock VALUES ('AA:BB:CC:DD:EE:FF', 'Front door')");
+        old.setVersion(1);
+        old.close();
+
+        SQLiteDatabase db = openHelper();
+        assertEquals(newSchema(), schema(db));
+        assertEquals(0, count(db, "lock"));
+    }
+
+    @Test
+    public void testUpgradeFromVersion2_keepsData() {
+        createDatabase(2, SCHEMA_VERSION_2, DATA);
+
+        SQLiteDatabase db = openHelper();
+        assertEquals(newSchema(), schema(db));
+        assertEquals(1, count(db, "lock"));
+        assertEquals(2, count(db, "user"));
+        assertEquals(2, count(db, "lock_access"));
+        assertEquals(2, count(db, "log"));
+        Cursor cursor = db.rawQuery("SELECT _id, user_id, lock_state, timestamp FROM log " +
+                "ORDER BY _id", null);
+        try {
+            cursor.moveToFirst();
+            assertEquals(1, cursor.getInt(0));
+            assertEquals(1, cursor.getInt(1));
+            assertEquals(1, cursor.getInt(2));
+            assertEquals(1469000000000L, cursor.getLong(3));
+            cursor.moveToNext();
+            assertEquals(2, cursor.getInt(0));
+            assertEquals(2, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testUpgradeFromVersion3_keepsData() {
+        createDatabase(3, SCHEMA_VERSION_3, DATA);
+
+        SQLiteDatabase db = openHelper();
+        assertEquals(newSchema(), schema(db));
+        assertEquals(1, count(db, "lock"));
+        assertEquals(2, count(db, "user"));
+        assertEquals(2, count(db, "lock_access"));
+        assertEquals(2, count(db, "log"));
+    }
+
+    @Test
+    public void testUpgradeFromVersion4_keepsData() {
+        createDatabase(4, SCHEMA_VERSION_4, DATA);
+
+        SQLiteDatabase db = openHelper();
+        assertEquals(newSchema(), schema(db));
+        assertEquals(2, count(db, "log"));
+        assertEquals(0, count(db, "log_rollup"));
+    }
+
+    @Test
+    public void testUpgradeFromVersion5_keepsData() {
+        createDatabase(5, SCHEMA_VERSION_5, DATA);
+
+        SQLiteDatabase db = openHelper();
+        assertEquals(newSchema(), schema(db));
+        assertEquals(2, count(db, "log"));
+        assertEquals(0, count(db, "outbox"));
+    }
+
+    @Test
+    public void testUpgradeFromVersion2_keepsForeignKeys() {
+        createDatabase(2, SCHEMA_VERSION_2, DATA);
+
+        SQLiteDatabase db = openHelper();
+        db.execSQL("DELETE FROM lock");
+        assertEquals(0, count(db, "lock_access"));
+        assertEquals(0, count(db, "log"));
+    }
+
+    /**
+     * Creates a database as an older version of the app did.
+     *
+     * @param version The version of the database.
+     * @param schema The statements that create the tables of the version.
+     * @param data The statements that insert the data.
+     */
+    private void createDatabase(int version, String[] schema, String[] data) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DatabaseHelper.DATABASE_NAME, 0, null);
+        try {
+            for (String statement : schema) {
+                db.execSQL(statement);
+            }
+            for (String statement : data) {
+                db.execSQL(statement);
+            }
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Opens the database with the helper, which upgrades it to the current version.
+     *
+     * @return The upgraded database.
+     */
+    private SQLiteDatabase openHelper() {
+        mDatabaseHelper = new DatabaseHelper(mContext);
+        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        assertEquals(DatabaseHelper.DATABASE_VERSION, db.getVersion());
+        return db;
+    }
+
+    /**
+     * Returns the schema of a database that is created by the current version.
+     *
+     * @return The statements of the schema.
+     */
+    private List<String> newSchema() {
+        RenamingDelegatingContext context = new RenamingDelegatingContext(
+                InstrumentationRegistry.getTargetContext(), "migration.new.");
+        context.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+        DatabaseHelper helper = new DatabaseHelper(context);
+        try {
+            return schema(helper.getReadableDatabase());
+        } finally {
+            helper.close();
+            context.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+        }
+    }
+
+    private static List<String> schema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE sql IS NOT NULL " +
+                "ORDER BY name", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+
+    private static long count(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
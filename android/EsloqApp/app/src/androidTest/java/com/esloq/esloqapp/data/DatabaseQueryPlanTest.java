@@ -0,0 +1,181 @@
+package com.esloq.esloqapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the query plans of the lock list and log list queries of
+ * {@link LockDataContentProvider}, so that they keep using the indexes of {@link DatabaseHelper}
+ * instead of scanning and sorting the tables.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class DatabaseQueryPlanTest {
+
+    private static final String LOCK_MAC = "AA:BB:CC:DD:EE:FF";
+    private static final int USER_ID = 1;
+
+    private RenamingDelegatingContext mContext;
+    private DatabaseHelper mDatabaseHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "queryplan.");
+        mContext.deleteDatabase("esloq.db");
+        mDatabaseHelper = new DatabaseHelper(mContext);
+        mDb = mDatabaseHelper.getWritableDatabase();
+
+        // Fill the tables and gather statistics, so that the plans are those of a busy lock.
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < 10; i++) {
+                ContentValues lock = new ContentValues();
+                lock.put(DatabaseContract.Lock.COLUMN_NAME_MAC, i == 0 ? LOCK_MAC : "LOCK" + i);
+                lock.put(DatabaseContract.Lock.COLUMN_NAME_NAME, "Lock " + i);
+                mDb.insert(DatabaseContract.Lock.TABLE_NAME, null, lock);
+                ContentValues user = new ContentValues();
+                user.put(DatabaseContract.User.COLUMN_NAME_ID, i);
+                user.put(DatabaseContract.User.COLUMN_NAME_NAME, "User " + i);
+                mDb.insert(DatabaseContract.User.TABLE_NAME, null, user);
+                ContentValues lockAccess = new ContentValues();
+                lockAccess.put(DatabaseContract.LockAccess.COLUMN_NAME_LOCKMAC, LOCK_MAC);
+                lockAccess.put(DatabaseContract.LockAccess.COLUMN_NAME_USERID, i);
+                mDb.insert(DatabaseContract.LockAccess.TABLE_NAME, null, lockAccess);
+            }
+            for (int i = 0; i < 5000; i++) {
+                ContentValues log = new ContentValues();
+                log.put(DatabaseContract.Log.COLUMN_NAME_LOCKMAC, i % 2 == 0 ? LOCK_MAC : "LOCK1");
+                log.put(DatabaseContract.Log.COLUMN_NAME_USERID, i % 10);
+                log.put(DatabaseContract.Log.COLUMN_NAME_LOCKSTATE, i % 3 == 0);
+                log.put(DatabaseContract.Log.COLUMN_NAME_TIMESTAMP, 1469000000000L + i);
+                mDb.insert(DatabaseContract.Log.TABLE_NAME, null, log);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        mDb.execSQL("ANALYZE");
+    }
+
+    @After
+    public void tearDown() {
+        mDatabaseHelper.close();
+        mContext.deleteDatabase("esloq.db");
+    }
+
+    @Test
+    public void testLockLogs_useCoveringIndex() {
+        Uri uri = DatabaseContract.Lock.CONTENT_URI.buildUpon().appendPath(LOCK_MAC)
+                .appendPath("logs").build();
+        List<String> plan = explain(uri, LoaderProvider.LOCK_LOGS_PROJECTION,
+                LoaderProvider.LOCK_LOGS_ORDER);
+
+        assertUses(plan, "COVERING INDEX " + DatabaseContract.Log.INDEX_LOCKMAC_TIMESTAMP);
+        assertNoScan(plan);
+        // The index is in the order of the list, the logs are not sorted.
+        assertNoSort(plan);
+    }
+
+    @Test
+    public void testLockLogsPage_startsAtPreviousPage() {
+        Uri uri = DatabaseContract.Lock.CONTENT_URI.buildUpon().appendPath(LOCK_MAC)
+                .appendPath("logs").build();
+        String sql = LockDataContentProvider.newQueryBuilder(uri, USER_ID)
+                .buildQuery(LoaderProvider.LOCK_LOGS_PROJECTION, LockLogSource.SELECTION_AFTER,
+                        null, null, LoaderProvider.LOCK_LOGS_ORDER,
+                        String.valueOf(LogPager.PAGE_SIZE));
+        String[] args = {"1469000002500", "1469000002500", "2500"};
+        List<String> plan = explain(sql, args);
+
+        // The index is searched from the time of the previous page on, not from its start.
+        assertUses(plan, DatabaseContract.Log.INDEX_LOCKMAC_TIMESTAMP + " (" +
+                DatabaseContract.Log.COLUMN_NAME_LOCKMAC + "=? AND " +
+                DatabaseContract.Log.COLUMN_NAME_TIMESTAMP + "<?)");
+        assertNoScan(plan);
+        assertNoSort(plan);
+    }
+
+    @Test
+    public void testLocks_useCoveringIndex() {
+        List<String> plan = explain(DatabaseContract.Lock.CONTENT_URI,
+                LoaderProvider.LOCKS_PROJECTION, LoaderProvider.LOCKS_ORDER);
+
+        assertUses(plan, "COVERING INDEX " + DatabaseContract.LockAccess.INDEX_USERID);
+        assertNoScan(plan);
+    }
+
+    /**
+     * Returns the query plan of a query of the provider.
+     *
+     * @param uri The URI of the query.
+     * @param projection The columns of the query.
+     * @param sortOrder The order of the query.
+     * @return The details of the steps of the plan.
+     */
+    private List<String> explain(Uri uri, String[] projection, String sortOrder) {
+        String sql = LockDataContentProvider.newQueryBuilder(uri, USER_ID)
+                .buildQuery(projection, null, null, null, sortOrder, null);
+        return explain(sql, null);
+    }
+
+    /**
+     * Returns the query plan of a query.
+     *
+     * @param sql The query.
+     * @param selectionArgs The arguments of the query.
+     * @return The details of the steps of the plan.
+     */
+    private List<String> explain(String sql, String[] selectionArgs) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    private static void assertUses(List<String> plan, String index) {
+        for (String step : plan) {
+            if (step.contains(index)) {
+                return;
+            }
+        }
+        assertTrue("No step uses " + index + ": " + plan, false);
+    }
+
+    private static void assertNoScan(List<String> plan) {
+        for (String step : plan) {
+            assertFalse("Full scan: " + plan, step.startsWith("SCAN"));
+        }
+    }
+
+    private static void assertNoSort(List<String> plan) {
+        for (String step : plan) {
+            assertFalse("Sort: " + plan, step.contains("TEMP B-TREE"));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.esloq.esloqapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.IsolatedContext;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the bulk writes of {@link LockDataContentProvider}. The provider runs on a database
+ * of its own, the notifications it sends are recorded instead of delivered.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class LockDataContentProviderTest {
+
+    private static final String LOCK_MAC = "AA:BB:CC:DD:EE:FF";
+
+    private static final Uri LOGS_URI = DatabaseContract.Lock.CONTENT_URI.buildUpon()
+            .appendPath(LOCK_MAC).appendPath("logs").build();
+
+    /**
+     * Content resolver that records the URIs of the change notifications.
+     */
+    private static class RecordingContentResolver extends MockContentResolver {
+
+        final List<Uri> mNotifiedUris = new ArrayList<>();
+
+        @Override
+        public void notifyChange(@NonNull Uri uri, ContentObserver observer,
+                                 boolean syncToNetwork) {
+            mNotifiedUris.add(uri);
+        }
+    }
+
+    private RenamingDelegatingContext mContext;
+    private RecordingContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "test.");
+        mContext.deleteDatabase("esloq.db");
+        mResolver = new RecordingContentResolver();
+        LockDataContentProvider provider = new LockDataContentProvider();
+        provider.attachInfo(new IsolatedContext(mResolver, mContext), null);
+        // The notifications are recorded as they are sent, without coalescing them over time.
+        provider.setNotificationWindow(0);
+        mResolver.addProvider(DatabaseContract.AUTHORITY, provider);
+
+        ContentValues lock = new ContentValues();
+        lock.put(DatabaseContract.Lock.COLUMN_NAME_MAC, LOCK_MAC);
+        lock.put(DatabaseContract.Lock.COLUMN_NAME_NAME, "Front door");
+        lock.put(DatabaseContract.Lock.COLUMN_NAME_LOCK_CLOCKWISE, true);
+        mResolver.insert(DatabaseContract.Lock.CONTENT_URI, lock);
+        mResolver.mNotifiedUris.clear();
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase("esloq.db");
+    }
+
+    @Test
+    public void testBulkInsert_notifiesOnce() {
+        ContentValues[] logs = new ContentValues[100];
+        for (int i = 0; i < logs.length; i++) {
+            logs[i] = log(i);
+        }
+
+        assertEquals(logs.length, mResolver.bulkInsert(LOGS_URI, logs));
+        assertEquals(logs.length, countLogs());
+        assertEquals(Arrays.asList(LOGS_URI), mResolver.mNotifiedUris);
+    }
+
+    @Test
+    public void testApplyBatch_notifiesOncePerUri() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            operations.add(ContentProviderOperation.newInsert(DatabaseContract.User.CONTENT_URI)
+                    .withValue(DatabaseContract.User.COLUMN_NAME_ID, i)
+                    .withValue(DatabaseContract.User.COLUMN_NAME_NAME, "User " + i)
+                    .withValue(DatabaseContract.User.COLUMN_NAME_VALIDATED, 1)
+                    .build());
+            operations.add(ContentProviderOperation.newInsert(LOGS_URI).withValues(log(i))
+                    .build());
+        }
+
+        mResolver.applyBatch(DatabaseContract.AUTHORITY, operations);
+
+        assertEquals(50, countLogs());
+        assertEquals(Arrays.asList(DatabaseContract.User.CONTENT_URI, LOGS_URI),
+                mResolver.mNotifiedUris);
+    }
+
+    @Test
+    public void testApplyBatch_isAtomic() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LOGS_URI).withValues(log(0)).build());
+        // Updating a user that does not exist fails the batch.
+        operations.add(ContentProviderOperation.newUpdate(DatabaseContract.User.CONTENT_URI
+                .buildUpon().appendPath("999").build())
+                .withValue(DatabaseContract.User.COLUMN_NAME_NAME, "Nobody")
+                .withExpectedCount(1)
+                .build());
+
+        try {
+            mResolver.applyBatch(DatabaseContract.AUTHORITY, operations);
+            fail("The batch should fail.");
+        } catch (OperationApplicationException expected) {
+            assertEquals(0, countLogs());
+            assertTrue(mResolver.mNotifiedUris.isEmpty());
+        }
+    }
+
+    private static ContentValues log(long timestamp) {
+        ContentValues log = new ContentValues();
+        log.put(DatabaseContract.Log.COLUMN_NAME_USERID, 1);
+        log.put(DatabaseContract.Log.COLUMN_NAME_LOCKMAC, LOCK_MAC);
+        log.put(DatabaseContract.Log.COLUMN_NAME_LOCKSTATE, true);
+        log.put(DatabaseContract.Log.COLUMN_NAME_TIMESTAMP, timestamp);
+        return log;
+    }
+
+    private int countLogs() {
+        Cursor cursor = mResolver.query(DatabaseContract.Log.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
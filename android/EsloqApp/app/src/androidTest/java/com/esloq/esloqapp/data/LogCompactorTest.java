@@ -0,0 +1,152 @@
+package com.esloq.esloqapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests {@link LogCompactor} on a database that is created by {@link DatabaseHelper}.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class LogCompactorTest {
+
+    private static final String LOCK_MAC = "AA:BB:CC:DD:EE:FF";
+    private static final String OTHER_LOCK_MAC = "11:22:33:44:55:66";
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    /**
+     * 2016-07-20 00:00:00 UTC, in seconds since the epoch.
+     */
+    private static final long DAY_START = 1468972800L;
+    private static final long DAY = DAY_START / SECONDS_PER_DAY;
+
+    private RenamingDelegatingContext mContext;
+    private DatabaseHelper mDatabaseHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "compactor.");
+        mContext.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+        mDatabaseHelper = new DatabaseHelper(mContext);
+        mDb = mDatabaseHelper.getWritableDatabase();
+        insertLock(LOCK_MAC);
+        insertLock(OTHER_LOCK_MAC);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabaseHelper.close();
+        mContext.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void testCompact_replacesOldLogsByCounts() {
+        insertLog(LOCK_MAC, 1, true, DAY_START + 60);
+        insertLog(LOCK_MAC, 1, false, DAY_START + 120);
+        insertLog(LOCK_MAC, 2, true, DAY_START + 180);
+        insertLog(LOCK_MAC, 1, true, DAY_START + SECONDS_PER_DAY + 60);
+        insertLog(LOCK_MAC, 1, true, DAY_START + 2 * SECONDS_PER_DAY);
+
+        LogCompactor compactor = new LogCompactor(mDb, UTC);
+        assertEquals(4, compactor.compact(DAY_START + 2 * SECONDS_PER_DAY, 100));
+
+        assertEquals(1, count("log"));
+        assertEquals(Arrays.asList(LOCK_MAC), Arrays.asList(
+                compactor.getChangedLocks().toArray()));
+        assertRollup(LOCK_MAC, 1, DAY, 1, 1);
+        assertRollup(LOCK_MAC, 2, DAY, 1, 0);
+        assertRollup(LOCK_MAC, 1, DAY + 1, 1, 0);
+    }
+
+    @Test
+    public void testCompact_inBatches_addsToCounts() {
+        for (int i = 0; i < 10; i++) {
+            // Several logs at the same time, so that batches end within a second.
+            insertLog(i % 2 == 0 ? LOCK_MAC : OTHER_LOCK_MAC, 1, i % 3 == 0, DAY_START + i / 4);
+        }
+
+        LogCompactor compactor = new LogCompactor(mDb, UTC);
+        assertEquals(3, compactor.compact(DAY_START + SECONDS_PER_DAY, 3));
+        assertEquals(3, compactor.compact(DAY_START + SECONDS_PER_DAY, 3));
+        assertEquals(3, compactor.compact(DAY_START + SECONDS_PER_DAY, 3));
+        assertEquals(1, compactor.compact(DAY_START + SECONDS_PER_DAY, 3));
+        assertEquals(0, compactor.compact(DAY_START + SECONDS_PER_DAY, 3));
+
+        assertEquals(0, count("log"));
+        // Logs 0, 2, 4, 6 and 8 on the first lock, of which 0 and 6 locked it.
+        assertRollup(LOCK_MAC, 1, DAY, 2, 3);
+        assertRollup(OTHER_LOCK_MAC, 1, DAY, 2, 3);
+    }
+
+    @Test
+    public void testRemoveLock_removesCounts() {
+        insertLog(LOCK_MAC, 1, true, DAY_START);
+        new LogCompactor(mDb, UTC).compact(DAY_START + SECONDS_PER_DAY, 100);
+
+        mDb.delete(DatabaseContract.Lock.TABLE_NAME, null, null);
+        assertEquals(0, count("log_rollup"));
+    }
+
+    private void insertLock(String mac) {
+        ContentValues lock = new ContentValues();
+        lock.put(DatabaseContract.Lock.COLUMN_NAME_MAC, mac);
+        mDb.insert(DatabaseContract.Lock.TABLE_NAME, null, lock);
+    }
+
+    private void insertLog(String lockMac, int userId, boolean locked, long timestamp) {
+        ContentValues log = new ContentValues();
+        log.put(DatabaseContract.Log.COLUMN_NAME_LOCKMAC, lockMac);
+        log.put(DatabaseContract.Log.COLUMN_NAME_USERID, userId);
+        log.put(DatabaseContract.Log.COLUMN_NAME_LOCKSTATE, locked ? 1 : 0);
+        log.put(DatabaseContract.Log.COLUMN_NAME_TIMESTAMP, timestamp);
+        mDb.insert(DatabaseContract.Log.TABLE_NAME, null, log);
+    }
+
+    private void assertRollup(String lockMac, int userId, long day, int lockedCount,
+                              int unlockedCount) {
+        Cursor cursor = mDb.query(DatabaseContract.LogRollup.TABLE_NAME, new String[] {
+                        DatabaseContract.LogRollup.COLUMN_NAME_LOCKED_COUNT,
+                        DatabaseContract.LogRollup.COLUMN_NAME_UNLOCKED_COUNT},
+                DatabaseContract.LogRollup.COLUMN_NAME_LOCKMAC + " = ? AND " +
+                        DatabaseContract.LogRollup.COLUMN_NAME_USERID + " = ? AND " +
+                        DatabaseContract.LogRollup.COLUMN_NAME_DAY + " = ?",
+                new String[] {lockMac, String.valueOf(userId), String.valueOf(day)}, null, null,
+                null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(lockedCount, cursor.getInt(0));
+            assertEquals(unlockedCount, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long count(String table) {
+        Cursor cursor = mDb.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
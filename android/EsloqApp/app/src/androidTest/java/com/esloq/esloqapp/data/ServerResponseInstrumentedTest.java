@@ -0,0 +1,143 @@
+package com.esloq.esloqapp.data;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.JsonReader;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the decoding of the server's responses by {@link ServerResponse} and
+ * {@link ResponseParsers}, which use the <code>JsonReader</code> of the platform and therefore
+ * run on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ServerResponseInstrumentedTest {
+
+    private static final String USER_DATA = "{\"success\": true, \"userId\": 7, \"locks\": [{"
+            + "\"lockMac\": \"aa:bb:cc:dd:ee:ff\", \"name\": \"Front door\", "
+            + "\"lockClockwise\": true, \"unknown\": {\"nested\": [1, 2]}, "
+            + "\"users\": [{\"userId\": \"7\", \"name\": \"Me\", \"validated\": true, "
+            + "\"isAdmin\": true}, {\"userId\": \"8\", \"name\": \"You\", "
+            + "\"validated\": false, \"isAdmin\": false}], "
+            + "\"logs\": [{\"userId\": 8, \"lockState\": false, \"timestamp\": 1469000000000}]"
+            + "}]}";
+
+    @Test
+    public void testUserData() throws IOException {
+        RecordingHandler handler = new RecordingHandler();
+        ServerResponse<Void> response = read(USER_DATA, ResponseParsers.userData(handler));
+
+        assertTrue(response.isSuccess());
+        assertEquals(Arrays.asList("userId 7", "lock aa:bb:cc:dd:ee:ff Front door true",
+                "user aa:bb:cc:dd:ee:ff 7 Me true true", "user aa:bb:cc:dd:ee:ff 8 You false false",
+                "log aa:bb:cc:dd:ee:ff 8 false 1469000000000", "finished"), handler.mRows);
+    }
+
+    @Test(expected = IOException.class)
+    public void testUserData_rowsBeforeLockMac() throws IOException {
+        read("{\"success\": true, \"userId\": 7, \"locks\": [{\"logs\": [], "
+                + "\"lockMac\": \"aa:bb:cc:dd:ee:ff\"}]}", ResponseParsers.userData(
+                new RecordingHandler()));
+    }
+
+    @Test
+    public void testError() throws IOException {
+        RecordingHandler handler = new RecordingHandler();
+        ServerResponse<Void> response = read("{\"success\": false, \"error\": "
+                + "{\"message\": \"Invalid token.\", \"code\": 1}}",
+                ResponseParsers.userData(handler));
+
+        assertFalse(response.isSuccess());
+        assertEquals("Invalid token.", response.getErrorMessage());
+        assertTrue(handler.mRows.isEmpty());
+    }
+
+    @Test
+    public void testSessionKey() throws IOException {
+        ServerResponse<SessionKey> response = read("{\"success\": true, "
+                + "\"sessionKey\": \"AQID\", \"lockTicket\": \"BAUG\"}",
+                ResponseParsers.sessionKey());
+
+        assertArrayEquals(new byte[]{1, 2, 3}, response.getResult().getSessionKey());
+        assertArrayEquals(new byte[]{4, 5, 6}, response.getResult().getLockTicket());
+    }
+
+    @Test
+    public void testAddedUser() throws IOException {
+        ServerResponse<UserData.User> response = read("{\"success\": true, \"user\": "
+                + "{\"id\": 9, \"firstName\": \"Ann\", \"validated\": true}}",
+                ResponseParsers.addedUser(true));
+
+        assertEquals(9, response.getResult().getId());
+        assertEquals("Ann", response.getResult().getName());
+        assertTrue(response.getResult().isAdmin());
+    }
+
+    @Test
+    public void testNone_skipsResult() throws IOException {
+        ServerResponse<Void> response = read("{\"success\": true, \"lock\": {\"id\": 1}}",
+                ResponseParsers.none());
+
+        assertTrue(response.isSuccess());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingField_fails() throws IOException {
+        read("{\"success\": true, \"sessionKey\": \"AQID\"}", ResponseParsers.sessionKey());
+    }
+
+    /**
+     * Handler that records the rows it receives.
+     */
+    private static class RecordingHandler implements UserData.Handler {
+
+        final List<String> mRows = new ArrayList<>();
+
+        @Override
+        public void onUserId(int userId) {
+            mRows.add("userId " + userId);
+        }
+
+        @Override
+        public void onLock(UserData.Lock lock) {
+            mRows.add("lock " + lock.getMac() + " " + lock.getName() + " "
+                    + lock.locksClockwise());
+        }
+
+        @Override
+        public void onUser(String lockMac, UserData.User user) {
+            mRows.add("user " + lockMac + " " + user.getId() + " " + user.getName() + " "
+                    + user.isValidated() + " " + user.isAdmin());
+        }
+
+        @Override
+        public void onLog(String lockMac, UserData.Log log) {
+            mRows.add("log " + lockMac + " " + log.getUserId() + " " + log.isLocked() + " "
+                    + log.getTimestamp());
+        }
+
+        @Override
+        public void onFinished() {
+            mRows.add("finished");
+        }
+    }
+
+    private static <T> ServerResponse<T> read(String json, ResponseParser<T> parser)
+            throws IOException {
+        return ServerResponse.read(new JsonReader(new StringReader(json)), parser);
+    }
+}
@@ -0,0 +1,190 @@
+package com.esloq.esloqapp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Cryptographic context of a single session with an esloq. A session owns the session key and
+ * the lock ticket that were received from the server, and the window of used session nonces. Every
+ * connection with an esloq uses its own session, so that sessions with several locks can run at
+ * the same time.
+ */
+public class CryptoSession {
+
+    /**
+     * The ticket received from server needed to authenticate user to the device.
+     */
+    private final byte[] lockTicket;
+
+    /**
+     * The key for this session, received from server.
+     */
+    private final byte[] sessionKey;
+
+    /**
+     * The session key in a direct buffer, used by the in place encrypt and decrypt methods.
+     */
+    private final ByteBuffer sessionKeyBuffer;
+
+    /**
+     * Encrypts and decrypts the messages of this session.
+     */
+    private final SecretBox secretBox;
+
+    /**
+     * The nonces that were used in this session, in both directions.
+     */
+    private final NonceWindow nonceWindow = new NonceWindow();
+
+    /**
+     * Construct a new session. The session nonce starts at zero.
+     *
+     * @param sessionKey The session key.
+     * @param lockTicket The lock ticket that contains the session key.
+     */
+    public CryptoSession(byte[] sessionKey, byte[] lockTicket) {
+        this(sessionKey, lockTicket, NativeSecretBox.INSTANCE);
+    }
+
+    /**
+     * Construct a new session that uses the given secretbox implementation. The session nonce
+     * starts at zero.
+     *
+     * @param sessionKey The session key.
+     * @param lockTicket The lock ticket that contains the session key.
+     * @param secretBox Encrypts and decrypts the messages of the session.
+     */
+    public CryptoSession(byte[] sessionKey, byte[] lockTicket, SecretBox secretBox) {
+        if (sessionKey.length != Cryptography.KEY_LENGTH) {
+            throw new IllegalArgumentException("Key length expected: " + Cryptography.KEY_LENGTH
+                    + ", actual: " + sessionKey.length);
+        }
+        if (lockTicket.length != Cryptography.TICKET_LENGTH) {
+            throw new IllegalArgumentException("Ticket length expected: " +
+                    Cryptography.TICKET_LENGTH + ", actual: " + lockTicket.length);
+        }
+        this.sessionKey = sessionKey.clone();
+        this.lockTicket = lockTicket.clone();
+        this.secretBox = secretBox;
+        sessionKeyBuffer = ByteBuffer.allocateDirect(Cryptography.KEY_LENGTH);
+        sessionKeyBuffer.put(sessionKey);
+    }
+
+    /**
+     * Get the lock ticket.
+     *
+     * @return The lock ticket.
+     */
+    public byte[] getLockTicket() {
+        return lockTicket.clone();
+    }
+
+    /**
+     * Return the next nonce that will be used for encrypt.
+     *
+     * @return Next session nonce that will be used to encrypt data.
+     */
+    public synchronized byte[] getNextSessionNonce() {
+        return nonceWindow.peekNext();
+    }
+
+    /**
+     * Returns mac | ciphertext, encrypted with the next session nonce.
+     *
+     * @param plaintext Bytes to be encrypted.
+     * @return Authenticator followed by ciphertext if successful, null otherwise.
+     */
+    public synchronized byte[] authEncrypt(byte[] plaintext) {
+        return secretBox.encrypt(plaintext, nonceWindow.next(), sessionKey);
+    }
+
+    /**
+     * Returns plaintext, decrypted with the given nonce. The nonce is marked as used once the
+     * ciphertext has been authenticated.
+     *
+     * @param nonce The nonce that was received with the ciphertext.
+     * @param ciphertext Bytes to be decrypted.
+     * @return The plaintext if successful, null otherwise.
+     * @throws IllegalArgumentException If the nonce was already used or is too old.
+     */
+    public synchronized byte[] authDecrypt(byte[] nonce, byte[] ciphertext)
+            throws IllegalArgumentException {
+        ByteBuffer nonceBuffer = ByteBuffer.wrap(nonce);
+        checkNonce(nonceBuffer, 0);
+        byte[] plaintext = secretBox.decrypt(ciphertext, nonce, sessionKey);
+        if (plaintext != null) {
+            nonceWindow.accept(nonceBuffer, 0);
+        }
+        return plaintext;
+    }
+
+    /**
+     * Encrypts a message in place, without allocating. The frame consists of the nonce, the
+     * authenticator and the message, i.e. the message starts at
+     * <code>offset + Cryptography.FRAME_HEADER_LENGTH</code>. The next session nonce and the
+     * authenticator are written to the frame and the message is replaced by the ciphertext.
+     *
+     * @param frame Direct buffer that contains the frame.
+     * @param offset Offset of the frame in the buffer.
+     * @param length Length of the message.
+     * @return The length of the ciphertext if successful, -1 otherwise.
+     */
+    public synchronized int authEncrypt(ByteBuffer frame, int offset, int length) {
+        byte[] nonce = nonceWindow.next();
+        for (int i = 0; i < Cryptography.NONCE_LENGTH; i++) {
+            frame.put(offset + i, nonce[i]);
+        }
+        return secretBox.encryptInPlace(frame, offset, length, sessionKeyBuffer);
+    }
+
+    /**
+     * Decrypts a frame in place, without allocating. The frame consists of the nonce, the
+     * authenticator and the ciphertext. The ciphertext is replaced by the plaintext, which starts
+     * at <code>offset + Cryptography.FRAME_HEADER_LENGTH</code>. The nonce of the frame is marked
+     * as used once the frame has been authenticated. Frames may arrive out of order, as long as
+     * their nonce is within the replay window.
+     *
+     * @param frame Direct buffer that contains the frame.
+     * @param offset Offset of the frame in the buffer.
+     * @param length Length of the ciphertext.
+     * @return The length of the plaintext if successful, -1 otherwise.
+     * @throws IllegalArgumentException If the nonce was already used or is too old.
+     */
+    public synchronized int authDecrypt(ByteBuffer frame, int offset, int length)
+            throws IllegalArgumentException {
+        checkNonce(frame, offset);
+        int result = secretBox.decryptInPlace(frame, offset, length, sessionKeyBuffer);
+        if (result >= 0) {
+            nonceWindow.accept(frame, offset);
+        }
+        return result;
+    }
+
+    /**
+     * Overwrite the key material of this session, once the session is no longer used.
+     */
+    public synchronized void destroy() {
+        Arrays.fill(sessionKey, (byte) 0);
+        Arrays.fill(lockTicket, (byte) 0);
+        for (int i = 0; i < Cryptography.KEY_LENGTH; i++) {
+            sessionKeyBuffer.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Checks that a received nonce can be used.
+     *
+     * @param buffer Buffer that contains the nonce.
+     * @param offset Offset of the nonce in the buffer.
+     * @throws IllegalArgumentException If the nonce was already used or is too old.
+     */
+    private void checkNonce(ByteBuffer buffer, int offset) throws IllegalArgumentException {
+        if (buffer.limit() - offset < Cryptography.NONCE_LENGTH) {
+            throw new IllegalArgumentException("Nonce length expected: " +
+                    Cryptography.NONCE_LENGTH + ", actual: " + (buffer.limit() - offset));
+        }
+        if (!nonceWindow.isFresh(buffer, offset)) {
+            throw new IllegalArgumentException("Session nonce is not valid.");
+        }
+    }
+}
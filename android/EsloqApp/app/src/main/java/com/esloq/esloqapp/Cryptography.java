@@ -1,12 +1,10 @@
 package com.esloq.esloqapp;
 
-import com.esloq.esloqapp.util.Tools;
-
-import java.math.BigInteger;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
- * Class containing the cryptographic functions needed to execute the protocol.
+ * Class containing the cryptographic functions needed to execute the protocol. The state of a
+ * session with an esloq is kept in a {@link CryptoSession}.
  */
 public class Cryptography {
 
@@ -26,121 +24,20 @@ public class Cryptography {
      */
     public static final int MAC_LENGTH = 16;
 
-    private static final int TICKET_LENGTH = 72;
-    private static final int KEY_LENGTH = 32;
-
-    /**
-     * The ticket received from server needed to authenticate user to the device.
-     */
-    private static byte[] lockTicket;
-
-    /**
-     * The key for this session, received from server.
-     */
-    private static byte[] sessionKey;
-
-    /**
-     * Last used session nonce.
-     */
-    private static byte[] sessionNonce = new byte[NONCE_LENGTH];
-
-    /**
-     * Get the lock ticket.
-     *
-     * @return The lock ticket.
-     */
-    public static byte[] getLockTicket() {
-        return lockTicket;
-    }
-
     /**
-     * Set the lock ticket.
-     *
-     * @param ticket New lock ticket.
+     * Length of the lock ticket: the server's nonce followed by the encrypted session key.
      */
-    public static void setLockTicket(byte[] ticket) {
-        if (ticket.length != TICKET_LENGTH) {
-            throw new IllegalArgumentException("Ticket length expected: " + TICKET_LENGTH + ", " +
-                    "actual: " + ticket.length);
-        }
-        lockTicket = ticket;
-    }
+    public static final int TICKET_LENGTH = 72;
 
     /**
-     * Return the next nonce that will be used for encrypt/decrypt.
-     *
-     * @return Next session nonce that will be used to encrypt data.
+     * Length of the session key.
      */
-    public static byte[] getNextSessionNonce() {
-        byte[] nextSessionNonce = sessionNonce.clone();
-        Tools.incrementByteArray(nextSessionNonce);
-        return nextSessionNonce;
-    }
+    public static final int KEY_LENGTH = 32;
 
     /**
-     * Set the new session nonce if it is a valid nonce i.e. larger than the current nonce.
-     *
-     * @param nonce New session nonce.
-     * @throws IllegalArgumentException If the nonce is not greater than the last used nonce with
-     * the same key.
+     * Length of the header of an encrypted frame: the nonce followed by the authenticator.
      */
-    public static void setSessionNonce(byte[] nonce) throws IllegalArgumentException {
-        if(isValidSessionNonce(nonce)) {
-            sessionNonce = nonce;
-        }
-        else {
-            throw new IllegalArgumentException("Session nonce is not valid.");
-        }
-    }
-
-    /**
-     * Set the new session key and full <code>sessionNonce</code> with zeros.
-     *
-     * @param key New session key.
-     */
-    public static void setSessionKey(byte[] key){
-        if (key.length != KEY_LENGTH) {
-            throw new IllegalArgumentException("Key length expected: " + KEY_LENGTH + ", " +
-                    "actual: " + key.length);
-        }
-        sessionKey = key;
-        Arrays.fill(sessionNonce, (byte) 0);
-    }
-
-    /**
-     * Returns mac | ciphertext.
-     *
-     * @param plaintext Bytes to be encrypted.
-     * @return Authenticator followed by ciphertext if successful, null otherwise.
-     */
-    public static byte[] authEncrypt(byte[] plaintext) {
-        Tools.incrementByteArray(sessionNonce);
-        return encrypt(plaintext, sessionNonce, sessionKey);
-    }
-
-    /**
-     * Returns plaintext.
-     *
-     * @param ciphertext Bytes to be decrypted.
-     * @return The plaintext if successful, null otherwise.
-     */
-    public static byte[] authDecrypt(byte[] ciphertext) {
-        return decrypt(ciphertext, sessionNonce, sessionKey); // convert errors (return null)
-    }
-
-    /**
-     * Return true if nonce is greater than latest session nonce, false otherwise.
-     *
-     * @param nonce Bytes to be check if they are valid.
-     * @return True if nonce is valid, false otherwise.
-     */
-    private static boolean isValidSessionNonce(byte[] nonce) {
-        if (nonce.length != NONCE_LENGTH) {
-            throw new IllegalArgumentException("Nonce length expected: " + NONCE_LENGTH + ", " +
-                    "actual: " + nonce.length);
-        }
-        return new BigInteger(sessionNonce).compareTo(new BigInteger(nonce)) == -1;
-    }
+    public static final int FRAME_HEADER_LENGTH = NONCE_LENGTH + MAC_LENGTH;
 
     /**
      * JNI wrapper for the encrypt method.
@@ -150,7 +47,7 @@ public class Cryptography {
      * @param key Key to be used for the encryption.
      * @return Message encrypted with key and nonce.
      */
-    private native static byte[] encrypt(byte[] message, byte[] nonce, byte[] key);
+    native static byte[] encrypt(byte[] message, byte[] nonce, byte[] key);
 
     /**
      * JNI wrapper for the decrypt method.
@@ -160,7 +57,33 @@ public class Cryptography {
      * @param key Key to be used for the decryption.
      * @return Ciphertext decrypted with key and nonce.
      */
-    private native static byte[] decrypt(byte[] ciphertext, byte[] nonce, byte[] key);
+    native static byte[] decrypt(byte[] ciphertext, byte[] nonce, byte[] key);
+
+    /**
+     * JNI wrapper for the in place encrypt method. The frame consists of the nonce, the
+     * authenticator and the message. The message is replaced by the ciphertext and the
+     * authenticator is set. No Java objects are allocated.
+     *
+     * @param frame Direct buffer that contains the frame.
+     * @param offset Offset of the frame in the buffer.
+     * @param length Length of the message.
+     * @param key Direct buffer that contains the key.
+     * @return The length of the ciphertext if successful, -1 otherwise.
+     */
+    native static int encryptInPlace(ByteBuffer frame, int offset, int length, ByteBuffer key);
+
+    /**
+     * JNI wrapper for the in place decrypt method. The frame consists of the nonce, the
+     * authenticator and the ciphertext. The ciphertext is replaced by the plaintext if the
+     * authenticator is valid. No Java objects are allocated.
+     *
+     * @param frame Direct buffer that contains the frame.
+     * @param offset Offset of the frame in the buffer.
+     * @param length Length of the ciphertext.
+     * @param key Direct buffer that contains the key.
+     * @return The length of the plaintext if successful, -1 otherwise.
+     */
+    native static int decryptInPlace(ByteBuffer frame, int offset, int length, ByteBuffer key);
 
     /**
      * Load the crypto NaCl JNI library.
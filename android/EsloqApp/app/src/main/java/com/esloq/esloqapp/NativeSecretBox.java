@@ -0,0 +1,35 @@
+package com.esloq.esloqapp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Secretbox backed by the native library. The library is only loaded when the first message is
+ * encrypted or decrypted, so that sessions can be created where the library is not available.
+ */
+class NativeSecretBox implements SecretBox {
+
+    static final NativeSecretBox INSTANCE = new NativeSecretBox();
+
+    private NativeSecretBox() {
+    }
+
+    @Override
+    public byte[] encrypt(byte[] message, byte[] nonce, byte[] key) {
+        return Cryptography.encrypt(message, nonce, key);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext, byte[] nonce, byte[] key) {
+        return Cryptography.decrypt(ciphertext, nonce, key);
+    }
+
+    @Override
+    public int encryptInPlace(ByteBuffer frame, int offset, int length, ByteBuffer key) {
+        return Cryptography.encryptInPlace(frame, offset, length, key);
+    }
+
+    @Override
+    public int decryptInPlace(ByteBuffer frame, int offset, int length, ByteBuffer key) {
+        return Cryptography.decryptInPlace(frame, offset, length, key);
+    }
+}
@@ -0,0 +1,125 @@
+package com.esloq.esloqapp;
+
+import com.esloq.esloqapp.util.Tools;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sliding window of the nonces that were used in a session, as used by IPsec and DTLS for replay
+ * protection. Nonces are unsigned big endian counters, the same as on the esloq. The window keeps
+ * the highest nonce that was used and a bitmap of the <code>SIZE</code> nonces below it, so that a
+ * frame that arrives late is still accepted once, while a replayed frame is rejected.
+ * <p/>
+ * The nonces of outgoing frames are taken from the same window, so that a frame that is reflected
+ * back to the app is rejected as well.
+ * <p/>
+ * This class is not thread safe.
+ */
+class NonceWindow {
+
+    /**
+     * Number of nonces, up to and including the highest nonce, that are tracked.
+     */
+    static final int SIZE = Long.SIZE;
+
+    /**
+     * Highest nonce that was used.
+     */
+    private final byte[] mHighestNonce = new byte[Cryptography.NONCE_LENGTH];
+
+    /**
+     * Bit i is set if the nonce <code>mHighestNonce - i</code> was used. Nonce zero is never used
+     * for a frame, it is marked as used from the start.
+     */
+    private long mBitmap = 1;
+
+    /**
+     * Returns the nonce that follows the highest nonce, without using it.
+     *
+     * @return A new array that contains the next nonce.
+     */
+    byte[] peekNext() {
+        byte[] nonce = mHighestNonce.clone();
+        Tools.incrementByteArray(nonce);
+        return nonce;
+    }
+
+    /**
+     * Uses the nonce that follows the highest nonce, for an outgoing frame.
+     *
+     * @return The next nonce. The array is owned by the window and only valid until the window
+     * changes.
+     */
+    byte[] next() {
+        Tools.incrementByteArray(mHighestNonce);
+        mBitmap = (mBitmap << 1) | 1;
+        return mHighestNonce;
+    }
+
+    /**
+     * Returns whether a nonce has not been used and is not too old to be tracked by the window.
+     *
+     * @param buffer Buffer that contains the nonce.
+     * @param offset Offset of the nonce in the buffer.
+     * @return True if the nonce can be used, false otherwise.
+     */
+    boolean isFresh(ByteBuffer buffer, int offset) {
+        int distance = distance(buffer, offset);
+        if (distance > 0) {
+            return true;
+        }
+        return distance > -SIZE && (mBitmap & (1L << -distance)) == 0;
+    }
+
+    /**
+     * Marks a nonce as used. The nonce must be fresh, see {@link #isFresh(ByteBuffer, int)}. A
+     * nonce above the highest nonce becomes the highest nonce and slides the window.
+     *
+     * @param buffer Buffer that contains the nonce.
+     * @param offset Offset of the nonce in the buffer.
+     */
+    void accept(ByteBuffer buffer, int offset) {
+        int distance = distance(buffer, offset);
+        if (distance > 0) {
+            mBitmap = distance >= SIZE ? 1 : (mBitmap << distance) | 1;
+            for (int i = 0; i < Cryptography.NONCE_LENGTH; i++) {
+                mHighestNonce[i] = buffer.get(offset + i);
+            }
+        } else {
+            mBitmap |= 1L << -distance;
+        }
+    }
+
+    /**
+     * Computes the difference between a nonce and the highest nonce, without allocating. The
+     * difference is limited to <code>[-SIZE, SIZE]</code>, a nonce that is further away than the
+     * size of the window is reported at the edge.
+     *
+     * @param buffer Buffer that contains the nonce.
+     * @param offset Offset of the nonce in the buffer.
+     * @return The nonce minus the highest nonce, limited to the size of the window.
+     */
+    private int distance(ByteBuffer buffer, int offset) {
+        // Subtract byte by byte, the difference is small if all but the last byte of the result
+        // are zero (positive) or 0xFF (negative).
+        int borrow = 0;
+        int lastByte = 0;
+        boolean upperZero = true;
+        boolean upperOnes = true;
+        for (int i = Cryptography.NONCE_LENGTH - 1; i >= 0; i--) {
+            int difference = (buffer.get(offset + i) & 0xFF) - (mHighestNonce[i] & 0xFF) - borrow;
+            borrow = difference < 0 ? 1 : 0;
+            difference &= 0xFF;
+            if (i == Cryptography.NONCE_LENGTH - 1) {
+                lastByte = difference;
+            } else {
+                upperZero &= difference == 0;
+                upperOnes &= difference == 0xFF;
+            }
+        }
+        if (borrow == 0) {
+            return upperZero ? Math.min(lastByte, SIZE) : SIZE;
+        }
+        return upperOnes ? Math.max(lastByte - 0x100, -SIZE) : -SIZE;
+    }
+}
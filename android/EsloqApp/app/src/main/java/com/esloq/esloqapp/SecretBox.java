@@ -0,0 +1,54 @@
+package com.esloq.esloqapp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Authenticated encryption with the NaCl secretbox construction (XSalsa20 and Poly1305), as used
+ * by the esloq. The app uses the native implementation, see {@link Cryptography}.
+ */
+public interface SecretBox {
+
+    /**
+     * Returns mac | ciphertext.
+     *
+     * @param message Bytes to be encrypted.
+     * @param nonce The nonce.
+     * @param key The key.
+     * @return Authenticator followed by ciphertext if successful, null otherwise.
+     */
+    byte[] encrypt(byte[] message, byte[] nonce, byte[] key);
+
+    /**
+     * Returns plaintext.
+     *
+     * @param ciphertext Authenticator followed by ciphertext.
+     * @param nonce The nonce.
+     * @param key The key.
+     * @return The plaintext if successful, null otherwise.
+     */
+    byte[] decrypt(byte[] ciphertext, byte[] nonce, byte[] key);
+
+    /**
+     * Encrypts a message in place. The frame consists of the nonce, the authenticator and the
+     * message.
+     *
+     * @param frame Direct buffer that contains the frame.
+     * @param offset Offset of the frame in the buffer.
+     * @param length Length of the message.
+     * @param key Direct buffer that contains the key.
+     * @return The length of the ciphertext if successful, -1 otherwise.
+     */
+    int encryptInPlace(ByteBuffer frame, int offset, int length, ByteBuffer key);
+
+    /**
+     * Decrypts a frame in place. The frame consists of the nonce, the authenticator and the
+     * ciphertext.
+     *
+     * @param frame Direct buffer that contains the frame.
+     * @param offset Offset of the frame in the buffer.
+     * @param length Length of the ciphertext.
+     * @param key Direct buffer that contains the key.
+     * @return The length of the plaintext if successful, -1 otherwise.
+     */
+    int decryptInPlace(ByteBuffer frame, int offset, int length, ByteBuffer key);
+}
@@ -3,17 +3,35 @@ package com.esloq.esloqapp.cursorrecycleradapter;
 import android.database.Cursor;
 import android.support.v7.widget.RecyclerView;
 
+import com.esloq.esloqapp.util.RowDiff;
+
 /**
  * Adapter class that is responsible for selecting what data to display in each ViewHolder of the
  * RecyclerView.
+ * <p/>
+ * The rows have stable ids. When the cursor is changed, the rows of the new cursor are compared
+ * with those of the old cursor, and only the rows that were inserted, removed or changed are
+ * updated.
  */
 public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder> extends RecyclerView.Adapter<VH> {
 
+    private static final long[] NO_ROWS = new long[0];
+
     /**
      * Cursor that contains data requested from the repository.
      */
     private Cursor mCursor;
 
+    /**
+     * The ids and content hashes of the rows of the cursor.
+     */
+    private long[] mRowIds = NO_ROWS;
+    private long[] mRowHashes = NO_ROWS;
+
+    public CursorRecyclerAdapter() {
+        setHasStableIds(true);
+    }
+
     @Override
     public void onBindViewHolder(VH holder, int position) {
         if (mCursor == null) {
@@ -32,11 +50,24 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
      */
     public abstract void onBindViewHolder(VH holder);
 
+    /**
+     * Returns the stable id of the row at the position of a cursor.
+     *
+     * @param cursor The cursor, moved to the row.
+     * @return The id of the row.
+     */
+    protected abstract long getRowId(Cursor cursor);
+
     @Override
     public int getItemCount() {
         return (mCursor == null) ? 0 : mCursor.getCount();
     }
 
+    @Override
+    public long getItemId(int position) {
+        return mRowIds[position];
+    }
+
     /**
      * Get the Cursor object containing repository data.
      */
@@ -45,7 +76,7 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
     }
 
     /**
-     * Swap this adapter's cursor and return the old one.
+     * Swap this adapter's cursor and return the old one. All rows are updated immediately.
      *
      * @param cursor New cursor for this adapter.
      * @return The old cursor of this adapter.
@@ -53,20 +84,80 @@ public abstract class CursorRecyclerAdapter<VH extends RecyclerView.ViewHolder>
     public Cursor swapCursor(Cursor cursor) {
         final Cursor oldCursor = mCursor;
         mCursor = cursor;
+        mRowIds = getRowIds(cursor);
+        mRowHashes = getRowHashes(cursor);
         notifyDataSetChanged();
 //            mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
         return oldCursor;
     }
 
     /**
-     * Set this adaptor's cursor to the new cursor and close the old one.
+     * Set this adaptor's cursor to the new cursor and close the old one. The rows of the new
+     * cursor are compared with those of the old cursor and only the rows that changed are
+     * updated.
+     * <p/>
+     * The rows are read and compared before this method returns, because the loader of the old
+     * cursor may close it as soon as the new one is delivered, after which it cannot be bound.
      *
      * @param cursor New cursor for this adapter.
      */
     public void changeCursor(Cursor cursor) {
-        Cursor old = swapCursor(cursor);
-        if (old != null) {
+        long[] rowIds = getRowIds(cursor);
+        long[] rowHashes = getRowHashes(cursor);
+        RowDiff diff = RowDiff.compute(mRowIds, mRowHashes, rowIds, rowHashes);
+        Cursor old = mCursor;
+        mCursor = cursor;
+        mRowIds = rowIds;
+        mRowHashes = rowHashes;
+        diff.dispatch(new RowDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                notifyItemRangeChanged(position, count);
+            }
+        });
+        if (old != null && old != cursor) {
             old.close();
         }
     }
+
+    private long[] getRowIds(Cursor cursor) {
+        if (cursor == null) {
+            return NO_ROWS;
+        }
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; i < ids.length && cursor.moveToPosition(i); i++) {
+            ids[i] = getRowId(cursor);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns hashes of the values of all columns of the rows of a cursor.
+     */
+    private static long[] getRowHashes(Cursor cursor) {
+        if (cursor == null) {
+            return NO_ROWS;
+        }
+        long[] hashes = new long[cursor.getCount()];
+        int columnCount = cursor.getColumnCount();
+        for (int i = 0; i < hashes.length && cursor.moveToPosition(i); i++) {
+            long hash = 1;
+            for (int column = 0; column < columnCount; column++) {
+                String value = cursor.getString(column);
+                hash = 31 * hash + (value == null ? 0 : value.hashCode());
+            }
+            hashes[i] = hash;
+        }
+        return hashes;
+    }
 }
@@ -0,0 +1,184 @@
+package com.esloq.esloqapp.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Coalesces the change notifications of the content provider. A notification is held until no
+ * other notification arrived for <code>windowMillis</code>, but at most for
+ * <code>maxDelayMillis</code>, so that a burst of writes, e.g. during a sync, makes every screen
+ * query its data once instead of once per row.
+ * <p/>
+ * A notification of a URI also reaches the observers of its descendants, so a held notification
+ * of a descendant is dropped when its ancestor is notified, and a notification of a descendant
+ * of a held URI is dropped.
+ */
+class ChangeNotificationDispatcher {
+
+    /**
+     * Receives the notifications that are dispatched.
+     */
+    interface Sink {
+
+        /**
+         * Notifies the observers of a URI.
+         *
+         * @param uri The URI that changed.
+         */
+        void notifyChange(String uri);
+    }
+
+    /**
+     * Runs the delayed dispatches.
+     */
+    interface Scheduler {
+
+        /**
+         * Returns the current time of the scheduler.
+         *
+         * @return The time, in milliseconds.
+         */
+        long now();
+
+        /**
+         * Runs a task after a delay.
+         *
+         * @param task The task.
+         * @param delayMillis The delay, in milliseconds.
+         */
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    private final Scheduler mScheduler;
+    private final Sink mSink;
+    private final long mMaxDelayMillis;
+    private long mWindowMillis;
+
+    /**
+     * The URIs that are held, none of which is a descendant of another one.
+     */
+    private final List<String> mPendingUris = new ArrayList<>();
+
+    private long mFirstNotification;
+    private long mLastNotification;
+    private boolean mDispatchScheduled;
+
+    private final Runnable mDispatchTask = new Runnable() {
+        @Override
+        public void run() {
+            dispatchIfDue();
+        }
+    };
+
+    /**
+     * Construct a dispatcher.
+     *
+     * @param windowMillis Time without notifications after which the held notifications are
+     *                     dispatched, 0 to dispatch every notification immediately.
+     * @param maxDelayMillis Maximum time for which a notification is held.
+     * @param scheduler Runs the delayed dispatches.
+     * @param sink Receives the notifications that are dispatched.
+     */
+    ChangeNotificationDispatcher(long windowMillis, long maxDelayMillis, Scheduler scheduler,
+                                 Sink sink) {
+        mWindowMillis = windowMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mScheduler = scheduler;
+        mSink = sink;
+    }
+
+    /**
+     * Sets the time without notifications after which the held notifications are dispatched.
+     *
+     * @param windowMillis The time, in milliseconds, 0 to dispatch every notification
+     *                     immediately.
+     */
+    synchronized void setWindow(long windowMillis) {
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Holds a notification until the end of the burst it belongs to.
+     *
+     * @param uri The URI that changed.
+     */
+    void notifyChange(String uri) {
+        synchronized (this) {
+            if (mWindowMillis > 0) {
+                hold(uri);
+                return;
+            }
+        }
+        mSink.notifyChange(uri);
+    }
+
+    /**
+     * Returns the URIs that are held.
+     *
+     * @return The URIs.
+     */
+    synchronized List<String> getPendingUris() {
+        return new ArrayList<>(mPendingUris);
+    }
+
+    private void hold(String uri) {
+        long now = mScheduler.now();
+        if (mPendingUris.isEmpty()) {
+            mFirstNotification = now;
+        }
+        mLastNotification = now;
+        merge(uri);
+        if (!mDispatchScheduled) {
+            mDispatchScheduled = true;
+            mScheduler.schedule(mDispatchTask, mWindowMillis);
+        }
+    }
+
+    /**
+     * Adds a URI to the held URIs, unless one of its ancestors is held. The held descendants of
+     * the URI are dropped.
+     *
+     * @param uri The URI.
+     */
+    private void merge(String uri) {
+        Iterator<String> iterator = mPendingUris.iterator();
+        while (iterator.hasNext()) {
+            String pending = iterator.next();
+            if (isSameOrAncestor(pending, uri)) {
+                return;
+            }
+            if (isSameOrAncestor(uri, pending)) {
+                iterator.remove();
+            }
+        }
+        mPendingUris.add(uri);
+    }
+
+    /**
+     * Dispatches the held notifications if the burst ended or if they were held for the maximum
+     * delay, otherwise waits for the remaining time.
+     */
+    private void dispatchIfDue() {
+        List<String> uris;
+        synchronized (this) {
+            long due = Math.min(mLastNotification + mWindowMillis,
+                    mFirstNotification + mMaxDelayMillis);
+            long now = mScheduler.now();
+            if (now < due) {
+                mScheduler.schedule(mDispatchTask, due - now);
+                return;
+            }
+            mDispatchScheduled = false;
+            uris = new ArrayList<>(mPendingUris);
+            mPendingUris.clear();
+        }
+        for (String uri : uris) {
+            mSink.notifyChange(uri);
+        }
+    }
+
+    private static boolean isSameOrAncestor(String ancestor, String uri) {
+        return uri.equals(ancestor) || uri.startsWith(ancestor + "/");
+    }
+}
@@ -0,0 +1,115 @@
+package com.esloq.esloqapp.data;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Socket factory that delegates to the factory of an <code>SSLContext</code> and counts the
+ * sockets it creates and the handshakes that resumed a cached TLS session. The sockets are the
+ * sockets of the delegate, so the platform features that depend on the socket class keep working.
+ */
+class CountingSslSocketFactory extends SSLSocketFactory {
+
+    private final SSLSocketFactory mDelegate;
+
+    /**
+     * Number of sockets that were created.
+     */
+    private final AtomicInteger mSocketCount = new AtomicInteger();
+
+    /**
+     * Number of handshakes that resumed a session that was created before the socket.
+     */
+    private final AtomicInteger mResumedCount = new AtomicInteger();
+
+    /**
+     * Construct a new factory.
+     *
+     * @param delegate The factory that creates the sockets.
+     */
+    CountingSslSocketFactory(SSLSocketFactory delegate) {
+        mDelegate = delegate;
+    }
+
+    int getSocketCount() {
+        return mSocketCount.get();
+    }
+
+    int getResumedCount() {
+        return mResumedCount.get();
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return mDelegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return mDelegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose)
+            throws IOException {
+        return count(mDelegate.createSocket(s, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return count(mDelegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return count(mDelegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+            throws IOException {
+        return count(mDelegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return count(mDelegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                               int localPort) throws IOException {
+        return count(mDelegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    /**
+     * Counts a new socket and listens for the completion of its handshake.
+     *
+     * @param socket The socket.
+     * @return The same socket.
+     */
+    private Socket count(Socket socket) {
+        mSocketCount.incrementAndGet();
+        if (socket instanceof SSLSocket) {
+            final long createTime = System.currentTimeMillis();
+            ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                @Override
+                public void handshakeCompleted(HandshakeCompletedEvent event) {
+                    // A full handshake creates a new session, a resumed session is older than
+                    // the socket.
+                    if (event.getSession().getCreationTime() < createTime) {
+                        mResumedCount.incrementAndGet();
+                    }
+                }
+            });
+        }
+        return socket;
+    }
+}
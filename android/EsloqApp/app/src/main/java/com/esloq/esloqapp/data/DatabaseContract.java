@@ -11,6 +11,19 @@ abstract class DatabaseContract {
 
     public static final String AUTHORITY = "com.esloq.android.app.provider.lockdatacontentprovider";
 
+    /**
+     * Query parameter of a URI that limits the number of rows of a query.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Provider method that compacts the logs that are older than the time in the extras.
+     */
+    public static final String METHOD_COMPACT_LOGS = "compactLogs";
+    public static final String EXTRA_CUTOFF = "cutoff";
+    public static final String EXTRA_MAX_ROWS = "maxRows";
+    public static final String EXTRA_COMPACTED_ROWS = "compactedRows";
+
     public static abstract class Lock implements BaseColumns {
         private static final String BASE_PATH = "locks";
         public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY
@@ -54,6 +67,11 @@ abstract class DatabaseContract {
         public static final String COLUMN_NAME_LOCKMAC = "lock_mac";
         public static final String COLUMN_NAME_USERID = "user_id";
         public static final String COLUMN_NAME_ISADMIN = "is_admin";
+
+        /**
+         * Index on the user, which covers the query of the locks of the user.
+         */
+        public static final String INDEX_USERID = "lock_access_user_id";
     }
 
     public static abstract class Log implements BaseColumns {
@@ -70,6 +88,56 @@ abstract class DatabaseContract {
         public static final String COLUMN_NAME_USERID = "user_id";
         public static final String COLUMN_NAME_LOCKSTATE = "lock_state";
         public static final String COLUMN_NAME_TIMESTAMP = "timestamp";
+
+        /**
+         * Index on the lock, time and id, which covers the query of the logs of a lock from the
+         * newest to the oldest log, also when the logs are read a page at a time.
+         */
+        public static final String INDEX_LOCKMAC_TIMESTAMP = "log_lock_mac_timestamp";
+    }
+
+    /**
+     * Logs that are older than the retention window, counted per user, lock and day.
+     */
+    public static abstract class LogRollup implements BaseColumns {
+        public static final String TABLE_NAME = "log_rollup";
+        public static final String COLUMN_NAME_LOCKMAC = "lock_mac";
+        public static final String COLUMN_NAME_USERID = "user_id";
+        /**
+         * The day of the logs, in days since the epoch in the time zone of the device.
+         */
+        public static final String COLUMN_NAME_DAY = "day";
+        public static final String COLUMN_NAME_LOCKED_COUNT = "locked_count";
+        public static final String COLUMN_NAME_UNLOCKED_COUNT = "unlocked_count";
+    }
+
+    /**
+     * Requests to the server that were recorded while the user acted and are uploaded in the
+     * background, in the order of their id.
+     */
+    public static abstract class Outbox implements BaseColumns {
+        private static final String BASE_PATH = "outbox";
+        public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY
+                + "/" + BASE_PATH);
+
+        public static final String TABLE_NAME = "outbox";
+        /**
+         * Idempotency key of the request, the server handles a request with the same key once.
+         */
+        public static final String COLUMN_NAME_REQUEST_ID = "request_id";
+        public static final String COLUMN_NAME_TYPE = "type";
+        public static final String COLUMN_NAME_LOCKMAC = "lock_mac";
+        public static final String COLUMN_NAME_USERID = "user_id";
+        public static final String COLUMN_NAME_EMAIL = "email";
+        public static final String COLUMN_NAME_ISADMIN = "is_admin";
+        public static final String COLUMN_NAME_LOCKSTATE = "lock_state";
+        public static final String COLUMN_NAME_TIMESTAMP = "timestamp";
+        public static final String COLUMN_NAME_MESSAGE = "message";
+        public static final String COLUMN_NAME_ATTEMPTS = "attempts";
+        /**
+         * Time before which the request is not sent again, in milliseconds since the epoch.
+         */
+        public static final String COLUMN_NAME_NEXT_ATTEMPT = "next_attempt";
     }
 
 }
@@ -5,12 +5,20 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 /**
- * Helper class to manage the creation and versioning of the database.
+ * Helper class to manage the creation and versioning of the database. A database of an older
+ * version is upgraded one version at a time, every step keeps the data that is already stored so
+ * that the app does not need to download the data of the user again after an update.
  */
 class DatabaseHelper extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 2;
-    private static final String DATABASE_NAME = "esloq.db";
+    static final int DATABASE_VERSION = 6;
+    static final String DATABASE_NAME = "esloq.db";
+
+    /**
+     * The oldest version that is upgraded without losing data. The schema of older versions is
+     * not known, such a database is recreated.
+     */
+    static final int OLDEST_MIGRATED_VERSION = 2;
 
     private static final String SQL_CREATE_LOCK = "CREATE TABLE " + DatabaseContract.Lock.TABLE_NAME + " (" +
             DatabaseContract.Lock.COLUMN_NAME_MAC + " TEXT PRIMARY KEY," +
@@ -39,6 +47,7 @@ class DatabaseHelper extends SQLiteOpenHelper {
 
     private static final String SQL_CREATE_LOG =
             "CREATE TABLE " + DatabaseContract.Log.TABLE_NAME + " (" +
+                    DatabaseContract.Log._ID + " INTEGER PRIMARY KEY," +
                     DatabaseContract.Log.COLUMN_NAME_LOCKMAC + " TEXT," +
                     DatabaseContract.Log.COLUMN_NAME_USERID +  " INTEGER," +
                     DatabaseContract.Log.COLUMN_NAME_LOCKSTATE + " INTEGER," +
@@ -52,6 +61,60 @@ class DatabaseHelper extends SQLiteOpenHelper {
 //                    "REFERENCES " + DatabaseContract.User.TABLE_NAME + "(" +
 //                    DatabaseContract.User.COLUMN_NAME_ID+")" + ")";
 
+    private static final String SQL_CREATE_LOG_ROLLUP =
+            "CREATE TABLE " + DatabaseContract.LogRollup.TABLE_NAME + " (" +
+                    DatabaseContract.LogRollup.COLUMN_NAME_LOCKMAC + " TEXT," +
+                    DatabaseContract.LogRollup.COLUMN_NAME_USERID + " INTEGER," +
+                    DatabaseContract.LogRollup.COLUMN_NAME_DAY + " INTEGER," +
+                    DatabaseContract.LogRollup.COLUMN_NAME_LOCKED_COUNT + " INTEGER," +
+                    DatabaseContract.LogRollup.COLUMN_NAME_UNLOCKED_COUNT + " INTEGER," +
+                    "PRIMARY KEY (" + DatabaseContract.LogRollup.COLUMN_NAME_LOCKMAC + ", " +
+                    DatabaseContract.LogRollup.COLUMN_NAME_DAY + ", " +
+                    DatabaseContract.LogRollup.COLUMN_NAME_USERID + ")" +
+                    "FOREIGN KEY (" + DatabaseContract.LogRollup.COLUMN_NAME_LOCKMAC + ")" +
+                    "REFERENCES " + DatabaseContract.Lock.TABLE_NAME + "(" +
+                    DatabaseContract.Lock.COLUMN_NAME_MAC+") ON DELETE CASCADE" + ")";
+
+    private static final String SQL_CREATE_OUTBOX =
+            "CREATE TABLE " + DatabaseContract.Outbox.TABLE_NAME + " (" +
+                    DatabaseContract.Outbox._ID + " INTEGER PRIMARY KEY," +
+                    DatabaseContract.Outbox.COLUMN_NAME_REQUEST_ID + " TEXT NOT NULL UNIQUE," +
+                    DatabaseContract.Outbox.COLUMN_NAME_TYPE + " TEXT NOT NULL," +
+                    DatabaseContract.Outbox.COLUMN_NAME_LOCKMAC + " TEXT," +
+                    DatabaseContract.Outbox.COLUMN_NAME_USERID + " INTEGER," +
+                    DatabaseContract.Outbox.COLUMN_NAME_EMAIL + " TEXT," +
+                    DatabaseContract.Outbox.COLUMN_NAME_ISADMIN + " INTEGER," +
+                    DatabaseContract.Outbox.COLUMN_NAME_LOCKSTATE + " INTEGER," +
+                    DatabaseContract.Outbox.COLUMN_NAME_TIMESTAMP + " INTEGER," +
+                    DatabaseContract.Outbox.COLUMN_NAME_MESSAGE + " TEXT," +
+                    DatabaseContract.Outbox.COLUMN_NAME_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0," +
+                    DatabaseContract.Outbox.COLUMN_NAME_NEXT_ATTEMPT +
+                    " INTEGER NOT NULL DEFAULT 0)";
+
+    /**
+     * The log list filters on the lock and sorts on the time and id, the user and state are
+     * included so that the log table itself is never read.
+     */
+    private static final String SQL_CREATE_LOG_INDEX =
+            "CREATE INDEX " + DatabaseContract.Log.INDEX_LOCKMAC_TIMESTAMP + " ON " +
+                    DatabaseContract.Log.TABLE_NAME + " (" +
+                    DatabaseContract.Log.COLUMN_NAME_LOCKMAC + ", " +
+                    DatabaseContract.Log.COLUMN_NAME_TIMESTAMP + ", " +
+                    DatabaseContract.Log._ID + ", " +
+                    DatabaseContract.Log.COLUMN_NAME_USERID + ", " +
+                    DatabaseContract.Log.COLUMN_NAME_LOCKSTATE + ")";
+
+    /**
+     * The lock list filters on the user, the index is also used by the cascading delete of a
+     * user.
+     */
+    private static final String SQL_CREATE_LOCKACCESS_INDEX =
+            "CREATE INDEX " + DatabaseContract.LockAccess.INDEX_USERID + " ON " +
+                    DatabaseContract.LockAccess.TABLE_NAME + " (" +
+                    DatabaseContract.LockAccess.COLUMN_NAME_USERID + ", " +
+                    DatabaseContract.LockAccess.COLUMN_NAME_LOCKMAC + ", " +
+                    DatabaseContract.LockAccess.COLUMN_NAME_ISADMIN + ")";
+
     private static final String SQL_DELETE_LOCK =
             "DROP TABLE IF EXISTS " + DatabaseContract.Lock.TABLE_NAME;
 
@@ -64,6 +127,12 @@ class DatabaseHelper extends SQLiteOpenHelper {
     private static final String SQL_DELETE_LOG =
             "DROP TABLE IF EXISTS " + DatabaseContract.Log.TABLE_NAME;
 
+    private static final String SQL_DELETE_LOG_ROLLUP =
+            "DROP TABLE IF EXISTS " + DatabaseContract.LogRollup.TABLE_NAME;
+
+    private static final String SQL_DELETE_OUTBOX =
+            "DROP TABLE IF EXISTS " + DatabaseContract.Outbox.TABLE_NAME;
+
     public DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -79,10 +148,54 @@ class DatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(SQL_CREATE_USER);
         db.execSQL(SQL_CREATE_LOCKACCESS);
         db.execSQL(SQL_CREATE_LOG);
+        db.execSQL(SQL_CREATE_LOG_INDEX);
+        db.execSQL(SQL_CREATE_LOCKACCESS_INDEX);
+        db.execSQL(SQL_CREATE_LOG_ROLLUP);
+        db.execSQL(SQL_CREATE_OUTBOX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < OLDEST_MIGRATED_VERSION) {
+            recreate(db);
+            return;
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            switch (version) {
+                case 2:
+                    upgradeToVersion3(db);
+                    break;
+                case 3:
+                    upgradeToVersion4(db);
+                    break;
+                case 4:
+                    upgradeToVersion5(db);
+                    break;
+                case 5:
+                    upgradeToVersion6(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration from version " + version);
+            }
+        }
+    }
+
+    /**
+     * The schema of a newer version is not known, the database is recreated.
+     */
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        recreate(db);
+    }
+
+    /**
+     * Drops all tables and creates them again, the data is lost.
+     *
+     * @param db The database.
+     */
+    private void recreate(SQLiteDatabase db) {
+        db.execSQL(SQL_DELETE_OUTBOX);
+        db.execSQL(SQL_DELETE_LOG_ROLLUP);
         db.execSQL(SQL_DELETE_LOG);
         db.execSQL(SQL_DELETE_LOCKACCESS);
         db.execSQL(SQL_DELETE_USER);
@@ -90,8 +203,59 @@ class DatabaseHelper extends SQLiteOpenHelper {
         onCreate(db);
     }
 
-    @Override
-    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        onUpgrade(db, oldVersion, newVersion);
+    /**
+     * Adds the primary key of the log table and the indexes of the log and lock access tables. A
+     * primary key cannot be added to an existing table, the logs are copied to a new table and
+     * keep their rowid as id.
+     *
+     * @param db The database.
+     */
+    private static void upgradeToVersion3(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + DatabaseContract.Log.TABLE_NAME + " RENAME TO " +
+                DatabaseContract.Log.TABLE_NAME + "_old");
+        db.execSQL(SQL_CREATE_LOG);
+        db.execSQL("INSERT INTO " + DatabaseContract.Log.TABLE_NAME + " (" +
+                DatabaseContract.Log._ID + ", " +
+                DatabaseContract.Log.COLUMN_NAME_LOCKMAC + ", " +
+                DatabaseContract.Log.COLUMN_NAME_USERID + ", " +
+                DatabaseContract.Log.COLUMN_NAME_LOCKSTATE + ", " +
+                DatabaseContract.Log.COLUMN_NAME_TIMESTAMP + ") SELECT rowid, " +
+                DatabaseContract.Log.COLUMN_NAME_LOCKMAC + ", " +
+                DatabaseContract.Log.COLUMN_NAME_USERID + ", " +
+                DatabaseContract.Log.COLUMN_NAME_LOCKSTATE + ", " +
+                DatabaseContract.Log.COLUMN_NAME_TIMESTAMP + " FROM " +
+                DatabaseContract.Log.TABLE_NAME + "_old");
+        db.execSQL("DROP TABLE " + DatabaseContract.Log.TABLE_NAME + "_old");
+        db.execSQL(SQL_CREATE_LOG_INDEX);
+        db.execSQL(SQL_CREATE_LOCKACCESS_INDEX);
+    }
+
+    /**
+     * Adds the id to the index of the log table, so that the log list can be read a page at a
+     * time in the order of the index.
+     *
+     * @param db The database.
+     */
+    private static void upgradeToVersion4(SQLiteDatabase db) {
+        db.execSQL("DROP INDEX IF EXISTS " + DatabaseContract.Log.INDEX_LOCKMAC_TIMESTAMP);
+        db.execSQL(SQL_CREATE_LOG_INDEX);
+    }
+
+    /**
+     * Adds the table in which the logs that are older than the retention window are counted.
+     *
+     * @param db The database.
+     */
+    private static void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_LOG_ROLLUP);
+    }
+
+    /**
+     * Adds the table in which the requests to the server are recorded until they are uploaded.
+     *
+     * @param db The database.
+     */
+    private static void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_OUTBOX);
     }
 }
@@ -1,19 +1,19 @@
 package com.esloq.esloqapp.data;
 
 import android.content.Context;
+import android.util.JsonReader;
 import android.util.Log;
 
 import com.esloq.esloqapp.BuildConfig;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -25,6 +25,8 @@ import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
@@ -32,7 +34,14 @@ import javax.net.ssl.SSLException;
 import javax.net.ssl.TrustManagerFactory;
 
 /**
- * Static class containing methods for interacting with an HTTP web server.
+ * Client for interacting with the esloq web server over HTTPS. The client is long-lived and
+ * shared, use {@link #getInstance(Context)}.
+ * <p/>
+ * The pinned <code>SSLContext</code> is created once, so the certificate is only parsed once and
+ * TLS sessions are resumed from the session cache of the context. Connections are not
+ * disconnected after a request and every response body is read completely, so that the
+ * underlying socket is returned to the keep-alive pool of <code>HttpURLConnection</code> and
+ * reused by the next request to the server.
  */
 class HttpsCommunication {
 
@@ -41,33 +50,55 @@ class HttpsCommunication {
      */
     private static final String TAG = HttpsCommunication.class.getSimpleName();
 
+    /**
+     * Name of the pinned certificate of the web server in main/assets.
+     */
+    private static final String CERTIFICATE_ASSET = "api_esloq.crt";
+
+    private static HttpsCommunication sInstance;
+
+    private final Context mContext;
+
+    /**
+     * Socket factory of the pinned <code>SSLContext</code>, null until the first HTTPS request.
+     */
+    private CountingSslSocketFactory mSocketFactory;
+
+    /**
+     * Number of requests that were made.
+     */
+    private int mRequestCount;
+
+    /**
+     * Returns the client that is shared by the app.
+     *
+     * @param context The context of this application.
+     * @return The client.
+     */
+    static synchronized HttpsCommunication getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new HttpsCommunication(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private HttpsCommunication(Context context) {
+        mContext = context;
+    }
+
     /**
      * Makes an HTTP GET request to a web server at the given URL and returns the server's response.
-     * This method assumes that the web server returns a JSON response. If not, null is returned.
-     * Makes use of <code>readJSON</code> to read the web server's JSON response.
+     * This method assumes that the web server returns a JSON response, which is decoded by the
+     * parser while it is read from the connection.
      * @param url   Web address for the GET request.
-     * @return      JSON data returned by the web server.
-     * @throws      java.io.IOException when URL invalid or InputStream can't be created or read.
-     * @throws      org.json.JSONException when response is not a valid JSON.
+     * @param parser The parser of the result.
+     * @return      The response of the web server, null if the status is not OK.
+     * @throws      java.io.IOException when URL invalid or InputStream can't be created or read,
+     *              or when the response is not valid JSON.
      */
-    public static JSONObject getJson(Context context, URL url) throws IOException, JSONException {
-        JSONObject jsonResponse = null;
-        HttpURLConnection urlConnection;
-        if (BuildConfig.DEBUG && url.getProtocol().equals("http")) {
-            urlConnection = (HttpURLConnection) url.openConnection();
-        } else {
-            // Tell the URLConnection to use a SocketFactory from our SSLContext
-            urlConnection = (HttpsURLConnection) url.openConnection();
-            ((HttpsURLConnection) urlConnection).setSSLSocketFactory(getSslContext(context)
-                    .getSocketFactory());
-        }
-        try {
-            jsonResponse = readJson(urlConnection);
-        }
-        finally {
-            urlConnection.disconnect();
-        }
-        return jsonResponse;
+    <T> ServerResponse<T> getJson(URL url, ResponseParser<T> parser) throws IOException {
+        HttpURLConnection urlConnection = openConnection(url);
+        return readJson(urlConnection, parser);
     }
 
     /**
@@ -76,48 +107,134 @@ class HttpsCommunication {
      * <code>readJSON</code> to write and read the JSON-encoded data.
      * @param url   Web address for the GET request.
      * @param param The JSON-encoded request data.
-     * @return      Response of the web server.
-     * @throws IOException If there is a problem with the url connection.
-     * @throws JSONException If there is an error in the JSON formatting of the server's response.
+     * @param parser The parser of the result.
+     * @return      Response of the web server, null if the status is not OK.
+     * @throws IOException If there is a problem with the url connection or the response is not
+     *                     valid JSON.
      */
-    public static JSONObject postJson(Context context, URL url, JSONObject param) throws IOException, JSONException {
-        JSONObject jsonResponse = null;
-        HttpURLConnection urlConnection;
-        if (BuildConfig.DEBUG && url.getProtocol().equals("http")) {
-            urlConnection = (HttpURLConnection) url.openConnection();
-        } else {
-            // Tell the URLConnection to use a SocketFactory from our SSLContext
-            urlConnection = (HttpsURLConnection) url.openConnection();
-            ((HttpsURLConnection) urlConnection).setSSLSocketFactory(getSslContext(context)
-                    .getSocketFactory());
-        }
+    <T> ServerResponse<T> postJson(URL url, JSONObject param, ResponseParser<T> parser)
+            throws IOException {
+        HttpURLConnection urlConnection = openConnection(url);
         urlConnection.setDoOutput(true);
-        try {
-            writeJson(urlConnection, param);
-            jsonResponse = readJson(urlConnection);
+        writeJson(urlConnection.getOutputStream(), param);
+        return readJson(urlConnection, parser);
+    }
+
+    /**
+     * Makes an HTTP POST request to the REST API, with the body compressed with gzip. Used for
+     * large bodies such as batches of logs, which compress well. The REST API takes the
+     * authentication token in the Authorization header instead of the body.
+     * @param url   Web address for the POST request.
+     * @param param The JSON-encoded request data.
+     * @param idToken The authentication token of the signed in user.
+     * @param parser The parser of the result.
+     * @return      Response of the web server, null if the status is not OK.
+     * @throws IOException If there is a problem with the url connection or the response is not
+     *                     valid JSON.
+     */
+    <T> ServerResponse<T> postGzipJson(URL url, JSONObject param, String idToken,
+                                       ResponseParser<T> parser) throws IOException {
+        HttpURLConnection urlConnection = openConnection(url);
+        urlConnection.setDoOutput(true);
+        urlConnection.setRequestProperty("Content-Type", "application/json");
+        urlConnection.setRequestProperty("Content-Encoding", "gzip");
+        urlConnection.setRequestProperty("Authorization", "Bearer " + idToken);
+        writeJson(new GZIPOutputStream(urlConnection.getOutputStream()), param);
+        return readJson(urlConnection, parser);
+    }
+
+    /**
+     * Returns the number of requests that were made.
+     *
+     * @return Number of requests.
+     */
+    synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Returns the number of TLS connections that were opened. Requests that reuse a pooled
+     * connection do not open a new one.
+     *
+     * @return Number of opened connections.
+     */
+    synchronized int getConnectionCount() {
+        return mSocketFactory == null ? 0 : mSocketFactory.getSocketCount();
+    }
+
+    /**
+     * Returns the number of TLS handshakes that resumed a cached session instead of doing a
+     * full handshake.
+     *
+     * @return Number of resumed sessions.
+     */
+    synchronized int getResumedSessionCount() {
+        return mSocketFactory == null ? 0 : mSocketFactory.getResumedCount();
+    }
+
+    /**
+     * Returns the fraction of the requests that reused a pooled connection.
+     *
+     * @return The reuse ratio, between 0 and 1.
+     */
+    synchronized double getConnectionReuseRatio() {
+        if (mRequestCount == 0) {
+            return 0;
         }
-        finally {
-            urlConnection.disconnect();
+        return Math.max(0, mRequestCount - getConnectionCount()) / (double) mRequestCount;
+    }
+
+    /**
+     * Opens a connection to the given URL. HTTPS connections use the pinned socket factory, plain
+     * HTTP is only allowed in debug builds.
+     *
+     * @param url The URL.
+     * @return The connection.
+     * @throws IOException If the connection cannot be opened or the TLS settings are invalid.
+     */
+    private HttpURLConnection openConnection(URL url) throws IOException {
+        synchronized (this) {
+            mRequestCount++;
         }
-        return jsonResponse;
+        if (BuildConfig.DEBUG && url.getProtocol().equals("http")) {
+            return (HttpURLConnection) url.openConnection();
+        }
+        // Tell the URLConnection to use a SocketFactory from our SSLContext
+        HttpsURLConnection urlConnection = (HttpsURLConnection) url.openConnection();
+        urlConnection.setSSLSocketFactory(getSocketFactory());
+        return urlConnection;
+    }
+
+    /**
+     * Returns the socket factory of the pinned <code>SSLContext</code>, which is created on first
+     * use.
+     *
+     * @return The socket factory.
+     * @throws SSLException When there is an error with the TLS settings.
+     */
+    private synchronized CountingSslSocketFactory getSocketFactory() throws SSLException {
+        if (mSocketFactory == null) {
+            mSocketFactory = new CountingSslSocketFactory(createSslContext().getSocketFactory());
+        }
+        return mSocketFactory;
     }
 
     /**
      * Return the <code>SSLContext</code> used for the TLS connection settings. The SSL
      * communication uses certificate pinning.
      *
-     * @param context The context of this application
      * @return SSLContext used for the TLS connection settings.
      * @throws SSLException When there is an error with the TLS settings.
      */
-    private static SSLContext getSslContext(Context context) throws SSLException {
+    private SSLContext createSslContext() throws SSLException {
         try {
             // Load X.509 certificate from file api_esloq.crt in main/assets
             CertificateFactory cf = CertificateFactory.getInstance("X.509");
             Certificate ca;
-            try (InputStream caInput = new BufferedInputStream(context.getAssets().open("api_esloq.crt"))) {
+            try (InputStream caInput = new BufferedInputStream(mContext.getAssets().open(
+                    CERTIFICATE_ASSET))) {
                 ca = cf.generateCertificate(caInput);
-                System.out.println("ca=" + ((X509Certificate) ca).getSubjectDN());
+                if (BuildConfig.DEBUG) Log.d(TAG, "ca=" + ((X509Certificate) ca).getSubjectDN());
             }
 
             // Create a KeyStore containing our trusted CAs
@@ -134,11 +251,6 @@ class HttpsCommunication {
             // Create an SSLContext that uses our TrustManager
             SSLContext sslContext = SSLContext.getInstance("TLS");
             sslContext.init(null, tmf.getTrustManagers(), null);
-//            String[] suites = sslContext.createSSLEngine().getEnabledCipherSuites();
-//            for (String suite: suites) {
-//                Log.e("cipher", suite);
-//            }
-
             return sslContext;
 
         } catch (CertificateException | NoSuchAlgorithmException | KeyStoreException
@@ -149,43 +261,88 @@ class HttpsCommunication {
     }
 
     /**
-     * Reads JSON-encoded data from an HttpUrlConnection.
+     * Reads JSON-encoded data from an HttpUrlConnection. The body is decoded while it is read, so
+     * it is never held in memory as a whole. The response body is always read completely and
+     * closed, also when the status is not OK, so that the connection can be reused.
      *
      * @param urlConnection The HttpURLConnection to read from.
-     * @return JSON response from server.
-     * @throws IOException If there is a problem with the url connection.
-     * @throws JSONException If there is an error in the JSON formatting of the server's response.
+     * @param parser The parser of the result.
+     * @return Response of the server, null if the status is not OK.
+     * @throws IOException If there is a problem with the url connection or the response is not
+     *                     valid JSON.
      */
-    private static JSONObject readJson(HttpURLConnection urlConnection) throws IOException, JSONException {
-        int status = urlConnection.getResponseCode();
+    private <T> ServerResponse<T> readJson(HttpURLConnection urlConnection,
+                                           ResponseParser<T> parser) throws IOException {
+        int status;
+        try {
+            status = urlConnection.getResponseCode();
+        } catch (IOException e) {
+            // The connection is broken, make sure it does not go back to the pool.
+            urlConnection.disconnect();
+            throw e;
+        }
         if (BuildConfig.DEBUG) Log.d(TAG, "HTTP status code: " + String.valueOf(status));
 
         if (status == HttpURLConnection.HTTP_OK) {
-            BufferedReader in = new BufferedReader(new InputStreamReader(urlConnection.getInputStream())); //Trick to be able to use readline, slow, converts bytes to chars
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = in.readLine()) != null) {
-                response.append(line);
+            InputStream in = urlConnection.getInputStream();
+            try {
+                JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+                ServerResponse<T> response = ServerResponse.read(reader, parser);
+                // Skip what follows the JSON value, e.g. a trailing newline.
+                drain(in);
+                logConnectionReuse();
+                return response;
+            } finally {
+                in.close();
+            }
+        } else {
+            InputStream errorStream = urlConnection.getErrorStream();
+            if (errorStream != null) {
+                try {
+                    drain(errorStream);
+                } finally {
+                    errorStream.close();
+                }
             }
-            in.close();
-            return new JSONObject(response.toString());
-        }
-        else {
             return null;
         }
     }
 
     /**
-     * Writes JSON-encoded data to an HttpURLConnection.
+     * Reads a response body until its end.
      *
-     * @param urlConnection The HttpURLConnection to write to.
+     * @param in The response body.
+     * @throws IOException If there is a problem with the url connection.
+     */
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // Discard.
+        }
+    }
+
+    /**
+     * Writes JSON-encoded data to the output stream of an HttpURLConnection, and closes the
+     * stream.
+     *
+     * @param outputStream  The output stream of the HttpURLConnection to write to.
      * @param param         JSON-encoded data to be sent to server.
      * @throws IOException If there is a problem with the url connection.
      */
-    private static void writeJson(HttpURLConnection urlConnection, JSONObject param) throws IOException {
-        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(urlConnection.getOutputStream())); //Trick to be able to use readline, slow, converts bytes to chars
+    private static void writeJson(OutputStream outputStream, JSONObject param) throws IOException {
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
         out.write(param.toString());
         out.close();
     }
 
+    /**
+     * Logs how many requests reused a pooled connection and how many handshakes resumed a TLS
+     * session.
+     */
+    private void logConnectionReuse() {
+        if (BuildConfig.DEBUG) Log.d(TAG, String.format(Locale.US,
+                "Requests: %d, connections: %d, resumed sessions: %d, reuse ratio: %.2f",
+                getRequestCount(), getConnectionCount(), getResumedSessionCount(),
+                getConnectionReuseRatio()));
+    }
 }
@@ -11,6 +11,8 @@ public class Injection {
 
     public static LockDataRepository provideLockDataRepository(Context context) {
         return new LockDataRepositoryImpl(new LocalDataServiceApiImpl(context), new
-                ServerDataServiceApiImpl(context), new PreferencesServiceApiImpl(context));
+                ServerDataServiceApiImpl(context), new PreferencesServiceApiImpl(context),
+                LockTicketCache.getInstance(), LockMetadataCache.getInstance(context),
+                OutboxDrainer.getInstance(context));
     }
 }
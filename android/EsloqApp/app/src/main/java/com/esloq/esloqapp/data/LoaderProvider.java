@@ -4,14 +4,40 @@ package com.esloq.esloqapp.data;
 import android.content.Context;
 import android.content.CursorLoader;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 
+import java.util.concurrent.Executor;
+
 /**
  * Provides loaders so the activities can load data asynchronously
  */
 public class LoaderProvider {
 
+    /**
+     * Columns and order of the lock list.
+     */
+    static final String[] LOCKS_PROJECTION = {
+            DatabaseContract.Lock.COLUMN_NAME_MAC,
+            DatabaseContract.Lock.COLUMN_NAME_NAME,
+            DatabaseContract.LockAccess.COLUMN_NAME_ISADMIN,
+    };
+    static final String LOCKS_ORDER = DatabaseContract.Lock.COLUMN_NAME_NAME + " ASC";
+
+    /**
+     * Columns and order of the log list of a lock. The id orders the logs with the same time, so
+     * that the list can be read a page at a time.
+     */
+    static final String[] LOCK_LOGS_PROJECTION = {
+            DatabaseContract.User.COLUMN_NAME_NAME,
+            DatabaseContract.Log.COLUMN_NAME_TIMESTAMP,
+            DatabaseContract.Log.COLUMN_NAME_LOCKSTATE,
+            DatabaseContract.Log.TABLE_NAME + "." + DatabaseContract.Log._ID,
+    };
+    static final String LOCK_LOGS_ORDER = DatabaseContract.Log.COLUMN_NAME_TIMESTAMP + " DESC, " +
+            DatabaseContract.Log.TABLE_NAME + "." + DatabaseContract.Log._ID + " DESC";
+
     private final Context mContext;
 
     /**
@@ -30,32 +56,46 @@ public class LoaderProvider {
      * @return CursorLoader to query the lock data.
      */
     public Loader<Cursor> getLocksCursorLoader() {
-        String[] projection = {
-                DatabaseContract.Lock.COLUMN_NAME_MAC,
-                DatabaseContract.Lock.COLUMN_NAME_NAME,
-                DatabaseContract.LockAccess.COLUMN_NAME_ISADMIN,
-        };
-        final String orderBy = DatabaseContract.Lock.COLUMN_NAME_NAME + " ASC";
-        return new CursorLoader(mContext, DatabaseContract.Lock.CONTENT_URI, projection, null, null, orderBy);
+        return new CursorLoader(mContext, DatabaseContract.Lock.CONTENT_URI, LOCKS_PROJECTION,
+                null, null, LOCKS_ORDER);
     }
 
     /**
-     * Return a CursorLoader that queries the database for all existing logs on the requested lock
-     * and returns the user's name, the timestamp at which the action took place, and the state
-     * in which the lock has been placed.
+     * Return a pager that reads the logs on the requested lock a page at a time, with the user's
+     * name, the timestamp at which the action took place, and the state in which the lock has
+     * been placed.
      *
      * @param mac The lock from which to obtain the logs.
-     * @return CursorLoader to query the log data.
+     * @param backgroundExecutor Executor on which the pages are read.
+     * @param mainExecutor Executor of the main thread, on which the pages are delivered.
+     * @param listener Listener that is notified when the logs change.
+     * @return Pager to read the log data, call {@link LogPager#refresh()} to read the first page.
      */
-    public Loader<Cursor> getLockLogsCursorLoader(String mac) {
-        String[] projection = {
-                DatabaseContract.User.COLUMN_NAME_NAME,
-                DatabaseContract.Log.COLUMN_NAME_TIMESTAMP,
-                DatabaseContract.Log.COLUMN_NAME_LOCKSTATE,
-        };
-        Uri uri = DatabaseContract.Lock.CONTENT_URI.buildUpon().appendPath(mac).appendPath("logs").build();
-        final String orderBy = DatabaseContract.Log.COLUMN_NAME_TIMESTAMP + " DESC";
-        return new CursorLoader(mContext, uri, projection, null, null, orderBy);
+    public LogPager getLockLogsPager(String mac, Executor backgroundExecutor,
+                                     Executor mainExecutor, LogPager.Listener listener) {
+        LockLogSource source = new LockLogSource(mContext.getContentResolver(),
+                getLockLogsUri(mac));
+        return new LogPager(source, backgroundExecutor, mainExecutor, listener);
+    }
+
+    /**
+     * Register an observer that is notified when the logs on the requested lock change.
+     *
+     * @param mac The lock of the logs.
+     * @param observer The observer.
+     */
+    public void registerLockLogsObserver(String mac, ContentObserver observer) {
+        mContext.getContentResolver().registerContentObserver(getLockLogsUri(mac), true,
+                observer);
+    }
+
+    /**
+     * Unregister an observer that was registered with this provider.
+     *
+     * @param observer The observer.
+     */
+    public void unregisterObserver(ContentObserver observer) {
+        mContext.getContentResolver().unregisterContentObserver(observer);
     }
 
     /**
@@ -78,4 +118,9 @@ public class LoaderProvider {
                 DatabaseContract.User.COLUMN_NAME_NAME + " ASC";
         return new CursorLoader(mContext, uri, projection, null, null, orderBy);
     }
+
+    private static Uri getLockLogsUri(String mac) {
+        return DatabaseContract.Lock.CONTENT_URI.buildUpon().appendPath(mac).appendPath("logs")
+                .build();
+    }
 }
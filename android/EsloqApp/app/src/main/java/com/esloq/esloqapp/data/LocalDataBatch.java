@@ -0,0 +1,109 @@
+package com.esloq.esloqapp.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rows that are written to the local database in a single transaction. The rows are written in
+ * the order of their foreign keys: first the locks, then the users, the lock accesses and the
+ * logs.
+ */
+class LocalDataBatch {
+
+    /**
+     * The access of a user to a lock.
+     */
+    static class LockAccess {
+
+        private final int mUserId;
+        private final String mLockMac;
+        private final boolean mAdmin;
+
+        LockAccess(int userId, String lockMac, boolean admin) {
+            mUserId = userId;
+            mLockMac = lockMac;
+            mAdmin = admin;
+        }
+
+        int getUserId() {
+            return mUserId;
+        }
+
+        String getLockMac() {
+            return mLockMac;
+        }
+
+        boolean isAdmin() {
+            return mAdmin;
+        }
+    }
+
+    /**
+     * A log entry and the lock it belongs to.
+     */
+    static class Log {
+
+        private final String mLockMac;
+        private final UserData.Log mLog;
+
+        Log(String lockMac, UserData.Log log) {
+            mLockMac = lockMac;
+            mLog = log;
+        }
+
+        String getLockMac() {
+            return mLockMac;
+        }
+
+        UserData.Log getLog() {
+            return mLog;
+        }
+    }
+
+    private final List<UserData.Lock> mLocks = new ArrayList<>();
+    private final List<UserData.User> mUsers = new ArrayList<>();
+    private final List<LockAccess> mLockAccesses = new ArrayList<>();
+    private final List<Log> mLogs = new ArrayList<>();
+
+    void addLock(UserData.Lock lock) {
+        mLocks.add(lock);
+    }
+
+    void addUser(UserData.User user) {
+        mUsers.add(user);
+    }
+
+    void addLockAccess(int userId, String lockMac, boolean admin) {
+        mLockAccesses.add(new LockAccess(userId, lockMac, admin));
+    }
+
+    void addLog(String lockMac, UserData.Log log) {
+        mLogs.add(new Log(lockMac, log));
+    }
+
+    List<UserData.Lock> getLocks() {
+        return Collections.unmodifiableList(mLocks);
+    }
+
+    List<UserData.User> getUsers() {
+        return Collections.unmodifiableList(mUsers);
+    }
+
+    List<LockAccess> getLockAccesses() {
+        return Collections.unmodifiableList(mLockAccesses);
+    }
+
+    List<Log> getLogs() {
+        return Collections.unmodifiableList(mLogs);
+    }
+
+    /**
+     * Returns the number of rows in the batch.
+     *
+     * @return The number of rows.
+     */
+    int size() {
+        return mLocks.size() + mUsers.size() + mLockAccesses.size() + mLogs.size();
+    }
+}
@@ -1,5 +1,7 @@
 package com.esloq.esloqapp.data;
 
+import java.util.List;
+
 /**
  * Defines an interface to the local database service API that is used by the repository. All data
  * request to the local database should be piped through this interface.
@@ -10,10 +12,32 @@ interface LocalDataServiceApi {
 
     void addLockAccess(int userId, String mac, boolean isAdmin);
 
+    /**
+     * Adds lock accesses in a single transaction.
+     *
+     * @param lockAccesses The lock accesses.
+     */
+    void addLockAccesses(List<LocalDataBatch.LockAccess> lockAccesses);
+
     void addLogToLock(int userId, String mac, boolean locked, long timestamp);
 
+    /**
+     * Adds logs of a lock in a single transaction.
+     *
+     * @param mac The mac address of the lock.
+     * @param logs The logs.
+     */
+    void addLogsToLock(String mac, List<UserData.Log> logs);
+
     void addUser(int id, String name, boolean validated);
 
+    /**
+     * Adds users in a single transaction.
+     *
+     * @param users The users.
+     */
+    void addUsers(List<UserData.User> users);
+
     void addUserToLock(int userId, String name, boolean validated, String mac, boolean isAdmin);
 
     void removeLock(String mac);
@@ -24,6 +48,71 @@ interface LocalDataServiceApi {
 
     void clearDatabase();
 
+    /**
+     * Writes a batch of rows in a single transaction.
+     *
+     * @param batch The rows.
+     * @return True if all rows were written, false if the transaction failed.
+     */
+    boolean applyBatch(LocalDataBatch batch);
+
     boolean locksClockwise(String lockMac);
 
+    /**
+     * Returns the metadata of all locks of the signed in user.
+     *
+     * @return The locks.
+     */
+    List<LockMetadataCache.Lock> getLocks();
+
+    /**
+     * Replaces a batch of logs that are older than a time by their counts per user, lock and
+     * day, in a single transaction.
+     *
+     * @param cutoff The time before which the logs are compacted, in seconds since the epoch.
+     * @param maxRows The maximum number of logs of the batch.
+     * @return The number of logs that were compacted, less than <code>maxRows</code> if no
+     * older logs are left.
+     */
+    int compactLogs(long cutoff, int maxRows);
+
+    /**
+     * Records a request to the server in the outbox. A request that was already recorded is
+     * ignored.
+     *
+     * @param entry The request.
+     * @return The id of the entry, -1 if the request was already recorded.
+     */
+    long addOutboxEntry(OutboxEntry entry);
+
+    /**
+     * Returns the oldest requests in the outbox.
+     *
+     * @param limit The maximum number of requests.
+     * @return The requests, in the order they were recorded.
+     */
+    List<OutboxEntry> getOutboxEntries(int limit);
+
+    /**
+     * Removes a request from the outbox, e.g. when it was uploaded.
+     *
+     * @param id The id of the entry.
+     */
+    void removeOutboxEntry(long id);
+
+    /**
+     * Postpones a request that could not be uploaded.
+     *
+     * @param id The id of the entry.
+     * @param attempts The number of times the request failed.
+     * @param nextAttempt The time before which the request is not sent again, in milliseconds
+     *                    since the epoch.
+     */
+    void deferOutboxEntry(long id, int attempts, long nextAttempt);
+
+    /**
+     * Removes all requests from the outbox, e.g. when the user signs out.
+     */
+    void clearOutbox();
+
 }
@@ -1,9 +1,17 @@
 package com.esloq.esloqapp.data;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Class that provides an interface to access the lock data while making abstraction of where and
@@ -56,11 +64,24 @@ class LocalDataServiceApiImpl implements LocalDataServiceApi{
      */
     @Override
     public void addUser(int id, String name, boolean validated) {
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DatabaseContract.User.COLUMN_NAME_ID, id);
-        contentValues.put(DatabaseContract.User.COLUMN_NAME_NAME, name);
-        contentValues.put(DatabaseContract.User.COLUMN_NAME_VALIDATED, validated ? 1 : 0);
-        context.getContentResolver().insert(DatabaseContract.User.CONTENT_URI, contentValues);
+        context.getContentResolver().insert(DatabaseContract.User.CONTENT_URI,
+                userValues(id, name, validated));
+    }
+
+    /**
+     * Add users to the repository with a single call to the content provider, which inserts
+     * them in one transaction.
+     *
+     * @param users The users.
+     */
+    @Override
+    public void addUsers(List<UserData.User> users) {
+        ContentValues[] values = new ContentValues[users.size()];
+        for (int i = 0; i < values.length; i++) {
+            UserData.User user = users.get(i);
+            values[i] = userValues(user.getId(), user.getName(), user.isValidated());
+        }
+        context.getContentResolver().bulkInsert(DatabaseContract.User.CONTENT_URI, values);
     }
 
     /**
@@ -73,11 +94,25 @@ class LocalDataServiceApiImpl implements LocalDataServiceApi{
      */
     @Override
     public void addLockAccess(int userId, String mac, boolean isAdmin) {
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DatabaseContract.LockAccess.COLUMN_NAME_USERID, userId);
-        contentValues.put(DatabaseContract.LockAccess.COLUMN_NAME_LOCKMAC, mac);
-        contentValues.put(DatabaseContract.LockAccess.COLUMN_NAME_ISADMIN, isAdmin ? 1 : 0);
-        context.getContentResolver().insert(DatabaseContract.LockAccess.CONTENT_URI, contentValues);
+        context.getContentResolver().insert(DatabaseContract.LockAccess.CONTENT_URI,
+                lockAccessValues(userId, mac, isAdmin));
+    }
+
+    /**
+     * Add lock accesses to the repository with a single call to the content provider, which
+     * inserts them in one transaction.
+     *
+     * @param lockAccesses The lock accesses.
+     */
+    @Override
+    public void addLockAccesses(List<LocalDataBatch.LockAccess> lockAccesses) {
+        ContentValues[] values = new ContentValues[lockAccesses.size()];
+        for (int i = 0; i < values.length; i++) {
+            LocalDataBatch.LockAccess lockAccess = lockAccesses.get(i);
+            values[i] = lockAccessValues(lockAccess.getUserId(), lockAccess.getLockMac(),
+                    lockAccess.isAdmin());
+        }
+        context.getContentResolver().bulkInsert(DatabaseContract.LockAccess.CONTENT_URI, values);
     }
 
     /**
@@ -92,13 +127,9 @@ class LocalDataServiceApiImpl implements LocalDataServiceApi{
     public void addUserToLock(int userId, String name, boolean validated, String mac, boolean
             isAdmin) {
         addUser(userId, name, validated);
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DatabaseContract.LockAccess.COLUMN_NAME_USERID, userId);
-        contentValues.put(DatabaseContract.LockAccess.COLUMN_NAME_LOCKMAC, mac);
-        contentValues.put(DatabaseContract.LockAccess.COLUMN_NAME_ISADMIN, isAdmin ? 1 : 0);
         Uri uri = DatabaseContract.Lock.CONTENT_URI.buildUpon().appendPath(mac).appendPath("users")
                 .build();
-        context.getContentResolver().insert(uri, contentValues);
+        context.getContentResolver().insert(uri, lockAccessValues(userId, mac, isAdmin));
     }
 
     /**
@@ -112,14 +143,26 @@ class LocalDataServiceApiImpl implements LocalDataServiceApi{
     @Override
     public void addLogToLock(int userId, String mac, boolean locked, long timestamp) {
         mac = mac.toUpperCase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DatabaseContract.Log.COLUMN_NAME_USERID, userId);
-        contentValues.put(DatabaseContract.Log.COLUMN_NAME_LOCKMAC, mac);
-        contentValues.put(DatabaseContract.Log.COLUMN_NAME_LOCKSTATE, locked);
-        contentValues.put(DatabaseContract.Log.COLUMN_NAME_TIMESTAMP, timestamp);
-        Uri uri = DatabaseContract.Lock.CONTENT_URI.buildUpon().appendPath(mac).appendPath("logs")
-                .build();
-        context.getContentResolver().insert(uri, contentValues);
+        context.getContentResolver().insert(logsUri(mac),
+                logValues(userId, mac, locked, timestamp));
+    }
+
+    /**
+     * Add logs of a lock to the repository with a single call to the content provider, which
+     * inserts them in one transaction.
+     *
+     * @param mac The mac address of the lock.
+     * @param logs The logs.
+     */
+    @Override
+    public void addLogsToLock(String mac, List<UserData.Log> logs) {
+        mac = mac.toUpperCase();
+        ContentValues[] values = new ContentValues[logs.size()];
+        for (int i = 0; i < values.length; i++) {
+            UserData.Log log = logs.get(i);
+            values[i] = logValues(log.getUserId(), mac, log.isLocked(), log.getTimestamp());
+        }
+        context.getContentResolver().bulkInsert(logsUri(mac), values);
     }
 
     /**
@@ -168,6 +211,53 @@ class LocalDataServiceApiImpl implements LocalDataServiceApi{
         context.getContentResolver().delete(DatabaseContract.User.CONTENT_URI, null, null);
     }
 
+    /**
+     * Writes a batch of rows with a single call to the content provider, which applies the
+     * operations in one transaction.
+     *
+     * @param batch The rows.
+     * @return True if all rows were written, false if the transaction failed.
+     */
+    @Override
+    public boolean applyBatch(LocalDataBatch batch) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(batch.size());
+        for (UserData.Lock lock : batch.getLocks()) {
+            operations.add(ContentProviderOperation.newInsert(DatabaseContract.Lock.CONTENT_URI)
+                    .withValue(DatabaseContract.Lock.COLUMN_NAME_MAC, lock.getMac().toUpperCase())
+                    .withValue(DatabaseContract.Lock.COLUMN_NAME_NAME, lock.getName())
+                    .withValue(DatabaseContract.Lock.COLUMN_NAME_LOCK_CLOCKWISE,
+                            lock.locksClockwise())
+                    .build());
+        }
+        for (UserData.User user : batch.getUsers()) {
+            operations.add(ContentProviderOperation.newInsert(DatabaseContract.User.CONTENT_URI)
+                    .withValues(userValues(user.getId(), user.getName(), user.isValidated()))
+                    .build());
+        }
+        for (LocalDataBatch.LockAccess lockAccess : batch.getLockAccesses()) {
+            operations.add(ContentProviderOperation.newInsert(
+                    DatabaseContract.LockAccess.CONTENT_URI)
+                    .withValues(lockAccessValues(lockAccess.getUserId(), lockAccess.getLockMac(),
+                            lockAccess.isAdmin()))
+                    .build());
+        }
+        for (LocalDataBatch.Log log : batch.getLogs()) {
+            String mac = log.getLockMac().toUpperCase();
+            UserData.Log row = log.getLog();
+            operations.add(ContentProviderOperation.newInsert(logsUri(mac))
+                    .withValues(logValues(row.getUserId(), mac, row.isLocked(),
+                            row.getTimestamp()))
+                    .build());
+        }
+        try {
+            context.getContentResolver().applyBatch(DatabaseContract.AUTHORITY, operations);
+            return true;
+        } catch (RemoteException | OperationApplicationException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     @Override
     public boolean locksClockwise(String lockMac) {
         String[] projection = {
@@ -186,6 +276,155 @@ class LocalDataServiceApiImpl implements LocalDataServiceApi{
         return locksClockwise;
     }
 
+    /**
+     * Returns the metadata of all locks of the signed in user.
+     *
+     * @return The locks.
+     */
+    @Override
+    public List<LockMetadataCache.Lock> getLocks() {
+        String[] projection = {
+                DatabaseContract.Lock.COLUMN_NAME_MAC,
+                DatabaseContract.Lock.COLUMN_NAME_NAME,
+                DatabaseContract.Lock.COLUMN_NAME_LOCK_CLOCKWISE,
+                DatabaseContract.LockAccess.COLUMN_NAME_ISADMIN,
+        };
+        Cursor cursor = context.getContentResolver().query(DatabaseContract.Lock.CONTENT_URI,
+                projection, null, null, null);
+        List<LockMetadataCache.Lock> locks = new ArrayList<>();
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                locks.add(new LockMetadataCache.Lock(cursor.getString(0), cursor.getString(1),
+                        cursor.getInt(2) == 1, cursor.getInt(3) == 1));
+            }
+            cursor.close();
+        }
+        return locks;
+    }
+
+    @Override
+    public long addOutboxEntry(OutboxEntry entry) {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_REQUEST_ID, entry.getRequestId());
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_TYPE, entry.getType().name());
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_LOCKMAC, entry.getLockMac());
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_USERID, entry.getUserId());
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_EMAIL, entry.getEmail());
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_ISADMIN, entry.isAdmin());
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_LOCKSTATE, entry.isLocked());
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_TIMESTAMP, entry.getTimestamp());
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_MESSAGE, entry.getMessage());
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_ATTEMPTS, entry.getAttempts());
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_NEXT_ATTEMPT, entry.getNextAttempt());
+        Uri uri = context.getContentResolver().insert(DatabaseContract.Outbox.CONTENT_URI,
+                values);
+        return uri == null ? -1 : ContentUris.parseId(uri);
+    }
+
+    @Override
+    public List<OutboxEntry> getOutboxEntries(int limit) {
+        String[] projection = {
+                DatabaseContract.Outbox._ID,
+                DatabaseContract.Outbox.COLUMN_NAME_REQUEST_ID,
+                DatabaseContract.Outbox.COLUMN_NAME_TYPE,
+                DatabaseContract.Outbox.COLUMN_NAME_LOCKMAC,
+                DatabaseContract.Outbox.COLUMN_NAME_USERID,
+                DatabaseContract.Outbox.COLUMN_NAME_EMAIL,
+                DatabaseContract.Outbox.COLUMN_NAME_ISADMIN,
+                DatabaseContract.Outbox.COLUMN_NAME_LOCKSTATE,
+                DatabaseContract.Outbox.COLUMN_NAME_TIMESTAMP,
+                DatabaseContract.Outbox.COLUMN_NAME_MESSAGE,
+                DatabaseContract.Outbox.COLUMN_NAME_ATTEMPTS,
+                DatabaseContract.Outbox.COLUMN_NAME_NEXT_ATTEMPT,
+        };
+        Uri uri = DatabaseContract.Outbox.CONTENT_URI.buildUpon()
+                .appendQueryParameter(DatabaseContract.QUERY_PARAMETER_LIMIT,
+                        String.valueOf(limit))
+                .build();
+        Cursor cursor = context.getContentResolver().query(uri, projection, null, null,
+                DatabaseContract.Outbox._ID);
+        List<OutboxEntry> entries = new ArrayList<>();
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                entries.add(new OutboxEntry(cursor.getLong(0), cursor.getString(1),
+                        OutboxEntry.Type.valueOf(cursor.getString(2)), cursor.getString(3),
+                        cursor.getInt(4), cursor.getString(5), cursor.getInt(6) == 1,
+                        cursor.getInt(7) == 1, cursor.getLong(8), cursor.getString(9),
+                        cursor.getInt(10), cursor.getLong(11)));
+            }
+            cursor.close();
+        }
+        return entries;
+    }
+
+    @Override
+    public void removeOutboxEntry(long id) {
+        context.getContentResolver().delete(
+                ContentUris.withAppendedId(DatabaseContract.Outbox.CONTENT_URI, id), null, null);
+    }
+
+    @Override
+    public void deferOutboxEntry(long id, int attempts, long nextAttempt) {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_ATTEMPTS, attempts);
+        values.put(DatabaseContract.Outbox.COLUMN_NAME_NEXT_ATTEMPT, nextAttempt);
+        context.getContentResolver().update(
+                ContentUris.withAppendedId(DatabaseContract.Outbox.CONTENT_URI, id), values,
+                null, null);
+    }
+
+    @Override
+    public void clearOutbox() {
+        context.getContentResolver().delete(DatabaseContract.Outbox.CONTENT_URI, null, null);
+    }
+
+    @Override
+    public int compactLogs(long cutoff, int maxRows) {
+        Bundle extras = new Bundle();
+        extras.putLong(DatabaseContract.EXTRA_CUTOFF, cutoff);
+        extras.putInt(DatabaseContract.EXTRA_MAX_ROWS, maxRows);
+        Bundle result = context.getContentResolver().call(DatabaseContract.Lock.CONTENT_URI,
+                DatabaseContract.METHOD_COMPACT_LOGS, null, extras);
+        return result == null ? 0 : result.getInt(DatabaseContract.EXTRA_COMPACTED_ROWS);
+    }
+
+    private static ContentValues userValues(int id, String name, boolean validated) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(DatabaseContract.User.COLUMN_NAME_ID, id);
+        contentValues.put(DatabaseContract.User.COLUMN_NAME_NAME, name);
+        contentValues.put(DatabaseContract.User.COLUMN_NAME_VALIDATED, validated ? 1 : 0);
+        return contentValues;
+    }
+
+    private static ContentValues lockAccessValues(int userId, String mac, boolean isAdmin) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(DatabaseContract.LockAccess.COLUMN_NAME_USERID, userId);
+        contentValues.put(DatabaseContract.LockAccess.COLUMN_NAME_LOCKMAC, mac);
+        contentValues.put(DatabaseContract.LockAccess.COLUMN_NAME_ISADMIN, isAdmin ? 1 : 0);
+        return contentValues;
+    }
+
+    private static ContentValues logValues(int userId, String mac, boolean locked,
+                                           long timestamp) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(DatabaseContract.Log.COLUMN_NAME_USERID, userId);
+        contentValues.put(DatabaseContract.Log.COLUMN_NAME_LOCKMAC, mac);
+        contentValues.put(DatabaseContract.Log.COLUMN_NAME_LOCKSTATE, locked);
+        contentValues.put(DatabaseContract.Log.COLUMN_NAME_TIMESTAMP, timestamp);
+        return contentValues;
+    }
+
+    /**
+     * Returns the URI of the logs of a lock.
+     *
+     * @param mac The mac address of the lock.
+     * @return The URI.
+     */
+    private static Uri logsUri(String mac) {
+        return DatabaseContract.Lock.CONTENT_URI.buildUpon().appendPath(mac).appendPath("logs")
+                .build();
+    }
+
     public void printDatabase() {
 //        Log.e("Lock", DatabaseUtils.dumpCursorToString(context.getContentResolver().query
 //                (DatabaseContract.Lock.CONTENT_URI,
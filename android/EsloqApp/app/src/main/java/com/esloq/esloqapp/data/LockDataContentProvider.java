@@ -1,17 +1,30 @@
 package com.esloq.esloqapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TimeZone;
+
 /**
  * Content provider for the database containing the lock data.
  */
@@ -32,7 +45,20 @@ public class LockDataContentProvider extends ContentProvider {
     private static final int LOCK_ACCESS_ID = 10;
     private static final int LOGS = 11;
     private static final int LOGS_ID = 12;
+    private static final int LOCKS_LOG_ROLLUPS = 13;
+    private static final int OUTBOX = 14;
+    private static final int OUTBOX_ID = 15;
+
 
+    /**
+     * Time without writes after which the observers are notified of the changes.
+     */
+    static final long NOTIFICATION_WINDOW_MILLIS = 100;
+
+    /**
+     * Maximum time for which the notification of a change is held during a burst of writes.
+     */
+    static final long NOTIFICATION_MAX_DELAY_MILLIS = 1000;
 
     /**
      * URI matcher which matches URI's to their types (int).
@@ -49,6 +75,17 @@ public class LockDataContentProvider extends ContentProvider {
      */
     private PreferencesServiceApi preferences;
 
+    /**
+     * The URIs that changed in the batch that the calling thread is applying, null if the thread
+     * is not applying a batch.
+     */
+    private final ThreadLocal<Set<Uri>> mBatchChanges = new ThreadLocal<>();
+
+    /**
+     * Coalesces the notifications of bursts of writes.
+     */
+    private ChangeNotificationDispatcher mNotificationDispatcher;
+
     /**
      * Match URI's with URI types.
      */
@@ -66,23 +103,78 @@ public class LockDataContentProvider extends ContentProvider {
         sURIMatcher.addURI(DatabaseContract.AUTHORITY, "lockaccess/#", LOCK_ACCESS_ID);
         sURIMatcher.addURI(DatabaseContract.AUTHORITY, "logs", LOGS);
         sURIMatcher.addURI(DatabaseContract.AUTHORITY, "logs/#", LOGS_ID);
+        sURIMatcher.addURI(DatabaseContract.AUTHORITY, "locks/*/logrollups", LOCKS_LOG_ROLLUPS);
+        sURIMatcher.addURI(DatabaseContract.AUTHORITY, "outbox", OUTBOX);
+        sURIMatcher.addURI(DatabaseContract.AUTHORITY, "outbox/#", OUTBOX_ID);
     }
 
     @Override
     public boolean onCreate() {
         databaseHelper = new DatabaseHelper(getContext());
         preferences = new PreferencesServiceApiImpl(getContext());
+        HandlerThread notificationThread = new HandlerThread("ChangeNotifications");
+        notificationThread.start();
+        final Handler notificationHandler = new Handler(notificationThread.getLooper());
+        mNotificationDispatcher = new ChangeNotificationDispatcher(NOTIFICATION_WINDOW_MILLIS,
+                NOTIFICATION_MAX_DELAY_MILLIS, new ChangeNotificationDispatcher.Scheduler() {
+            @Override
+            public long now() {
+                return SystemClock.uptimeMillis();
+            }
+
+            @Override
+            public void schedule(Runnable task, long delayMillis) {
+                notificationHandler.postDelayed(task, delayMillis);
+            }
+        }, new ChangeNotificationDispatcher.Sink() {
+            @Override
+            public void notifyChange(String uri) {
+                Context context = getContext();
+                assert context != null;
+                context.getContentResolver().notifyChange(Uri.parse(uri), null);
+            }
+        });
         return true;
     }
 
+    /**
+     * Sets the time without writes after which the observers are notified of the changes.
+     *
+     * @param windowMillis The time, in milliseconds, 0 to notify the observers of every write
+     *                     immediately.
+     */
+    void setNotificationWindow(long windowMillis) {
+        mNotificationDispatcher.setWindow(windowMillis);
+    }
+
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
-        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
-
 //        checkColumns(projection);
 
+        SQLiteQueryBuilder queryBuilder = newQueryBuilder(uri, preferences.getUserId());
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        Cursor cursor = queryBuilder.query(db, projection, selection,
+                selectionArgs, null, null, sortOrder,
+                uri.getQueryParameter(DatabaseContract.QUERY_PARAMETER_LIMIT));
+        // make sure that potential listeners are getting notified
+        Context context = getContext();
+        assert context != null;
+        cursor.setNotificationUri(context.getContentResolver(), uri);
+
+        return cursor;
+    }
+
+    /**
+     * Returns a query builder for the tables and the selection of a URI.
+     *
+     * @param uri The URI.
+     * @param userId The id of the signed in user.
+     * @return The query builder.
+     */
+    static SQLiteQueryBuilder newQueryBuilder(Uri uri, int userId) {
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
         int uriType = sURIMatcher.match(uri);
         switch (uriType) {
             case LOCKS:
@@ -93,7 +185,6 @@ public class LockDataContentProvider extends ContentProvider {
                         DatabaseContract.Lock.COLUMN_NAME_MAC + "=" +
                         DatabaseContract.LockAccess.TABLE_NAME + "." +
                         DatabaseContract.LockAccess.COLUMN_NAME_LOCKMAC);
-                int userId = preferences.getUserId();
                 queryBuilder.appendWhere(DatabaseContract.LockAccess.COLUMN_NAME_USERID + "=" + userId);
                 break;
             case LOCKS_ID:
@@ -120,8 +211,7 @@ public class LockDataContentProvider extends ContentProvider {
                         DatabaseContract.User.COLUMN_NAME_ID);
                 queryBuilder.appendWhere(DatabaseContract.LockAccess.TABLE_NAME + "." + DatabaseContract.LockAccess.COLUMN_NAME_LOCKMAC + "=");
                 queryBuilder.appendWhereEscapeString(uri.getPathSegments().get(1));
-                int loggedInUserId = preferences.getUserId();
-                queryBuilder.appendWhere(" AND " + DatabaseContract.User.TABLE_NAME + "." + DatabaseContract.User.COLUMN_NAME_ID + " != " + loggedInUserId);
+                queryBuilder.appendWhere(" AND " + DatabaseContract.User.TABLE_NAME + "." + DatabaseContract.User.COLUMN_NAME_ID + " != " + userId);
                 break;
             case USERS:
                 queryBuilder.setTables(DatabaseContract.User.TABLE_NAME);
@@ -132,19 +222,18 @@ public class LockDataContentProvider extends ContentProvider {
             case LOGS:
                 queryBuilder.setTables(DatabaseContract.Log.TABLE_NAME);
                 break;
+            case LOCKS_LOG_ROLLUPS:
+                queryBuilder.setTables(DatabaseContract.LogRollup.TABLE_NAME);
+                queryBuilder.appendWhere(DatabaseContract.LogRollup.COLUMN_NAME_LOCKMAC + "=");
+                queryBuilder.appendWhereEscapeString(uri.getPathSegments().get(1));
+                break;
+            case OUTBOX:
+                queryBuilder.setTables(DatabaseContract.Outbox.TABLE_NAME);
+                break;
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
         }
-
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
-        Cursor cursor = queryBuilder.query(db, projection, selection,
-                selectionArgs, null, null, sortOrder);
-        // make sure that potential listeners are getting notified
-        Context context = getContext();
-        assert context != null;
-        cursor.setNotificationUri(context.getContentResolver(), uri);
-
-        return cursor;
+        return queryBuilder;
     }
 
     @Nullable
@@ -156,36 +245,122 @@ public class LockDataContentProvider extends ContentProvider {
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        int uriType = sURIMatcher.match(uri);
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
-        long id;
+        long id = insertRow(db, uri, values);
+        notifyChange(uri);
+        return Uri.parse(uri + "/" + id); //TODO SHOULD BE MAC INSTEAD OF ID
+    }
+
+    /**
+     * Inserts the rows in a single transaction. The observers of the URI are notified once, when
+     * the transaction is committed.
+     *
+     * @return The number of rows that were inserted.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        int rowsInserted = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues rowValues : values) {
+                if (insertRow(db, uri, rowValues) != -1) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (rowsInserted > 0) {
+            notifyChange(uri);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Applies the operations in a single transaction, so that a batch costs one commit instead
+     * of one commit per operation. If an operation fails, none of the operations are applied.
+     * The observers are notified once per changed URI, when the transaction is committed.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation>
+                                                      operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        Set<Uri> changedUris = new LinkedHashSet<>();
+        mBatchChanges.set(changedUris);
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+        }
+        for (Uri uri : changedUris) {
+            notifyChange(uri);
+        }
+        return results;
+    }
+
+    /**
+     * Inserts a row in the table of the URI.
+     *
+     * @param db The database.
+     * @param uri The URI.
+     * @param values The values of the row.
+     * @return The row ID of the inserted row, -1 if the row was not inserted.
+     */
+    private long insertRow(SQLiteDatabase db, Uri uri, ContentValues values) {
+        int uriType = sURIMatcher.match(uri);
         switch (uriType) {
             case LOCKS:
-                id = db.insertWithOnConflict(DatabaseContract.Lock.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
-                break;
+                return db.insertWithOnConflict(DatabaseContract.Lock.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
             case LOCKS_USERS:
-                id = db.insert(DatabaseContract.LockAccess.TABLE_NAME, null, values);
-                break;
+                return db.insert(DatabaseContract.LockAccess.TABLE_NAME, null, values);
             case LOCKS_LOGS:
-                id = db.insert(DatabaseContract.Log.TABLE_NAME, null, values);
-                break;
+                return db.insert(DatabaseContract.Log.TABLE_NAME, null, values);
             case USERS:
                 // ignore insert of constraint violation occurs
-                id = db.insertWithOnConflict(DatabaseContract.User.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
-                break;
+                return db.insertWithOnConflict(DatabaseContract.User.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
             case LOCK_ACCESS:
-                id = db.insert(DatabaseContract.LockAccess.TABLE_NAME, null, values);
-                break;
+                return db.insert(DatabaseContract.LockAccess.TABLE_NAME, null, values);
             case LOGS:
-                id = db.insert(DatabaseContract.Log.TABLE_NAME, null, values);
-                break;
+                return db.insert(DatabaseContract.Log.TABLE_NAME, null, values);
+            case OUTBOX:
+                // A request that was already recorded is ignored.
+                return db.insertWithOnConflict(DatabaseContract.Outbox.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_IGNORE);
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
         }
-        Context context = getContext();
-        assert context != null;
-        context.getContentResolver().notifyChange(uri, null);
-        return Uri.parse(uri + "/" + id); //TODO SHOULD BE MAC INSTEAD OF ID
+    }
+
+    /**
+     * Runs a method of the provider that is not a query or change of a single URI. The logs
+     * that are older than the retention window are compacted with
+     * <code>METHOD_COMPACT_LOGS</code>.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (!DatabaseContract.METHOD_COMPACT_LOGS.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        LogCompactor compactor = new LogCompactor(databaseHelper.getWritableDatabase(),
+                TimeZone.getDefault());
+        int compacted = compactor.compact(extras.getLong(DatabaseContract.EXTRA_CUTOFF),
+                extras.getInt(DatabaseContract.EXTRA_MAX_ROWS));
+        for (String lockMac : compactor.getChangedLocks()) {
+            notifyChange(DatabaseContract.Lock.CONTENT_URI.buildUpon().appendPath(lockMac)
+                    .appendPath("logs").build());
+        }
+        Bundle result = new Bundle();
+        result.putInt(DatabaseContract.EXTRA_COMPACTED_ROWS, compacted);
+        return result;
     }
 
     @Override
@@ -243,12 +418,18 @@ public class LockDataContentProvider extends ContentProvider {
                 rowsDeleted = db.delete(DatabaseContract.Log.TABLE_NAME, selection,
                         selectionArgs);
                 break;
+            case OUTBOX:
+                rowsDeleted = db.delete(DatabaseContract.Outbox.TABLE_NAME, selection,
+                        selectionArgs);
+                break;
+            case OUTBOX_ID:
+                rowsDeleted = db.delete(DatabaseContract.Outbox.TABLE_NAME,
+                        DatabaseContract.Outbox._ID + "=" + ContentUris.parseId(uri), null);
+                break;
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
         }
-        Context context = getContext();
-        assert context != null;
-        context.getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return rowsDeleted;
     }
 
@@ -294,15 +475,32 @@ public class LockDataContentProvider extends ContentProvider {
                             selectionArgs);
                 }
                 break;
+            case OUTBOX_ID:
+                rowsUpdated = db.update(DatabaseContract.Outbox.TABLE_NAME, values,
+                        DatabaseContract.Outbox._ID + "=" + ContentUris.parseId(uri), null);
+                break;
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
         }
-        Context context = getContext();
-        assert context != null;
-        context.getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return rowsUpdated;
     }
 
+    /**
+     * Notifies the observers of a URI that its data changed. While the calling thread applies a
+     * batch, the notification is postponed until the batch is committed. The notifications of a
+     * burst of writes are coalesced by the notification dispatcher.
+     *
+     * @param uri The URI.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.add(uri);
+            return;
+        }
+        mNotificationDispatcher.notifyChange(uri.toString());
+    }
 
 //    private void checkColumns(String[] projection) {
 //        String[] available = { TodoTable.COLUMN_CATEGORY,
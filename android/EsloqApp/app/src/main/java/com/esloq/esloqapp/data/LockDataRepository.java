@@ -1,5 +1,7 @@
 package com.esloq.esloqapp.data;
 
+import com.esloq.esloqapp.CryptoSession;
+
 /**
  * Defines an interface to the lock data repository API that is used to access data. All
  * data requests should be piped through this interface.
@@ -10,6 +12,14 @@ public interface LockDataRepository {
         void onResult(boolean success);
     }
 
+    interface OnSessionCallback {
+        void onResult(boolean success, CryptoSession session);
+    }
+
+    interface OnDirectionCallback {
+        void onResult(boolean success, boolean clockwise);
+    }
+
     void registerUserDevice(final OnResultCallback callback);
 
     void fetchData(final OnResultCallback callback);
@@ -26,11 +36,19 @@ public interface LockDataRepository {
 
     void removeUser(final int userId, final String lockMac, final OnResultCallback callback);
 
-    void requestSessionKey(final String lockMac, final OnResultCallback callback);
+    void requestSessionKey(final String lockMac, final OnSessionCallback callback);
+
+    void prefetchSessionKey(final String lockMac);
+
+    void prefetchSessionKeys();
+
+    void invalidateSessionKey(final String lockMac);
+
+    boolean hasSessionKey(final String lockMac);
 
     void log(final String message);
 
-    boolean locksClockwise(String lockMac);
+    void locksClockwise(String lockMac, OnDirectionCallback callback);
 
     void clearData();
 
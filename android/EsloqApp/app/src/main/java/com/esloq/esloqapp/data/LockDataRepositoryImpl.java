@@ -1,12 +1,8 @@
 package com.esloq.esloqapp.data;
 
-import android.util.Base64;
+import com.esloq.esloqapp.CryptoSession;
 
-import com.esloq.esloqapp.Cryptography;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.List;
 
 /**
  * Implementation of the lock data repository used to access lock data.
@@ -16,19 +12,27 @@ public class LockDataRepositoryImpl implements LockDataRepository {
     private final LocalDataServiceApi mLocalApi;
     private final ServerDataServiceApi mServerApi;
     private final PreferencesServiceApi mPreferencesApi;
+    private final LockTicketCache mTicketCache;
+    private final LockMetadataCache mLockCache;
+    private final OutboxDrainer mOutbox;
 
     public LockDataRepositoryImpl(LocalDataServiceApi localApi, ServerDataServiceApi serviceApi,
-                                  PreferencesServiceApi preferencesApi) {
+                                  PreferencesServiceApi preferencesApi,
+                                  LockTicketCache ticketCache, LockMetadataCache lockCache,
+                                  OutboxDrainer outbox) {
         mLocalApi = localApi;
         mServerApi = serviceApi;
         mPreferencesApi = preferencesApi;
+        mTicketCache = ticketCache;
+        mLockCache = lockCache;
+        mOutbox = outbox;
     }
 
     @Override
     public void registerUserDevice(final OnResultCallback callback) {
-        mServerApi.registerUserDevice(new ServerDataServiceApi.ServerDataServiceCallback() {
+        mServerApi.registerUserDevice(new ServerDataServiceApi.ServerDataServiceCallback<Void>() {
             @Override
-            public void onResult(boolean success, JSONObject jsonObject) {
+            public void onResult(boolean success, Void result) {
                 if (success) {
                     mPreferencesApi.setRegistrationTokenSentToServer(true);
                 } else {
@@ -39,13 +43,19 @@ public class LockDataRepositoryImpl implements LockDataRepository {
         });
     }
 
+    /**
+     * Fetches the data of the user from the server. The data is stored in the local database
+     * while it is downloaded, after which the locks are loaded into the lock metadata cache.
+     */
     @Override
     public void fetchData(final OnResultCallback callback) {
-        mServerApi.fetchUserData(new ServerDataServiceApi.ServerDataServiceCallback() {
+        mServerApi.fetchUserData(new UserDataImport(mLocalApi, mPreferencesApi),
+                new ServerDataServiceApi.ServerDataServiceCallback<Void>() {
             @Override
-            public void onResult(boolean success, JSONObject jsonObject) {
+            public void onResult(boolean success, Void result) {
                 if (success) {
-                    parseAndStore(jsonObject);
+                    mLockCache.load(mLocalApi);
+                    prefetchSessionKeys();
                 }
                 callback.onResult(success);
             }
@@ -56,13 +66,14 @@ public class LockDataRepositoryImpl implements LockDataRepository {
     public void addLock(final String mac, final String name, final boolean lockClockwise, final
     OnResultCallback callback) {
         mServerApi.addLock(mac, name, lockClockwise, new ServerDataServiceApi
-                .ServerDataServiceCallback() {
+                .ServerDataServiceCallback<Void>() {
             @Override
-            public void onResult(boolean success, JSONObject jsonObject) {
+            public void onResult(boolean success, Void result) {
                 if (success) {
                     mLocalApi.addLock(mac, name, lockClockwise);
                     int myUserId = mPreferencesApi.getUserId();
                     mLocalApi.addUserToLock(myUserId, "me", true, mac, true);
+                    mLockCache.put(new LockMetadataCache.Lock(mac, name, lockClockwise, true));
                 }
                 callback.onResult(success);
             }
@@ -70,113 +81,135 @@ public class LockDataRepositoryImpl implements LockDataRepository {
     }
 
     /**
-     * Sends request to server to add user to lock. When finished <code>onTaskCompleted</code> is
-     * called.
+     * Records the request to add a user to a lock in the outbox. The user is stored in the local
+     * database when the server added the user. The callback is called with the result of the
+     * first attempt, a request that did not reach the server is sent again in the background.
      */
     @Override
-    public void addUser(final String email, final String mac, final boolean isAdmin, final
-    OnResultCallback callback) {
-        mServerApi.addUser(email, mac, isAdmin, new ServerDataServiceApi.
-                ServerDataServiceCallback() {
-            @Override
-            public void onResult(boolean success, JSONObject jsonObject) {
-                if (success) {
-                    try {
-                        JSONObject jsonUser = jsonObject.getJSONObject("user");
-                        int id = jsonUser.getInt("id");
-                        String firstName = jsonUser.getString("firstName");
-                        boolean validated = jsonUser.getBoolean("validated");
-                        mLocalApi.addUserToLock(id, firstName, validated, mac, isAdmin);
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
-                }
-                callback.onResult(success);
-            }
-        });
+    public void addUser(String email, String mac, boolean isAdmin, OnResultCallback callback) {
+        mOutbox.enqueue(OutboxEntry.addUser(email, mac, isAdmin, now()), callback);
     }
 
+    /**
+     * Records the log in the outbox, from which it is uploaded in the background. Logs are
+     * stored in local database through GCM.
+     */
     @Override
     public void addLog(String mac, boolean locked) {
-        mServerApi.addLog(mac, locked, new ServerDataServiceApi.ServerDataServiceCallback() {
-            @Override
-            public void onResult(boolean success, JSONObject jsonObject) {
-                // Logs are stored in local database through GCM
-            }
-        });
+        mOutbox.enqueue(OutboxEntry.addLog(mac, locked, now()), null);
     }
 
     @Override
     public void removeLock(final String mac, final OnResultCallback callback) {
-        mServerApi.removeLock(mac, new ServerDataServiceApi.ServerDataServiceCallback() {
+        mServerApi.removeLock(mac, new ServerDataServiceApi.ServerDataServiceCallback<Void>() {
             @Override
-            public void onResult(boolean success, JSONObject jsonObject) {
+            public void onResult(boolean success, Void result) {
                 if (success) {
                     mLocalApi.removeLock(mac);
+                    mLockCache.remove(mac);
                 }
                 callback.onResult(success);
             }
         });
     }
 
+    /**
+     * Records the request to remove a user from a lock in the outbox. The user is removed from
+     * the local database right away. The callback is called with the result of the first
+     * attempt, a request that did not reach the server is sent again in the background.
+     */
     @Override
-    public void removeUser(final int userId, final String lockMac, final OnResultCallback
-            callback) {
-        mServerApi.removeUser(userId, lockMac, new ServerDataServiceApi.ServerDataServiceCallback() {
-            @Override
-            public void onResult(boolean success, JSONObject jsonObject) {
-                if (success) {
-                    mLocalApi.removeUserFromLock(userId, lockMac);
-                }
-                callback.onResult(success);
-            }
-        });
+    public void removeUser(int userId, String lockMac, OnResultCallback callback) {
+        mOutbox.enqueue(OutboxEntry.removeUser(userId, lockMac, now()), callback);
     }
 
+    /**
+     * Creates a session with the session key and lock ticket that are used to communicate with
+     * the lock. A cached ticket is used if available, in which case the network is not used and
+     * the callback is called immediately. A new ticket is then prefetched for the next time the
+     * lock is opened.
+     */
     @Override
-    public void requestSessionKey(String lockMac, final OnResultCallback callback) {
-        mServerApi.requestSessionKey(lockMac, new ServerDataServiceApi
-                .ServerDataServiceCallback() {
-            @Override
-            public void onResult(boolean success, JSONObject jsonObject) {
-                if (success) {
-                    try {
-                        String sessionKeyB64 = jsonObject.getString("sessionKey");
-                        byte[] sessionKey = Base64.decode(sessionKeyB64.getBytes(), Base64.DEFAULT);
-
-                        String lockTicketB64 = jsonObject.getString("lockTicket");
-                        byte[] lockTicket = Base64.decode(lockTicketB64.getBytes(), Base64.DEFAULT);
+    public void requestSessionKey(final String lockMac, final OnSessionCallback callback) {
+        LockTicketCache.Ticket ticket = mTicketCache.take(lockMac);
+        if (ticket != null) {
+            callback.onResult(true, createSession(ticket));
+            prefetchSessionKey(lockMac);
+        } else {
+            fetchSessionKey(lockMac, callback);
+        }
+    }
 
-                        Cryptography.setSessionKey(sessionKey);
-                        Cryptography.setLockTicket(lockTicket);
+    @Override
+    public void prefetchSessionKey(String lockMac) {
+        if (!mTicketCache.contains(lockMac)) {
+            fetchSessionKey(lockMac, null);
+        }
+    }
 
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
+    /**
+     * Prefetches a ticket for every lock of the user that has no cached ticket. The locks are
+     * taken from the lock metadata cache, so the database is never read on the calling thread.
+     */
+    @Override
+    public void prefetchSessionKeys() {
+        mLockCache.getAll(mLocalApi, new LockMetadataCache.OnLocksCallback() {
+            @Override
+            public void onLocks(List<LockMetadataCache.Lock> locks) {
+                if (locks == null) {
+                    return;
+                }
+                for (LockMetadataCache.Lock lock : locks) {
+                    prefetchSessionKey(lock.getMac());
                 }
-                callback.onResult(success);
             }
         });
+    }
 
+    @Override
+    public void invalidateSessionKey(String lockMac) {
+        mTicketCache.invalidate(lockMac);
     }
 
+    /**
+     * Returns whether a session key and lock ticket are cached for a lock, in which case the
+     * lock can be opened without the network.
+     */
     @Override
-    public void log(final String message) {
-        mServerApi.log(message, new ServerDataServiceApi.ServerDataServiceCallback() {
-            @Override
-            public void onResult(boolean success, JSONObject jsonObject) {
-                // No need for a callback
-            }
-        });
+    public boolean hasSessionKey(String lockMac) {
+        return mTicketCache.contains(lockMac);
     }
 
     @Override
-    public boolean locksClockwise(String lockMac) {
-        return mLocalApi.locksClockwise(lockMac);
+    public void log(String message) {
+        mOutbox.enqueue(OutboxEntry.log(message, now()), null);
+    }
+
+    /**
+     * Passes the direction of a lock from the lock metadata cache to the callback. If the lock is
+     * not cached and the cache was invalidated, the callback is called once the locks were loaded
+     * on a background thread, the database is never read on the calling thread.
+     */
+    @Override
+    public void locksClockwise(String lockMac, final OnDirectionCallback callback) {
+        mLockCache.get(lockMac, mLocalApi, new LockMetadataCache.OnLockCallback() {
+            @Override
+            public void onLock(LockMetadataCache.Lock lock) {
+                if (lock == null) {
+                    callback.onResult(false, false);
+                } else {
+                    callback.onResult(true, lock.locksClockwise());
+                }
+            }
+        });
     }
 
     @Override
     public void clearData() {
+        mServerApi.cancelRequests();
+        mTicketCache.clear();
+        mLockCache.clear();
+        mOutbox.clear();
         mLocalApi.clearDatabase();
     }
 
@@ -190,36 +223,65 @@ public class LockDataRepositoryImpl implements LockDataRepository {
         mPreferencesApi.setSignedIn(signedIn);
     }
 
-    private void parseAndStore(JSONObject jsonObject) {
-            try {
-                mPreferencesApi.setUserId(jsonObject.getInt("userId"));
-
-                JSONArray jsonLocks = jsonObject.getJSONArray("locks");
-                for (int i = 0; i < jsonLocks.length(); i++) {
-                    JSONObject jsonLock = jsonLocks.getJSONObject(i);
-                    String lockMac = jsonLock.getString("lockMac").toUpperCase();
-
-                    JSONArray jsonUsers = jsonLock.getJSONArray("users");
-                    mLocalApi.addLock(lockMac, jsonLock.getString("name"), jsonLock.getBoolean("lockClockwise"));
-                    for (int j = 0; j < jsonUsers.length(); j++) {
-                        JSONObject jsonUser = jsonUsers.getJSONObject(j);
-                        int userId = Integer.parseInt(jsonUser.getString("userId"));
-                        mLocalApi.addUser(userId, jsonUser.getString("name"), jsonUser.getBoolean
-                                ("validated"));
-                        mLocalApi.addLockAccess(userId, lockMac, jsonUser.getBoolean("isAdmin"));
-                    }
-
-                    /* We can only parse the logs once all the locks and users have been added to the lock file.
-                     * Because we need to get the log's user names from the user IDs. */
-                    JSONArray jsonLogs = jsonLock.getJSONArray("logs");
-                    for (int j = 0; j < jsonLogs.length(); j++) {
-                        JSONObject jsonLog = jsonLogs.getJSONObject(j);
-                        mLocalApi.addLogToLock(jsonLog.getInt("userId"), lockMac, jsonLog
-                                        .getBoolean("lockState"), jsonLog.getLong("timestamp"));
+    /**
+     * Fetches a session key and lock ticket from the server and stores them in the ticket cache.
+     * If a fetch for the lock is already in flight, no new request is sent and the callback
+     * waits for the result of that fetch. Each ticket is used for a single session, so if
+     * several callbacks waited for the fetch, the others wait for a new fetch.
+     *
+     * @param lockMac The MAC address of the lock.
+     * @param callback Callback that uses the fetched ticket, null to only store the ticket.
+     */
+    private void fetchSessionKey(final String lockMac, final OnSessionCallback callback) {
+        if (!mTicketCache.startFetch(lockMac, callback)) {
+            return;
+        }
+        mServerApi.requestSessionKey(lockMac, new ServerDataServiceApi
+                .ServerDataServiceCallback<SessionKey>() {
+            @Override
+            public void onResult(boolean success, SessionKey sessionKey) {
+                List<OnSessionCallback> callbacks = mTicketCache.finishFetch(lockMac,
+                        success ? sessionKey.getSessionKey() : null,
+                        success ? sessionKey.getLockTicket() : null);
+                if (callbacks.isEmpty()) {
+                    return;
+                }
+                LockTicketCache.Ticket ticket = mTicketCache.take(lockMac);
+                if (ticket == null) {
+                    for (OnSessionCallback waitingCallback : callbacks) {
+                        waitingCallback.onResult(false, null);
                     }
+                    return;
+                }
+                // A ticket can only be used once, so only the first callback gets the session
+                // and the other callbacks wait for a new ticket.
+                callbacks.get(0).onResult(true, createSession(ticket));
+                if (callbacks.size() == 1) {
+                    prefetchSessionKey(lockMac);
+                }
+                for (OnSessionCallback waitingCallback : callbacks.subList(1, callbacks.size())) {
+                    fetchSessionKey(lockMac, waitingCallback);
                 }
-            } catch(JSONException e) {
-                e.printStackTrace();
             }
-        }
+        });
+    }
+
+    /**
+     * Returns the current time, in seconds since the epoch.
+     *
+     * @return The current time.
+     */
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * Creates the session that is used for the next connection with the lock.
+     *
+     * @param ticket The ticket that was taken from the ticket cache.
+     * @return The session.
+     */
+    private CryptoSession createSession(LockTicketCache.Ticket ticket) {
+        return new CryptoSession(ticket.getSessionKey(), ticket.getLockTicket());
+    }
 }
@@ -0,0 +1,69 @@
+package com.esloq.esloqapp.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the pages of the log list of a lock from the content provider.
+ */
+class LockLogSource implements LogPager.Source {
+
+    /**
+     * Selects the logs after a log in the order of the log list. The first condition lets the
+     * index of the log table start at the time of the log, the second one skips the logs at that
+     * time that were already read.
+     */
+    static final String SELECTION_AFTER =
+            DatabaseContract.Log.TABLE_NAME + "." + DatabaseContract.Log.COLUMN_NAME_TIMESTAMP +
+                    " <= ? AND (" +
+                    DatabaseContract.Log.TABLE_NAME + "." +
+                    DatabaseContract.Log.COLUMN_NAME_TIMESTAMP + " < ? OR " +
+                    DatabaseContract.Log.TABLE_NAME + "." + DatabaseContract.Log._ID + " < ?)";
+
+    private final ContentResolver mContentResolver;
+    private final Uri mUri;
+
+    /**
+     * Construct a source for the logs of a lock.
+     *
+     * @param contentResolver The content resolver of the app.
+     * @param uri The URI of the logs of the lock.
+     */
+    LockLogSource(ContentResolver contentResolver, Uri uri) {
+        mContentResolver = contentResolver;
+        mUri = uri;
+    }
+
+    @Override
+    public List<LogEntry> load(LogEntry after, int limit) {
+        Uri uri = mUri.buildUpon().appendQueryParameter(DatabaseContract.QUERY_PARAMETER_LIMIT,
+                String.valueOf(limit)).build();
+        String selection = null;
+        String[] selectionArgs = null;
+        if (after != null) {
+            String timestamp = String.valueOf(after.getTimestamp());
+            selection = SELECTION_AFTER;
+            selectionArgs = new String[] {timestamp, timestamp, String.valueOf(after.getId())};
+        }
+        Cursor cursor = mContentResolver.query(uri, LoaderProvider.LOCK_LOGS_PROJECTION,
+                selection, selectionArgs, LoaderProvider.LOCK_LOGS_ORDER);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            List<LogEntry> logs = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                logs.add(new LogEntry(cursor.getLong(3), cursor.getString(0), cursor.getLong(1),
+                        cursor.getInt(2) == 1));
+            }
+            return logs;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.esloq.esloqapp.data;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * In-memory cache of the metadata of the locks of the user, keyed by lock MAC address, so that a
+ * lock can be opened without querying the database.
+ * <p/>
+ * The repository writes the locks it adds and removes through to the cache, and loads all locks
+ * into the cache after a sync. Any other change of the locks in the content provider invalidates
+ * the cache, after which the locks are loaded again. The locks that were loaded before stay
+ * readable while the locks are loaded again, and the locks are only loaded on a background
+ * thread: a lock that is not cached yet is delivered once the load finished.
+ * <p/>
+ * The cache is shared by all repository instances, use {@link #getInstance(Context)}.
+ */
+class LockMetadataCache {
+
+    /**
+     * The metadata of a lock.
+     */
+    static class Lock {
+
+        private final String mMac;
+        private final String mName;
+        private final boolean mLocksClockwise;
+        private final boolean mIsAdmin;
+
+        Lock(String mac, String name, boolean locksClockwise, boolean isAdmin) {
+            mMac = mac;
+            mName = name;
+            mLocksClockwise = locksClockwise;
+            mIsAdmin = isAdmin;
+        }
+
+        String getMac() {
+            return mMac;
+        }
+
+        String getName() {
+            return mName;
+        }
+
+        boolean locksClockwise() {
+            return mLocksClockwise;
+        }
+
+        boolean isAdmin() {
+            return mIsAdmin;
+        }
+    }
+
+    /**
+     * Receives a lock once the cache holds it, or once all locks were loaded.
+     */
+    interface OnLockCallback {
+
+        /**
+         * @param lock The lock, null if the user has no lock with the MAC address.
+         */
+        void onLock(Lock lock);
+    }
+
+    /**
+     * Receives all locks once they were loaded.
+     */
+    interface OnLocksCallback {
+
+        /**
+         * @param locks The locks of the user, null if the locks could not be read.
+         */
+        void onLocks(List<Lock> locks);
+    }
+
+    private static LockMetadataCache sInstance;
+
+    /**
+     * Executor on which the locks are loaded for a lock that is not cached.
+     */
+    private final Executor mLoadExecutor;
+
+    /**
+     * Executor on which the callbacks that waited for a load are called.
+     */
+    private final Executor mCallbackExecutor;
+
+    /**
+     * Callbacks that wait for a lock that is not cached, by lock MAC address.
+     */
+    private final Map<String, List<OnLockCallback>> mWaitingCallbacks = new HashMap<>();
+
+    /**
+     * Callbacks that wait for all locks to be loaded.
+     */
+    private final List<OnLocksCallback> mLocksCallbacks = new ArrayList<>();
+
+    /**
+     * Number of loads that are reading the locks.
+     */
+    private int mLoadsInFlight;
+
+    /**
+     * The cached locks, by lock MAC address.
+     */
+    private final Map<String, Lock> mLocks = new HashMap<>();
+
+    /**
+     * Whether the cache holds all locks of the user.
+     */
+    private boolean mLoaded;
+
+    /**
+     * Incremented when the cache is invalidated or written, so that locks that were read before
+     * are not stored.
+     */
+    private int mVersion;
+
+    /**
+     * Returns the cache that is shared by all repository instances. The locks are loaded on a
+     * background thread when the cache is created, so that the first lock or unlock after a cold
+     * start does not query the database on the main thread. The cache is invalidated and loaded
+     * again when the locks or the lock accesses change in the content provider.
+     *
+     * @param context The context of this application.
+     * @return The lock metadata cache.
+     */
+    static synchronized LockMetadataCache getInstance(Context context) {
+        if (sInstance == null) {
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            final LockMetadataCache cache = new LockMetadataCache(AsyncTask.THREAD_POOL_EXECUTOR,
+                    new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            mainHandler.post(command);
+                        }
+                    });
+            final LocalDataServiceApi localApi = new LocalDataServiceApiImpl(
+                    context.getApplicationContext());
+            // Without a handler, the observer is called on a binder thread, so the locks are
+            // never loaded on the main thread.
+            ContentObserver observer = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    cache.invalidate();
+                    cache.load(localApi);
+                }
+            };
+            context.getContentResolver().registerContentObserver(
+                    DatabaseContract.Lock.CONTENT_URI, true, observer);
+            context.getContentResolver().registerContentObserver(
+                    DatabaseContract.LockAccess.CONTENT_URI, true, observer);
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    cache.load(localApi);
+                }
+            });
+            sInstance = cache;
+        }
+        return sInstance;
+    }
+
+    /**
+     * Construct a new cache.
+     *
+     * @param loadExecutor Executor on which the locks are loaded for a lock that is not cached.
+     * @param callbackExecutor Executor on which the callbacks that waited for a load are called.
+     */
+    LockMetadataCache(Executor loadExecutor, Executor callbackExecutor) {
+        mLoadExecutor = loadExecutor;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Returns the metadata of a lock.
+     *
+     * @param lockMac The MAC address of the lock.
+     * @return The lock, or null if the lock is not cached.
+     */
+    synchronized Lock get(String lockMac) {
+        return mLocks.get(lockMac.toUpperCase());
+    }
+
+    /**
+     * Passes the metadata of a lock to a callback without reading the database on the calling
+     * thread. The callback is called right away if the lock is cached or all locks are loaded,
+     * otherwise it is called on the callback executor once the locks were loaded, and a load is
+     * started unless one is in flight.
+     *
+     * @param lockMac The MAC address of the lock.
+     * @param localApi The local database from which the locks are read.
+     * @param callback The callback.
+     */
+    void get(String lockMac, final LocalDataServiceApi localApi, OnLockCallback callback) {
+        Lock lock;
+        boolean startLoad = false;
+        synchronized (this) {
+            lock = mLocks.get(lockMac.toUpperCase());
+            if (lock == null && !mLoaded) {
+                // Callbacks only wait while a load is queued or in flight.
+                startLoad = !hasWaitingCallbacks() && mLoadsInFlight == 0;
+                List<OnLockCallback> callbacks = mWaitingCallbacks.get(lockMac.toUpperCase());
+                if (callbacks == null) {
+                    callbacks = new ArrayList<>();
+                    mWaitingCallbacks.put(lockMac.toUpperCase(), callbacks);
+                }
+                callbacks.add(callback);
+                callback = null;
+            }
+        }
+        if (callback != null) {
+            callback.onLock(lock);
+        } else if (startLoad) {
+            startLoad(localApi);
+        }
+    }
+
+    /**
+     * Passes all locks to a callback without reading the database on the calling thread. The
+     * callback is called right away if all locks are loaded, otherwise it is called on the
+     * callback executor once the locks were loaded, and a load is started unless one is in
+     * flight.
+     *
+     * @param localApi The local database from which the locks are read.
+     * @param callback The callback.
+     */
+    void getAll(LocalDataServiceApi localApi, OnLocksCallback callback) {
+        List<Lock> locks = null;
+        boolean startLoad = false;
+        synchronized (this) {
+            if (mLoaded) {
+                locks = new ArrayList<>(mLocks.values());
+            } else {
+                // Callbacks only wait while a load is queued or in flight.
+                startLoad = !hasWaitingCallbacks() && mLoadsInFlight == 0;
+                mLocksCallbacks.add(callback);
+            }
+        }
+        if (locks != null) {
+            callback.onLocks(locks);
+        } else if (startLoad) {
+            startLoad(localApi);
+        }
+    }
+
+    /**
+     * Loads the locks on the load executor.
+     *
+     * @param localApi The local database from which the locks are read.
+     */
+    private void startLoad(final LocalDataServiceApi localApi) {
+        mLoadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load(localApi);
+            }
+        });
+    }
+
+    /**
+     * Returns whether the cache holds all locks of the user, i.e. whether a lock that is not
+     * cached does not exist.
+     *
+     * @return True if all locks are cached, false otherwise.
+     */
+    synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Replaces the cached locks by all locks in the local database. The locks are read without
+     * holding the lock of the cache, and are not stored if the cache was invalidated or written
+     * in the meantime. The callbacks that wait for a lock are then called, the locks are read
+     * again if a callback still waits and no other load is in flight. If the locks could not be
+     * read, the waiting callbacks receive null.
+     *
+     * @param localApi The local database from which the locks are read.
+     */
+    void load(LocalDataServiceApi localApi) {
+        boolean again = true;
+        while (again) {
+            int version;
+            synchronized (this) {
+                version = mVersion;
+                mLoadsInFlight++;
+            }
+            List<Lock> locks = null;
+            try {
+                locks = localApi.getLocks();
+            } finally {
+                final Map<Lock, List<OnLockCallback>> answered = new HashMap<>();
+                final List<OnLockCallback> notFound = new ArrayList<>();
+                final List<OnLocksCallback> locksCallbacks = new ArrayList<>();
+                final List<Lock> allLocks;
+                synchronized (this) {
+                    mLoadsInFlight--;
+                    if (locks != null && version == mVersion) {
+                        mLocks.clear();
+                        for (Lock lock : locks) {
+                            mLocks.put(lock.getMac().toUpperCase(), lock);
+                        }
+                        mLoaded = true;
+                    }
+                    takeWaitingCallbacks(answered, notFound);
+                    allLocks = mLoaded ? new ArrayList<>(mLocks.values()) : null;
+                    if (mLoaded || (locks == null && mLoadsInFlight == 0)) {
+                        locksCallbacks.addAll(mLocksCallbacks);
+                        mLocksCallbacks.clear();
+                    }
+                    if (locks == null && mLoadsInFlight == 0) {
+                        // The locks could not be read, no load is left to answer the callbacks.
+                        for (List<OnLockCallback> callbacks : mWaitingCallbacks.values()) {
+                            notFound.addAll(callbacks);
+                        }
+                        mWaitingCallbacks.clear();
+                    }
+                    again = locks != null && hasWaitingCallbacks() && mLoadsInFlight == 0;
+                }
+                if (!answered.isEmpty() || !notFound.isEmpty() || !locksCallbacks.isEmpty()) {
+                    mCallbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (Map.Entry<Lock, List<OnLockCallback>> entry
+                                    : answered.entrySet()) {
+                                for (OnLockCallback callback : entry.getValue()) {
+                                    callback.onLock(entry.getKey());
+                                }
+                            }
+                            for (OnLockCallback callback : notFound) {
+                                callback.onLock(null);
+                            }
+                            for (OnLocksCallback callback : locksCallbacks) {
+                                callback.onLocks(allLocks);
+                            }
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether callbacks wait for a load. Must be called while holding the lock of the
+     * cache.
+     *
+     * @return True if a callback waits for a lock or for all locks, false otherwise.
+     */
+    private boolean hasWaitingCallbacks() {
+        return !mWaitingCallbacks.isEmpty() || !mLocksCallbacks.isEmpty();
+    }
+
+    /**
+     * Removes the waiting callbacks that can be answered: those of the cached locks, and all
+     * others if all locks are loaded. Must be called while holding the lock of the cache.
+     *
+     * @param answered Receives the callbacks of the cached locks, by lock.
+     * @param notFound Receives the callbacks of the locks that the user does not have.
+     */
+    private void takeWaitingCallbacks(Map<Lock, List<OnLockCallback>> answered,
+                                      List<OnLockCallback> notFound) {
+        Iterator<Map.Entry<String, List<OnLockCallback>>> iterator =
+                mWaitingCallbacks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, List<OnLockCallback>> entry = iterator.next();
+            Lock lock = mLocks.get(entry.getKey());
+            if (lock != null) {
+                answered.put(lock, entry.getValue());
+                iterator.remove();
+            } else if (mLoaded) {
+                notFound.addAll(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Stores the metadata of a lock, e.g. when the lock is added.
+     *
+     * @param lock The lock.
+     */
+    synchronized void put(Lock lock) {
+        mVersion++;
+        mLocks.put(lock.getMac().toUpperCase(), lock);
+    }
+
+    /**
+     * Removes a lock from the cache, e.g. when the lock is removed.
+     *
+     * @param lockMac The MAC address of the lock.
+     */
+    synchronized void remove(String lockMac) {
+        mVersion++;
+        mLocks.remove(lockMac.toUpperCase());
+    }
+
+    /**
+     * Marks the cache as incomplete, the cached locks are still used until the locks are loaded
+     * again.
+     */
+    synchronized void invalidate() {
+        mVersion++;
+        mLoaded = false;
+    }
+
+    /**
+     * Removes all locks, e.g. when the user signs out.
+     */
+    synchronized void clear() {
+        mVersion++;
+        mLocks.clear();
+        mLoaded = false;
+    }
+}
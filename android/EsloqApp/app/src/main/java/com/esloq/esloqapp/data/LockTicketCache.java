@@ -0,0 +1,234 @@
+package com.esloq.esloqapp.data;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory cache of session keys and lock tickets, keyed by lock MAC address. Tickets are fetched
+ * from the server ahead of time so that a lock can be opened without waiting for the network.
+ * <p/>
+ * A ticket can only be used once, the lock rejects a ticket whose nonce is not larger than the
+ * nonce of the last ticket it accepted. A cached ticket is therefore removed from the cache when it
+ * is taken, and a cached ticket can become stale when a newer ticket for the same lock is used,
+ * e.g. by another user. Tickets expire after <code>TICKET_TTL_MS</code>.
+ * <p/>
+ * The cache is shared by all repository instances, use {@link #getInstance()}.
+ */
+class LockTicketCache {
+
+    /**
+     * Time in milliseconds after which a cached ticket is no longer used.
+     */
+    static final long TICKET_TTL_MS = 12 * 60 * 60 * 1000;
+
+    /**
+     * Time in milliseconds after which a fetch that is in flight is assumed to be lost, the server
+     * API does not report every failure.
+     */
+    static final long FETCH_TIMEOUT_MS = 30 * 1000;
+
+    /**
+     * A session key together with the lock ticket that contains it.
+     */
+    static class Ticket {
+
+        private final byte[] mSessionKey;
+        private final byte[] mLockTicket;
+        private final long mFetchTime;
+
+        Ticket(byte[] sessionKey, byte[] lockTicket, long fetchTime) {
+            mSessionKey = sessionKey;
+            mLockTicket = lockTicket;
+            mFetchTime = fetchTime;
+        }
+
+        byte[] getSessionKey() {
+            return mSessionKey;
+        }
+
+        byte[] getLockTicket() {
+            return mLockTicket;
+        }
+
+        long getFetchTime() {
+            return mFetchTime;
+        }
+    }
+
+    /**
+     * A ticket fetch that is in flight.
+     */
+    private static class PendingFetch {
+
+        private final long mStartTime;
+        private final List<LockDataRepository.OnSessionCallback> mCallbacks = new ArrayList<>();
+
+        PendingFetch(long startTime) {
+            mStartTime = startTime;
+        }
+    }
+
+    private static LockTicketCache sInstance;
+
+    /**
+     * Time to live of the cached tickets in milliseconds.
+     */
+    private final long mTtlMs;
+
+    /**
+     * The cached tickets, by lock MAC address.
+     */
+    private final Map<String, Ticket> mTickets = new HashMap<>();
+
+    /**
+     * Locks for which a ticket is being fetched, with the callbacks that are waiting to use the
+     * fetched ticket.
+     */
+    private final Map<String, PendingFetch> mPendingFetches = new HashMap<>();
+
+    /**
+     * Returns the cache that is shared by all repository instances.
+     *
+     * @return The ticket cache.
+     */
+    static synchronized LockTicketCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new LockTicketCache(TICKET_TTL_MS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Construct a new cache.
+     *
+     * @param ttlMs Time in milliseconds after which a cached ticket is no longer used.
+     */
+    LockTicketCache(long ttlMs) {
+        mTtlMs = ttlMs;
+    }
+
+    /**
+     * Remove a valid ticket from the cache so that it can be used.
+     *
+     * @param lockMac The MAC address of the lock.
+     * @return The ticket, or null if no valid ticket is cached for the lock.
+     */
+    synchronized Ticket take(String lockMac) {
+        Ticket ticket = mTickets.remove(lockMac.toUpperCase());
+        if (ticket != null && isExpired(ticket)) {
+            return null;
+        }
+        return ticket;
+    }
+
+    /**
+     * Returns whether a valid ticket is cached for a lock.
+     *
+     * @param lockMac The MAC address of the lock.
+     * @return True if a ticket that has not expired is cached, false otherwise.
+     */
+    synchronized boolean contains(String lockMac) {
+        Ticket ticket = mTickets.get(lockMac.toUpperCase());
+        return ticket != null && !isExpired(ticket);
+    }
+
+    /**
+     * Remove the cached ticket for a lock, e.g. because the lock did not accept a ticket or the
+     * user no longer has access to the lock.
+     *
+     * @param lockMac The MAC address of the lock.
+     */
+    synchronized void invalidate(String lockMac) {
+        mTickets.remove(lockMac.toUpperCase());
+    }
+
+    /**
+     * Remove all cached tickets, e.g. when the user signs out.
+     */
+    synchronized void clear() {
+        mTickets.clear();
+        mPendingFetches.clear();
+    }
+
+    /**
+     * Register the start of a ticket fetch for a lock. Only one fetch per lock is in flight at a
+     * time, a caller that wants to use a ticket while a fetch is in flight waits for that fetch. A
+     * fetch that did not finish within <code>FETCH_TIMEOUT_MS</code> is started again.
+     *
+     * @param lockMac The MAC address of the lock.
+     * @param callback Callback that will use the fetched ticket, null for a prefetch.
+     * @return True if the caller must fetch the ticket, false if a fetch is already in flight.
+     */
+    synchronized boolean startFetch(String lockMac,
+                                    LockDataRepository.OnSessionCallback callback) {
+        lockMac = lockMac.toUpperCase();
+        long now = elapsedRealtime();
+        PendingFetch fetch = mPendingFetches.get(lockMac);
+        boolean start = fetch == null || now - fetch.mStartTime >= FETCH_TIMEOUT_MS;
+        if (start) {
+            PendingFetch lostFetch = fetch;
+            fetch = new PendingFetch(now);
+            if (lostFetch != null) {
+                fetch.mCallbacks.addAll(lostFetch.mCallbacks);
+            }
+            mPendingFetches.put(lockMac, fetch);
+        }
+        if (callback != null) {
+            fetch.mCallbacks.add(callback);
+        }
+        return start;
+    }
+
+    /**
+     * Register the end of a ticket fetch for a lock and store the fetched ticket, replacing any
+     * ticket that was cached for the same lock. The newly fetched ticket has the largest nonce, so
+     * a previously cached ticket would be rejected once this ticket has been used. The ticket is
+     * not stored if the cache was cleared while the fetch was in flight.
+     *
+     * @param lockMac The MAC address of the lock.
+     * @param sessionKey The fetched session key, null if the fetch failed.
+     * @param lockTicket The fetched lock ticket, null if the fetch failed.
+     * @return The callbacks that were waiting for the fetch.
+     */
+    synchronized List<LockDataRepository.OnSessionCallback> finishFetch(String lockMac,
+                                                                        byte[] sessionKey,
+                                                                        byte[] lockTicket) {
+        lockMac = lockMac.toUpperCase();
+        PendingFetch fetch = mPendingFetches.remove(lockMac);
+        if (fetch == null) {
+            return Collections.emptyList();
+        }
+        if (sessionKey != null && lockTicket != null) {
+            mTickets.put(lockMac, new Ticket(sessionKey, lockTicket, elapsedRealtime()));
+        }
+        return fetch.mCallbacks;
+    }
+
+    /**
+     * Returns whether a ticket fetch is in flight for a lock.
+     *
+     * @param lockMac The MAC address of the lock.
+     * @return True if a ticket is being fetched, false otherwise.
+     */
+    synchronized boolean isFetching(String lockMac) {
+        return mPendingFetches.containsKey(lockMac.toUpperCase());
+    }
+
+    /**
+     * Returns the time since boot in milliseconds, used for the expiry of the tickets.
+     *
+     * @return Milliseconds since boot.
+     */
+    long elapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    private boolean isExpired(Ticket ticket) {
+        return elapsedRealtime() - ticket.getFetchTime() >= mTtlMs;
+    }
+}
@@ -0,0 +1,192 @@
+package com.esloq.esloqapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Replaces the logs that are older than the retention window by their counts per user, lock and
+ * day. The logs are compacted a batch at a time, from the oldest log of every lock on, so that a
+ * batch only holds the database for a short time.
+ */
+class LogCompactor {
+
+    /**
+     * Selects the logs of a lock up to and including a log, in the order of the logs.
+     */
+    private static final String SELECTION_UP_TO =
+            DatabaseContract.Log.COLUMN_NAME_LOCKMAC + " = ? AND " +
+                    DatabaseContract.Log.COLUMN_NAME_TIMESTAMP + " <= ? AND (" +
+                    DatabaseContract.Log.COLUMN_NAME_TIMESTAMP + " < ? OR " +
+                    DatabaseContract.Log._ID + " <= ?)";
+
+    private static final String SELECTION_ROLLUP =
+            DatabaseContract.LogRollup.COLUMN_NAME_LOCKMAC + " = ? AND " +
+                    DatabaseContract.LogRollup.COLUMN_NAME_DAY + " = ? AND " +
+                    DatabaseContract.LogRollup.COLUMN_NAME_USERID + " = ?";
+
+    private final SQLiteDatabase mDb;
+    private final TimeZone mTimeZone;
+    private final Set<String> mChangedLocks = new LinkedHashSet<>();
+
+    /**
+     * Construct a compactor.
+     *
+     * @param db The database.
+     * @param timeZone The time zone in which the days of the counts start.
+     */
+    LogCompactor(SQLiteDatabase db, TimeZone timeZone) {
+        mDb = db;
+        mTimeZone = timeZone;
+    }
+
+    /**
+     * Compacts a batch of logs that are older than a time, in one transaction.
+     *
+     * @param cutoff The time before which the logs are compacted, in seconds since the epoch.
+     * @param maxRows The maximum number of logs of the batch.
+     * @return The number of logs that were compacted, less than <code>maxRows</code> if no
+     * older logs are left.
+     */
+    int compact(long cutoff, int maxRows) {
+        int compacted = 0;
+        mDb.beginTransaction();
+        try {
+            for (String lockMac : getLockMacs()) {
+                if (compacted == maxRows) {
+                    break;
+                }
+                int lockCompacted = compactLock(lockMac, cutoff, maxRows - compacted);
+                if (lockCompacted > 0) {
+                    mChangedLocks.add(lockMac);
+                    compacted += lockCompacted;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return compacted;
+    }
+
+    /**
+     * Returns the locks of which logs were compacted.
+     *
+     * @return The MAC addresses of the locks.
+     */
+    Set<String> getChangedLocks() {
+        return mChangedLocks;
+    }
+
+    /**
+     * Returns the locks of which the logs are compacted.
+     *
+     * @return The MAC addresses of the locks.
+     */
+    private List<String> getLockMacs() {
+        List<String> lockMacs = new ArrayList<>();
+        Cursor cursor = mDb.query(DatabaseContract.Lock.TABLE_NAME,
+                new String[] {DatabaseContract.Lock.COLUMN_NAME_MAC}, null, null, null, null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                lockMacs.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return lockMacs;
+    }
+
+    /**
+     * Compacts the oldest logs of a lock.
+     *
+     * @param lockMac The MAC address of the lock.
+     * @param cutoff The time before which the logs are compacted, in seconds since the epoch.
+     * @param maxRows The maximum number of logs to compact.
+     * @return The number of logs that were compacted.
+     */
+    private int compactLock(String lockMac, long cutoff, int maxRows) {
+        String[] projection = {
+                DatabaseContract.Log.COLUMN_NAME_USERID,
+                DatabaseContract.Log.COLUMN_NAME_TIMESTAMP,
+                DatabaseContract.Log.COLUMN_NAME_LOCKSTATE,
+                DatabaseContract.Log._ID,
+        };
+        LogRollups rollups = new LogRollups(mTimeZone);
+        int count = 0;
+        long lastTimestamp = 0;
+        long lastId = 0;
+        Cursor cursor = mDb.query(DatabaseContract.Log.TABLE_NAME, projection,
+                DatabaseContract.Log.COLUMN_NAME_LOCKMAC + " = ? AND " +
+                        DatabaseContract.Log.COLUMN_NAME_TIMESTAMP + " < ?",
+                new String[] {lockMac, String.valueOf(cutoff)}, null, null,
+                DatabaseContract.Log.COLUMN_NAME_TIMESTAMP + " ASC, " +
+                        DatabaseContract.Log._ID + " ASC", String.valueOf(maxRows));
+        try {
+            while (cursor.moveToNext()) {
+                lastTimestamp = cursor.getLong(1);
+                lastId = cursor.getLong(3);
+                rollups.add(cursor.getInt(0), lastTimestamp, cursor.getInt(2) == 1);
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        if (count == 0) {
+            return 0;
+        }
+        for (LogRollups.Rollup rollup : rollups.getRollups()) {
+            addRollup(lockMac, rollup);
+        }
+        String timestamp = String.valueOf(lastTimestamp);
+        mDb.delete(DatabaseContract.Log.TABLE_NAME, SELECTION_UP_TO,
+                new String[] {lockMac, timestamp, timestamp, String.valueOf(lastId)});
+        return count;
+    }
+
+    /**
+     * Adds counts to the stored counts of their user, lock and day.
+     *
+     * @param lockMac The MAC address of the lock.
+     * @param rollup The counts.
+     */
+    private void addRollup(String lockMac, LogRollups.Rollup rollup) {
+        SQLiteStatement update = mDb.compileStatement("UPDATE " +
+                DatabaseContract.LogRollup.TABLE_NAME + " SET " +
+                DatabaseContract.LogRollup.COLUMN_NAME_LOCKED_COUNT + " = " +
+                DatabaseContract.LogRollup.COLUMN_NAME_LOCKED_COUNT + " + ?, " +
+                DatabaseContract.LogRollup.COLUMN_NAME_UNLOCKED_COUNT + " = " +
+                DatabaseContract.LogRollup.COLUMN_NAME_UNLOCKED_COUNT + " + ? WHERE " +
+                SELECTION_ROLLUP);
+        int updated;
+        try {
+            update.bindLong(1, rollup.getLockedCount());
+            update.bindLong(2, rollup.getUnlockedCount());
+            update.bindString(3, lockMac);
+            update.bindLong(4, rollup.getDay());
+            update.bindLong(5, rollup.getUserId());
+            updated = update.executeUpdateDelete();
+        } finally {
+            update.close();
+        }
+        if (updated > 0) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(DatabaseContract.LogRollup.COLUMN_NAME_LOCKMAC, lockMac);
+        values.put(DatabaseContract.LogRollup.COLUMN_NAME_USERID, rollup.getUserId());
+        values.put(DatabaseContract.LogRollup.COLUMN_NAME_DAY, rollup.getDay());
+        values.put(DatabaseContract.LogRollup.COLUMN_NAME_LOCKED_COUNT, rollup.getLockedCount());
+        values.put(DatabaseContract.LogRollup.COLUMN_NAME_UNLOCKED_COUNT,
+                rollup.getUnlockedCount());
+        mDb.insert(DatabaseContract.LogRollup.TABLE_NAME, null, values);
+    }
+}
@@ -0,0 +1,43 @@
+package com.esloq.esloqapp.data;
+
+/**
+ * A row of the log list of a lock.
+ */
+public final class LogEntry {
+
+    private final long mId;
+    private final String mUserName;
+    private final long mTimestamp;
+    private final boolean mLocked;
+
+    /**
+     * Construct a log entry.
+     *
+     * @param id The id of the log in the local database.
+     * @param userName The name of the user that opened or closed the lock.
+     * @param timestamp The time of the log, in seconds since the epoch.
+     * @param locked True if the lock was locked, false if it was unlocked.
+     */
+    public LogEntry(long id, String userName, long timestamp, boolean locked) {
+        mId = id;
+        mUserName = userName;
+        mTimestamp = timestamp;
+        mLocked = locked;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getUserName() {
+        return mUserName;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public boolean isLocked() {
+        return mLocked;
+    }
+}
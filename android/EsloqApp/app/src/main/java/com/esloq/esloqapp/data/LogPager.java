@@ -0,0 +1,472 @@
+package com.esloq.esloqapp.data;
+
+import com.esloq.esloqapp.util.RowDiff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads the log list of a lock a page at a time, from the newest to the oldest log. The pages
+ * are read with keyset pagination: a page starts after the time and id of the last log of the
+ * previous page, so reading a page costs the same at the start and at the end of a long list.
+ * <p/>
+ * The next page is prefetched when a log near the end of the list is shown. Only the pages
+ * around the last shown position are kept in memory, a page that was dropped is read again
+ * when it is shown.
+ * <p/>
+ * When the pager is refreshed, the logs that are shown stay in place until the first page was
+ * read again. The first page is then compared with the one that was shown, so that only the logs
+ * that were added, removed or changed are updated. The first page keeps ending at the same log,
+ * so that the later pages, which start after that log, are kept. The first page therefore grows
+ * when logs are added, the other pages hold <code>PAGE_SIZE</code> logs.
+ * <p/>
+ * The pager is used from the main thread, the pages are read on a background executor.
+ */
+public class LogPager {
+
+    /**
+     * The source of the pages.
+     */
+    public interface Source {
+
+        /**
+         * Reads a page of logs. Called on a background thread.
+         *
+         * @param after The last log of the previous page, null for the first page.
+         * @param limit The maximum number of logs of the page.
+         * @return The logs, from the newest to the oldest log.
+         */
+        List<LogEntry> load(LogEntry after, int limit);
+    }
+
+    /**
+     * Listener that is notified when the logs of the pager change.
+     */
+    public interface Listener {
+
+        /**
+         * Called when logs were added at the end of the list.
+         *
+         * @param position The position of the first added log.
+         * @param count The number of added logs.
+         */
+        void onLogsInserted(int position, int count);
+
+        /**
+         * Called when logs were removed.
+         *
+         * @param position The position of the first removed log.
+         * @param count The number of removed logs.
+         */
+        void onLogsRemoved(int position, int count);
+
+        /**
+         * Called when a dropped page was read again, or when logs of the first page changed.
+         *
+         * @param position The position of the first log of the page.
+         * @param count The number of logs of the page.
+         */
+        void onLogsChanged(int position, int count);
+
+        /**
+         * Called when all logs were read again from the first page, because the first page that
+         * was shown had been dropped.
+         */
+        void onLogsReset();
+    }
+
+    /**
+     * Number of logs of a page.
+     */
+    static final int PAGE_SIZE = 50;
+
+    /**
+     * The next page is read when a log this close to the end of the list is shown.
+     */
+    static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /**
+     * Number of pages that are kept before and after the page of the last shown position.
+     */
+    static final int RETAINED_PAGES = 1;
+
+    private final Source mSource;
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+    private final Listener mListener;
+
+    /**
+     * The pages that were read, null for a page that was dropped or is being read again.
+     */
+    private final List<List<LogEntry>> mPages = new ArrayList<>();
+
+    /**
+     * The last log of every page that was read, from which the next page is read.
+     */
+    private final List<LogEntry> mPageEnds = new ArrayList<>();
+
+    /**
+     * The pages that are being read.
+     */
+    private final List<Integer> mLoadingPages = new ArrayList<>();
+
+    private int mCount;
+    private boolean mEndReached;
+
+    /**
+     * The number of logs of the first page, also when the first page was dropped.
+     */
+    private int mFirstPageSize;
+
+    /**
+     * Whether the first page is being read again by {@link #refresh()}.
+     */
+    private boolean mRefreshing;
+
+    /**
+     * Incremented when the pager is refreshed, so that a first page that was being read is
+     * ignored. A later page is ignored if the page before it no longer ends where the page was
+     * read from.
+     */
+    private int mGeneration;
+
+    /**
+     * Construct a pager. The first page is read when {@link #refresh()} is called.
+     *
+     * @param source The source of the pages.
+     * @param backgroundExecutor Executor on which the pages are read.
+     * @param mainExecutor Executor of the main thread, on which the pages are delivered.
+     * @param listener Listener that is notified when the logs change.
+     */
+    public LogPager(Source source, Executor backgroundExecutor, Executor mainExecutor,
+                    Listener listener) {
+        mSource = source;
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+        mListener = listener;
+    }
+
+    /**
+     * Returns the number of logs that were read so far.
+     *
+     * @return The number of logs.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the log at a position and reads the pages that are needed around it. If the page
+     * of the position was dropped, null is returned and the listener is notified when the page
+     * was read again.
+     *
+     * @param position The position.
+     * @return The log, null if it is not in memory.
+     */
+    public LogEntry get(int position) {
+        int page = getPage(position);
+        if (mRefreshing) {
+            // The pages are read again after the first page was compared.
+            List<LogEntry> logs = mPages.get(page);
+            return logs == null ? null : logs.get(position - getPageStart(page));
+        }
+        dropPagesAround(page);
+        if (position >= mCount - PREFETCH_DISTANCE && !mEndReached) {
+            loadPage(mPages.size());
+        }
+        List<LogEntry> logs = mPages.get(page);
+        if (logs == null) {
+            loadPage(page);
+            return null;
+        }
+        return logs.get(position - getPageStart(page));
+    }
+
+    /**
+     * Reads the first page again, e.g. when the logs in the database changed. The other pages
+     * are kept, unless the list now ends within the first page or more than
+     * <code>PAGE_SIZE</code> logs were added.
+     */
+    public void refresh() {
+        mGeneration++;
+        mLoadingPages.remove(Integer.valueOf(0));
+        mRefreshing = true;
+        loadPage(0);
+    }
+
+    /**
+     * Returns the number of pages that are kept in memory.
+     *
+     * @return The number of pages.
+     */
+    int getRetainedPageCount() {
+        int count = 0;
+        for (List<LogEntry> logs : mPages) {
+            if (logs != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the index of the page of a position.
+     *
+     * @param position The position.
+     * @return The index of the page.
+     */
+    private int getPage(int position) {
+        if (position < mFirstPageSize) {
+            return 0;
+        }
+        return 1 + (position - mFirstPageSize) / PAGE_SIZE;
+    }
+
+    /**
+     * Returns the position of the first log of a page.
+     *
+     * @param page The index of the page.
+     * @return The position.
+     */
+    private int getPageStart(int page) {
+        return page == 0 ? 0 : mFirstPageSize + (page - 1) * PAGE_SIZE;
+    }
+
+    /**
+     * Reads a page on the background executor, unless it is already being read. The first page
+     * is read again with room for a page of added logs, so that it still reaches the log at which
+     * it ended.
+     *
+     * @param page The index of the page, at most the number of pages that were read.
+     */
+    private void loadPage(final int page) {
+        if (mLoadingPages.contains(page)) {
+            return;
+        }
+        mLoadingPages.add(page);
+        final int generation = mGeneration;
+        final LogEntry after = page == 0 ? null : mPageEnds.get(page - 1);
+        final int limit = page == 0 && !mPages.isEmpty() ? mFirstPageSize + PAGE_SIZE : PAGE_SIZE;
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<LogEntry> logs = mSource.load(after, limit);
+                mMainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean current = page == 0 ? generation == mGeneration
+                                : page <= mPages.size() && mPageEnds.get(page - 1) == after;
+                        if (current) {
+                            onPageLoaded(page, logs, limit);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stores a page that was read and notifies the listener.
+     *
+     * @param page The index of the page.
+     * @param logs The logs of the page.
+     * @param limit The maximum number of logs that were read.
+     */
+    private void onPageLoaded(int page, List<LogEntry> logs, int limit) {
+        mLoadingPages.remove(Integer.valueOf(page));
+        if (page == 0) {
+            mRefreshing = false;
+            if (!mPages.isEmpty()) {
+                onFirstPageRefreshed(logs, limit);
+                return;
+            }
+        }
+        if (page < mPages.size()) {
+            mPages.set(page, logs);
+            mListener.onLogsChanged(getPageStart(page), logs.size());
+            return;
+        }
+        mEndReached = logs.size() < limit;
+        if (logs.isEmpty()) {
+            return;
+        }
+        if (page == 0) {
+            mFirstPageSize = logs.size();
+        }
+        mPages.add(logs);
+        mPageEnds.add(logs.get(logs.size() - 1));
+        int position = mCount;
+        mCount += logs.size();
+        mListener.onLogsInserted(position, logs.size());
+    }
+
+    /**
+     * Updates the first page after it was read again, up to the log at which it ended, and
+     * keeps the later pages. If the list now ends within the first page the later pages are
+     * removed, and if more logs were added than were read all pages are read again.
+     *
+     * @param logs The logs that were read from the start of the list.
+     * @param limit The maximum number of logs that were read.
+     */
+    private void onFirstPageRefreshed(List<LogEntry> logs, int limit) {
+        List<LogEntry> oldLogs = mPages.get(0);
+        if (logs.size() < limit) {
+            // All logs were read.
+            replacePages(oldLogs, logs, limit);
+            return;
+        }
+        LogEntry firstPageEnd = mPageEnds.get(0);
+        if (isAfter(firstPageEnd, logs.get(logs.size() - 1))) {
+            // The logs between the read logs and the later pages are not known.
+            reset(logs, limit);
+            return;
+        }
+        List<LogEntry> firstPage = new ArrayList<>();
+        for (LogEntry log : logs) {
+            if (isAfter(log, firstPageEnd)) {
+                break;
+            }
+            firstPage.add(log);
+        }
+        int oldSize = mFirstPageSize;
+        mPages.set(0, firstPage);
+        mFirstPageSize = firstPage.size();
+        mCount += firstPage.size() - oldSize;
+        if (oldLogs != null) {
+            dispatchDiff(oldLogs, firstPage);
+        } else if (oldSize == firstPage.size()) {
+            if (oldSize > 0) {
+                mListener.onLogsChanged(0, oldSize);
+            }
+        } else {
+            if (oldSize > 0) {
+                mListener.onLogsRemoved(0, oldSize);
+            }
+            if (!firstPage.isEmpty()) {
+                mListener.onLogsInserted(0, firstPage.size());
+            }
+        }
+    }
+
+    /**
+     * Replaces the pages by the first page, which holds all logs. The logs after the first page
+     * that was shown are removed, and the first page is compared with the one that was shown.
+     *
+     * @param oldLogs The first page that was shown, null if it was dropped.
+     * @param logs All logs.
+     * @param limit The maximum number of logs that were read.
+     */
+    private void replacePages(List<LogEntry> oldLogs, List<LogEntry> logs, int limit) {
+        if (oldLogs == null) {
+            reset(logs, limit);
+            return;
+        }
+        if (mCount > mFirstPageSize) {
+            int removed = mCount - mFirstPageSize;
+            mCount = mFirstPageSize;
+            mListener.onLogsRemoved(mCount, removed);
+        }
+        mPages.clear();
+        mPageEnds.clear();
+        mLoadingPages.clear();
+        if (!logs.isEmpty()) {
+            mPages.add(logs);
+            mPageEnds.add(logs.get(logs.size() - 1));
+        }
+        mCount = logs.size();
+        mFirstPageSize = logs.size();
+        mEndReached = true;
+        dispatchDiff(oldLogs, logs);
+    }
+
+    /**
+     * Replaces all pages by the first page.
+     *
+     * @param logs The logs of the first page.
+     * @param limit The maximum number of logs that were read.
+     */
+    private void reset(List<LogEntry> logs, int limit) {
+        mPages.clear();
+        mPageEnds.clear();
+        mLoadingPages.clear();
+        mCount = 0;
+        mFirstPageSize = 0;
+        mEndReached = false;
+        mListener.onLogsReset();
+        onPageLoaded(0, logs, limit);
+    }
+
+    /**
+     * Notifies the listener of the logs that were added, removed or changed between two versions
+     * of the first page.
+     *
+     * @param oldLogs The logs that were shown.
+     * @param logs The logs that are shown now.
+     */
+    private void dispatchDiff(List<LogEntry> oldLogs, List<LogEntry> logs) {
+        RowDiff diff = RowDiff.compute(getIds(oldLogs), getHashes(oldLogs), getIds(logs),
+                getHashes(logs));
+        diff.dispatch(new RowDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                mListener.onLogsInserted(position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                mListener.onLogsRemoved(position, count);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                mListener.onLogsChanged(position, count);
+            }
+        });
+    }
+
+    /**
+     * Returns whether a log comes after another log in the list, which is ordered from the
+     * newest to the oldest log by time and id.
+     */
+    private static boolean isAfter(LogEntry log, LogEntry other) {
+        return log.getTimestamp() < other.getTimestamp()
+                || (log.getTimestamp() == other.getTimestamp() && log.getId() < other.getId());
+    }
+
+    private static long[] getIds(List<LogEntry> logs) {
+        long[] ids = new long[logs.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = logs.get(i).getId();
+        }
+        return ids;
+    }
+
+    /**
+     * Returns hashes of the shown values of logs, e.g. the name of the user may change.
+     */
+    private static long[] getHashes(List<LogEntry> logs) {
+        long[] hashes = new long[logs.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            LogEntry log = logs.get(i);
+            String userName = log.getUserName();
+            long hash = userName == null ? 0 : userName.hashCode();
+            hash = 31 * hash + log.getTimestamp();
+            hashes[i] = 31 * hash + (log.isLocked() ? 1 : 0);
+        }
+        return hashes;
+    }
+
+    /**
+     * Drops the pages that are further than <code>RETAINED_PAGES</code> from a page.
+     *
+     * @param page The index of the page.
+     */
+    private void dropPagesAround(int page) {
+        for (int i = 0; i < mPages.size(); i++) {
+            if (Math.abs(i - page) > RETAINED_PAGES) {
+                mPages.set(i, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.esloq.esloqapp.data;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Retention policy of the logs in the local database. The logs of the last
+ * {@link PreferencesServiceApi#getLogRetentionDays()} days are kept, older logs are replaced by
+ * their counts per user, lock and day. The logs are compacted a batch at a time, so that the
+ * compaction can be stopped between batches.
+ */
+class LogRetention {
+
+    /**
+     * Maximum number of logs that are compacted in one transaction.
+     */
+    static final int BATCH_SIZE = 500;
+
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private final LocalDataServiceApi mLocalApi;
+    private final PreferencesServiceApi mPreferencesApi;
+
+    /**
+     * Construct the retention policy.
+     *
+     * @param localApi The local database.
+     * @param preferencesApi The preferences that hold the retention window.
+     */
+    LogRetention(LocalDataServiceApi localApi, PreferencesServiceApi preferencesApi) {
+        mLocalApi = localApi;
+        mPreferencesApi = preferencesApi;
+    }
+
+    /**
+     * Compacts the logs that are older than the retention window, until no such logs are left
+     * or until the compaction is stopped.
+     *
+     * @param now The current time, in seconds since the epoch.
+     * @param stopped Set when the compaction should stop after the current batch.
+     * @return True if all logs were compacted, false if the compaction was stopped.
+     */
+    boolean run(long now, AtomicBoolean stopped) {
+        long cutoff = now - mPreferencesApi.getLogRetentionDays() * SECONDS_PER_DAY;
+        while (!stopped.get()) {
+            if (mLocalApi.compactLogs(cutoff, BATCH_SIZE) < BATCH_SIZE) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
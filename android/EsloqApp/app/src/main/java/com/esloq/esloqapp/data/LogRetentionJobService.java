@@ -0,0 +1,74 @@
+package com.esloq.esloqapp.data;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Job that applies the {@link LogRetention} policy once a day, while the device is idle and
+ * charging. When the device leaves the idle state the job stops after the current batch and is
+ * run again later.
+ */
+public class LogRetentionJobService extends JobService {
+
+    private static final int JOB_ID = 1;
+
+    private static final long INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Set when the job should stop.
+     */
+    private AtomicBoolean mStopped;
+
+    /**
+     * Schedule the job, unless it is already scheduled.
+     *
+     * @param context The application's context.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(
+                Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, LogRetentionJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final AtomicBoolean stopped = new AtomicBoolean();
+        mStopped = stopped;
+        final LogRetention retention = new LogRetention(new LocalDataServiceApiImpl(this),
+                new PreferencesServiceApiImpl(this));
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (retention.run(System.currentTimeMillis() / 1000, stopped)) {
+                    jobFinished(params, false);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        mStopped.set(true);
+        return true;
+    }
+}
@@ -0,0 +1,105 @@
+package com.esloq.esloqapp.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Counts logs per user and day, to replace logs that are older than the retention window.
+ */
+final class LogRollups {
+
+    /**
+     * The number of times a user locked and unlocked a lock on a day.
+     */
+    static final class Rollup {
+
+        private final int mUserId;
+        private final long mDay;
+        private int mLockedCount;
+        private int mUnlockedCount;
+
+        Rollup(int userId, long day) {
+            mUserId = userId;
+            mDay = day;
+        }
+
+        int getUserId() {
+            return mUserId;
+        }
+
+        long getDay() {
+            return mDay;
+        }
+
+        int getLockedCount() {
+            return mLockedCount;
+        }
+
+        int getUnlockedCount() {
+            return mUnlockedCount;
+        }
+    }
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private final TimeZone mTimeZone;
+    private final Map<String, Rollup> mRollups = new LinkedHashMap<>();
+
+    /**
+     * Construct empty rollups.
+     *
+     * @param timeZone The time zone in which the days start.
+     */
+    LogRollups(TimeZone timeZone) {
+        mTimeZone = timeZone;
+    }
+
+    /**
+     * Counts a log.
+     *
+     * @param userId The user of the log.
+     * @param timestamp The time of the log, in seconds since the epoch.
+     * @param locked True if the lock was locked, false if it was unlocked.
+     */
+    void add(int userId, long timestamp, boolean locked) {
+        long day = getDay(timestamp, mTimeZone);
+        String key = userId + "/" + day;
+        Rollup rollup = mRollups.get(key);
+        if (rollup == null) {
+            rollup = new Rollup(userId, day);
+            mRollups.put(key, rollup);
+        }
+        if (locked) {
+            rollup.mLockedCount++;
+        } else {
+            rollup.mUnlockedCount++;
+        }
+    }
+
+    /**
+     * Returns the counts, in the order in which the user and day were first counted.
+     *
+     * @return The counts.
+     */
+    Collection<Rollup> getRollups() {
+        return new ArrayList<>(mRollups.values());
+    }
+
+    /**
+     * Returns the day of a time, in days since the epoch in a time zone.
+     *
+     * @param timestamp The time, in seconds since the epoch.
+     * @param timeZone The time zone in which the days start.
+     * @return The day.
+     */
+    static long getDay(long timestamp, TimeZone timeZone) {
+        long millis = timestamp * 1000;
+        long localMillis = millis + timeZone.getOffset(millis);
+        long day = localMillis / MILLIS_PER_DAY;
+        // Division rounds towards zero, the days before the epoch are rounded down.
+        return localMillis < 0 && localMillis % MILLIS_PER_DAY != 0 ? day - 1 : day;
+    }
+}
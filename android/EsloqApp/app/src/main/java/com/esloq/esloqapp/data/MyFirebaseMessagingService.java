@@ -99,6 +99,8 @@ public class MyFirebaseMessagingService extends FirebaseMessagingService {
                     if (myId.equals(data.get("addUserId"))) {
                         localDataServiceApi.addLock(lockMac, data.get("lockName"), Boolean
                                 .valueOf(data.get("lockClockwise")));
+                        Injection.provideLockDataRepository(getApplicationContext())
+                                .prefetchSessionKey(lockMac);
                     }
                     localDataServiceApi.addUserToLock(Integer.valueOf(data.get("addUserId")), data
                             .get("addUserName"), Boolean.valueOf(data.get("addUserValidated")), lockMac,
@@ -109,6 +111,8 @@ public class MyFirebaseMessagingService extends FirebaseMessagingService {
                     if (myId.equals(data.get("removeUserId"))) {
                         localDataServiceApi.addLock(lockMac, data.get("lockName"), Boolean
                                 .valueOf(data.get("lockClockwise")));
+                        Injection.provideLockDataRepository(getApplicationContext())
+                                .invalidateSessionKey(lockMac);
                     }
                     localDataServiceApi.removeUserFromLock(Integer.valueOf(data.get("removeUserId")),
                             lockMac);
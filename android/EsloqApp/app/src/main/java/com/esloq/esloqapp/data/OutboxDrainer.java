@@ -0,0 +1,466 @@
+package com.esloq.esloqapp.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Uploads the requests that are recorded in the outbox. A request is recorded in the local
+ * database before it is sent, so that e.g. the log of a lock that was opened while the phone was
+ * offline is not lost, and the caller does not wait for the network.
+ * <p/>
+ * The requests are sent one at a time, in the order they were recorded, so that e.g. a user
+ * that was added and removed again ends up removed. A request that did not reach the server is
+ * sent again after a delay that doubles with every attempt, with the same request id so that the
+ * server handles it once. A request that failed <code>MAX_ATTEMPTS</code> times, or that the
+ * server rejected, is dropped.
+ * <p/>
+ * Logs that follow each other in the outbox are uploaded together in one compressed request of at
+ * most <code>MAX_BATCH_SIZE</code> logs, so that a busy lock does not wake the radio for every
+ * log.
+ * <p/>
+ * The caller of a request learns the result of the first attempt to send it, later attempts
+ * happen in the background without a callback, so that the drainer does not hold on to the
+ * callback, and the views it refers to, while a request waits for its retry.
+ * <p/>
+ * The outbox is read and written on a background thread, the callbacks are called on the main
+ * thread. The drainer is shared by the app, use {@link #getInstance(Context)}.
+ */
+class OutboxDrainer {
+
+    /**
+     * Schedules the drainer to run again, also when the app is no longer running.
+     */
+    interface RetryScheduler {
+
+        /**
+         * Run the drainer again once the network is available, after a delay.
+         *
+         * @param delayMillis The delay in milliseconds.
+         */
+        void scheduleRetry(long delayMillis);
+    }
+
+    /**
+     * Number of times a request is sent before it is dropped.
+     */
+    static final int MAX_ATTEMPTS = 10;
+
+    /**
+     * Delay in milliseconds after the first failed attempt.
+     */
+    static final long INITIAL_BACKOFF_MILLIS = 30 * 1000;
+
+    /**
+     * Maximum delay in milliseconds between two attempts.
+     */
+    static final long MAX_BACKOFF_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * Maximum number of logs that are uploaded in one request.
+     */
+    static final int MAX_BATCH_SIZE = 200;
+
+    private static OutboxDrainer sInstance;
+
+    private final LocalDataServiceApi mLocalApi;
+    private final ServerDataServiceApi mServerApi;
+    private final PreferencesServiceApi mPreferencesApi;
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+    private final RetryScheduler mRetryScheduler;
+
+    /**
+     * Callbacks that wait for the result of the first attempt to send a request, by outbox id.
+     * Only used on the background thread.
+     */
+    private final Map<Long, LockDataRepository.OnResultCallback> mCallbacks = new HashMap<>();
+
+    /**
+     * Listeners that wait until no request can be sent right now. Only used on the background
+     * thread.
+     */
+    private final List<Runnable> mIdleListeners = new ArrayList<>();
+
+    /**
+     * Whether a request is being sent. Only used on the background thread.
+     */
+    private boolean mSending;
+
+    /**
+     * Incremented when the outbox is cleared, so that the response of a request that was being
+     * sent is ignored. Only used on the background thread.
+     */
+    private int mGeneration;
+
+    /**
+     * Returns the drainer that is shared by the app. The requests that were left in the outbox
+     * when the app was stopped are sent when the drainer is created.
+     *
+     * @param context The context of this application.
+     * @return The drainer.
+     */
+    static synchronized OutboxDrainer getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            sInstance = new OutboxDrainer(new LocalDataServiceApiImpl(appContext),
+                    new ServerDataServiceApiImpl(appContext),
+                    new PreferencesServiceApiImpl(appContext),
+                    Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            return new Thread(runnable, "OutboxDrainer");
+                        }
+                    }),
+                    new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            mainHandler.post(command);
+                        }
+                    },
+                    new RetryScheduler() {
+                        @Override
+                        public void scheduleRetry(long delayMillis) {
+                            OutboxJobService.schedule(appContext, delayMillis);
+                        }
+                    });
+            sInstance.drain(null);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Construct a drainer.
+     *
+     * @param localApi The local database, which holds the outbox.
+     * @param serverApi The server to which the requests are sent.
+     * @param preferencesApi The preferences, the requests are only sent while signed in.
+     * @param backgroundExecutor Single threaded executor on which the outbox is used.
+     * @param mainExecutor Executor of the main thread, on which the callbacks are called.
+     * @param retryScheduler Schedules the drainer when requests are left in the outbox.
+     */
+    OutboxDrainer(LocalDataServiceApi localApi, ServerDataServiceApi serverApi,
+                  PreferencesServiceApi preferencesApi, Executor backgroundExecutor,
+                  Executor mainExecutor, RetryScheduler retryScheduler) {
+        mLocalApi = localApi;
+        mServerApi = serverApi;
+        mPreferencesApi = preferencesApi;
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+        mRetryScheduler = retryScheduler;
+    }
+
+    /**
+     * Records a request in the outbox and starts sending the requests. Returns immediately.
+     *
+     * @param entry The request.
+     * @param callback Callback that is called with the result of the first attempt to send the
+     *                 request, null if the caller does not need the result. The result is false
+     *                 if the server rejected the request, if it could not be reached, or if the
+     *                 request could not be sent right away, in the last two cases the request
+     *                 stays in the outbox and is sent again in the background. The callback is
+     *                 not called if the app is stopped before the request was sent.
+     */
+    void enqueue(final OutboxEntry entry, final LockDataRepository.OnResultCallback callback) {
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long id = mLocalApi.addOutboxEntry(entry);
+                if (id != -1) {
+                    if (entry.getType() == OutboxEntry.Type.REMOVE_USER) {
+                        // The user is removed from the list right away, a sync restores the user
+                        // if the server rejects the request.
+                        mLocalApi.removeUserFromLock(entry.getUserId(), entry.getLockMac());
+                    }
+                    if (callback != null) {
+                        mCallbacks.put(id, callback);
+                    }
+                }
+                sendNext();
+            }
+        });
+    }
+
+    /**
+     * Starts sending the requests in the outbox.
+     *
+     * @param idleListener Listener that is called on a background thread when no request can be
+     *                     sent right now, i.e. when the outbox is empty, the next request waits
+     *                     for its retry, or the user is signed out. Null if not needed.
+     */
+    void drain(final Runnable idleListener) {
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (idleListener != null) {
+                    mIdleListeners.add(idleListener);
+                }
+                sendNext();
+            }
+        });
+    }
+
+    /**
+     * Removes all requests from the outbox, e.g. when the user signs out. A request that is
+     * being sent is not sent again.
+     */
+    void clear() {
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mLocalApi.clearOutbox();
+                mCallbacks.clear();
+                // The request that was being sent may have been cancelled with the other
+                // requests of the user, in which case its response never arrives.
+                mGeneration++;
+                mSending = false;
+            }
+        });
+    }
+
+    /**
+     * Returns the delay after a number of failed attempts.
+     *
+     * @param attempts The number of failed attempts, at least 1.
+     * @return The delay in milliseconds.
+     */
+    static long getBackoffMillis(int attempts) {
+        long delay = INITIAL_BACKOFF_MILLIS;
+        for (int i = 1; i < attempts && delay < MAX_BACKOFF_MILLIS; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Returns the current time, in milliseconds since the epoch.
+     *
+     * @return The current time.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Sends the oldest request in the outbox, together with the logs that directly follow it if
+     * it is a log itself, unless a request is being sent. Runs on the background thread.
+     */
+    private void sendNext() {
+        if (mSending) {
+            return;
+        }
+        if (!mPreferencesApi.isSignedIn()) {
+            onIdle();
+            return;
+        }
+        List<OutboxEntry> entries = mLocalApi.getOutboxEntries(MAX_BATCH_SIZE);
+        if (entries.isEmpty()) {
+            onIdle();
+            return;
+        }
+        OutboxEntry entry = entries.get(0);
+        long wait = entry.getNextAttempt() - currentTimeMillis();
+        if (wait > 0) {
+            mRetryScheduler.scheduleRetry(wait);
+            onIdle();
+            return;
+        }
+        mSending = true;
+        if (entry.getType() == OutboxEntry.Type.ADD_LOG) {
+            List<OutboxEntry> logs = getLogBatch(entries);
+            mServerApi.addLogs(mPreferencesApi.getUserId(), logs, new OutboxCallback<Void>(logs));
+        } else {
+            send(entry);
+        }
+    }
+
+    /**
+     * Returns the logs at the head of the outbox, up to the first other request or the first log
+     * that waits for its retry.
+     *
+     * @param entries The oldest entries in the outbox, in order, starting with a log.
+     * @return The logs of the batch.
+     */
+    private List<OutboxEntry> getLogBatch(List<OutboxEntry> entries) {
+        List<OutboxEntry> logs = new ArrayList<>();
+        long now = currentTimeMillis();
+        for (OutboxEntry entry : entries) {
+            if (entry.getType() != OutboxEntry.Type.ADD_LOG || entry.getNextAttempt() > now) {
+                break;
+            }
+            logs.add(entry);
+        }
+        return logs;
+    }
+
+    /**
+     * Sends a request other than a log to the server.
+     *
+     * @param entry The request.
+     */
+    private void send(final OutboxEntry entry) {
+        switch (entry.getType()) {
+            case ADD_USER:
+                mServerApi.addUser(entry.getRequestId(), entry.getEmail(), entry.getLockMac(),
+                        entry.isAdmin(), new OutboxCallback<UserData.User>(entry) {
+                            @Override
+                            void onHandled(UserData.User user) {
+                                mLocalApi.addUserToLock(user.getId(), user.getName(),
+                                        user.isValidated(), entry.getLockMac(), user.isAdmin());
+                            }
+                        });
+                break;
+            case REMOVE_USER:
+                mServerApi.removeUser(entry.getRequestId(), entry.getUserId(),
+                        entry.getLockMac(), new OutboxCallback<Void>(entry));
+                break;
+            case LOG:
+                mServerApi.log(entry.getRequestId(), entry.getMessage(),
+                        new OutboxCallback<Void>(entry));
+                break;
+        }
+    }
+
+    /**
+     * Handles the response of a request and sends the next request. Runs on the background
+     * thread.
+     *
+     * @param entries The entries that were sent in the request, the oldest first.
+     * @param response The response, null if the request did not reach the server.
+     */
+    private void onResponse(List<OutboxEntry> entries, ServerResponse<?> response) {
+        mSending = false;
+        if (response == null && !mPreferencesApi.isSignedIn()) {
+            // The user signed out while the request was being sent, the attempt is not counted
+            // and the outbox is cleared with the other data of the user.
+            for (OutboxEntry entry : entries) {
+                report(entry.getId(), false);
+            }
+            onIdle();
+            return;
+        }
+        if (response == null) {
+            long backoff = getBackoffMillis(entries.get(0).getAttempts() + 1);
+            boolean deferred = false;
+            for (OutboxEntry entry : entries) {
+                int attempts = entry.getAttempts() + 1;
+                if (attempts < MAX_ATTEMPTS) {
+                    mLocalApi.deferOutboxEntry(entry.getId(), attempts,
+                            currentTimeMillis() + backoff);
+                    report(entry.getId(), false);
+                    deferred = true;
+                } else {
+                    finish(entry, false);
+                }
+            }
+            if (deferred) {
+                mRetryScheduler.scheduleRetry(backoff);
+                onIdle();
+                return;
+            }
+        } else {
+            for (OutboxEntry entry : entries) {
+                finish(entry, response.isSuccess());
+            }
+        }
+        sendNext();
+    }
+
+    /**
+     * Removes a request from the outbox and passes its result to its callback.
+     *
+     * @param entry The request.
+     * @param success Whether the server handled the request.
+     */
+    private void finish(OutboxEntry entry, boolean success) {
+        mLocalApi.removeOutboxEntry(entry.getId());
+        report(entry.getId(), success);
+    }
+
+    /**
+     * Passes the result of the first attempt to send a request to its callback, if the callback
+     * is still waiting.
+     *
+     * @param id The outbox id of the request.
+     * @param success Whether the server handled the request.
+     */
+    private void report(long id, final boolean success) {
+        final LockDataRepository.OnResultCallback callback = mCallbacks.remove(id);
+        if (callback != null) {
+            mMainExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResult(success);
+                }
+            });
+        }
+    }
+
+    /**
+     * Called when no request can be sent right now. The requests that are still waiting for
+     * their first attempt stay in the outbox, their callbacks are told that the request was not
+     * sent.
+     */
+    private void onIdle() {
+        for (Long id : new ArrayList<>(mCallbacks.keySet())) {
+            report(id, false);
+        }
+        for (Runnable listener : mIdleListeners) {
+            listener.run();
+        }
+        mIdleListeners.clear();
+    }
+
+    /**
+     * Passes the response of a request to the background thread.
+     */
+    private class OutboxCallback<T> implements ServerDataServiceApi.DeliveryCallback<T> {
+
+        private final List<OutboxEntry> mEntries;
+        private final int mGeneration;
+
+        OutboxCallback(OutboxEntry entry) {
+            this(Collections.singletonList(entry));
+        }
+
+        OutboxCallback(List<OutboxEntry> entries) {
+            mEntries = entries;
+            mGeneration = OutboxDrainer.this.mGeneration;
+        }
+
+        /**
+         * Applies the result of a request that the server handled to the local database. Runs
+         * on the background thread, before the request is removed from the outbox.
+         *
+         * @param result The result.
+         */
+        void onHandled(T result) {
+        }
+
+        @Override
+        public void onResponse(final ServerResponse<T> response) {
+            mBackgroundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mGeneration != OutboxDrainer.this.mGeneration) {
+                        return;
+                    }
+                    if (response != null && response.isSuccess()) {
+                        onHandled(response.getResult());
+                    }
+                    OutboxDrainer.this.onResponse(mEntries, response);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.esloq.esloqapp.data;
+
+import java.util.UUID;
+
+/**
+ * A request to the server that is recorded in the outbox until it is uploaded. Every entry has
+ * a request id, with which the server recognizes a request that is sent again after its response
+ * was lost.
+ */
+final class OutboxEntry {
+
+    /**
+     * The kinds of request.
+     */
+    enum Type {
+        ADD_LOG,
+        ADD_USER,
+        REMOVE_USER,
+        LOG
+    }
+
+    private final long mId;
+    private final String mRequestId;
+    private final Type mType;
+    private final String mLockMac;
+    private final int mUserId;
+    private final String mEmail;
+    private final boolean mIsAdmin;
+    private final boolean mLocked;
+    private final long mTimestamp;
+    private final String mMessage;
+    private final int mAttempts;
+    private final long mNextAttempt;
+
+    /**
+     * Construct an entry. Use the factory methods for an entry that is not stored yet.
+     *
+     * @param id The id of the entry in the outbox, 0 if it is not stored yet.
+     * @param requestId The idempotency key of the request.
+     * @param type The kind of request.
+     * @param lockMac The MAC address of the lock, for all requests except logs.
+     * @param userId The id of the removed user.
+     * @param email The email address of the added user.
+     * @param isAdmin Whether the added user is admin.
+     * @param locked Whether the lock was locked.
+     * @param timestamp The time of the request, in seconds since the epoch.
+     * @param message The diagnostic message.
+     * @param attempts The number of times the request failed.
+     * @param nextAttempt The time before which the request is not sent again, in milliseconds
+     *                    since the epoch.
+     */
+    OutboxEntry(long id, String requestId, Type type, String lockMac, int userId, String email,
+                boolean isAdmin, boolean locked, long timestamp, String message, int attempts,
+                long nextAttempt) {
+        mId = id;
+        mRequestId = requestId;
+        mType = type;
+        mLockMac = lockMac;
+        mUserId = userId;
+        mEmail = email;
+        mIsAdmin = isAdmin;
+        mLocked = locked;
+        mTimestamp = timestamp;
+        mMessage = message;
+        mAttempts = attempts;
+        mNextAttempt = nextAttempt;
+    }
+
+    static OutboxEntry addLog(String lockMac, boolean locked, long timestamp) {
+        return new OutboxEntry(0, newRequestId(), Type.ADD_LOG, lockMac, 0, null, false, locked,
+                timestamp, null, 0, 0);
+    }
+
+    static OutboxEntry addUser(String email, String lockMac, boolean isAdmin, long timestamp) {
+        return new OutboxEntry(0, newRequestId(), Type.ADD_USER, lockMac, 0, email, isAdmin,
+                false, timestamp, null, 0, 0);
+    }
+
+    static OutboxEntry removeUser(int userId, String lockMac, long timestamp) {
+        return new OutboxEntry(0, newRequestId(), Type.REMOVE_USER, lockMac, userId, null,
+                false, false, timestamp, null, 0, 0);
+    }
+
+    static OutboxEntry log(String message, long timestamp) {
+        return new OutboxEntry(0, newRequestId(), Type.LOG, null, 0, null, false, false,
+                timestamp, message, 0, 0);
+    }
+
+    /**
+     * Returns a copy of the entry with the id under which it was stored.
+     *
+     * @param id The id of the entry in the outbox.
+     * @return The stored entry.
+     */
+    OutboxEntry withId(long id) {
+        return new OutboxEntry(id, mRequestId, mType, mLockMac, mUserId, mEmail, mIsAdmin,
+                mLocked, mTimestamp, mMessage, mAttempts, mNextAttempt);
+    }
+
+    long getId() {
+        return mId;
+    }
+
+    String getRequestId() {
+        return mRequestId;
+    }
+
+    Type getType() {
+        return mType;
+    }
+
+    String getLockMac() {
+        return mLockMac;
+    }
+
+    int getUserId() {
+        return mUserId;
+    }
+
+    String getEmail() {
+        return mEmail;
+    }
+
+    boolean isAdmin() {
+        return mIsAdmin;
+    }
+
+    boolean isLocked() {
+        return mLocked;
+    }
+
+    long getTimestamp() {
+        return mTimestamp;
+    }
+
+    String getMessage() {
+        return mMessage;
+    }
+
+    int getAttempts() {
+        return mAttempts;
+    }
+
+    long getNextAttempt() {
+        return mNextAttempt;
+    }
+
+    private static String newRequestId() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,52 @@
+package com.esloq.esloqapp.data;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+
+/**
+ * Job that runs the {@link OutboxDrainer} when requests are left in the outbox, once the delay of
+ * the next attempt has passed and the device has network access. The job finishes when no request
+ * can be sent anymore, the drainer schedules the job again if requests are left.
+ */
+public class OutboxJobService extends JobService {
+
+    private static final int JOB_ID = 2;
+
+    /**
+     * Schedule the job, replacing the job that was scheduled before.
+     *
+     * @param context The application's context.
+     * @param delayMillis The minimum delay in milliseconds before the job runs.
+     */
+    static void schedule(Context context, long delayMillis) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(
+                Context.JOB_SCHEDULER_SERVICE);
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, OutboxJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(delayMillis)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        OutboxDrainer.getInstance(this).drain(new Runnable() {
+            @Override
+            public void run() {
+                jobFinished(params, false);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The drainer keeps the requests in the outbox and schedules the job again.
+        return false;
+    }
+}
@@ -18,4 +18,14 @@ interface PreferencesServiceApi {
 
     void setRegistrationTokenSentToServer(boolean sentToServer);
 
+    /**
+     * Returns the number of days during which the logs are kept, older logs are only kept as
+     * counts per user, lock and day.
+     *
+     * @return The number of days.
+     */
+    int getLogRetentionDays();
+
+    void setLogRetentionDays(int days);
+
 }
@@ -19,6 +19,12 @@ class PreferencesServiceApiImpl implements PreferencesServiceApi {
     private static final String SENT_TOKEN_TO_SERVER = "sentTokenToServer";
     private static final String SIGNED_IN = "signedIn";
     private static final String MY_USER_ID = "myUserId";
+    private static final String LOG_RETENTION_DAYS = "logRetentionDays";
+
+    /**
+     * Number of days during which the logs are kept if no other number was set.
+     */
+    static final int DEFAULT_LOG_RETENTION_DAYS = 90;
 
     // Temporary variable to resignin after update.
     private static final String RE_SIGNED_IN = "reSignedIn_0";
@@ -74,5 +80,14 @@ class PreferencesServiceApiImpl implements PreferencesServiceApi {
         preferences.edit().putBoolean(SIGNED_IN, sentToServer).apply();
     }
 
+    @Override
+    public int getLogRetentionDays() {
+        return preferences.getInt(LOG_RETENTION_DAYS, DEFAULT_LOG_RETENTION_DAYS);
+    }
+
+    @Override
+    public void setLogRetentionDays(int days) {
+        preferences.edit().putInt(LOG_RETENTION_DAYS, days).apply();
+    }
 
 }
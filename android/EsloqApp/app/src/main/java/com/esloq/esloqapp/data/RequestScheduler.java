@@ -0,0 +1,261 @@
+package com.esloq.esloqapp.data;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the requests to the server concurrently, in order of priority. Every priority class has
+ * its own queue and its own limit of requests in flight. At most
+ * <code>MAX_CONCURRENT_REQUESTS</code> requests run at the same time, of which
+ * <code>RESERVED_INTERACTIVE_SLOTS</code> can only be taken by interactive requests, so that
+ * background syncs and telemetry never delay e.g. requesting a session key. Within a class the
+ * requests start in the order they were submitted.
+ * <p/>
+ * The scheduler is shared by the app, use {@link #getInstance()}.
+ */
+class RequestScheduler {
+
+    /**
+     * The priority classes, from the highest to the lowest priority.
+     */
+    enum Priority {
+        /** Requests that the user is waiting for, e.g. to open a lock. */
+        INTERACTIVE(MAX_CONCURRENT_REQUESTS),
+        /** Synchronization of the user's data with the server. */
+        SYNC(MAX_CONCURRENT_REQUESTS - RESERVED_INTERACTIVE_SLOTS),
+        /** Diagnostic logs and statistics. */
+        TELEMETRY(1);
+
+        /**
+         * Maximum number of requests of this class that run at the same time.
+         */
+        private final int maxInFlight;
+
+        Priority(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+    }
+
+    /**
+     * A request that is run by the scheduler. A request can be cancelled while it is queued, in
+     * which case it never runs, or while it is running, in which case it should not deliver its
+     * result.
+     */
+    abstract static class Request implements Runnable {
+
+        private final Priority mPriority;
+        private volatile boolean mCancelled;
+
+        /**
+         * Construct a request.
+         *
+         * @param priority The priority class of the request.
+         */
+        Request(Priority priority) {
+            mPriority = priority;
+        }
+
+        Priority getPriority() {
+            return mPriority;
+        }
+
+        /**
+         * Returns whether the request was cancelled. A running request checks this before it
+         * delivers its result.
+         *
+         * @return True if the request was cancelled, false otherwise.
+         */
+        boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * Maximum number of requests that run at the same time.
+     */
+    static final int MAX_CONCURRENT_REQUESTS = 3;
+
+    /**
+     * Number of slots that are kept free for interactive requests.
+     */
+    static final int RESERVED_INTERACTIVE_SLOTS = 1;
+
+    private static RequestScheduler sInstance;
+
+    private final Executor mExecutor;
+
+    /**
+     * The queued requests, per priority class.
+     */
+    private final Map<Priority, ArrayDeque<Request>> mQueues = new EnumMap<>(Priority.class);
+
+    /**
+     * Number of running requests, per priority class.
+     */
+    private final Map<Priority, Integer> mRunningCounts = new EnumMap<>(Priority.class);
+
+    /**
+     * The running requests, of all priority classes.
+     */
+    private final List<Request> mRunningRequests = new ArrayList<>();
+
+    /**
+     * Returns the scheduler that is shared by the app.
+     *
+     * @return The scheduler.
+     */
+    static synchronized RequestScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new RequestScheduler(newThreadPool());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Construct a scheduler that runs the requests on an executor.
+     *
+     * @param executor Executor that runs every request on a thread of its own.
+     */
+    RequestScheduler(Executor executor) {
+        mExecutor = executor;
+        for (Priority priority : Priority.values()) {
+            mQueues.put(priority, new ArrayDeque<Request>());
+            mRunningCounts.put(priority, 0);
+        }
+    }
+
+    /**
+     * Queue a request. The request starts as soon as its priority class has a free slot and no
+     * request of a higher priority is waiting.
+     *
+     * @param request The request.
+     */
+    synchronized void submit(Request request) {
+        mQueues.get(request.getPriority()).add(request);
+        dispatch();
+    }
+
+    /**
+     * Cancel a request. A queued request is removed from its queue, a running request is marked
+     * as cancelled.
+     *
+     * @param request The request.
+     */
+    synchronized void cancel(Request request) {
+        request.mCancelled = true;
+        mQueues.get(request.getPriority()).remove(request);
+    }
+
+    /**
+     * Cancel all queued and running requests of a priority class.
+     *
+     * @param priority The priority class.
+     * @return The number of queued requests that were removed.
+     */
+    synchronized int cancelAll(Priority priority) {
+        ArrayDeque<Request> queue = mQueues.get(priority);
+        int count = queue.size();
+        for (Request request : queue) {
+            request.mCancelled = true;
+        }
+        queue.clear();
+        for (Request request : mRunningRequests) {
+            if (request.getPriority() == priority) {
+                request.mCancelled = true;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of queued requests of a priority class.
+     *
+     * @param priority The priority class.
+     * @return The number of queued requests.
+     */
+    synchronized int getQueuedCount(Priority priority) {
+        return mQueues.get(priority).size();
+    }
+
+    /**
+     * Returns the number of running requests of a priority class.
+     *
+     * @param priority The priority class.
+     * @return The number of running requests.
+     */
+    synchronized int getRunningCount(Priority priority) {
+        return mRunningCounts.get(priority);
+    }
+
+    /**
+     * Starts queued requests, highest priority first, as long as there are free slots.
+     */
+    private void dispatch() {
+        while (mRunningRequests.size() < MAX_CONCURRENT_REQUESTS) {
+            Request next = null;
+            for (Priority priority : Priority.values()) {
+                ArrayDeque<Request> queue = mQueues.get(priority);
+                if (!queue.isEmpty() && mRunningCounts.get(priority) < priority.maxInFlight
+                        && (priority == Priority.INTERACTIVE || mRunningRequests.size()
+                        < MAX_CONCURRENT_REQUESTS - RESERVED_INTERACTIVE_SLOTS)) {
+                    next = queue.poll();
+                    break;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            mRunningCounts.put(next.getPriority(), mRunningCounts.get(next.getPriority()) + 1);
+            mRunningRequests.add(next);
+            final Request request = next;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!request.isCancelled()) {
+                            request.run();
+                        }
+                    } finally {
+                        finished(request);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Frees the slot of a request that has finished and starts the next request.
+     *
+     * @param request The request.
+     */
+    private synchronized void finished(Request request) {
+        mRunningCounts.put(request.getPriority(), mRunningCounts.get(request.getPriority()) - 1);
+        mRunningRequests.remove(request);
+        dispatch();
+    }
+
+    /**
+     * Returns a thread pool for the requests. The scheduler bounds the number of requests that
+     * run at the same time, so the pool does not need to.
+     *
+     * @return The thread pool.
+     */
+    private static ExecutorService newThreadPool() {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "RequestScheduler #" + mCount.incrementAndGet());
+            }
+        });
+    }
+}
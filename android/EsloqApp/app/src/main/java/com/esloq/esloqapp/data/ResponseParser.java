@@ -0,0 +1,35 @@
+package com.esloq.esloqapp.data;
+
+import android.util.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * Decodes the fields of a response of the server into a typed result, straight from the
+ * response body. The <code>success</code> and <code>error</code> fields of the response are read
+ * by {@link ServerResponse}, all other top-level fields are passed to the parser.
+ * <p/>
+ * A parser holds the state of a single response, use a new parser for every request.
+ *
+ * @param <T> The type of the result.
+ */
+interface ResponseParser<T> {
+
+    /**
+     * Reads the value of a top-level field of the response. Fields the parser does not know must
+     * be skipped.
+     *
+     * @param name The name of the field.
+     * @param reader The reader, positioned at the value of the field.
+     * @throws IOException If the value cannot be read.
+     */
+    void readField(String name, JsonReader reader) throws IOException;
+
+    /**
+     * Returns the result, once all fields of a successful response have been read.
+     *
+     * @return The result.
+     * @throws IOException If a field that is required for the result is missing.
+     */
+    T getResult() throws IOException;
+}
@@ -0,0 +1,266 @@
+package com.esloq.esloqapp.data;
+
+import android.util.Base64;
+import android.util.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * The parsers of the responses of the server API. Every method returns a new parser for a
+ * single response.
+ */
+final class ResponseParsers {
+
+    private ResponseParsers() {
+    }
+
+    /**
+     * Returns a parser for responses of which only the success is used.
+     *
+     * @return The parser.
+     */
+    static ResponseParser<Void> none() {
+        return new ResponseParser<Void>() {
+            @Override
+            public void readField(String name, JsonReader reader) throws IOException {
+                reader.skipValue();
+            }
+
+            @Override
+            public Void getResult() {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns a parser for the response of getuserdata. The rows are passed to the handler while
+     * they are read, so the memory that is used does not depend on the size of the response.
+     *
+     * @param handler The handler of the rows.
+     * @return The parser.
+     */
+    static ResponseParser<Void> userData(final UserData.Handler handler) {
+        return new ResponseParser<Void>() {
+            private boolean mHasUserId;
+
+            @Override
+            public void readField(String name, JsonReader reader) throws IOException {
+                if (name.equals("userId")) {
+                    handler.onUserId(reader.nextInt());
+                    mHasUserId = true;
+                } else if (name.equals("locks")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readLock(reader, handler);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+
+            @Override
+            public Void getResult() throws IOException {
+                if (!mHasUserId) {
+                    throw new IOException("Response has no userId.");
+                }
+                handler.onFinished();
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns a parser for the response of requestsessionkey. The session key and lock ticket
+     * are decoded from base64.
+     *
+     * @return The parser.
+     */
+    static ResponseParser<SessionKey> sessionKey() {
+        return new ResponseParser<SessionKey>() {
+            private byte[] mSessionKey;
+            private byte[] mLockTicket;
+
+            @Override
+            public void readField(String name, JsonReader reader) throws IOException {
+                if (name.equals("sessionKey")) {
+                    mSessionKey = Base64.decode(reader.nextString(), Base64.DEFAULT);
+                } else if (name.equals("lockTicket")) {
+                    mLockTicket = Base64.decode(reader.nextString(), Base64.DEFAULT);
+                } else {
+                    reader.skipValue();
+                }
+            }
+
+            @Override
+            public SessionKey getResult() throws IOException {
+                if (mSessionKey == null || mLockTicket == null) {
+                    throw new IOException("Response has no session key.");
+                }
+                return new SessionKey(mSessionKey, mLockTicket);
+            }
+        };
+    }
+
+    /**
+     * Returns a parser for the response of adduser, which holds the user that was given access.
+     *
+     * @param admin Whether the user was given admin access.
+     * @return The parser.
+     */
+    static ResponseParser<UserData.User> addedUser(final boolean admin) {
+        return new ResponseParser<UserData.User>() {
+            private UserData.User mUser;
+
+            @Override
+            public void readField(String name, JsonReader reader) throws IOException {
+                if (name.equals("user")) {
+                    int id = 0;
+                    String firstName = null;
+                    boolean validated = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "id":
+                                id = reader.nextInt();
+                                break;
+                            case "firstName":
+                                firstName = reader.nextString();
+                                break;
+                            case "validated":
+                                validated = reader.nextBoolean();
+                                break;
+                            default:
+                                reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    mUser = new UserData.User(id, firstName, validated, admin);
+                } else {
+                    reader.skipValue();
+                }
+            }
+
+            @Override
+            public UserData.User getResult() throws IOException {
+                if (mUser == null) {
+                    throw new IOException("Response has no user.");
+                }
+                return mUser;
+            }
+        };
+    }
+
+    /**
+     * Reads a lock and passes it to the handler, followed by its users and logs. The server sends
+     * the fields of the lock before its users and logs, the lock is passed when the first of
+     * these is read.
+     *
+     * @param reader The reader, positioned at the lock.
+     * @param handler The handler of the rows.
+     * @throws IOException If the lock cannot be read or has no MAC address before its rows.
+     */
+    private static void readLock(JsonReader reader, UserData.Handler handler) throws IOException {
+        String mac = null;
+        String name = null;
+        boolean clockwise = false;
+        boolean passed = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            switch (field) {
+                case "lockMac":
+                    mac = reader.nextString();
+                    break;
+                case "name":
+                    name = reader.nextString();
+                    break;
+                case "lockClockwise":
+                    clockwise = reader.nextBoolean();
+                    break;
+                case "users":
+                case "logs":
+                    if (mac == null) {
+                        throw new IOException("Lock has no lockMac before its " + field + ".");
+                    }
+                    if (!passed) {
+                        handler.onLock(new UserData.Lock(mac, name, clockwise));
+                        passed = true;
+                    }
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (field.equals("users")) {
+                            handler.onUser(mac, readUser(reader));
+                        } else {
+                            handler.onLog(mac, readLog(reader));
+                        }
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (mac == null) {
+            throw new IOException("Lock has no lockMac.");
+        }
+        if (!passed) {
+            handler.onLock(new UserData.Lock(mac, name, clockwise));
+        }
+    }
+
+    private static UserData.User readUser(JsonReader reader) throws IOException {
+        int id = 0;
+        String name = null;
+        boolean validated = false;
+        boolean admin = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "userId":
+                    // The server sends the id as a string, nextInt parses it.
+                    id = reader.nextInt();
+                    break;
+                case "name":
+                    name = reader.nextString();
+                    break;
+                case "validated":
+                    validated = reader.nextBoolean();
+                    break;
+                case "isAdmin":
+                    admin = reader.nextBoolean();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new UserData.User(id, name, validated, admin);
+    }
+
+    private static UserData.Log readLog(JsonReader reader) throws IOException {
+        int userId = 0;
+        boolean locked = false;
+        long timestamp = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "userId":
+                    userId = reader.nextInt();
+                    break;
+                case "lockState":
+                    locked = reader.nextBoolean();
+                    break;
+                case "timestamp":
+                    timestamp = reader.nextLong();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new UserData.Log(userId, locked, timestamp);
+    }
+}
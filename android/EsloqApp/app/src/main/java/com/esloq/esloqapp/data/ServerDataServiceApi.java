@@ -1,6 +1,6 @@
 package com.esloq.esloqapp.data;
 
-import org.json.JSONObject;
+import java.util.List;
 
 /**
  * Defines an interface to the backend server service API that is used by the repository. All
@@ -9,27 +9,98 @@ import org.json.JSONObject;
 interface ServerDataServiceApi {
 
 
-    interface ServerDataServiceCallback {
-        void onResult(boolean success, JSONObject jsonObject);
+    /**
+     * Callback that receives the decoded result of a request.
+     *
+     * @param <T> The type of the result, <code>Void</code> if the request has no result.
+     */
+    interface ServerDataServiceCallback<T> {
+        void onResult(boolean success, T result);
     }
 
-    void fetchUserData(ServerDataServiceCallback callback);
+    /**
+     * Callback of a request from the outbox, which distinguishes a request that the server
+     * answered from a request that did not reach the server and is sent again later.
+     *
+     * @param <T> The type of the result, <code>Void</code> if the request has no result.
+     */
+    interface DeliveryCallback<T> {
 
-    void registerUserDevice(ServerDataServiceCallback callback);
+        /**
+         * Called with the response of the request.
+         *
+         * @param response The response of the server, null if the request failed before the
+         *                 server answered.
+         */
+        void onResponse(ServerResponse<T> response);
+    }
+
+    /**
+     * Fetches the data of the signed in user. The rows are passed to the handler on a background
+     * thread while the response is read, the callback is called when the response has been read.
+     *
+     * @param handler The handler of the rows.
+     * @param callback The callback.
+     */
+    void fetchUserData(UserData.Handler handler, ServerDataServiceCallback<Void> callback);
+
+    void registerUserDevice(ServerDataServiceCallback<Void> callback);
+
+    void addLock(String mac, String name, boolean lockClockwise,
+                 ServerDataServiceCallback<Void> callback);
 
-    void addLock(String mac, String name, boolean lockClockwise, ServerDataServiceCallback
-            callback);
+    void removeLock(String mac, ServerDataServiceCallback<Void> callback);
 
-    void removeLock(String mac, ServerDataServiceCallback callback);
+    /**
+     * Adds a user to a lock.
+     *
+     * @param requestId The idempotency key of the request.
+     * @param email The email address of the user.
+     * @param mac The MAC address of the lock.
+     * @param isAdmin Whether the user is admin of the lock.
+     * @param callback The callback, which receives the added user.
+     */
+    void addUser(String requestId, String email, String mac, boolean isAdmin,
+                 DeliveryCallback<UserData.User> callback);
 
-    void addUser(String email, String mac, boolean isAdmin, ServerDataServiceCallback callback);
+    /**
+     * Removes a user from a lock.
+     *
+     * @param requestId The idempotency key of the request.
+     * @param userId The id of the user.
+     * @param lockMac The MAC address of the lock.
+     * @param callback The callback.
+     */
+    void removeUser(String requestId, int userId, String lockMac,
+                    DeliveryCallback<Void> callback);
 
-    void removeUser(int userId, String lockMac, ServerDataServiceCallback callback);
+    void requestSessionKey(String lockMac, ServerDataServiceCallback<SessionKey> callback);
 
-    void addLog(String lockMac, boolean locked, ServerDataServiceCallback callback);
+    /**
+     * Sends a diagnostic message.
+     *
+     * @param requestId The idempotency key of the request.
+     * @param message The message.
+     * @param callback The callback.
+     */
+    void log(String requestId, String message, DeliveryCallback<Void> callback);
 
-    void requestSessionKey(String lockMac, ServerDataServiceCallback callback);
+    /**
+     * Adds logs of the signed in user to their locks, in one compressed request. The server
+     * stores the request id of every log and skips the logs of which it already stored the
+     * request id, so a batch can be sent again after its response was lost. Logs of locks the
+     * user has no access on are not stored.
+     *
+     * @param userId The id of the signed in user.
+     * @param logs The logs, entries of type {@link OutboxEntry.Type#ADD_LOG} only.
+     * @param callback The callback.
+     */
+    void addLogs(int userId, List<OutboxEntry> logs, DeliveryCallback<Void> callback);
 
-    void log(String message, ServerDataServiceCallback callback);
+    /**
+     * Cancels all requests that are queued or running. The callbacks of the cancelled requests
+     * are not called.
+     */
+    void cancelRequests();
 
 }
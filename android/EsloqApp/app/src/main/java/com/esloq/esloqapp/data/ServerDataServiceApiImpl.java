@@ -1,9 +1,8 @@
 package com.esloq.esloqapp.data;
 
 import android.content.Context;
-import android.os.Bundle;
 import android.os.Handler;
-import android.os.ResultReceiver;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
@@ -17,14 +16,20 @@ import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.auth.GetTokenResult;
 import com.google.firebase.iid.FirebaseInstanceId;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
 
 /**
- * Implementation of the Server Data Service API used to access the backend server.
+ * Implementation of the Server Data Service API used to access the backend server. The requests
+ * run concurrently on the {@link RequestScheduler}, in the priority class of the call: requests
+ * the user waits for go before the synchronization of the user's data, which goes before the
+ * diagnostic logs. The callbacks are called on the main thread.
  */
 class ServerDataServiceApiImpl implements ServerDataServiceApi {
 
@@ -35,48 +40,65 @@ class ServerDataServiceApiImpl implements ServerDataServiceApi {
 
     private final Context mContext;
 
+    private final RequestScheduler mScheduler = RequestScheduler.getInstance();
+
+    /**
+     * Handler of the main thread, on which the callbacks are called.
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
     public ServerDataServiceApiImpl(Context context) {
         mContext = context;
     }
 
     @Override
-    public void fetchUserData(ServerDataServiceCallback callback) {
-        getAuthTokenAndGetFromServer(Urls.GET_USER_DATA, callback);
+    public void fetchUserData(UserData.Handler handler, ServerDataServiceCallback<Void> callback) {
+        getAuthTokenAndGetFromServer(Urls.GET_USER_DATA, RequestScheduler.Priority.SYNC,
+                ResponseParsers.userData(handler), toDelivery(callback));
     }
 
     @Override
-    public void registerUserDevice(ServerDataServiceCallback callback) {
+    public void registerUserDevice(ServerDataServiceCallback<Void> callback) {
         String token = FirebaseInstanceId.getInstance().getToken();
         try {
             JSONObject jsonObject = new JSONObject();
             jsonObject.put("registrationToken", token);
-            getAuthTokenAndPostToServer(Urls.ADD_REGISTRATION_TOKEN, jsonObject, callback);
+            getAuthTokenAndPostToServer(Urls.ADD_REGISTRATION_TOKEN, jsonObject,
+                    RequestScheduler.Priority.SYNC, ResponseParsers.none(),
+                    toDelivery(callback));
         } catch (JSONException e) {
             e.printStackTrace();
+            callback.onResult(false, null);
         }
     }
 
     @Override
-    public void addLock(String mac, String name, boolean lockClockwise, ServerDataServiceCallback
-                        callback) {
+    public void addLock(String mac, String name, boolean lockClockwise,
+                        ServerDataServiceCallback<Void> callback) {
         JSONObject jsonObject = new JSONObject();
         try {
             jsonObject.put("lockMac", mac.toLowerCase());
             jsonObject.put("lockName", name);
             jsonObject.put("lockClockwise", lockClockwise);
-            getAuthTokenAndPostToServer(Urls.INITIALIZE_LOCK, jsonObject, callback);
+            getAuthTokenAndPostToServer(Urls.INITIALIZE_LOCK, jsonObject,
+                    RequestScheduler.Priority.INTERACTIVE, ResponseParsers.none(),
+                    toDelivery(callback));
         } catch (JSONException e) {
             e.printStackTrace();
+            callback.onResult(false, null);
         }
     }
 
-    public void removeLock(String mac, final ServerDataServiceCallback callback) {
+    public void removeLock(String mac, final ServerDataServiceCallback<Void> callback) {
         JSONObject jsonObject = new JSONObject();
         try {
             jsonObject.put("lockMac", mac.toLowerCase());
-            getAuthTokenAndPostToServer(Urls.RESET_LOCK, jsonObject, callback);
+            getAuthTokenAndPostToServer(Urls.RESET_LOCK, jsonObject,
+                    RequestScheduler.Priority.INTERACTIVE, ResponseParsers.none(),
+                    toDelivery(callback));
         } catch (JSONException e) {
             e.printStackTrace();
+            callback.onResult(false, null);
         }
     }
 
@@ -84,72 +106,117 @@ class ServerDataServiceApiImpl implements ServerDataServiceApi {
      * Sends request to server to add user to lock. When finished <code>onTaskCompleted</code> is
      * called.
      */
-    public void addUser(String email, String mac, boolean isAdmin, final
-    ServerDataServiceCallback callback) {
+    public void addUser(String requestId, String email, String mac, boolean isAdmin, final
+    DeliveryCallback<UserData.User> callback) {
         JSONObject jsonObject = new JSONObject();
         try {
+            jsonObject.put("requestId", requestId);
             jsonObject.put("email", email);
             jsonObject.put("lockMac", mac.toLowerCase());
             jsonObject.put("isAdmin", isAdmin);
-            getAuthTokenAndPostToServer(Urls.ADD_USER, jsonObject, callback);
+            getAuthTokenAndPostToServer(Urls.ADD_USER, jsonObject,
+                    RequestScheduler.Priority.INTERACTIVE, ResponseParsers.addedUser(isAdmin),
+                    callback);
         } catch (JSONException e) {
             e.printStackTrace();
+            callback.onResponse(null);
         }
     }
 
     @Override
-    public void removeUser(int userId, String lockMac, ServerDataServiceCallback callback) {
+    public void removeUser(String requestId, int userId, String lockMac,
+                           DeliveryCallback<Void> callback) {
         JSONObject jsonObject = new JSONObject();
         try {
+            jsonObject.put("requestId", requestId);
             jsonObject.put("userId", userId);
             jsonObject.put("lockMac", lockMac.toLowerCase());
-            getAuthTokenAndPostToServer(Urls.REMOVE_USER, jsonObject, callback);
+            getAuthTokenAndPostToServer(Urls.REMOVE_USER, jsonObject,
+                    RequestScheduler.Priority.INTERACTIVE, ResponseParsers.none(), callback);
         } catch (JSONException e) {
             e.printStackTrace();
+            callback.onResponse(null);
         }
     }
 
     /**
-     * Send request to server to add a new log entry.
-     * @param lockMac The mac address of the lock for which to add a log.
-     * @param locked The state of the lock.
+     * Request a new session key from the server for the communication with esloq.
      */
     @Override
-    public void addLog(String lockMac, boolean locked, ServerDataServiceCallback callback) {
+    public void requestSessionKey(String lockMac, ServerDataServiceCallback<SessionKey> callback) {
         JSONObject jsonObject = new JSONObject();
         try {
             jsonObject.put("lockMac", lockMac.toLowerCase());
-            jsonObject.put("lockState", locked);
-            getAuthTokenAndPostToServer(Urls.ADD_LOG, jsonObject, callback);
+            getAuthTokenAndPostToServer(Urls.REQUEST_SESSION_KEY, jsonObject,
+                    RequestScheduler.Priority.INTERACTIVE, ResponseParsers.sessionKey(),
+                    toDelivery(callback));
         } catch (JSONException e) {
             e.printStackTrace();
+            callback.onResult(false, null);
         }
     }
 
-    /**
-     * Request a new session key from the server for the communication with esloq.
-     */
     @Override
-    public void requestSessionKey(String lockMac, ServerDataServiceCallback callback) {
-        JSONObject jsonObject = new JSONObject();
+    public void log(String requestId, String message, DeliveryCallback<Void> callback) {
         try {
-            jsonObject.put("lockMac", lockMac.toLowerCase());
-            getAuthTokenAndPostToServer(Urls.REQUEST_SESSION_KEY, jsonObject, callback);
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("requestId", requestId);
+            jsonObject.put("device", Tools.getDeviceName());
+            jsonObject.put("api", android.os.Build.VERSION.SDK_INT);
+            jsonObject.put("message", message);
+            getAuthTokenAndPostToServer(Urls.LOG, jsonObject,
+                    RequestScheduler.Priority.TELEMETRY, ResponseParsers.none(), callback);
         } catch (JSONException e) {
             e.printStackTrace();
+            callback.onResponse(null);
         }
     }
 
+    /**
+     * Send logs to the log batch endpoint of the REST API in one request, compressed with gzip.
+     * The time of every log is the time at which the lock was used, in seconds since the epoch.
+     */
     @Override
-    public void log(String message, ServerDataServiceCallback callback) {
+    public void addLogs(int userId, List<OutboxEntry> logs, final DeliveryCallback<Void> callback) {
+        final URL url;
+        final JSONObject jsonObject = new JSONObject();
         try {
-            JSONObject jsonObject = new JSONObject();
-            jsonObject.put("device", Tools.getDeviceName());
-            jsonObject.put("api", android.os.Build.VERSION.SDK_INT);
-            jsonObject.put("message", message);
-            getAuthTokenAndPostToServer(Urls.LOG, jsonObject, callback);
-        } catch (JSONException e) {
+            url = Urls.getLogBatchUrl(userId);
+            JSONArray array = new JSONArray();
+            for (OutboxEntry log : logs) {
+                JSONObject item = new JSONObject();
+                item.put("request_id", log.getRequestId());
+                item.put("lock_mac", log.getLockMac().toLowerCase());
+                item.put("lock_state", log.isLocked());
+                item.put("access_time", log.getTimestamp());
+                array.put(item);
+            }
+            jsonObject.put("logs", array);
+        } catch (JSONException | MalformedURLException e) {
             e.printStackTrace();
+            callback.onResponse(null);
+            return;
+        }
+        getAuthToken(callback, new TokenCallback() {
+            @Override
+            public void onToken(final String idToken) {
+                if (BuildConfig.DEBUG) Log.d(TAG, "url: " + url);
+                mScheduler.submit(new ServerRequest<Void>(RequestScheduler.Priority.SYNC,
+                        callback) {
+                    @Override
+                    ServerResponse<Void> execute() throws IOException {
+                        return HttpsCommunication.getInstance(mContext).postGzipJson(url,
+                                jsonObject, idToken, ResponseParsers.none());
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void cancelRequests() {
+        for (RequestScheduler.Priority priority : RequestScheduler.Priority.values()) {
+            mScheduler.cancelAll(priority);
         }
     }
 
@@ -157,25 +224,59 @@ class ServerDataServiceApiImpl implements ServerDataServiceApi {
      * Send data to server.
      * @param url The URL to which the data is sent.
      * @param jsonObject The data that is sent to the server.l
+     * @param priority The priority class of the request.
+     * @param parser The parser of the response.
+     */
+    private <T> void getAuthTokenAndPostToServer(final URL url, final JSONObject jsonObject,
+                                                 final RequestScheduler.Priority priority,
+                                                 final ResponseParser<T> parser,
+                                                 final DeliveryCallback<T> callback) {
+        getAuthToken(callback, new TokenCallback() {
+            @Override
+            public void onToken(String idToken) {
+                // Add token to http request data and send to server.
+                try {
+                    jsonObject.put("idToken", idToken);
+                    postToServer(url, jsonObject, priority, parser, callback);
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                    callback.onResponse(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Receives the authentication token of the signed in user.
+     */
+    private interface TokenCallback {
+        void onToken(String idToken);
+    }
+
+    /**
+     * Requests the authentication token of the signed in user.
+     *
+     * @param callback The callback of the request, which receives a null response if no user is
+     *                 signed in or no token is available.
+     * @param tokenCallback The callback that receives the token.
      */
-    private void getAuthTokenAndPostToServer(final URL url, final JSONObject jsonObject, final
-    ServerDataServiceCallback callback) {
-        // Request token
+    private <T> void getAuthToken(final DeliveryCallback<T> callback,
+                                  final TokenCallback tokenCallback) {
         FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
-        if (user == null) throw new IllegalStateException("User is null.");
+        if (user == null) {
+            // The user signed out, e.g. while a queued request was being sent.
+            callback.onResponse(null);
+            return;
+        }
         Task<GetTokenResult> getTokenResultTask = user.getToken(false);
         getTokenResultTask.addOnCompleteListener(
                 new OnCompleteListener<GetTokenResult>() {
                     @Override
                     public void onComplete(@NonNull Task<GetTokenResult> task) {
-                        // Add token to http request data and send to server.
                         if (task.isSuccessful()) {
-                            try {
-                                jsonObject.put("idToken", task.getResult().getToken());
-                                postToServer(url, jsonObject, callback);
-                            } catch (JSONException e) {
-                                e.printStackTrace();
-                            }
+                            tokenCallback.onToken(task.getResult().getToken());
+                        } else {
+                            callback.onResponse(null);
                         }
                     }
                 }
@@ -186,11 +287,19 @@ class ServerDataServiceApiImpl implements ServerDataServiceApi {
      * Get data from server.
      *
      * @param url The URL from which the data is received.
+     * @param priority The priority class of the request.
+     * @param parser The parser of the response.
      */
-    private void getAuthTokenAndGetFromServer(final URL url, final ServerDataServiceCallback
-            callback) {
+    private <T> void getAuthTokenAndGetFromServer(final URL url,
+                                                  final RequestScheduler.Priority priority,
+                                                  final ResponseParser<T> parser,
+                                                  final DeliveryCallback<T> callback) {
         FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
-        if (user == null) throw new IllegalStateException("User is null.");
+        if (user == null) {
+            // The user signed out, e.g. while a queued request was being sent.
+            callback.onResponse(null);
+            return;
+        }
         Task<GetTokenResult> task = user.getToken(false);
         task.addOnCompleteListener(
                 new OnCompleteListener<GetTokenResult>() {
@@ -199,66 +308,124 @@ class ServerDataServiceApiImpl implements ServerDataServiceApi {
                         if (task.isSuccessful()) {
                             try {
                                 URL requestURL = new URL(url, "?idToken=" + task.getResult().getToken());
-                                getFromServer(requestURL, callback);
+                                getFromServer(requestURL, priority, parser, callback);
                             } catch (MalformedURLException e) {
                                 e.printStackTrace();
+                                callback.onResponse(null);
                             }
+                        } else {
+                            callback.onResponse(null);
                         }
                     }
                 }
         );
     }
 
-    private void postToServer(final URL url, final JSONObject jsonObject, final
-    ServerDataServiceCallback callback) {
+    private <T> void postToServer(final URL url, final JSONObject jsonObject,
+                                  RequestScheduler.Priority priority,
+                                  final ResponseParser<T> parser,
+                                  DeliveryCallback<T> callback) {
         if (BuildConfig.DEBUG) Log.d(TAG, "json sent: " + jsonObject);
         if (BuildConfig.DEBUG) Log.d(TAG, "url: " + url);
-        final ResultReceiver receiver = new ResultReceiver(new Handler()) {
+        mScheduler.submit(new ServerRequest<T>(priority, callback) {
             @Override
-            protected void onReceiveResult(int resultCode, Bundle resultData) {
-                if (resultCode == SendToServerIntentService.RESULT_OK) {
-                    try {
-                        JSONObject jsonResponse = new JSONObject(resultData.getString(SendToServerIntentService.RESPONSE));
-                        if (jsonResponse.getBoolean("success")) {
-                            callback.onResult(true, jsonResponse);
-                        } else {
-                            Log.e(TAG, "Error: " + jsonResponse.getJSONObject("error").getString("message"));
-                            callback.onResult(false, null);
-                        }
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
-                } else {
-                    callback.onResult(false, null);
-                }
+            ServerResponse<T> execute() throws IOException {
+                return HttpsCommunication.getInstance(mContext).postJson(url, jsonObject, parser);
             }
-        };
-        SendToServerIntentService.startActionPostToServer(mContext, receiver, url, jsonObject);
+        });
     }
 
-    private void getFromServer(final URL url, final ServerDataServiceCallback callback) {
-        final ResultReceiver receiver = new ResultReceiver(new Handler()) {
+    private <T> void getFromServer(final URL url, RequestScheduler.Priority priority,
+                                   final ResponseParser<T> parser,
+                                   DeliveryCallback<T> callback) {
+        if (BuildConfig.DEBUG) Log.d(TAG, "url: " + url);
+        mScheduler.submit(new ServerRequest<T>(priority, callback) {
             @Override
-            protected void onReceiveResult(int resultCode, Bundle resultData) {
-                if (resultCode == SendToServerIntentService.RESULT_OK) {
-                    try {
-                        JSONObject jsonResponse = new JSONObject(resultData.getString(SendToServerIntentService.RESPONSE));
-                        if (jsonResponse.getBoolean("success")) {
-                            callback.onResult(true, jsonResponse);
-                        } else {
-                            Log.e(TAG, "Error: " + jsonResponse.getJSONObject("error").getString("message"));
-                            callback.onResult(false, null);
-                        }
-                    } catch (JSONException e) {
-                        e.printStackTrace();
+            ServerResponse<T> execute() throws IOException {
+                return HttpsCommunication.getInstance(mContext).getJson(url, parser);
+            }
+        });
+    }
+
+    /**
+     * A request to the server that runs on the scheduler and passes the decoded response to the
+     * callback on the main thread, unless the request was cancelled. The response is decoded on
+     * the thread of the scheduler, the main thread only receives the typed result.
+     *
+     * @param <T> The type of the result.
+     */
+    private abstract class ServerRequest<T> extends RequestScheduler.Request {
+
+        private final DeliveryCallback<T> mCallback;
+
+        ServerRequest(RequestScheduler.Priority priority, DeliveryCallback<T> callback) {
+            super(priority);
+            mCallback = callback;
+        }
+
+        /**
+         * Makes the request, on a thread of the scheduler.
+         *
+         * @return The response of the server, null if the status is not OK.
+         * @throws IOException If there is a problem with the url connection or the response is
+         *                     not valid JSON.
+         */
+        abstract ServerResponse<T> execute() throws IOException;
+
+        @Override
+        public void run() {
+            ServerResponse<T> response = null;
+            try {
+                response = execute();
+            } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+                // JsonReader throws IllegalStateException for values of an unexpected type,
+                // numbers and base64 that cannot be decoded throw IllegalArgumentException.
+                e.printStackTrace();
+            }
+            final ServerResponse<T> serverResponse = response;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled()) {
+                        mCallback.onResponse(serverResponse);
                     }
-                } else {
-                    callback.onResult(false, null);
                 }
+            });
+        }
+    }
+
+    /**
+     * Returns a callback that passes the result of a request to a callback that only needs to
+     * know whether the request was successful.
+     *
+     * @param callback The callback.
+     * @return The callback of the response.
+     */
+    private static <T> DeliveryCallback<T> toDelivery(final ServerDataServiceCallback<T> callback) {
+        return new DeliveryCallback<T>() {
+            @Override
+            public void onResponse(ServerResponse<T> response) {
+                deliverResult(response, callback);
             }
         };
-        if (BuildConfig.DEBUG) Log.d(TAG, "url: " + url);
-        SendToServerIntentService.startActionGetFromServer(mContext, receiver, url);
     }
 
+    /**
+     * Passes the result of a request to a callback. The request was successful if the server
+     * responded and reported success.
+     *
+     * @param response The response, null if the request failed.
+     * @param callback The callback.
+     */
+    private static <T> void deliverResult(ServerResponse<T> response,
+                                          ServerDataServiceCallback<T> callback) {
+        if (response == null) {
+            callback.onResult(false, null);
+        } else if (response.isSuccess()) {
+            callback.onResult(true, response.getResult());
+        } else {
+            Log.e(TAG, "Error: " + response.getErrorMessage());
+            callback.onResult(false, null);
+        }
+    }
 }
@@ -0,0 +1,88 @@
+package com.esloq.esloqapp.data;
+
+import android.util.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * A decoded response of the server. The server reports in the <code>success</code> field whether
+ * the request succeeded, and on failure the reason in <code>error.message</code>.
+ *
+ * @param <T> The type of the result of a successful request.
+ */
+class ServerResponse<T> {
+
+    private final boolean mSuccess;
+    private final String mErrorMessage;
+    private final T mResult;
+
+    ServerResponse(boolean success, String errorMessage, T result) {
+        mSuccess = success;
+        mErrorMessage = errorMessage;
+        mResult = result;
+    }
+
+    /**
+     * Decodes a response in a single pass over the reader.
+     *
+     * @param reader The reader of the response body.
+     * @param parser The parser of the fields of the result.
+     * @param <T> The type of the result.
+     * @return The response.
+     * @throws IOException If the response is not valid JSON or a required field is missing.
+     */
+    static <T> ServerResponse<T> read(JsonReader reader, ResponseParser<T> parser)
+            throws IOException {
+        boolean success = false;
+        String errorMessage = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("success")) {
+                success = reader.nextBoolean();
+            } else if (name.equals("error")) {
+                errorMessage = readErrorMessage(reader);
+            } else {
+                parser.readField(name, reader);
+            }
+        }
+        reader.endObject();
+        return new ServerResponse<>(success, errorMessage, success ? parser.getResult() : null);
+    }
+
+    boolean isSuccess() {
+        return mSuccess;
+    }
+
+    /**
+     * Returns the reason why the request failed.
+     *
+     * @return The error message, null if the server did not report one.
+     */
+    String getErrorMessage() {
+        return mErrorMessage;
+    }
+
+    /**
+     * Returns the result of a successful request.
+     *
+     * @return The result, null if the request failed.
+     */
+    T getResult() {
+        return mResult;
+    }
+
+    private static String readErrorMessage(JsonReader reader) throws IOException {
+        String message = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("message")) {
+                message = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return message;
+    }
+}
@@ -0,0 +1,23 @@
+package com.esloq.esloqapp.data;
+
+/**
+ * A session key and the lock ticket that carries it to the lock, as returned by the server.
+ */
+class SessionKey {
+
+    private final byte[] mSessionKey;
+    private final byte[] mLockTicket;
+
+    SessionKey(byte[] sessionKey, byte[] lockTicket) {
+        mSessionKey = sessionKey;
+        mLockTicket = lockTicket;
+    }
+
+    byte[] getSessionKey() {
+        return mSessionKey;
+    }
+
+    byte[] getLockTicket() {
+        return mLockTicket;
+    }
+}
@@ -0,0 +1,126 @@
+package com.esloq.esloqapp.data;
+
+import java.io.IOException;
+
+/**
+ * The data of the signed in user, as returned by the server: the locks the user has access to,
+ * with the users and logs of every lock. The data is not held as a whole, the rows are passed to
+ * a {@link Handler} while the response is read.
+ */
+final class UserData {
+
+    /**
+     * Receives the rows of the user data in the order in which they are read. A lock is always
+     * passed before its users and logs.
+     */
+    interface Handler {
+
+        void onUserId(int userId) throws IOException;
+
+        void onLock(Lock lock) throws IOException;
+
+        void onUser(String lockMac, User user) throws IOException;
+
+        void onLog(String lockMac, Log log) throws IOException;
+
+        /**
+         * Called when all rows of a successful response have been passed.
+         *
+         * @throws IOException If the rows cannot be stored.
+         */
+        void onFinished() throws IOException;
+    }
+
+    /**
+     * A lock the user has access to.
+     */
+    static class Lock {
+
+        private final String mMac;
+        private final String mName;
+        private final boolean mClockwise;
+
+        Lock(String mac, String name, boolean clockwise) {
+            mMac = mac;
+            mName = name;
+            mClockwise = clockwise;
+        }
+
+        String getMac() {
+            return mMac;
+        }
+
+        String getName() {
+            return mName;
+        }
+
+        boolean locksClockwise() {
+            return mClockwise;
+        }
+    }
+
+    /**
+     * A user that has access to a lock.
+     */
+    static class User {
+
+        private final int mId;
+        private final String mName;
+        private final boolean mValidated;
+        private final boolean mAdmin;
+
+        User(int id, String name, boolean validated, boolean admin) {
+            mId = id;
+            mName = name;
+            mValidated = validated;
+            mAdmin = admin;
+        }
+
+        int getId() {
+            return mId;
+        }
+
+        String getName() {
+            return mName;
+        }
+
+        boolean isValidated() {
+            return mValidated;
+        }
+
+        boolean isAdmin() {
+            return mAdmin;
+        }
+    }
+
+    /**
+     * A log entry of a lock.
+     */
+    static class Log {
+
+        private final int mUserId;
+        private final boolean mLocked;
+        private final long mTimestamp;
+
+        Log(int userId, boolean locked, long timestamp) {
+            mUserId = userId;
+            mLocked = locked;
+            mTimestamp = timestamp;
+        }
+
+        int getUserId() {
+            return mUserId;
+        }
+
+        boolean isLocked() {
+            return mLocked;
+        }
+
+        long getTimestamp() {
+            return mTimestamp;
+        }
+    }
+
+    private UserData() {
+    }
+}
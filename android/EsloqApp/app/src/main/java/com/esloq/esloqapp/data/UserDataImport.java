@@ -0,0 +1,104 @@
+package com.esloq.esloqapp.data;
+
+import java.io.IOException;
+
+/**
+ * Stores the user data in the local database while it is read from the server. The rows are
+ * collected in batches of <code>BATCH_SIZE</code> rows and every batch is written in a single
+ * transaction, so the memory that is used does not depend on the length of the log history and
+ * a sync costs one write per batch instead of one write per row.
+ * <p/>
+ * The import is called on the thread that reads the response.
+ */
+class UserDataImport implements UserData.Handler {
+
+    /**
+     * Number of rows that are collected before they are written in one transaction.
+     */
+    static final int BATCH_SIZE = 250;
+
+    private final LocalDataServiceApi mLocalApi;
+    private final PreferencesServiceApi mPreferencesApi;
+
+    /**
+     * The rows that have not been written yet.
+     */
+    private LocalDataBatch mBatch = new LocalDataBatch();
+
+    /**
+     * Number of rows that were written.
+     */
+    private int mRowCount;
+
+    /**
+     * Construct an import into the local database.
+     *
+     * @param localApi The local database.
+     * @param preferencesApi The preferences, in which the id of the user is stored.
+     */
+    UserDataImport(LocalDataServiceApi localApi, PreferencesServiceApi preferencesApi) {
+        mLocalApi = localApi;
+        mPreferencesApi = preferencesApi;
+    }
+
+    @Override
+    public void onUserId(int userId) {
+        mPreferencesApi.setUserId(userId);
+    }
+
+    @Override
+    public void onLock(UserData.Lock lock) throws IOException {
+        mBatch.addLock(new UserData.Lock(lock.getMac().toUpperCase(), lock.getName(),
+                lock.locksClockwise()));
+        flushIfFull();
+    }
+
+    @Override
+    public void onUser(String lockMac, UserData.User user) throws IOException {
+        mBatch.addUser(user);
+        mBatch.addLockAccess(user.getId(), lockMac.toUpperCase(), user.isAdmin());
+        flushIfFull();
+    }
+
+    @Override
+    public void onLog(String lockMac, UserData.Log log) throws IOException {
+        mBatch.addLog(lockMac.toUpperCase(), log);
+        flushIfFull();
+    }
+
+    @Override
+    public void onFinished() throws IOException {
+        flush();
+    }
+
+    /**
+     * Returns the number of rows that were written to the local database.
+     *
+     * @return The number of rows.
+     */
+    int getRowCount() {
+        return mRowCount;
+    }
+
+    private void flushIfFull() throws IOException {
+        if (mBatch.size() >= BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the collected rows and starts a new batch.
+     *
+     * @throws IOException If the rows could not be written.
+     */
+    private void flush() throws IOException {
+        if (mBatch.size() == 0) {
+            return;
+        }
+        if (!mLocalApi.applyBatch(mBatch)) {
+            throw new IOException("Storing the user data failed.");
+        }
+        mRowCount += mBatch.size();
+        mBatch = new LocalDataBatch();
+    }
+}
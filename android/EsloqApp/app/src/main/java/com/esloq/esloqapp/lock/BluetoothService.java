@@ -19,12 +19,12 @@ import android.util.Log;
 
 import com.crashlytics.android.Crashlytics;
 import com.esloq.esloqapp.BuildConfig;
+import com.esloq.esloqapp.CryptoSession;
 import com.esloq.esloqapp.Cryptography;
-import com.esloq.esloqapp.util.Tools;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 /**
  * Service for communicating with an esloq device over Bluetooth Low Energy.
@@ -43,22 +43,59 @@ public class BluetoothService extends Service {
     private static final String C_ESLOQ_TX_DESCRIPTOR = "00002902-0000-1000-8000-00805f9b34fb";
 
     /**
-     * String representations of the broadcasts that the service can send. These broadcasts are
-     * picked up by receivers in various Activities.
+     * Listener for the events of the connection with the esloq. Events are delivered in process,
+     * on the executor that was given when the listener was set.
      */
-    public final static String ACTION_ERROR = "com.esloq.bluetooth.le.ACTION_ERROR";
-    public final static String ACTION_CONNECTED = "com.esloq.bluetooth.le.ACTION_CONNECTED";
-    public final static String ACTION_DISCONNECTED = "com.esloq.bluetooth.le.ACTION_DISCONNECTED";
-    public final static String ACTION_UNLOCKED = "com.esloq.bluetooth.le.ACTION_UNLOCKED";
-    public final static String ACTION_LOCKED = "com.esloq.bluetooth.le.ACTION_LOCKED";
-    public final static String ACTION_INVALID_REQUEST = "com.esloq.bluetooth.le.ACTION_INVALID_REQUEST";
-    public final static String ACTION_COMMUNICATION_READY = "com.esloq.bluetooth.le.ACTION_COMMUNICATION_READY";
-    public final static String ACTION_TICKET_RCV_SUCCESS = "com.esloq.bluetooth.le.ACTION_TICKET_RCV_SUCCESS";
-    public final static String ACTION_TICKET_RCV_SUCCESS_LOW_BAT = "com.esloq.bluetooth.le.ACTION_TICKET_RCV_SUCCESS_LOW_BAT";
-    public final static String ACTION_DEVICE_NOT_FOUND = "com.esloq.bluetooth.le.ACTION_DEVICE_NOT_FOUND";
+    public interface Listener {
 
-    private static ByteBuffer incomingMessageBuffer;
-    private final static int INCOMING_MESSAGE_LENGTH = 41;
+        void onConnected();
+
+        void onDisconnected();
+
+        void onError();
+
+        void onDeviceNotFound();
+
+        void onCommunicationReady();
+
+        void onTicketReceived(boolean lowBattery);
+
+        void onLocked();
+
+        void onUnlocked();
+
+        void onInvalidRequest();
+    }
+
+    /**
+     * The events of the connection with the esloq.
+     */
+    private enum Event {
+        ERROR,
+        CONNECTED,
+        DISCONNECTED,
+        UNLOCKED,
+        LOCKED,
+        INVALID_REQUEST,
+        COMMUNICATION_READY,
+        TICKET_RCV_SUCCESS,
+        TICKET_RCV_SUCCESS_LOW_BAT,
+        DEVICE_NOT_FOUND
+    }
+
+    /**
+     * A listener together with the executor on which its events are delivered.
+     */
+    private static class ListenerRegistration {
+
+        private final Listener listener;
+        private final Executor executor;
+
+        ListenerRegistration(Listener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
 
     /**
      * Name of this class used for logging.
@@ -70,6 +107,11 @@ public class BluetoothService extends Service {
      */
     private final IBinder mBinder = new LocalBinder();
 
+    /**
+     * Records the latency of the phases of the connection with the esloq.
+     */
+    private final UnlockTracer tracer = UnlockTracer.getInstance();
+
     /**
      * High level manager used to obtain an instance of an BluetoothAdapter and to conduct overall
      * Bluetooth Management.
@@ -92,12 +134,81 @@ public class BluetoothService extends Service {
      */
     private BluetoothGatt bluetoothGatt;
 
+    /**
+     * The listener that receives the events in process, null if no listener is set. The GATT
+     * callbacks run on a binder thread, the listener is set from the thread of the client.
+     */
+    private volatile ListenerRegistration listenerRegistration;
+
     /**
      * Handler object used to add runnables to the UI thread's message queue. Used to stop
      * connecting with postDelayed method.
      */
     private final Handler handler = new Handler();
 
+    /**
+     * Serializes the GATT operations, Android only allows one operation in flight at a time. Uses
+     * its own handler for the operation timeouts since <code>handler</code> gets cleared when the
+     * connection state changes.
+     */
+    private final GattOperationQueue operationQueue = new GattOperationQueue(new Handler());
+
+    /**
+     * Link with the esloq over the GATT connection.
+     */
+    private final GattTransport transport = new GattTransport();
+
+    /**
+     * Sends the ticket and the rotate requests to the esloq and decodes its responses.
+     */
+    private final LockProtocol protocol = new LockProtocol(transport, new LockProtocol.Listener() {
+        @Override
+        public void onCommunicationReady() {
+            sendEvent(Event.COMMUNICATION_READY);
+        }
+
+        @Override
+        public void onTicketAccepted(boolean lowBattery) {
+            tracer.end(UnlockTracer.Phase.TICKET_ACK);
+            sendEvent(lowBattery ? Event.TICKET_RCV_SUCCESS_LOW_BAT : Event.TICKET_RCV_SUCCESS);
+        }
+
+        @Override
+        public void onLocked() {
+            logPacketCount();
+            tracer.end(UnlockTracer.Phase.ROTATE_ACK);
+            sendEvent(Event.LOCKED);
+        }
+
+        @Override
+        public void onUnlocked() {
+            logPacketCount();
+            tracer.end(UnlockTracer.Phase.ROTATE_ACK);
+            sendEvent(Event.UNLOCKED);
+        }
+
+        @Override
+        public void onInvalidRequest() {
+            sendEvent(Event.INVALID_REQUEST);
+        }
+
+        @Override
+        public void onResponseDropped(String reason) {
+            Log.w(TAG, "Response dropped: " + reason);
+        }
+    });
+
+    /**
+     * Length of the ATT header that is subtracted from the MTU to get the payload length.
+     */
+    private static final int ATT_HEADER_LENGTH = 3;
+
+    /**
+     * The MTU that is requested after services are discovered, large enough to send the lock
+     * ticket in a single write.
+     */
+    private static final int REQUESTED_MTU = Cryptography.TICKET_LENGTH + ATT_HEADER_LENGTH;
+
     /**
      * Duration to try to connect to device in milliseconds.
      */
@@ -112,8 +223,8 @@ public class BluetoothService extends Service {
     private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
 
         /**
-         * Gets called when the state of the connection with the GATT server changes. Broadcasts
-         * the change which will be picked up by the receiver in the LockActivity class.
+         * Gets called when the state of the connection with the GATT server changes. Sends the
+         * change to the listener, which is the lock controller.
          */
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
@@ -121,35 +232,39 @@ public class BluetoothService extends Service {
                 handler.removeCallbacksAndMessages(null);
                 if (newState == BluetoothProfile.STATE_CONNECTED) {
                     Log.i(TAG, "Connected to GATT server.");
+                    tracer.end(UnlockTracer.Phase.CONNECT_GATT);
+                    tracer.begin(UnlockTracer.Phase.DISCOVER_SERVICES);
                     // Attempts to discover services after successful connection.
                     Log.i(TAG, "Attempting to start service discovery:" +
                             bluetoothGatt.discoverServices());
-                    Intent intent = new Intent(ACTION_CONNECTED);
-                    sendBroadcast(intent);
+                    sendEvent(Event.CONNECTED);
                 } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                     Log.i(TAG, "Disconnected from GATT server.");
-                    Intent intent = new Intent(ACTION_DISCONNECTED);
-                    sendBroadcast(intent);
+                    operationQueue.clear();
+                    transport.onLinkLost();
+                    sendEvent(Event.DISCONNECTED);
                 }
             } else {
                 String errorMsg = "Error changing GATT state: " + String.valueOf(status);
                 Log.e(TAG, errorMsg);
                 Crashlytics.log(Log.ERROR, TAG, errorMsg);
-                Intent intent = new Intent(ACTION_ERROR);
-                sendBroadcast(intent);
+                sendEvent(Event.ERROR);
             }
         }
 
         /**
          * Gets called when GATT services are discovered on the device. If the esloq service was
-         * discovered the service subscribes to the C_ESLOQ_TX notification that is used to send
-         * data from the esloq to the local device.
+         * discovered a larger MTU is requested and the service subscribes to the C_ESLOQ_TX
+         * notification that is used to send data from the esloq to the local device.
          */
         @Override
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            // After services are discovered, subscribe to notification.
+            // After services are discovered, negotiate the MTU and subscribe to notification.
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 if (bluetoothGattHasService(ESLOQ_SERVICE)) {
+                    tracer.end(UnlockTracer.Phase.DISCOVER_SERVICES);
+                    tracer.begin(UnlockTracer.Phase.WRITE_DESCRIPTOR);
+                    requestMtu(REQUESTED_MTU);
                     setCharacteristicNotification(ESLOQ_SERVICE, C_ESLOQ_TX, true);
                 } else { //if (BuildConfig.DEBUG) {
                     throw new RuntimeException("Device does not have ESLOQ_SERVICE.");
@@ -169,8 +284,40 @@ public class BluetoothService extends Service {
                                             BluetoothGattCharacteristic characteristic) {
             // When lock status is read (after services are discovered), this is called.
             if(C_ESLOQ_TX.equals(characteristic.getUuid().toString())) {
-                handleMessage(characteristic.getValue());
+                transport.onNotification(characteristic.getValue());
+            }
+        }
+
+        /**
+         * Gets called when a characteristic write has completed. Starts the next queued GATT
+         * operation.
+         */
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                                          BluetoothGattCharacteristic characteristic, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(TAG, "onCharacteristicWrite received: " + status);
+            }
+            operationQueue.onOperationCompleted(
+                    GattOperationQueue.Type.WRITE_CHARACTERISTIC, characteristic.getUuid());
+        }
+
+        /**
+         * Gets called when the MTU negotiation has completed. Outgoing messages are split in
+         * fragments of the negotiated MTU, or in fragments of the default size if the negotiation
+         * failed.
+         */
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            operationQueue.onOperationCompleted(GattOperationQueue.Type.REQUEST_MTU, null);
+            if (status == BluetoothGatt.GATT_SUCCESS && mtu > ATT_HEADER_LENGTH) {
+                transport.fragmentLength = Math.max(mtu - ATT_HEADER_LENGTH,
+                        FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+            } else {
+                Log.w(TAG, "onMtuChanged received: " + status);
+                transport.fragmentLength = FrameCodec.DEFAULT_FRAGMENT_LENGTH;
             }
+            if (BuildConfig.DEBUG) Log.d(TAG, "Fragment length: " + transport.fragmentLength);
         }
 
         /**
@@ -179,12 +326,13 @@ public class BluetoothService extends Service {
          */
         @Override
         public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            operationQueue.onOperationCompleted(GattOperationQueue.Type.WRITE_DESCRIPTOR,
+                    descriptor.getUuid());
             // After services are discovered, setCharacteristicNotification is called which writes a descriptor.
             // After the descriptor is written, the current state of the lock has to be requested.
             if (status == BluetoothGatt.GATT_SUCCESS) {
-                incomingMessageBuffer = ByteBuffer.allocate(INCOMING_MESSAGE_LENGTH);
-                Intent intent = new Intent(ACTION_COMMUNICATION_READY);
-                sendBroadcast(intent);
+                tracer.end(UnlockTracer.Phase.WRITE_DESCRIPTOR);
+                transport.onLinkReady();
             }
         }
     };
@@ -199,10 +347,14 @@ public class BluetoothService extends Service {
     }
 
     /**
-     * Send lock ticket to the device.
+     * Send lock ticket to the device. The session is used for all further communication on the
+     * current connection.
+     *
+     * @param session The session that contains the lock ticket.
      */
-    public void sendTicket() {
-        if(!sendMessage(Cryptography.getLockTicket())) {
+    public void sendTicket(CryptoSession session) {
+        tracer.begin(UnlockTracer.Phase.TICKET_ACK);
+        if (!protocol.sendTicket(session)) {
             Log.e(TAG, "Error sending ticket");
         }
     }
@@ -211,7 +363,8 @@ public class BluetoothService extends Service {
      * Send rotate clockwise command to the device.
      */
     public void rotateClockwise() {
-        if (!sendEncryptedMessage(new byte[]{(byte) LockRequestCode.ROTATE_CLOCKWISE.getIntValue()})) {
+        tracer.begin(UnlockTracer.Phase.ROTATE_ACK);
+        if (!protocol.sendRequest(LockRequestCode.ROTATE_CLOCKWISE)) {
             Log.e(TAG, "Error sending rotate clockwise command");
         }
     }
@@ -220,7 +373,8 @@ public class BluetoothService extends Service {
      * Send rotate counter clockwise command to the device.
      */
     public void rotateCounterClockwise() {
-        if (!sendEncryptedMessage(new byte[]{(byte) LockRequestCode.ROTATE_COUNTER_CLOCKWISE.getIntValue()})) {
+        tracer.begin(UnlockTracer.Phase.ROTATE_ACK);
+        if (!protocol.sendRequest(LockRequestCode.ROTATE_COUNTER_CLOCKWISE)) {
             Log.e(TAG, "Error sending rotate counter clockwise command");
         }
     }
@@ -238,6 +392,29 @@ public class BluetoothService extends Service {
         BluetoothService getService() {
             return BluetoothService.this;
         }
+
+        /**
+         * Sets the listener that receives the events of the connection, replacing any previous
+         * listener.
+         *
+         * @param listener The listener.
+         * @param executor The executor on which the events are delivered to the listener.
+         */
+        public void setListener(Listener listener, Executor executor) {
+            listenerRegistration = new ListenerRegistration(listener, executor);
+        }
+
+        /**
+         * Removes a listener, events that are already queued on its executor are still delivered.
+         *
+         * @param listener The listener to remove.
+         */
+        public void removeListener(Listener listener) {
+            ListenerRegistration registration = listenerRegistration;
+            if (registration != null && registration.listener == listener) {
+                listenerRegistration = null;
+            }
+        }
     }
 
     @Override
@@ -295,6 +472,7 @@ public class BluetoothService extends Service {
         if (mBluetoothDeviceAddress != null && address.equals(mBluetoothDeviceAddress)
                 && bluetoothGatt != null) {
             Log.d(TAG, "Trying to use an existing bluetoothGatt for connection.");
+            tracer.begin(UnlockTracer.Phase.CONNECT_GATT);
             return bluetoothGatt.connect();
         }
 
@@ -305,14 +483,14 @@ public class BluetoothService extends Service {
         }
         // We want to directly connect to the device, so we are setting the autoConnect
         // parameter to false.
+        tracer.begin(UnlockTracer.Phase.CONNECT_GATT);
         bluetoothGatt = device.connectGatt(this, false, mGattCallback);
         if (bluetoothGatt != null) {
             handler.postDelayed(new Runnable() {
                 @Override
                 public void run() {
                     disconnect();
-                    final Intent intent = new Intent(ACTION_DEVICE_NOT_FOUND);
-                    sendBroadcast(intent);
+                    sendEvent(Event.DEVICE_NOT_FOUND);
                 }
             }, CONNECT_PERIOD_MS);
         }
@@ -322,76 +500,74 @@ public class BluetoothService extends Service {
     }
 
     /**
-     * Gets called whenever the C_ESLOQ_TX characteristic on the esloq's GATT server changes.
-     * Reads the message's opcode and takes the appropriate action based on this opcode. The
-     * method broadcasts an intent which will be picked up by an activity's broadcast receiver.
-     * The method contains an implementation for every opcode that the esloq might send, all of
-     * them ending in '_RSP'.
+     * Delivers an event to the listener on its executor.
      *
-     * @param message   the message's byte stream
+     * @param event The event.
      */
-    private void handleMessage(byte[] message) {
-        if (BuildConfig.DEBUG) Log.d(TAG,"Incoming message: " + Arrays.toString(message) + ", " +
-                "length = " + message.length);
-
-        if(incomingMessageBuffer.position() == 40) {
-            /* Because uC always sends 20 bytes, even though last packet should only be 1 byte long (the 41st byte). */
-            incomingMessageBuffer.put(message[0]);
-        }
-        else {
-            incomingMessageBuffer.put(message);
+    private void sendEvent(final Event event) {
+        final ListenerRegistration registration = listenerRegistration;
+        if (registration != null) {
+            registration.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliverEvent(registration.listener, event);
+                }
+            });
         }
+    }
 
-        if(incomingMessageBuffer.position() == incomingMessageBuffer.limit()) {
-            /* Last packet of message, so process message */
-
-            byte[] incomingMessage = new byte[INCOMING_MESSAGE_LENGTH];
-
-            incomingMessageBuffer.clear(); /* Set position to 0, needs to happen before and after calling get apparently. */
-            incomingMessageBuffer.get(incomingMessage);
-            incomingMessageBuffer.clear(); /* Set position to 0, needs to happen before and after calling get apparently. */
-
-            byte[] nonce = Arrays.copyOfRange(incomingMessage, 0, Cryptography.NONCE_LENGTH);
-            Cryptography.setSessionNonce(nonce);
-
-            byte[] ciphertext = Arrays.copyOfRange(incomingMessage, Cryptography.NONCE_LENGTH, Cryptography.NONCE_LENGTH + Cryptography.MAC_LENGTH + 1);
-            byte[] plaintext = Cryptography.authDecrypt(ciphertext);
-
-            if (plaintext.length == 0) {
-                throw new RuntimeException("No bluetooth message received.");
-            }
-            LockResponseCode lockResponseCode = LockResponseCode.fromInteger(plaintext[0]);
-            final Intent intent;
-            switch (lockResponseCode) {
-                case UNLOCKED:
-                    intent = new Intent(ACTION_UNLOCKED);
-                    sendBroadcast(intent);
-                    break;
-                case LOCKED:
-                    intent = new Intent(ACTION_LOCKED);
-                    sendBroadcast(intent);
-                    break;
-                case TICKET_RCV_SUCCESS:
-                    intent = new Intent(ACTION_TICKET_RCV_SUCCESS);
-                    sendBroadcast(intent);
-                    break;
-                case TICKET_RCV_SUCCESS_LOW_BAT:
-                    intent = new Intent(ACTION_TICKET_RCV_SUCCESS_LOW_BAT);
-                    sendBroadcast(intent);
-                    break;
-                case TICKET_RCV_FAILURE:
-                    break;
-                case INVALID_REQUEST:
-                    intent = new Intent(ACTION_INVALID_REQUEST);
-                    sendBroadcast(intent);
-                    break;
-                default:
-                    Log.w(TAG, "Invalid lock message code.");
-                    break;
-            }
+    /**
+     * Calls the listener method that corresponds with an event.
+     *
+     * @param listener The listener.
+     * @param event The event.
+     */
+    private static void deliverEvent(Listener listener, Event event) {
+        switch (event) {
+            case ERROR:
+                listener.onError();
+                break;
+            case CONNECTED:
+                listener.onConnected();
+                break;
+            case DISCONNECTED:
+                listener.onDisconnected();
+                break;
+            case UNLOCKED:
+                listener.onUnlocked();
+                break;
+            case LOCKED:
+                listener.onLocked();
+                break;
+            case INVALID_REQUEST:
+                listener.onInvalidRequest();
+                break;
+            case COMMUNICATION_READY:
+                listener.onCommunicationReady();
+                break;
+            case TICKET_RCV_SUCCESS:
+                listener.onTicketReceived(false);
+                break;
+            case TICKET_RCV_SUCCESS_LOW_BAT:
+                listener.onTicketReceived(true);
+                break;
+            case DEVICE_NOT_FOUND:
+                listener.onDeviceNotFound();
+                break;
         }
     }
 
+    /**
+     * Logs the number of packets that were exchanged with the esloq since the ticket was sent.
+     */
+    private void logPacketCount() {
+        int packetsSent = protocol.getPacketsSent();
+        int packetsReceived = protocol.getPacketsReceived();
+        Log.i(TAG, "Packets per unlock: " + (packetsSent + packetsReceived) + " (sent: " +
+                packetsSent + ", received: " + packetsReceived + ", fragment length: " +
+                protocol.getFragmentLength() + ")");
+    }
+
     /**
      * Returns whether the GATT server on the device (with MAC address
      * <code>mBluetoothDeviceAddress</code>) contains the specified service.
@@ -418,65 +594,80 @@ public class BluetoothService extends Service {
         }
         BluetoothGattService service = bluetoothGatt.getService(UUID.fromString(service_uuid));
         BluetoothGattCharacteristic characteristic = service.getCharacteristic(UUID.fromString(characteristic_uuid));
-        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString(C_ESLOQ_TX_DESCRIPTOR));
+        final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString(C_ESLOQ_TX_DESCRIPTOR));
 
+        final byte[] value;
         if(enabled) {
             //Enable local notifications
             bluetoothGatt.setCharacteristicNotification(characteristic, true);
             // Enable remote notifications
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            bluetoothGatt.writeDescriptor(descriptor);
+            value = BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
         }
         else {
             // Disable local notifications
             bluetoothGatt.setCharacteristicNotification(characteristic, false);
             // Disable remote notifications
-            descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-            bluetoothGatt.writeDescriptor(descriptor);
+            value = BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
+        }
+        operationQueue.enqueue(new GattOperationQueue.Operation(
+                GattOperationQueue.Type.WRITE_DESCRIPTOR, descriptor.getUuid()) {
+            @Override
+            boolean execute() {
+                descriptor.setValue(value);
+                return bluetoothGatt != null && bluetoothGatt.writeDescriptor(descriptor);
+            }
+        });
+    }
+
+    /**
+     * Requests a larger ATT MTU. The request is added to the GATT operation queue, the result is
+     * reported through the onMtuChanged callback. The default fragment length is kept if the
+     * request fails or times out.
+     *
+     * @param mtu   The requested MTU.
+     */
+    private void requestMtu(final int mtu) {
+        if (bluetoothGatt == null) {
+            Log.w(TAG, "BluetoothGatt not initialized.");
+            return;
         }
+        operationQueue.enqueue(new GattOperationQueue.Operation(
+                GattOperationQueue.Type.REQUEST_MTU, null) {
+            @Override
+            boolean execute() {
+                return bluetoothGatt != null && bluetoothGatt.requestMtu(mtu);
+            }
+        });
     }
 
     /**
-     * Writes a value to a GATT characteristic.
+     * Writes a value to a GATT characteristic. The write is added to the GATT operation queue and
+     * is executed once all previously queued operations have completed.
      *
      * @param service_uuid  UUID of the service that the characteristic belongs to.
      * @param characteristic_uuid   UUID of the characteristic.
      * @param value Byte array to be written to the characteristic.
+     * @return True if the write was queued, false otherwise.
      */
-    private boolean writeCharacteristic(String service_uuid, String characteristic_uuid, byte[]
-            value) {
+    private boolean writeCharacteristic(String service_uuid, String characteristic_uuid, final
+            byte[] value) {
         if (mBluetoothAdapter == null || bluetoothGatt == null) {
             Log.w(TAG, "BluetoothAdapter not initialized.");
             return false;
         }
         BluetoothGattService service = bluetoothGatt.getService(UUID.fromString(service_uuid));
-        BluetoothGattCharacteristic characteristic = service.getCharacteristic(UUID.fromString(characteristic_uuid));
-        characteristic.setValue(value);
-        return bluetoothGatt.writeCharacteristic(characteristic);
-    }
-
-    /**
-     * Sends message to device
-     *
-     * @param message The message that will be sent to the device.
-     * @return True if the message was successfully sent, false otherwise.
-     */
-    private boolean sendMessage(byte[] message) {
-        if (BuildConfig.DEBUG) Log.d(TAG,"Outgoing message: " + Arrays.toString(message) + ", " +
-                "length = " + message.length);
-        return writeCharacteristic(ESLOQ_SERVICE, C_ESLOQ_RX, message);
-    }
-
-    /**
-     * Sends an encrypted and authenticated message to device.
-     *
-     * @param message The plaintext message that needs to be sent to the device, after encryption/authentication.
-     * @return True if the message was successfully sent, false otherwise.
-     */
-    private boolean sendEncryptedMessage(byte[] message) {
-        byte[] nonce = Cryptography.getNextSessionNonce();
-        byte[] encryptedMessage = Tools.concatenateBytes(nonce, Cryptography.authEncrypt(message));
-        return sendMessage(encryptedMessage);
+        final BluetoothGattCharacteristic characteristic = service.getCharacteristic(UUID.fromString(characteristic_uuid));
+        operationQueue.enqueue(new GattOperationQueue.Operation(
+                GattOperationQueue.Type.WRITE_CHARACTERISTIC, characteristic.getUuid()) {
+            @Override
+            boolean execute() {
+                // The characteristic object is shared, so the value can only be set once the
+                // previous write has completed.
+                characteristic.setValue(value);
+                return bluetoothGatt != null && bluetoothGatt.writeCharacteristic(characteristic);
+            }
+        });
+        return true;
     }
 
     /**
@@ -499,9 +690,61 @@ public class BluetoothService extends Service {
         if (bluetoothGatt == null) {
             return;
         }
+        String operationCounts = "GATT operations completed: " +
+                operationQueue.getCompletedCount() + ", failed: " + operationQueue.getFailedCount()
+                + ", timed out: " + operationQueue.getTimeoutCount() + ", ignored callbacks: " +
+                operationQueue.getIgnoredCount() + ", max queue depth: " +
+                operationQueue.getMaxQueueDepth();
+        if (operationQueue.getFailedCount() > 0 || operationQueue.getTimeoutCount() > 0
+                || operationQueue.getIgnoredCount() > 0) {
+            Log.w(TAG, operationCounts);
+        } else if (BuildConfig.DEBUG) {
+            Log.d(TAG, operationCounts);
+        }
+        operationQueue.clear();
+        protocol.endSession();
         bluetoothGatt.close();
         bluetoothGatt = null;
     }
 
-}
+    /**
+     * Link with the esloq over the GATT connection. Fragments are written to the C_ESLOQ_RX
+     * characteristic through the GATT operation queue, the notifications of the C_ESLOQ_TX
+     * characteristic are passed to the listener.
+     */
+    private class GattTransport implements LockTransport {
+
+        private LockTransport.Listener listener;
+
+        /**
+         * Maximum length of a fragment, from the negotiated MTU.
+         */
+        private int fragmentLength = FrameCodec.DEFAULT_FRAGMENT_LENGTH;
+
+        @Override
+        public void setListener(LockTransport.Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean write(byte[] fragment) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Outgoing fragment: length = " + fragment.length);
+            return writeCharacteristic(ESLOQ_SERVICE, C_ESLOQ_RX, fragment);
+        }
 
+        void onLinkReady() {
+            listener.onLinkReady(fragmentLength);
+        }
+
+        void onNotification(byte[] value) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Incoming message: " + Arrays.toString(value) +
+                    ", length = " + value.length);
+            listener.onNotification(value);
+        }
+
+        void onLinkLost() {
+            fragmentLength = FrameCodec.DEFAULT_FRAGMENT_LENGTH;
+            listener.onLinkLost();
+        }
+    }
+}
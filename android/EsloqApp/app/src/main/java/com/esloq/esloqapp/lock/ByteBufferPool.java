@@ -0,0 +1,87 @@
+package com.esloq.esloqapp.lock;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Pool of direct byte buffers that are reused for the BLE messages, so that receiving or sending
+ * a message does not allocate a new buffer every time.
+ */
+class ByteBufferPool {
+
+    /**
+     * Capacity of newly allocated buffers, unless a larger capacity is requested.
+     */
+    private final int mBufferCapacity;
+
+    /**
+     * Maximum number of buffers that are kept in the pool.
+     */
+    private final int mMaxPooledBuffers;
+
+    /**
+     * Buffers that are available for reuse.
+     */
+    private final ArrayDeque<ByteBuffer> mBuffers = new ArrayDeque<>();
+
+    /**
+     * Number of buffers that were allocated by this pool.
+     */
+    private int mAllocatedCount;
+
+    /**
+     * Construct a new pool.
+     *
+     * @param bufferCapacity Capacity of newly allocated buffers.
+     * @param maxPooledBuffers Maximum number of buffers that are kept in the pool.
+     */
+    ByteBufferPool(int bufferCapacity, int maxPooledBuffers) {
+        if (bufferCapacity <= 0 || maxPooledBuffers <= 0) {
+            throw new IllegalArgumentException("Buffer capacity and pool size must be positive.");
+        }
+        mBufferCapacity = bufferCapacity;
+        mMaxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * Take a cleared buffer with at least the requested capacity from the pool. A new buffer is
+     * allocated if the pool holds no buffer that is large enough.
+     *
+     * @param minCapacity The minimal capacity of the buffer.
+     * @return A cleared buffer.
+     */
+    synchronized ByteBuffer acquire(int minCapacity) {
+        Iterator<ByteBuffer> iterator = mBuffers.iterator();
+        while (iterator.hasNext()) {
+            ByteBuffer buffer = iterator.next();
+            if (buffer.capacity() >= minCapacity) {
+                iterator.remove();
+                buffer.clear();
+                return buffer;
+            }
+        }
+        mAllocatedCount++;
+        return ByteBuffer.allocateDirect(Math.max(minCapacity, mBufferCapacity));
+    }
+
+    /**
+     * Return a buffer to the pool. The buffer must not be used by the caller afterwards.
+     *
+     * @param buffer The buffer that is no longer used.
+     */
+    synchronized void release(ByteBuffer buffer) {
+        if (buffer != null && mBuffers.size() < mMaxPooledBuffers) {
+            mBuffers.push(buffer);
+        }
+    }
+
+    /**
+     * Returns the number of buffers that were allocated by this pool.
+     *
+     * @return Number of allocated buffers.
+     */
+    synchronized int getAllocatedCount() {
+        return mAllocatedCount;
+    }
+}
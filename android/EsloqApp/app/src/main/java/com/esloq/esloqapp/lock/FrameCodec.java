@@ -0,0 +1,271 @@
+package com.esloq.esloqapp.lock;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fragmentation and reassembly of the messages that are exchanged with an esloq over BLE. A
+ * message (frame) is split in fragments that each fit in a single ATT packet. A frame is
+ * prefixed with its payload length as an unsigned 16 bit big endian integer, so frames of any
+ * size can be sent with any fragment size.
+ * <p/>
+ * Frames always start at a fragment boundary. Bytes that follow the end of a frame in its last
+ * fragment are padding and are discarded, the microcontroller always sends full fragments.
+ */
+class FrameCodec {
+
+    /**
+     * Length of the frame header that contains the payload length.
+     */
+    static final int HEADER_LENGTH = 2;
+
+    /**
+     * Maximum payload length of a length-prefixed frame.
+     */
+    static final int MAX_PAYLOAD_LENGTH = 0xFFFF;
+
+    /**
+     * Fragment length when the default ATT MTU of 23 bytes is used.
+     */
+    static final int DEFAULT_FRAGMENT_LENGTH = 20;
+
+    /**
+     * Receives the frames that were reassembled by a <code>Decoder</code>.
+     */
+    interface FrameListener {
+
+        /**
+         * Gets called when a complete frame has been received. The buffer is owned by the
+         * decoder and is reused once this method returns, so it must not be retained.
+         *
+         * @param frame The frame's payload, from position to limit.
+         */
+        void onFrame(ByteBuffer frame);
+    }
+
+    /**
+     * Receives the fragments that are produced by an <code>Encoder</code>.
+     */
+    interface FragmentListener {
+
+        /**
+         * Gets called for every fragment of a frame, in order. The buffer is owned by the
+         * encoder and is reused once this method returns, so it must not be retained.
+         *
+         * @param fragment The fragment, from position to limit.
+         */
+        void onFragment(ByteBuffer fragment);
+    }
+
+    /**
+     * Returns the number of fragments needed to send a message.
+     *
+     * @param messageLength Length of the message in bytes, including the header if any.
+     * @param fragmentLength Maximum length of a fragment.
+     * @return Number of fragments.
+     */
+    static int fragmentCount(int messageLength, int fragmentLength) {
+        return (messageLength + fragmentLength - 1) / fragmentLength;
+    }
+
+    /**
+     * Splits frames into fragments.
+     */
+    static class Encoder {
+
+        private final ByteBufferPool mPool;
+        private final boolean mLengthPrefixed;
+        private int mFragmentLength = DEFAULT_FRAGMENT_LENGTH;
+
+        /**
+         * Construct a new encoder.
+         *
+         * @param pool Pool from which the fragment buffers are taken.
+         * @param lengthPrefixed Whether the frames are prefixed with their length. The current
+         *                       lock firmware expects raw frames.
+         */
+        Encoder(ByteBufferPool pool, boolean lengthPrefixed) {
+            mPool = pool;
+            mLengthPrefixed = lengthPrefixed;
+        }
+
+        /**
+         * Set the maximum length of a fragment, e.g. after the ATT MTU has been negotiated.
+         *
+         * @param fragmentLength Maximum length of a fragment.
+         */
+        void setFragmentLength(int fragmentLength) {
+            if (fragmentLength < 1) {
+                throw new IllegalArgumentException("Fragment length must be positive: " +
+                        fragmentLength);
+            }
+            mFragmentLength = fragmentLength;
+        }
+
+        int getFragmentLength() {
+            return mFragmentLength;
+        }
+
+        /**
+         * Split a frame in fragments and pass them to the listener.
+         *
+         * @param payload The frame's payload, from position to limit. The position of the buffer
+         *                is advanced to its limit.
+         * @param listener Receives the fragments.
+         * @return The number of fragments.
+         */
+        int encode(ByteBuffer payload, FragmentListener listener) {
+            int payloadLength = payload.remaining();
+            if (mLengthPrefixed && payloadLength > MAX_PAYLOAD_LENGTH) {
+                throw new IllegalArgumentException("Payload too long: " + payloadLength);
+            }
+            int headerLength = mLengthPrefixed ? HEADER_LENGTH : 0;
+            ByteBuffer fragment = mPool.acquire(mFragmentLength);
+            try {
+                int count = 0;
+                int header = headerLength;
+                while (header > 0 || payload.hasRemaining()) {
+                    fragment.clear();
+                    fragment.limit(mFragmentLength);
+                    // The header may be split over fragments when fragments are tiny.
+                    while (header > 0 && fragment.hasRemaining()) {
+                        header--;
+                        fragment.put((byte) (payloadLength >>> (8 * header)));
+                    }
+                    int length = Math.min(fragment.remaining(), payload.remaining());
+                    int limit = payload.limit();
+                    payload.limit(payload.position() + length);
+                    fragment.put(payload);
+                    payload.limit(limit);
+                    fragment.flip();
+                    listener.onFragment(fragment);
+                    count++;
+                }
+                return count;
+            } finally {
+                mPool.release(fragment);
+            }
+        }
+    }
+
+    /**
+     * Reassembles frames from received fragments.
+     */
+    static class Decoder {
+
+        private final ByteBufferPool mPool;
+        private final FrameListener mListener;
+
+        /**
+         * Length of the frames if the frames are not length-prefixed, 0 otherwise.
+         */
+        private final int mFixedFrameLength;
+
+        /**
+         * Buffer of the frame that is being reassembled, null if no frame is in progress.
+         */
+        private ByteBuffer mFrame;
+
+        /**
+         * Header bytes that have been received so far and their value.
+         */
+        private int mHeaderReceived;
+        private int mPayloadLength;
+
+        /**
+         * Construct a decoder for length-prefixed frames.
+         *
+         * @param pool Pool from which the frame buffers are taken.
+         * @param listener Receives the reassembled frames.
+         */
+        Decoder(ByteBufferPool pool, FrameListener listener) {
+            this(pool, 0, listener);
+        }
+
+        /**
+         * Construct a decoder for frames that have a fixed length and no header.
+         *
+         * @param pool Pool from which the frame buffers are taken.
+         * @param fixedFrameLength Length of every frame, 0 if the frames are length-prefixed.
+         * @param listener Receives the reassembled frames.
+         */
+        Decoder(ByteBufferPool pool, int fixedFrameLength, FrameListener listener) {
+            if (fixedFrameLength < 0) {
+                throw new IllegalArgumentException("Invalid frame length: " + fixedFrameLength);
+            }
+            mPool = pool;
+            mFixedFrameLength = fixedFrameLength;
+            mListener = listener;
+        }
+
+        /**
+         * Process a received fragment.
+         *
+         * @param fragment The received fragment.
+         */
+        void decode(byte[] fragment) {
+            decode(fragment, 0, fragment.length);
+        }
+
+        /**
+         * Process a received fragment.
+         *
+         * @param fragment Array containing the received fragment.
+         * @param offset Offset of the fragment in the array.
+         * @param length Length of the fragment.
+         */
+        void decode(byte[] fragment, int offset, int length) {
+            int end = offset + length;
+            if (mFrame == null && mFixedFrameLength > 0) {
+                mFrame = mPool.acquire(mFixedFrameLength);
+                mFrame.limit(mFixedFrameLength);
+            }
+            while (mFrame == null && offset < end) {
+                // Length-prefixed frame, read the header first.
+                mPayloadLength = (mPayloadLength << 8) | (fragment[offset++] & 0xFF);
+                if (++mHeaderReceived == HEADER_LENGTH) {
+                    mFrame = mPool.acquire(mPayloadLength);
+                    mFrame.limit(mPayloadLength);
+                    mHeaderReceived = 0;
+                    mPayloadLength = 0;
+                }
+            }
+            if (mFrame == null) {
+                return;
+            }
+            int count = Math.min(mFrame.remaining(), end - offset);
+            mFrame.put(fragment, offset, count);
+            // Any bytes after the end of the frame are padding.
+            if (!mFrame.hasRemaining()) {
+                ByteBuffer frame = mFrame;
+                mFrame = null;
+                frame.flip();
+                try {
+                    mListener.onFrame(frame);
+                } finally {
+                    mPool.release(frame);
+                }
+            }
+        }
+
+        /**
+         * Returns whether a frame is partially received.
+         *
+         * @return True if a frame is in progress, false otherwise.
+         */
+        boolean isFrameInProgress() {
+            return mFrame != null || mHeaderReceived > 0;
+        }
+
+        /**
+         * Discard a partially received frame, e.g. when the connection is reset.
+         */
+        void reset() {
+            if (mFrame != null) {
+                mPool.release(mFrame);
+                mFrame = null;
+            }
+            mHeaderReceived = 0;
+            mPayloadLength = 0;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.esloq.esloqapp.lock;
+
+import android.os.Handler;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.UUID;
+
+/**
+ * Serializes GATT operations on a single <code>BluetoothGatt</code> connection. Android only
+ * allows one GATT operation to be in flight at any time, a second write that is issued before the
+ * first one completes is silently dropped. Operations are therefore queued and the next operation
+ * is only started once the GATT callback of the current operation has been received, or once the
+ * current operation timed out.
+ * <p/>
+ * A completion callback only completes the current operation if it is of the same type and for
+ * the same characteristic or descriptor, so that e.g. the late callback of an operation that
+ * timed out does not complete the operation after it. Timed out, failed and ignored operations
+ * are counted rather than logged, the owner of the queue reports the counts.
+ */
+class GattOperationQueue {
+
+    /**
+     * Default time in milliseconds to wait for the completion callback of an operation.
+     */
+    static final long DEFAULT_TIMEOUT_MS = 2000;
+
+    /**
+     * The types of GATT operations, each type is completed by its own GATT callback.
+     */
+    enum Type {
+        WRITE_CHARACTERISTIC,
+        WRITE_DESCRIPTOR,
+        REQUEST_MTU
+    }
+
+    /**
+     * A single GATT operation, e.g. a characteristic write, a descriptor write or an MTU request.
+     */
+    static abstract class Operation {
+
+        private final Type mType;
+        private final UUID mUuid;
+        private final long mTimeoutMs;
+
+        /**
+         * Construct a new operation.
+         *
+         * @param type The type of the operation.
+         * @param uuid UUID of the characteristic or descriptor of the operation, null if the
+         *             operation has none.
+         * @param timeoutMs Time in milliseconds to wait for the completion callback.
+         */
+        Operation(Type type, UUID uuid, long timeoutMs) {
+            mType = type;
+            mUuid = uuid;
+            mTimeoutMs = timeoutMs;
+        }
+
+        Operation(Type type, UUID uuid) {
+            this(type, uuid, DEFAULT_TIMEOUT_MS);
+        }
+
+        /**
+         * Start the operation on the GATT connection.
+         *
+         * @return True if the operation was successfully initiated, false otherwise.
+         */
+        abstract boolean execute();
+
+        /**
+         * Gets called when the operation did not complete within its timeout.
+         */
+        void onTimeout() {
+        }
+
+        Type getType() {
+            return mType;
+        }
+
+        UUID getUuid() {
+            return mUuid;
+        }
+
+        /**
+         * Returns whether a completion callback belongs to this operation.
+         *
+         * @param type The type of the completed operation.
+         * @param uuid UUID of the characteristic or descriptor of the completed operation, null
+         *             if the operation has none.
+         * @return True if the type and UUID match those of this operation, false otherwise.
+         */
+        boolean matches(Type type, UUID uuid) {
+            return mType == type && (mUuid == null ? uuid == null : mUuid.equals(uuid));
+        }
+
+        long getTimeoutMs() {
+            return mTimeoutMs;
+        }
+    }
+
+    /**
+     * Handler used to schedule the operation timeouts.
+     */
+    private final Handler mHandler;
+
+    /**
+     * Operations waiting to be executed.
+     */
+    private final Queue<Operation> mQueue = new ArrayDeque<>();
+
+    /**
+     * The operation that is currently in flight, null if the queue is idle.
+     */
+    private Operation mCurrentOperation;
+
+    /**
+     * Queue depth metrics.
+     */
+    private int mMaxQueueDepth;
+    private int mCompletedCount;
+    private int mFailedCount;
+    private int mTimeoutCount;
+    private int mIgnoredCount;
+
+    /**
+     * Fails the current operation and starts the next one when no completion callback was
+     * received in time.
+     */
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Operation timedOut;
+            synchronized (GattOperationQueue.this) {
+                timedOut = mCurrentOperation;
+                if (timedOut == null) {
+                    return;
+                }
+                mTimeoutCount++;
+                mCurrentOperation = null;
+            }
+            timedOut.onTimeout();
+            next();
+        }
+    };
+
+    /**
+     * Construct a new queue.
+     *
+     * @param handler Handler on which the operation timeouts are scheduled.
+     */
+    GattOperationQueue(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Add an operation to the queue. The operation is executed immediately if no other operation
+     * is in flight.
+     *
+     * @param operation The operation to be executed.
+     */
+    void enqueue(Operation operation) {
+        synchronized (this) {
+            mQueue.add(operation);
+            int depth = getQueueDepth();
+            if (depth > mMaxQueueDepth) {
+                mMaxQueueDepth = depth;
+            }
+        }
+        next();
+    }
+
+    /**
+     * Must be called from the GATT callback that signals the completion of an operation. Starts
+     * the next operation in the queue if the callback belongs to the current operation, a
+     * callback that does not is ignored.
+     *
+     * @param type The type of the completed operation.
+     * @param uuid UUID of the characteristic or descriptor of the completed operation, null if
+     *             the operation has none.
+     */
+    void onOperationCompleted(Type type, UUID uuid) {
+        synchronized (this) {
+            if (mCurrentOperation == null || !mCurrentOperation.matches(type, uuid)) {
+                mIgnoredCount++;
+                return;
+            }
+            mHandler.removeCallbacks(mTimeoutRunnable);
+            mCurrentOperation = null;
+            mCompletedCount++;
+        }
+        next();
+    }
+
+    /**
+     * Remove all pending operations, e.g. when the connection is closed.
+     */
+    synchronized void clear() {
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        mQueue.clear();
+        mCurrentOperation = null;
+    }
+
+    /**
+     * Returns the number of operations that are queued, including the one in flight.
+     *
+     * @return The current queue depth.
+     */
+    synchronized int getQueueDepth() {
+        return mQueue.size() + (mCurrentOperation == null ? 0 : 1);
+    }
+
+    synchronized int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    synchronized int getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    synchronized int getFailedCount() {
+        return mFailedCount;
+    }
+
+    synchronized int getTimeoutCount() {
+        return mTimeoutCount;
+    }
+
+    /**
+     * Returns the number of completion callbacks that did not belong to the current operation.
+     *
+     * @return The number of ignored completion callbacks.
+     */
+    synchronized int getIgnoredCount() {
+        return mIgnoredCount;
+    }
+
+    /**
+     * Execute the next operation if no operation is in flight. Operations that cannot be
+     * initiated are counted as failed and skipped.
+     */
+    private void next() {
+        while (true) {
+            Operation operation;
+            synchronized (this) {
+                if (mCurrentOperation != null || mQueue.isEmpty()) {
+                    return;
+                }
+                operation = mQueue.poll();
+                mCurrentOperation = operation;
+                mHandler.postDelayed(mTimeoutRunnable, operation.getTimeoutMs());
+            }
+            if (operation.execute()) {
+                return;
+            }
+            synchronized (this) {
+                mHandler.removeCallbacks(mTimeoutRunnable);
+                if (mCurrentOperation == operation) {
+                    mCurrentOperation = null;
+                }
+                mFailedCount++;
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.esloq.esloqapp.lock;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies with a fixed relative precision, in the style of HdrHistogram. Values
+ * are counted in buckets whose width doubles with every power of two, every power of two is split
+ * in <code>2^(SUB_BUCKET_BITS - 1)</code> linear sub buckets. A recorded value is reported with a
+ * relative error of at most <code>2^-(SUB_BUCKET_BITS - 1)</code>, using a fixed amount of memory
+ * and without allocating.
+ * <p/>
+ * This class is not thread safe.
+ */
+class LatencyHistogram {
+
+    /**
+     * Number of bits of precision of the recorded values. Values below
+     * <code>2^SUB_BUCKET_BITS</code> are counted exactly.
+     */
+    static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * Largest value that can be recorded, larger values are counted as this value.
+     */
+    static final long MAX_VALUE = (1L << 26) - 1;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+    private final long[] mCounts = new long[bucketIndex(MAX_VALUE) + 1];
+    private long mTotalCount;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    /**
+     * Count a value.
+     *
+     * @param value The value, at least zero.
+     */
+    void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        value = Math.min(value, MAX_VALUE);
+        mCounts[bucketIndex(value)]++;
+        mTotalCount++;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return The number of values.
+     */
+    long getTotalCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * Returns the smallest recorded value.
+     *
+     * @return The smallest value, zero if no values were recorded.
+     */
+    long getMin() {
+        return mTotalCount == 0 ? 0 : mMin;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return The largest value, zero if no values were recorded.
+     */
+    long getMax() {
+        return mMax;
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of the recorded values fall. The
+     * value is the upper end of the bucket that contains the percentile, which is never larger
+     * than the largest recorded value.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The value at the percentile, zero if no values were recorded.
+     */
+    long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * mTotalCount));
+        long count = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            count += mCounts[i];
+            if (count >= target) {
+                return Math.min(highestEquivalentValue(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * Remove all recorded values.
+     */
+    void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    /**
+     * Returns the index of the bucket that counts a value.
+     *
+     * @param value The value, between zero and <code>MAX_VALUE</code>.
+     * @return The index of the bucket.
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // Shift the value so that it falls in the upper half of the sub buckets.
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >> shift) - SUB_BUCKET_HALF_COUNT;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + subBucket;
+    }
+
+    /**
+     * Returns the largest value that is counted by a bucket.
+     *
+     * @param index The index of the bucket.
+     * @return The largest value of the bucket.
+     */
+    private static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT
+                + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
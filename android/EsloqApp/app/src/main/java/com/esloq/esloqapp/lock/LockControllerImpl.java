@@ -9,11 +9,15 @@ import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.Handler;
 import android.os.IBinder;
 
+import com.esloq.esloqapp.CryptoSession;
 import com.esloq.esloqapp.data.Injection;
 import com.esloq.esloqapp.data.LockDataRepository;
 
+import java.util.concurrent.Executor;
+
 /**
  * Implementation of the lock controller, used to control the lock.
  */
@@ -30,6 +34,68 @@ class LockControllerImpl implements LockController {
      */
     private BluetoothService bluetoothService;
 
+    /**
+     * Binder of the <code>BluetoothService</code>, used to set and remove the listener.
+     */
+    private BluetoothService.LocalBinder mBinder;
+
+    /**
+     * The session key and lock ticket are requested from the server while the connection with the
+     * esloq is being set up. The ticket is sent once both the session has been received and the
+     * communication with the esloq is ready, whichever comes last.
+     */
+    private boolean mSessionKeyRequested;
+    private CryptoSession mSession;
+    private boolean mCommunicationReady;
+
+    /**
+     * Time in milliseconds to wait for the esloq to accept the ticket. The esloq does not respond
+     * to a ticket that it rejects, which happens when a prefetched ticket has become stale because
+     * a newer ticket for the lock has been used in the meantime.
+     */
+    private static final long TICKET_RESPONSE_TIMEOUT_MS = 3000;
+
+    /**
+     * Whether a rejected ticket has been replaced by a fresh one for the current connection.
+     */
+    private boolean mTicketRetried;
+
+    private final Handler mHandler = new Handler();
+
+    /**
+     * Records the latency of the phases of connecting to and unlocking the esloq.
+     */
+    private final UnlockTracer mTracer = UnlockTracer.getInstance();
+
+    /**
+     * Runs the events of the <code>BluetoothService</code> on the main thread, the thread on which
+     * the state of the controller is used.
+     */
+    private final Executor mMainThreadExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    };
+
+    /**
+     * Replaces a ticket that the esloq did not respond to by a freshly fetched ticket, once per
+     * connection.
+     */
+    private final Runnable mTicketTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mTicketRetried || bluetoothService == null) {
+                mListener.initializationError();
+                return;
+            }
+            mTicketRetried = true;
+            mRepository.invalidateSessionKey(mLockMac);
+            mCommunicationReady = true;
+            requestSessionKey();
+        }
+    };
+
     /**
      * Manages the LockService lifecycle.
      */
@@ -43,12 +109,15 @@ class LockControllerImpl implements LockController {
          */
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder service) {
-            bluetoothService = ((BluetoothService.LocalBinder) service).getService();
+            mTracer.end(UnlockTracer.Phase.BIND_SERVICE);
+            mBinder = (BluetoothService.LocalBinder) service;
+            mBinder.setListener(mServiceListener, mMainThreadExecutor);
+            bluetoothService = mBinder.getService();
             if (!bluetoothService.initialize()) {
                 mListener.initializationError();
             }
             mListener.hasBluetooth(hasBluetoothConnectivity());
-            mListener.hasNetwork(hasNetworkConnectivity());
+            mListener.hasNetwork(canGetSessionKey());
             onConnectToLock();
         }
 
@@ -59,17 +128,79 @@ class LockControllerImpl implements LockController {
         @Override
         public void onServiceDisconnected(ComponentName componentName) {
             bluetoothService = null;
+            mBinder = null;
             throw new RuntimeException("Connection unexpectedly lost.");
         }
     };
 
     /**
-     * Receives broadcasts from the BluetoothService class. If it receives broadcasts that signify a
-     * successful lock or unlock action it updates the lock state on the UI. Similarly it receives
-     * broadcasts for the connection state and updates the UI accordingly. When the ACTION_CONNECTED
-     * broadcast is received, a session key (used for authenticated encrypted communication with the
-     * esloq) will be requested from the server. After the user has successfully reset the lock it
-     * will receive an ACTION_LOCK_RESET broadcast and remove te lock from the local user's lock list.
+     * Receives the events of the BluetoothService. If it receives events that signify a successful
+     * lock or unlock action it updates the lock state on the UI. Similarly it receives events for
+     * the connection state and updates the UI accordingly. When the communication with the esloq
+     * is ready, the lock ticket is sent as soon as the session key (used for authenticated
+     * encrypted communication with the esloq) that was requested when connecting has been
+     * received from the server.
+     */
+    private final BluetoothService.Listener mServiceListener = new BluetoothService.Listener() {
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected() {
+            mHandler.removeCallbacks(mTicketTimeoutRunnable);
+            mCommunicationReady = false;
+            mTicketRetried = false;
+            onConnectToLock();
+        }
+
+        @Override
+        public void onError() {
+            mListener.initializationError();
+        }
+
+        @Override
+        public void onDeviceNotFound() {
+            mListener.deviceNotFound();
+        }
+
+        @Override
+        public void onCommunicationReady() {
+            mCommunicationReady = true;
+            sendTicketIfReady();
+        }
+
+        @Override
+        public void onTicketReceived(boolean lowBattery) {
+            mHandler.removeCallbacks(mTicketTimeoutRunnable);
+            mTracer.end(UnlockTracer.Phase.TIME_TO_READY);
+            mListener.lockReady();
+            if (lowBattery) {
+                mListener.lowBattery();
+            }
+        }
+
+        @Override
+        public void onLocked() {
+            mListener.onLocked();
+            uploadLatencyReport();
+        }
+
+        @Override
+        public void onUnlocked() {
+            mListener.onUnlocked();
+            uploadLatencyReport();
+        }
+
+        @Override
+        public void onInvalidRequest() {
+            throw new RuntimeException("Invalid request.");
+        }
+    };
+
+    /**
+     * Receives the system broadcasts for the network and Bluetooth state, and reconnects to the
+     * esloq when both are available.
      */
     private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver() {
         @Override
@@ -77,9 +208,9 @@ class LockControllerImpl implements LockController {
             final String action = intent.getAction();
             switch (action) {
                 case ConnectivityManager.CONNECTIVITY_ACTION:
-                    boolean isOnline = hasNetworkConnectivity();
-                    mListener.hasNetwork(isOnline);
-                    if (isOnline) {
+                    // Without the network the esloq can still be opened with a cached ticket.
+                    mListener.hasNetwork(canGetSessionKey());
+                    if (hasNetworkConnectivity()) {
                         onConnectToLock();
                     }
                     break;
@@ -87,7 +218,7 @@ class LockControllerImpl implements LockController {
                     final int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE,
                             BluetoothAdapter.ERROR);
                     switch (state) {
-                        case BluetoothAdapter.STATE_OFF: // also triggers ACTION_DISCONNECT
+                        case BluetoothAdapter.STATE_OFF: // also triggers onDisconnected
                             mListener.hasBluetooth(false);
                             break;
                         case BluetoothAdapter.STATE_ON:
@@ -96,42 +227,6 @@ class LockControllerImpl implements LockController {
                             break;
                     }
                     break;
-                case BluetoothService.ACTION_ERROR:
-                    mListener.initializationError();
-                    break;
-                case BluetoothService.ACTION_DISCONNECTED:
-                    onConnectToLock();
-                    break;
-                case BluetoothService.ACTION_TICKET_RCV_SUCCESS:
-                    mListener.lockReady();
-                    break;
-                case BluetoothService.ACTION_TICKET_RCV_SUCCESS_LOW_BAT:
-                    mListener.lockReady();
-                    mListener.lowBattery();
-                    break;
-                case BluetoothService.ACTION_UNLOCKED:
-                    mListener.onUnlocked();
-                    break;
-                case BluetoothService.ACTION_LOCKED:
-                    mListener.onLocked();
-                    break;
-                case BluetoothService.ACTION_INVALID_REQUEST:
-                    throw new RuntimeException("Invalid request.");
-                case BluetoothService.ACTION_COMMUNICATION_READY:
-                    mRepository.requestSessionKey(mLockMac, new LockDataRepository.OnResultCallback() {
-                        @Override
-                        public void onResult(boolean success) {
-                            if (success) {
-                                bluetoothService.sendTicket();
-                            } else {
-                                mListener.initializationError();
-                            }
-                        }
-                    });
-                    break;
-                case BluetoothService.ACTION_DEVICE_NOT_FOUND:
-                    mListener.deviceNotFound();
-                    break;
             }
         }
     };
@@ -152,32 +247,62 @@ class LockControllerImpl implements LockController {
      */
     @Override
     public void initialize() {
+        mTracer.begin(UnlockTracer.Phase.BIND_SERVICE);
+        mTracer.begin(UnlockTracer.Phase.TIME_TO_READY);
         Intent gattServiceIntent = new Intent(mContext, BluetoothService.class);
         mContext.bindService(gattServiceIntent, lockServiceConnection, Context.BIND_AUTO_CREATE);
         mContext.registerReceiver(broadcastReceiver, makeBroadcastReceiverIntentFilter());
     }
 
     public void lock() {
-        if (mRepository.locksClockwise(mLockMac)) {
-            bluetoothService.rotateClockwise();
-        } else {
-            bluetoothService.rotateCounterClockwise();
-        }
+        rotate(true);
     }
 
     public void unlock() {
-        if (mRepository.locksClockwise(mLockMac)) {
-            bluetoothService.rotateCounterClockwise();
-        } else {
-            bluetoothService.rotateClockwise();
-        }
+        rotate(false);
+    }
+
+    /**
+     * Rotate the lock once its direction is known. The direction is read from the lock metadata
+     * cache, which is loaded on a background thread if needed.
+     *
+     * @param lock True to lock, false to unlock.
+     */
+    private void rotate(final boolean lock) {
+        mRepository.locksClockwise(mLockMac, new LockDataRepository.OnDirectionCallback() {
+            @Override
+            public void onResult(boolean success, boolean clockwise) {
+                if (bluetoothService == null) {
+                    // The controller has been closed in the meantime.
+                    return;
+                }
+                if (!success) {
+                    mListener.initializationError();
+                } else if (clockwise == lock) {
+                    bluetoothService.rotateClockwise();
+                } else {
+                    bluetoothService.rotateCounterClockwise();
+                }
+            }
+        });
     }
 
     /**
      * Unbind from bluetooth service.
      */
     public void close() {
+        mHandler.removeCallbacks(mTicketTimeoutRunnable);
+        if (mSession != null) {
+            mSession.destroy();
+            mSession = null;
+        }
         mContext.unregisterReceiver(broadcastReceiver);
+        if (mBinder != null) {
+            mBinder.removeListener(mServiceListener);
+            mBinder = null;
+        }
+        // Events that were queued before the listener was removed are dropped.
+        mHandler.removeCallbacksAndMessages(null);
         if(bluetoothService != null) {
             mContext.unbindService(lockServiceConnection);
             bluetoothService = null;
@@ -185,12 +310,75 @@ class LockControllerImpl implements LockController {
     }
 
     private void onConnectToLock() {
-        if (hasNetworkConnectivity() && hasBluetoothConnectivity()) {
+        if (canGetSessionKey() && hasBluetoothConnectivity()) {
             mListener.onConnecting();
+            requestSessionKey();
             connect();
         }
     }
 
+    /**
+     * Requests a session key and lock ticket from the server, unless one has already been
+     * requested or received and not yet been sent to the esloq. The request runs in parallel with
+     * the connection setup.
+     */
+    private void requestSessionKey() {
+        if (mSessionKeyRequested || mSession != null) {
+            return;
+        }
+        mSessionKeyRequested = true;
+        mTracer.begin(UnlockTracer.Phase.SESSION_KEY);
+        mRepository.requestSessionKey(mLockMac, new LockDataRepository.OnSessionCallback() {
+            @Override
+            public void onResult(boolean success, CryptoSession session) {
+                mSessionKeyRequested = false;
+                if (success) {
+                    mTracer.end(UnlockTracer.Phase.SESSION_KEY);
+                }
+                if (bluetoothService == null) {
+                    // The controller has been closed in the meantime, the session key is not
+                    // used.
+                    if (session != null) {
+                        session.destroy();
+                    }
+                    return;
+                }
+                if (success) {
+                    mSession = session;
+                    sendTicketIfReady();
+                } else {
+                    mListener.initializationError();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends the lock ticket to the esloq if both the session key has been received and the
+     * communication with the esloq is ready. A ticket is only sent once, a new session key is
+     * requested for the next connection.
+     */
+    private void sendTicketIfReady() {
+        if (mSession != null && mCommunicationReady && bluetoothService != null) {
+            CryptoSession session = mSession;
+            mSession = null;
+            mCommunicationReady = false;
+            bluetoothService.sendTicket(session);
+            mHandler.postDelayed(mTicketTimeoutRunnable, TICKET_RESPONSE_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Uploads the latency report of the traced phases once a batch of lock and unlock actions has
+     * been traced.
+     */
+    private void uploadLatencyReport() {
+        String report = mTracer.takeReport();
+        if (report != null) {
+            mRepository.log(report);
+        }
+    }
+
     /**
      * Check if there is network connectivity.
      *
@@ -203,6 +391,16 @@ class LockControllerImpl implements LockController {
         return (networkInfo != null && networkInfo.isConnected());
     }
 
+    /**
+     * Check if a session key can be obtained, which needs the network unless a session key has
+     * already been received or a ticket is cached for the esloq.
+     *
+     * @return True if a session key can be obtained, false otherwise.
+     */
+    private boolean canGetSessionKey() {
+        return mSession != null || mRepository.hasSessionKey(mLockMac) || hasNetworkConnectivity();
+    }
+
     private boolean hasBluetoothConnectivity() {
         return bluetoothService != null && bluetoothService.bluetoothEnabled();
     }
@@ -211,7 +409,7 @@ class LockControllerImpl implements LockController {
      * Connects to the GATT server on the esloq, if BT and network are enabled and we're bound to
      * the BluetoothService. To solve the problem when we're out of Bluetooth range a handler is
      * used to keep trying to connect until we are in Bluetooth range. The handler is stopped
-     * once we connect to the GATT server on the lock (CONNECTED in broadcastreceiver).
+     * once we connect to the GATT server on the lock (onConnected in mServiceListener).
      */
     private void connect() {
         if (!bluetoothService.connect(mLockMac)) {
@@ -226,15 +424,6 @@ class LockControllerImpl implements LockController {
      */
     private static IntentFilter makeBroadcastReceiverIntentFilter() {
         final IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(BluetoothService.ACTION_ERROR);
-        intentFilter.addAction(BluetoothService.ACTION_DISCONNECTED);
-        intentFilter.addAction(BluetoothService.ACTION_UNLOCKED);
-        intentFilter.addAction(BluetoothService.ACTION_LOCKED);
-        intentFilter.addAction(BluetoothService.ACTION_INVALID_REQUEST);
-        intentFilter.addAction(BluetoothService.ACTION_COMMUNICATION_READY);
-        intentFilter.addAction(BluetoothService.ACTION_TICKET_RCV_SUCCESS);
-        intentFilter.addAction(BluetoothService.ACTION_TICKET_RCV_SUCCESS_LOW_BAT);
-        intentFilter.addAction(BluetoothService.ACTION_DEVICE_NOT_FOUND);
         intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
         intentFilter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
         return intentFilter;
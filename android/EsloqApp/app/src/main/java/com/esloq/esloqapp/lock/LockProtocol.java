@@ -0,0 +1,290 @@
+package com.esloq.esloqapp.lock;
+
+import com.esloq.esloqapp.CryptoSession;
+import com.esloq.esloqapp.Cryptography;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The request/response protocol of the esloq, on top of a {@link LockTransport}. The protocol
+ * sends the lock ticket, encrypts the rotate requests with the session and decrypts the responses
+ * that are reassembled from the notifications of the esloq.
+ * <p/>
+ * The protocol has no Android dependencies, so it can be tested against a simulated lock. All
+ * methods are synchronized, the listener is called on the thread of the transport while the lock
+ * of the protocol is held.
+ */
+class LockProtocol implements LockTransport.Listener {
+
+    /**
+     * Receives the results of the exchanges with the esloq.
+     */
+    interface Listener {
+
+        /**
+         * Gets called when the link is ready and the ticket can be sent.
+         */
+        void onCommunicationReady();
+
+        /**
+         * Gets called when the esloq has accepted the ticket.
+         *
+         * @param lowBattery True if the esloq's battery is low.
+         */
+        void onTicketAccepted(boolean lowBattery);
+
+        void onLocked();
+
+        void onUnlocked();
+
+        void onInvalidRequest();
+
+        /**
+         * Gets called when a response is dropped because it was received before the ticket was
+         * sent, could not be authenticated, was replayed or has an unknown response code.
+         *
+         * @param reason Description of why the response was dropped.
+         */
+        void onResponseDropped(String reason);
+    }
+
+    /**
+     * Length of a response sent by the lock: the nonce, the authenticator and a single byte
+     * response code. The current lock firmware does not prefix its responses with their length.
+     */
+    static final int RESPONSE_LENGTH = Cryptography.FRAME_HEADER_LENGTH + 1;
+
+    private final LockTransport mTransport;
+    private final Listener mListener;
+
+    /**
+     * Buffers that are reused for the incoming and outgoing messages.
+     */
+    private final ByteBufferPool mBufferPool = new ByteBufferPool(
+            FrameCodec.DEFAULT_FRAGMENT_LENGTH * FrameCodec.fragmentCount(RESPONSE_LENGTH,
+                    FrameCodec.DEFAULT_FRAGMENT_LENGTH), 4);
+
+    /**
+     * Reassembles the responses of the lock from the received notifications.
+     */
+    private final FrameCodec.Decoder mResponseDecoder = new FrameCodec.Decoder(mBufferPool,
+            RESPONSE_LENGTH, new FrameCodec.FrameListener() {
+        @Override
+        public void onFrame(ByteBuffer frame) {
+            handleResponse(frame);
+        }
+    });
+
+    /**
+     * Splits the outgoing messages in fragments that fit in a single ATT packet.
+     */
+    private final FrameCodec.Encoder mMessageEncoder = new FrameCodec.Encoder(mBufferPool, false);
+
+    /**
+     * Writes the fragments of the encoder to the transport.
+     */
+    private final FrameCodec.FragmentListener mFragmentWriter = new FrameCodec.FragmentListener() {
+        @Override
+        public void onFragment(ByteBuffer fragment) {
+            byte[] value = new byte[fragment.remaining()];
+            fragment.get(value);
+            mWriteQueued &= mTransport.write(value);
+        }
+    };
+
+    /**
+     * Whether all fragments of the message that is being sent were queued.
+     */
+    private boolean mWriteQueued;
+
+    /**
+     * Cryptographic session of the current connection, set when the ticket is sent. Null if no
+     * ticket has been sent on this connection.
+     */
+    private CryptoSession mSession;
+
+    /**
+     * Number of packets that were written and received since the ticket was sent.
+     */
+    private int mPacketsSent;
+    private int mPacketsReceived;
+
+    /**
+     * Construct a new protocol and set it as the listener of the transport.
+     *
+     * @param transport The link with the esloq.
+     * @param listener Receives the results of the exchanges with the esloq.
+     */
+    LockProtocol(LockTransport transport, Listener listener) {
+        mTransport = transport;
+        mListener = listener;
+        transport.setListener(this);
+    }
+
+    /**
+     * Send the lock ticket of a session to the esloq. The session is used for all further
+     * communication on the current connection.
+     *
+     * @param session The session that contains the lock ticket.
+     * @return True if the ticket was queued, false otherwise.
+     */
+    synchronized boolean sendTicket(CryptoSession session) {
+        endSession();
+        mSession = session;
+        mPacketsSent = 0;
+        mPacketsReceived = 0;
+        return sendMessage(ByteBuffer.wrap(session.getLockTicket()));
+    }
+
+    /**
+     * Send an encrypted and authenticated request to the esloq. The request is encrypted in place
+     * in a pooled buffer, which holds the nonce, the authenticator and the ciphertext.
+     *
+     * @param request The request.
+     * @return True if the request was queued, false if the ticket has not been sent or the request
+     * could not be encrypted or queued.
+     */
+    synchronized boolean sendRequest(LockRequestCode request) {
+        if (mSession == null) {
+            return false;
+        }
+        ByteBuffer frame = mBufferPool.acquire(Cryptography.FRAME_HEADER_LENGTH + 1);
+        try {
+            frame.put(Cryptography.FRAME_HEADER_LENGTH, (byte) request.getIntValue());
+            int ciphertextLength = mSession.authEncrypt(frame, 0, 1);
+            if (ciphertextLength < 0) {
+                return false;
+            }
+            frame.position(0);
+            frame.limit(Cryptography.FRAME_HEADER_LENGTH + ciphertextLength);
+            return sendMessage(frame);
+        } finally {
+            mBufferPool.release(frame);
+        }
+    }
+
+    /**
+     * Ends the session of the current connection and overwrites its key material.
+     */
+    synchronized void endSession() {
+        if (mSession != null) {
+            mSession.destroy();
+            mSession = null;
+        }
+    }
+
+    /**
+     * Returns the maximum length of the fragments that are written.
+     *
+     * @return The fragment length.
+     */
+    synchronized int getFragmentLength() {
+        return mMessageEncoder.getFragmentLength();
+    }
+
+    /**
+     * Returns the number of packets that were written since the ticket was sent.
+     *
+     * @return Number of written packets.
+     */
+    synchronized int getPacketsSent() {
+        return mPacketsSent;
+    }
+
+    /**
+     * Returns the number of packets that were received since the ticket was sent.
+     *
+     * @return Number of received packets.
+     */
+    synchronized int getPacketsReceived() {
+        return mPacketsReceived;
+    }
+
+    @Override
+    public synchronized void onLinkReady(int fragmentLength) {
+        mMessageEncoder.setFragmentLength(fragmentLength);
+        mResponseDecoder.reset();
+        mListener.onCommunicationReady();
+    }
+
+    @Override
+    public synchronized void onNotification(byte[] value) {
+        mPacketsReceived++;
+        mResponseDecoder.decode(value);
+    }
+
+    @Override
+    public synchronized void onLinkLost() {
+        endSession();
+        mResponseDecoder.reset();
+        mMessageEncoder.setFragmentLength(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+    }
+
+    /**
+     * Sends a message to the esloq. The message is split in fragments of the fragment length,
+     * every fragment is written separately. The esloq concatenates the fragments.
+     *
+     * @param message The message, from its position to its limit.
+     * @return True if all fragments were queued, false otherwise.
+     */
+    private boolean sendMessage(ByteBuffer message) {
+        mWriteQueued = true;
+        mPacketsSent += mMessageEncoder.encode(message, mFragmentWriter);
+        return mWriteQueued;
+    }
+
+    /**
+     * Gets called when a complete response has been received from the esloq. The response is
+     * decrypted in place, its response code is passed to the listener.
+     *
+     * @param response The response, which is only valid for the duration of this call.
+     */
+    private void handleResponse(ByteBuffer response) {
+        if (mSession == null) {
+            mListener.onResponseDropped("Response received before the ticket was sent.");
+            return;
+        }
+        int offset = response.position();
+        int plaintextLength;
+        try {
+            plaintextLength = mSession.authDecrypt(response, offset,
+                    response.remaining() - Cryptography.FRAME_HEADER_LENGTH);
+        } catch (IllegalArgumentException e) {
+            // A duplicated or replayed notification is dropped, the session stays usable.
+            mListener.onResponseDropped(e.getMessage());
+            return;
+        }
+        if (plaintextLength <= 0) {
+            mListener.onResponseDropped("Response could not be authenticated.");
+            return;
+        }
+
+        LockResponseCode lockResponseCode;
+        try {
+            lockResponseCode = LockResponseCode.fromInteger(
+                    response.get(offset + Cryptography.FRAME_HEADER_LENGTH) & 0xFF);
+        } catch (IllegalArgumentException e) {
+            mListener.onResponseDropped(e.getMessage());
+            return;
+        }
+        switch (lockResponseCode) {
+            case UNLOCKED:
+                mListener.onUnlocked();
+                break;
+            case LOCKED:
+                mListener.onLocked();
+                break;
+            case TICKET_RCV_SUCCESS:
+                mListener.onTicketAccepted(false);
+                break;
+            case TICKET_RCV_SUCCESS_LOW_BAT:
+                mListener.onTicketAccepted(true);
+                break;
+            case TICKET_RCV_FAILURE:
+                break;
+            case INVALID_REQUEST:
+                mListener.onInvalidRequest();
+                break;
+        }
+    }
+}
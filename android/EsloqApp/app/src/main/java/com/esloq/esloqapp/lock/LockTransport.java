@@ -0,0 +1,49 @@
+package com.esloq.esloqapp.lock;
+
+/**
+ * Link over which fragments are exchanged with an esloq. The BluetoothService implements it on
+ * top of the GATT connection, the tests implement it with a simulated lock.
+ */
+interface LockTransport {
+
+    /**
+     * Receives the events of the link.
+     */
+    interface Listener {
+
+        /**
+         * Gets called when fragments can be exchanged with the esloq, i.e. when the esloq's
+         * notifications have been enabled.
+         *
+         * @param fragmentLength Maximum length of a fragment that can be written.
+         */
+        void onLinkReady(int fragmentLength);
+
+        /**
+         * Gets called for every notification that is received from the esloq, in order.
+         *
+         * @param value The value of the notification.
+         */
+        void onNotification(byte[] value);
+
+        /**
+         * Gets called when the link with the esloq is lost.
+         */
+        void onLinkLost();
+    }
+
+    /**
+     * Sets the listener that receives the events of the link.
+     *
+     * @param listener The listener.
+     */
+    void setListener(Listener listener);
+
+    /**
+     * Writes a fragment to the esloq. Fragments are written in the order of the calls.
+     *
+     * @param fragment The fragment, at most the fragment length that the link reported.
+     * @return True if the write was queued, false otherwise.
+     */
+    boolean write(byte[] fragment);
+}
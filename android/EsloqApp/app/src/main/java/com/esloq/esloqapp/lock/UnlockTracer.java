@@ -0,0 +1,202 @@
+package com.esloq.esloqapp.lock;
+
+import android.os.SystemClock;
+
+import com.esloq.esloqapp.BuildConfig;
+
+import java.util.Locale;
+
+/**
+ * Records how long the phases of connecting to and unlocking an esloq take. Every phase is
+ * started and ended with a timestamp from <code>SystemClock.elapsedRealtimeNanos</code>, the
+ * durations are counted in a {@link LatencyHistogram} per phase. Once a batch of
+ * <code>BATCH_SIZE</code> lock or unlock actions has been traced, a report of the histograms is
+ * made available for upload and the histograms start over.
+ * <p/>
+ * When the tracer is disabled no timestamps are taken, nothing is recorded and no report is made
+ * available. A new tracer is disabled, the shared tracer is enabled in debug builds only. The
+ * tracer is shared by the BluetoothService and the lock controller, use {@link #getInstance()}.
+ */
+class UnlockTracer {
+
+    /**
+     * The traced phases.
+     */
+    enum Phase {
+        /** From binding to the BluetoothService until the service is connected. */
+        BIND_SERVICE,
+        /** From connectGatt until the GATT connection state changes to connected. */
+        CONNECT_GATT,
+        /** From the GATT connection until the services have been discovered. */
+        DISCOVER_SERVICES,
+        /** From the service discovery until the notification descriptor has been written. */
+        WRITE_DESCRIPTOR,
+        /** Round trip of the session key request to the server. */
+        SESSION_KEY,
+        /** From sending the lock ticket until the esloq acknowledges it. */
+        TICKET_ACK,
+        /** From sending a rotate command until the esloq reports it has locked or unlocked. */
+        ROTATE_ACK,
+        /** From binding to the BluetoothService until the esloq acknowledges the ticket. */
+        TIME_TO_READY
+    }
+
+    /**
+     * Number of traced lock and unlock actions after which a report is made available.
+     */
+    static final int BATCH_SIZE = 20;
+
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private static UnlockTracer sInstance;
+
+    /**
+     * Whether the phases are traced. Read without holding the lock, so that a disabled tracer
+     * only costs a volatile read.
+     */
+    private volatile boolean mEnabled;
+
+    /**
+     * Start time in nanoseconds of every phase that is in progress, zero if the phase is not in
+     * progress.
+     */
+    private final long[] mStartTimes = new long[Phase.values().length];
+
+    /**
+     * Durations in microseconds, per phase.
+     */
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[Phase.values().length];
+
+    /**
+     * Returns the tracer that is shared by the BluetoothService and the lock controller. The
+     * tracer is enabled in debug builds.
+     *
+     * @return The tracer.
+     */
+    static synchronized UnlockTracer getInstance() {
+        if (sInstance == null) {
+            sInstance = new UnlockTracer();
+            sInstance.setEnabled(BuildConfig.DEBUG);
+        }
+        return sInstance;
+    }
+
+    UnlockTracer() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Enable or disable the tracer. Phases that are in progress are dropped when the tracer is
+     * disabled.
+     *
+     * @param enabled True to trace the phases, false otherwise.
+     */
+    synchronized void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            for (int i = 0; i < mStartTimes.length; i++) {
+                mStartTimes[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Starts a phase, restarting it if it is already in progress.
+     *
+     * @param phase The phase.
+     */
+    void begin(Phase phase) {
+        if (!mEnabled) {
+            return;
+        }
+        long now = elapsedRealtimeNanos();
+        synchronized (this) {
+            mStartTimes[phase.ordinal()] = now;
+        }
+    }
+
+    /**
+     * Ends a phase and records its duration. Nothing is recorded if the phase is not in progress.
+     *
+     * @param phase The phase.
+     */
+    void end(Phase phase) {
+        if (!mEnabled) {
+            return;
+        }
+        long now = elapsedRealtimeNanos();
+        synchronized (this) {
+            long startTime = mStartTimes[phase.ordinal()];
+            if (startTime == 0) {
+                return;
+            }
+            mStartTimes[phase.ordinal()] = 0;
+            mHistograms[phase.ordinal()].record(Math.max(0, now - startTime) / NANOS_PER_MICRO);
+        }
+    }
+
+    /**
+     * Returns a report of the recorded durations once a batch of lock and unlock actions has been
+     * traced, and starts a new batch.
+     *
+     * @return The report, or null if the tracer is disabled or the batch is not complete.
+     */
+    synchronized String takeReport() {
+        if (!mEnabled || mHistograms[Phase.ROTATE_ACK.ordinal()].getTotalCount() < BATCH_SIZE) {
+            return null;
+        }
+        String report = dump();
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        return report;
+    }
+
+    /**
+     * Returns a report of the recorded durations. For every phase that was recorded the report
+     * contains the number of recorded durations, the median, the 90th and 99th percentile and the
+     * maximum, in milliseconds.
+     *
+     * @return The report.
+     */
+    synchronized String dump() {
+        StringBuilder builder = new StringBuilder("Unlock latency (ms):");
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram histogram = mHistograms[phase.ordinal()];
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            builder.append(String.format(Locale.US,
+                    " %s n=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f;", phase.name(),
+                    histogram.getTotalCount(), millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getValueAtPercentile(99)), millis(histogram.getMax())));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the number of durations that were recorded for a phase in the current batch.
+     *
+     * @param phase The phase.
+     * @return The number of durations.
+     */
+    synchronized long getCount(Phase phase) {
+        return mHistograms[phase.ordinal()].getTotalCount();
+    }
+
+    /**
+     * Returns the time since boot in nanoseconds, used to time the phases.
+     *
+     * @return Nanoseconds since boot.
+     */
+    long elapsedRealtimeNanos() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
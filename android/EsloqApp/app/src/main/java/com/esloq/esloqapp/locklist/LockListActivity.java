@@ -25,6 +25,7 @@ import com.esloq.esloqapp.BuildConfig;
 import com.esloq.esloqapp.cursorrecycleradapter.CursorRecyclerAdapter;
 import com.esloq.esloqapp.data.Injection;
 import com.esloq.esloqapp.data.LoaderProvider;
+import com.esloq.esloqapp.data.LogRetentionJobService;
 import com.esloq.esloqapp.home.HomeActivity;
 import com.esloq.esloqapp.util.DividerItemDecoration;
 import com.esloq.esloqapp.lockmanagment.LockManagementActivity;
@@ -117,6 +118,7 @@ public class LockListActivity extends HomeActivity implements LockListContract.V
         setTitle(R.string.title_activity_locklist);
 
         mActionListener = new LockListPresenter(Injection.provideLockDataRepository(getApplicationContext()), this);
+        LogRetentionJobService.schedule(getApplicationContext());
 
         // Set up floating action button
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab_add_lock);
@@ -133,6 +135,12 @@ public class LockListActivity extends HomeActivity implements LockListContract.V
         getLoaderManager().initLoader(0, null, this);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mActionListener.prefetchSessionKeys();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // Handle action bar item clicks here. The action bar will
@@ -242,6 +250,12 @@ public class LockListActivity extends HomeActivity implements LockListContract.V
             }
         }
 
+        @Override
+        protected long getRowId(Cursor cursor) {
+            // The MAC address of the lock, e.g. "00:1A:7D:DA:71:13", fits in a long.
+            return Long.parseLong(cursor.getString(0).replace(":", ""), 16);
+        }
+
         /**
          * Class containing the views contained within a row of the lock list.
          */
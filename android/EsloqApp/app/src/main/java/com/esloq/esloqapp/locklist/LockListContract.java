@@ -26,5 +26,7 @@ interface LockListContract {
         void openLockDetails(String lockMac, String lockName);
 
         void openLockManagement(String lockMac, String lockName);
+
+        void prefetchSessionKeys();
     }
 }
@@ -43,4 +43,13 @@ class LockListPresenter implements LockListContract.UserActionsListener {
     public void openLockManagement(String lockMac, String lockName) {
         mLockListView.showLockManagement(lockMac,lockName);
     }
+
+    /**
+     * Fetches the lock tickets of the shown locks ahead of time, so that a lock can be opened
+     * without waiting for the server.
+     */
+    @Override
+    public void prefetchSessionKeys() {
+        mLockDataRepository.prefetchSessionKeys();
+    }
 }
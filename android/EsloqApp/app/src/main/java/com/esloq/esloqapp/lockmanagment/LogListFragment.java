@@ -1,9 +1,9 @@
 package com.esloq.esloqapp.lockmanagment;
 
-import android.app.LoaderManager;
-import android.content.Loader;
-import android.database.Cursor;
+import android.database.ContentObserver;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -13,18 +13,21 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.esloq.esloqapp.cursorrecycleradapter.CursorRecyclerAdapter;
 import com.esloq.esloqapp.data.LoaderProvider;
+import com.esloq.esloqapp.data.LogEntry;
+import com.esloq.esloqapp.data.LogPager;
 import com.esloq.esloqapp.util.DividerItemDecoration;
 import com.esloq.esloqapp.R;
 
 import java.text.DateFormat;
-import java.util.GregorianCalendar;
+import java.util.Date;
+import java.util.concurrent.Executor;
 
 /**
- * Fragment that displays the logs that have occurred on a given lock.
+ * Fragment that displays the logs that have occurred on a given lock. The logs are read a page
+ * at a time while the list is scrolled.
  */
-public class LogListFragment extends Fragment implements  LoaderManager.LoaderCallbacks<Cursor> {
+public class LogListFragment extends Fragment implements LogPager.Listener {
 
     /**
      * Adapter to display the lock list in the RecyclerView.
@@ -41,6 +44,33 @@ public class LogListFragment extends Fragment implements  LoaderManager.LoaderCa
      */
     private LoaderProvider mLoaderProvider;
 
+    /**
+     * Pager that reads the logs of the lock.
+     */
+    private LogPager mLogPager;
+
+    private final Handler mHandler = new Handler();
+
+    /**
+     * Delivers the pages on the main thread.
+     */
+    private final Executor mMainThreadExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    };
+
+    /**
+     * Reads the logs again when they change in the database.
+     */
+    private final ContentObserver mLogsObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mLogPager.refresh();
+        }
+    };
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -62,28 +92,50 @@ public class LogListFragment extends Fragment implements  LoaderManager.LoaderCa
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
         mLoaderProvider = new LoaderProvider(getActivity());
-        getActivity().getLoaderManager().initLoader(1, null, this);
+        mLogPager = mLoaderProvider.getLockLogsPager(lockMac, AsyncTask.THREAD_POOL_EXECUTOR,
+                mMainThreadExecutor, this);
+        mLoaderProvider.registerLockLogsObserver(lockMac, mLogsObserver);
+        mLogPager.refresh();
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        return mLoaderProvider.getLockLogsCursorLoader(lockMac);
+    public void onDestroyView() {
+        super.onDestroyView();
+        mLoaderProvider.unregisterObserver(mLogsObserver);
+        mHandler.removeCallbacksAndMessages(null);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        logListAdapter.changeCursor(cursor);
+    public void onLogsInserted(int position, int count) {
+        logListAdapter.notifyItemRangeInserted(position, count);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        logListAdapter.changeCursor(null);
+    public void onLogsRemoved(int position, int count) {
+        logListAdapter.notifyItemRangeRemoved(position, count);
+    }
+
+    @Override
+    public void onLogsChanged(int position, int count) {
+        logListAdapter.notifyItemRangeChanged(position, count);
+    }
+
+    @Override
+    public void onLogsReset() {
+        logListAdapter.notifyDataSetChanged();
     }
 
     /**
      * Adapter class that is responsible for selecting what data to display in each ViewHolder.
      */
-    private class LogListAdapter extends CursorRecyclerAdapter<LogListAdapter.ViewHolder> {
+    private class LogListAdapter extends RecyclerView.Adapter<LogListAdapter.ViewHolder> {
+
+        /**
+         * Format and date that are reused for every row that is bound.
+         */
+        private final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM,
+                DateFormat.SHORT);
+        private final Date date = new Date();
 
         @Override
         public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
@@ -93,14 +145,24 @@ public class LogListFragment extends Fragment implements  LoaderManager.LoaderCa
         }
 
         @Override
-        public void onBindViewHolder(ViewHolder holder) {
-            holder.userName.setText(getCursor().getString(0));
-            GregorianCalendar calendar = new GregorianCalendar();
-            calendar.setTimeInMillis(getCursor().getLong(1)*1000);
-//            SimpleDateFormat dateFormat = new SimpleDateFormat("MMM d | k:mm"); // SimpleDateFormat mainly for machine readable formats
-            DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
-            holder.dateAndTime.setText(dateFormat.format(calendar.getTime()));
-            if(getCursor().getInt(2) == 1) {
+        public int getItemCount() {
+            return mLogPager == null ? 0 : mLogPager.getCount();
+        }
+
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int position) {
+            LogEntry log = mLogPager.get(position);
+            if (log == null) {
+                // The page is read again, the row is bound when it is available.
+                holder.userName.setText(null);
+                holder.dateAndTime.setText(null);
+                holder.lockState.setImageDrawable(null);
+                return;
+            }
+            holder.userName.setText(log.getUserName());
+            date.setTime(log.getTimestamp()*1000);
+            holder.dateAndTime.setText(dateFormat.format(date));
+            if(log.isLocked()) {
                 holder.lockState.setImageResource(R.drawable.ic_lock);
             }
             else {
@@ -217,6 +217,11 @@ public class UserListFragment extends Fragment implements UserListContract.View,
             }
         }
 
+        @Override
+        protected long getRowId(Cursor cursor) {
+            return cursor.getLong(0);
+        }
+
         /**
          * Class containing the views contained within a row of the user list.
          */
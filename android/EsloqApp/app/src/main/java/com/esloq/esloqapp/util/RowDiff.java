@@ -0,0 +1,141 @@
+package com.esloq.esloqapp.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The differences between two versions of a list of rows, as the rows that were inserted,
+ * removed and changed. Rows are matched on their stable id, a matched row changed if its content
+ * hash changed. Moves are reported as a removal and an insertion.
+ * <p/>
+ * The differences are computed with the longest common subsequence of the ids, which takes time
+ * and memory proportional to the product of the sizes of the lists. Lists larger than
+ * <code>MAX_CELLS</code> together are reported as all rows removed and inserted.
+ */
+public final class RowDiff {
+
+    /**
+     * Receives the differences, in an order in which they can be applied one after the other.
+     */
+    public interface Callback {
+
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    /**
+     * Maximum product of the sizes of the lists that are compared row by row.
+     */
+    static final long MAX_CELLS = 1000 * 1000;
+
+    private static final int INSERTED = 0;
+    private static final int REMOVED = 1;
+    private static final int CHANGED = 2;
+
+    /**
+     * The differences as triples of type, position and count.
+     */
+    private final List<int[]> mOperations = new ArrayList<>();
+
+    private RowDiff() {
+    }
+
+    /**
+     * Computes the differences between two versions of a list.
+     *
+     * @param oldIds The ids of the old rows.
+     * @param oldHashes The content hashes of the old rows.
+     * @param newIds The ids of the new rows.
+     * @param newHashes The content hashes of the new rows.
+     * @return The differences.
+     */
+    public static RowDiff compute(long[] oldIds, long[] oldHashes, long[] newIds,
+                                  long[] newHashes) {
+        RowDiff diff = new RowDiff();
+        int oldSize = oldIds.length;
+        int newSize = newIds.length;
+        if ((long) oldSize * newSize > MAX_CELLS) {
+            diff.add(REMOVED, 0, oldSize);
+            diff.add(INSERTED, 0, newSize);
+            return diff;
+        }
+        // lengths[i][j] is the length of the common subsequence of the rows from i and j on.
+        int[][] lengths = new int[oldSize + 1][newSize + 1];
+        for (int i = oldSize - 1; i >= 0; i--) {
+            for (int j = newSize - 1; j >= 0; j--) {
+                lengths[i][j] = oldIds[i] == newIds[j] ? lengths[i + 1][j + 1] + 1
+                        : Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+            }
+        }
+        // Walk from the start, keeping track of the position in the list as it is updated.
+        int i = 0;
+        int j = 0;
+        while (i < oldSize || j < newSize) {
+            if (i < oldSize && j < newSize && oldIds[i] == newIds[j]) {
+                if (oldHashes[i] != newHashes[j]) {
+                    diff.add(CHANGED, j, 1);
+                }
+                i++;
+                j++;
+            } else if (j == newSize || (i < oldSize && lengths[i + 1][j] >= lengths[i][j + 1])) {
+                diff.add(REMOVED, j, 1);
+                i++;
+            } else {
+                diff.add(INSERTED, j, 1);
+                j++;
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Returns whether the lists are the same.
+     *
+     * @return True if no row was inserted, removed or changed.
+     */
+    public boolean isEmpty() {
+        return mOperations.isEmpty();
+    }
+
+    /**
+     * Passes the differences to a callback.
+     *
+     * @param callback The callback.
+     */
+    public void dispatch(Callback callback) {
+        for (int[] operation : mOperations) {
+            switch (operation[0]) {
+                case INSERTED:
+                    callback.onInserted(operation[1], operation[2]);
+                    break;
+                case REMOVED:
+                    callback.onRemoved(operation[1], operation[2]);
+                    break;
+                default:
+                    callback.onChanged(operation[1], operation[2]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Adds a difference, merged with the previous one if they are of the same type and adjacent.
+     */
+    private void add(int type, int position, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (!mOperations.isEmpty()) {
+            int[] last = mOperations.get(mOperations.size() - 1);
+            if (last[0] == type && (type == REMOVED ? last[1] == position
+                    : last[1] + last[2] == position)) {
+                last[2] += count;
+                return;
+            }
+        }
+        mOperations.add(new int[] {type, position, count});
+    }
+}
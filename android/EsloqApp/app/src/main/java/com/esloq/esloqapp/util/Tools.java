@@ -28,7 +28,8 @@ public class Tools {
     }
 
     /**
-     * Increment little endian byte array.
+     * Increment big endian unsigned byte array, the same as the esloq increments its nonces. An
+     * array that contains only 0xFF bytes wraps around to zero.
      *
      * @param array The byte array to increment.
      */
@@ -37,13 +38,13 @@ public class Tools {
     }
 
     /**
-     * Increment little endian byte array at a given index
+     * Increment big endian unsigned byte array at a given index
      *
      * @param array The byte array to increment.
      * @param index The index at which to increment the byte array.
      */
     private static void incrementAtIndex(byte[] array, int index) {
-        if (array[index] == Byte.MAX_VALUE) {
+        if (array[index] == (byte) 0xFF) {
             array[index] = 0;
             if(index > 0) {
                 incrementAtIndex(array, index - 1);
@@ -13,7 +13,6 @@ public class Urls {
     public static final URL INITIALIZE_LOCK;
     public static final URL RESET_LOCK;
     public static final URL REQUEST_SESSION_KEY;
-    public static final URL ADD_LOG;
     public static final URL REMOVE_USER;
     public static final URL ADD_REGISTRATION_TOKEN;
     public static final URL LOG;
@@ -31,7 +30,6 @@ public class Urls {
         URL setLockAdmin = null;
         URL resetLock = null;
         URL requestSessionKey = null;
-        URL addLog = null;
         URL removeUser = null;
         URL addRegistrationToken = null;
         URL log = null;
@@ -41,7 +39,6 @@ public class Urls {
             setLockAdmin  = new URL(protocol, host, port, "initializelock/");
             resetLock = new URL(protocol, host, port, "resetlock/");
             requestSessionKey = new URL(protocol, host, port, "requestsessionkey/");
-            addLog = new URL(protocol, host, port, "addlog/");
             removeUser = new URL(protocol, host, port, "removeuser/");
             addRegistrationToken = new URL(protocol, host, port, "addregistrationtoken/");
             log =  new URL(protocol, host, port, "log/");
@@ -53,9 +50,20 @@ public class Urls {
         INITIALIZE_LOCK = setLockAdmin;
         RESET_LOCK = resetLock;
         REQUEST_SESSION_KEY = requestSessionKey;
-        ADD_LOG = addLog;
         REMOVE_USER = removeUser;
         ADD_REGISTRATION_TOKEN = addRegistrationToken;
         LOG = log;
     }
+
+    /**
+     * Returns the URL of the log batch endpoint of the REST API, at which the logs of a user are
+     * uploaded.
+     *
+     * @param userId The id of the signed in user.
+     * @return The URL.
+     * @throws MalformedURLException If the URL cannot be built.
+     */
+    public static URL getLogBatchUrl(int userId) throws MalformedURLException {
+        return new URL(protocol, host, port, "users/" + userId + "/logs/batch/");
+    }
 }
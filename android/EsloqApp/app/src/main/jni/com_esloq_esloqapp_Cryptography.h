@@ -11,6 +11,12 @@ extern "C" {
 #define com_esloq_esloqapp_Cryptography_NONCE_LENGTH 24L
 #undef com_esloq_esloqapp_Cryptography_MAC_LENGTH
 #define com_esloq_esloqapp_Cryptography_MAC_LENGTH 16L
+#undef com_esloq_esloqapp_Cryptography_TICKET_LENGTH
+#define com_esloq_esloqapp_Cryptography_TICKET_LENGTH 72L
+#undef com_esloq_esloqapp_Cryptography_KEY_LENGTH
+#define com_esloq_esloqapp_Cryptography_KEY_LENGTH 32L
+#undef com_esloq_esloqapp_Cryptography_FRAME_HEADER_LENGTH
+#define com_esloq_esloqapp_Cryptography_FRAME_HEADER_LENGTH 40L
 /*
  * Class:     com_esloq_esloqapp_Cryptography
  * Method:    encrypt
@@ -27,6 +33,22 @@ JNIEXPORT jbyteArray JNICALL Java_com_esloq_esloqapp_Cryptography_encrypt
 JNIEXPORT jbyteArray JNICALL Java_com_esloq_esloqapp_Cryptography_decrypt
   (JNIEnv *, jclass, jbyteArray, jbyteArray, jbyteArray);
 
+/*
+ * Class:     com_esloq_esloqapp_Cryptography
+ * Method:    encryptInPlace
+ * Signature: (Ljava/nio/ByteBuffer;IILjava/nio/ByteBuffer;)I
+ */
+JNIEXPORT jint JNICALL Java_com_esloq_esloqapp_Cryptography_encryptInPlace
+  (JNIEnv *, jclass, jobject, jint, jint, jobject);
+
+/*
+ * Class:     com_esloq_esloqapp_Cryptography
+ * Method:    decryptInPlace
+ * Signature: (Ljava/nio/ByteBuffer;IILjava/nio/ByteBuffer;)I
+ */
+JNIEXPORT jint JNICALL Java_com_esloq_esloqapp_Cryptography_decryptInPlace
+  (JNIEnv *, jclass, jobject, jint, jint, jobject);
+
 #ifdef __cplusplus
 }
 #endif
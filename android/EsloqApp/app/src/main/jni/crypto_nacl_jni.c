@@ -1,5 +1,6 @@
 
 #include <android/log.h>
+#include <string.h>
 #include "com_esloq_esloqapp_Cryptography.h"
 #include "avrnacl.h"
 
@@ -88,3 +89,98 @@
     (*env)->SetByteArrayRegion(env, plaintext, 0, mlen, (jbyte*) m + crypto_secretbox_ZEROBYTES);
     return plaintext;
 }
+
+/*
+ * Length of the frame header: the nonce followed by the authenticator.
+ */
+#define FRAME_HEADER_BYTES (crypto_secretbox_NONCEBYTES + crypto_onetimeauth_poly1305_BYTES)
+
+/*
+ * Returns the address of a frame in a direct buffer, or NULL if the buffer is not direct or the
+ * frame of the given payload length does not fit in the buffer at the given offset.
+ */
+static unsigned char *get_frame(JNIEnv *env, jobject buffer, jint offset, jint length) {
+    unsigned char *address = (unsigned char *) (*env)->GetDirectBufferAddress(env, buffer);
+    jlong capacity = (*env)->GetDirectBufferCapacity(env, buffer);
+
+    if (address == NULL || offset < 0 || length <= 0 ||
+        (jlong) offset + FRAME_HEADER_BYTES + length > capacity) {
+        return NULL;
+    }
+    return address + offset;
+}
+
+/*
+ * Returns the address of a key in a direct buffer, or NULL if the buffer is not a direct buffer
+ * that holds a key.
+ */
+static const unsigned char *get_key(JNIEnv *env, jobject buffer) {
+    if ((*env)->GetDirectBufferCapacity(env, buffer) != crypto_secretbox_KEYBYTES) {
+        return NULL;
+    }
+    return (const unsigned char *) (*env)->GetDirectBufferAddress(env, buffer);
+}
+
+/*
+ * Class:     com_esloq_esloqapp_Cryptography
+ * Method:    encryptInPlace
+ * Signature: (Ljava/nio/ByteBuffer;IILjava/nio/ByteBuffer;)I
+ *
+ * The frame consists of nonce | authenticator | message. On entry the nonce and the message are
+ * set, on return the message is replaced by the ciphertext and the authenticator is set. The
+ * leading zero bytes that crypto_secretbox needs overlap with the nonce, so the nonce is saved
+ * and restored.
+ */
+JNIEXPORT jint JNICALL Java_com_esloq_esloqapp_Cryptography_encryptInPlace
+  (JNIEnv *env, jclass cls, jobject frame, jint offset, jint length, jobject key) {
+    unsigned char *f = get_frame(env, frame, offset, length);
+    const unsigned char *k = get_key(env, key);
+    unsigned char *m;
+    unsigned char n[crypto_secretbox_NONCEBYTES];
+    int result;
+
+    if (f == NULL || k == NULL) {
+        return -1;
+    }
+    m = f + FRAME_HEADER_BYTES - crypto_secretbox_ZEROBYTES;
+
+    memcpy(n, f, crypto_secretbox_NONCEBYTES);
+    memset(m, 0, crypto_secretbox_ZEROBYTES);
+
+    /* Encrypt in place, the authenticator ends up right in front of the ciphertext */
+    result = crypto_secretbox(m, m, crypto_secretbox_ZEROBYTES + length, n, k);
+
+    memcpy(f, n, crypto_secretbox_NONCEBYTES);
+    return result == 0 ? length : -1;
+}
+
+/*
+ * Class:     com_esloq_esloqapp_Cryptography
+ * Method:    decryptInPlace
+ * Signature: (Ljava/nio/ByteBuffer;IILjava/nio/ByteBuffer;)I
+ *
+ * The frame consists of nonce | authenticator | ciphertext. On success the ciphertext is
+ * replaced by the plaintext. The nonce is left unchanged.
+ */
+JNIEXPORT jint JNICALL Java_com_esloq_esloqapp_Cryptography_decryptInPlace
+  (JNIEnv *env, jclass cls, jobject frame, jint offset, jint length, jobject key) {
+    unsigned char *f = get_frame(env, frame, offset, length);
+    const unsigned char *k = get_key(env, key);
+    unsigned char *c;
+    unsigned char n[crypto_secretbox_NONCEBYTES];
+    int result;
+
+    if (f == NULL || k == NULL) {
+        return -1;
+    }
+    c = f + FRAME_HEADER_BYTES - crypto_secretbox_ZEROBYTES;
+
+    memcpy(n, f, crypto_secretbox_NONCEBYTES);
+    memset(c, 0, crypto_secretbox_BOXZEROBYTES);
+
+    /* Verify and decrypt in place */
+    result = crypto_secretbox_open(c, c, crypto_secretbox_ZEROBYTES + length, n, k);
+
+    memcpy(f, n, crypto_secretbox_NONCEBYTES);
+    return result == 0 ? length : -1;
+}
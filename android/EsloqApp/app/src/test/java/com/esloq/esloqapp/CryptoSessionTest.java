@@ -0,0 +1,87 @@
+package com.esloq.esloqapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * Unit tests for {@link CryptoSession}. The encryption itself uses the native library and is not
+ * covered by these tests.
+ */
+public class CryptoSessionTest {
+
+    private byte[] mSessionKey;
+    private byte[] mLockTicket;
+    private CryptoSession mSession;
+
+    @Before
+    public void setUp() {
+        mSessionKey = new byte[Cryptography.KEY_LENGTH];
+        mLockTicket = new byte[Cryptography.TICKET_LENGTH];
+        mLockTicket[0] = 42;
+        mSession = new CryptoSession(mSessionKey, mLockTicket);
+    }
+
+    @Test
+    public void testGetLockTicket_isCopy() {
+        byte[] lockTicket = mSession.getLockTicket();
+        assertArrayEquals(mLockTicket, lockTicket);
+        assertNotSame(mLockTicket, lockTicket);
+
+        // Changing the caller's arrays does not change the session.
+        mLockTicket[0] = 0;
+        lockTicket[1] = 1;
+        assertEquals(42, mSession.getLockTicket()[0]);
+        assertEquals(0, mSession.getLockTicket()[1]);
+    }
+
+    @Test
+    public void testGetNextSessionNonce() {
+        byte[] expected = new byte[Cryptography.NONCE_LENGTH];
+        expected[Cryptography.NONCE_LENGTH - 1] = 1;
+        assertArrayEquals(expected, mSession.getNextSessionNonce());
+        // Peeking at the next nonce does not advance the counter.
+        assertArrayEquals(expected, mSession.getNextSessionNonce());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAuthDecrypt_nonceZero() {
+        // Nonce zero is never used for a frame, the first response of the lock uses nonce one.
+        mSession.authDecrypt(new byte[Cryptography.NONCE_LENGTH],
+                new byte[Cryptography.MAC_LENGTH]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAuthDecrypt_invalidNonceLength() {
+        mSession.authDecrypt(new byte[Cryptography.NONCE_LENGTH - 1],
+                new byte[Cryptography.MAC_LENGTH]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAuthDecryptInPlace_nonceZero() {
+        ByteBuffer frame = ByteBuffer.allocateDirect(Cryptography.FRAME_HEADER_LENGTH + 1);
+        mSession.authDecrypt(frame, 0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAuthDecryptInPlace_frameTooShort() {
+        ByteBuffer frame = ByteBuffer.allocateDirect(Cryptography.NONCE_LENGTH);
+        frame.put(Cryptography.NONCE_LENGTH - 1, (byte) 1);
+        mSession.authDecrypt(frame, 1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidKeyLength() {
+        new CryptoSession(new byte[Cryptography.KEY_LENGTH - 1], mLockTicket);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTicketLength() {
+        new CryptoSession(mSessionKey, new byte[Cryptography.TICKET_LENGTH + 1]);
+    }
+}
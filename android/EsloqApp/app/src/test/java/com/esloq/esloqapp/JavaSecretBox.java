@@ -0,0 +1,218 @@
+package com.esloq.esloqapp;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the NaCl secretbox (XSalsa20 and Poly1305), used by the tests
+ * instead of the native library. Written for clarity rather than speed.
+ */
+public class JavaSecretBox implements SecretBox {
+
+    private static final int[] SIGMA = {0x61707865, 0x3320646e, 0x79622d32, 0x6b206574};
+    private static final int ZERO_BYTES = 32;
+    private static final BigInteger P = BigInteger.ONE.shiftLeft(130).subtract(BigInteger.valueOf(5));
+    private static final BigInteger R_MASK = new BigInteger("0ffffffc0ffffffc0ffffffc0fffffff", 16);
+
+    @Override
+    public byte[] encrypt(byte[] message, byte[] nonce, byte[] key) {
+        if (nonce.length != Cryptography.NONCE_LENGTH || key.length != Cryptography.KEY_LENGTH
+                || message.length == 0) {
+            return null;
+        }
+        byte[] stream = stream(ZERO_BYTES + message.length, nonce, key);
+        byte[] ciphertext = new byte[message.length];
+        for (int i = 0; i < message.length; i++) {
+            ciphertext[i] = (byte) (message[i] ^ stream[ZERO_BYTES + i]);
+        }
+        byte[] mac = poly1305(ciphertext, Arrays.copyOf(stream, ZERO_BYTES));
+        byte[] result = new byte[Cryptography.MAC_LENGTH + message.length];
+        System.arraycopy(mac, 0, result, 0, Cryptography.MAC_LENGTH);
+        System.arraycopy(ciphertext, 0, result, Cryptography.MAC_LENGTH, ciphertext.length);
+        return result;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext, byte[] nonce, byte[] key) {
+        if (nonce.length != Cryptography.NONCE_LENGTH || key.length != Cryptography.KEY_LENGTH
+                || ciphertext.length <= Cryptography.MAC_LENGTH) {
+            return null;
+        }
+        int length = ciphertext.length - Cryptography.MAC_LENGTH;
+        byte[] stream = stream(ZERO_BYTES + length, nonce, key);
+        byte[] encrypted = Arrays.copyOfRange(ciphertext, Cryptography.MAC_LENGTH,
+                ciphertext.length);
+        byte[] mac = poly1305(encrypted, Arrays.copyOf(stream, ZERO_BYTES));
+        int difference = 0;
+        for (int i = 0; i < Cryptography.MAC_LENGTH; i++) {
+            difference |= mac[i] ^ ciphertext[i];
+        }
+        if (difference != 0) {
+            return null;
+        }
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = (byte) (encrypted[i] ^ stream[ZERO_BYTES + i]);
+        }
+        return message;
+    }
+
+    @Override
+    public int encryptInPlace(ByteBuffer frame, int offset, int length, ByteBuffer key) {
+        if (!fits(frame, offset, length)) {
+            return -1;
+        }
+        byte[] nonce = get(frame, offset, Cryptography.NONCE_LENGTH);
+        byte[] message = get(frame, offset + Cryptography.FRAME_HEADER_LENGTH, length);
+        byte[] ciphertext = encrypt(message, nonce, get(key, 0, key.capacity()));
+        if (ciphertext == null) {
+            return -1;
+        }
+        put(frame, offset + Cryptography.NONCE_LENGTH, ciphertext);
+        return length;
+    }
+
+    @Override
+    public int decryptInPlace(ByteBuffer frame, int offset, int length, ByteBuffer key) {
+        if (!fits(frame, offset, length)) {
+            return -1;
+        }
+        byte[] nonce = get(frame, offset, Cryptography.NONCE_LENGTH);
+        byte[] ciphertext = get(frame, offset + Cryptography.NONCE_LENGTH,
+                Cryptography.MAC_LENGTH + length);
+        byte[] message = decrypt(ciphertext, nonce, get(key, 0, key.capacity()));
+        if (message == null) {
+            return -1;
+        }
+        put(frame, offset + Cryptography.FRAME_HEADER_LENGTH, message);
+        return length;
+    }
+
+    /**
+     * Returns whether a frame fits in a buffer, with the same checks as the native library.
+     */
+    private static boolean fits(ByteBuffer frame, int offset, int length) {
+        return offset >= 0 && length > 0
+                && (long) offset + Cryptography.FRAME_HEADER_LENGTH + length <= frame.capacity();
+    }
+
+    /**
+     * Returns the XSalsa20 key stream.
+     */
+    private static byte[] stream(int length, byte[] nonce, byte[] key) {
+        byte[] subKey = hsalsa20(Arrays.copyOf(nonce, 16), key);
+        byte[] stream = new byte[length];
+        byte[] input = new byte[16];
+        System.arraycopy(nonce, 16, input, 0, 8);
+        for (long counter = 0; counter * 64 < length; counter++) {
+            for (int i = 0; i < 8; i++) {
+                input[8 + i] = (byte) (counter >>> (8 * i));
+            }
+            byte[] block = salsa20(input, subKey);
+            int n = (int) Math.min(64, length - counter * 64);
+            System.arraycopy(block, 0, stream, (int) (counter * 64), n);
+        }
+        return stream;
+    }
+
+    private static byte[] salsa20(byte[] input, byte[] key) {
+        int[] state = initialState(input, key);
+        int[] x = state.clone();
+        rounds(x);
+        byte[] out = new byte[64];
+        for (int i = 0; i < 16; i++) {
+            store(out, 4 * i, x[i] + state[i]);
+        }
+        return out;
+    }
+
+    private static byte[] hsalsa20(byte[] input, byte[] key) {
+        int[] x = initialState(input, key);
+        rounds(x);
+        int[] words = {x[0], x[5], x[10], x[15], x[6], x[7], x[8], x[9]};
+        byte[] out = new byte[32];
+        for (int i = 0; i < 8; i++) {
+            store(out, 4 * i, words[i]);
+        }
+        return out;
+    }
+
+    private static int[] initialState(byte[] input, byte[] key) {
+        return new int[] {
+                SIGMA[0], load(key, 0), load(key, 4), load(key, 8),
+                load(key, 12), SIGMA[1], load(input, 0), load(input, 4),
+                load(input, 8), load(input, 12), SIGMA[2], load(key, 16),
+                load(key, 20), load(key, 24), load(key, 28), SIGMA[3]};
+    }
+
+    private static void rounds(int[] x) {
+        for (int i = 0; i < 20; i += 2) {
+            quarterRound(x, 0, 4, 8, 12);
+            quarterRound(x, 5, 9, 13, 1);
+            quarterRound(x, 10, 14, 2, 6);
+            quarterRound(x, 15, 3, 7, 11);
+            quarterRound(x, 0, 1, 2, 3);
+            quarterRound(x, 5, 6, 7, 4);
+            quarterRound(x, 10, 11, 8, 9);
+            quarterRound(x, 15, 12, 13, 14);
+        }
+    }
+
+    private static void quarterRound(int[] x, int a, int b, int c, int d) {
+        x[b] ^= Integer.rotateLeft(x[a] + x[d], 7);
+        x[c] ^= Integer.rotateLeft(x[b] + x[a], 9);
+        x[d] ^= Integer.rotateLeft(x[c] + x[b], 13);
+        x[a] ^= Integer.rotateLeft(x[d] + x[c], 18);
+    }
+
+    private static byte[] poly1305(byte[] message, byte[] key) {
+        BigInteger r = littleEndian(key, 0, 16).and(R_MASK);
+        BigInteger s = littleEndian(key, 16, 16);
+        BigInteger h = BigInteger.ZERO;
+        for (int i = 0; i < message.length; i += 16) {
+            int n = Math.min(16, message.length - i);
+            BigInteger block = littleEndian(message, i, n).setBit(8 * n);
+            h = h.add(block).multiply(r).mod(P);
+        }
+        h = h.add(s);
+        byte[] mac = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            mac[i] = h.shiftRight(8 * i).byteValue();
+        }
+        return mac;
+    }
+
+    private static BigInteger littleEndian(byte[] bytes, int offset, int length) {
+        byte[] bigEndian = new byte[length + 1];
+        for (int i = 0; i < length; i++) {
+            bigEndian[length - i] = bytes[offset + i];
+        }
+        return new BigInteger(bigEndian);
+    }
+
+    private static int load(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8
+                | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    private static void store(byte[] bytes, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static byte[] get(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return bytes;
+    }
+
+    private static void put(ByteBuffer buffer, int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + i, bytes[i]);
+        }
+    }
+}
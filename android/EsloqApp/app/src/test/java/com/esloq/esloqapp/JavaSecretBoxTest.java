@@ -0,0 +1,110 @@
+package com.esloq.esloqapp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link JavaSecretBox}, which the JVM tests use instead of the native library.
+ * The expected ciphertexts were computed with libsodium's crypto_secretbox_easy.
+ */
+public class JavaSecretBoxTest {
+
+    private final JavaSecretBox mSecretBox = new JavaSecretBox();
+
+    @Test
+    public void testEncrypt_matchesNacl() {
+        byte[] message = new byte[8];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) (i + 1);
+        }
+        assertArrayEquals(hex("e18b99b5d3857abcf8158223bc3a5f3703bb9acd3fb0c9e1"),
+                mSecretBox.encrypt(message, nonce(), key()));
+    }
+
+    @Test
+    public void testEncryptSeveralBlocks_matchesNacl() {
+        byte[] message = new byte[100];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) (7 * i);
+        }
+        assertArrayEquals(hex("5c74ed532eaf3aa37332cbf45ad89ee302be97dc2695e4d888c265d963dfc171"
+                + "4edd46226835d1ba0ea3f429ce401b5148881aedb33491f5ed09314f34289f2c91c7f07d7ef5"
+                + "43de8b6ec5997f192cdd834c82b814dfa27b417019ff54d8cfba64a0b342ebac2163faf4ff5a"
+                + "fc6d775f5a6e47ce"), mSecretBox.encrypt(message, nonce(), key()));
+    }
+
+    @Test
+    public void testDecrypt_roundTrip() {
+        byte[] message = "rotate".getBytes();
+        byte[] ciphertext = mSecretBox.encrypt(message, nonce(), key());
+        assertArrayEquals(message, mSecretBox.decrypt(ciphertext, nonce(), key()));
+    }
+
+    @Test
+    public void testDecryptTampered_returnsNull() {
+        byte[] ciphertext = mSecretBox.encrypt(new byte[] {1}, nonce(), key());
+        for (int i = 0; i < ciphertext.length; i++) {
+            ciphertext[i] ^= 0x80;
+            assertNull(mSecretBox.decrypt(ciphertext, nonce(), key()));
+            ciphertext[i] ^= 0x80;
+        }
+    }
+
+    @Test
+    public void testInPlace_matchesArrays() {
+        byte[] message = {4};
+        ByteBuffer frame = ByteBuffer.allocateDirect(Cryptography.FRAME_HEADER_LENGTH + 1);
+        frame.put(nonce());
+        frame.put(Cryptography.FRAME_HEADER_LENGTH, message[0]);
+        ByteBuffer key = ByteBuffer.allocateDirect(Cryptography.KEY_LENGTH);
+        key.put(key());
+
+        assertEquals(1, mSecretBox.encryptInPlace(frame, 0, 1, key));
+        byte[] ciphertext = new byte[Cryptography.MAC_LENGTH + 1];
+        for (int i = 0; i < ciphertext.length; i++) {
+            ciphertext[i] = frame.get(Cryptography.NONCE_LENGTH + i);
+        }
+        assertArrayEquals(mSecretBox.encrypt(message, nonce(), key()), ciphertext);
+
+        assertEquals(1, mSecretBox.decryptInPlace(frame, 0, 1, key));
+        assertEquals(message[0], frame.get(Cryptography.FRAME_HEADER_LENGTH));
+    }
+
+    @Test
+    public void testInPlaceOutOfBounds_returnsMinusOne() {
+        ByteBuffer frame = ByteBuffer.allocateDirect(Cryptography.FRAME_HEADER_LENGTH + 1);
+        ByteBuffer key = ByteBuffer.allocateDirect(Cryptography.KEY_LENGTH);
+        assertEquals(-1, mSecretBox.encryptInPlace(frame, 1, 1, key));
+        assertEquals(-1, mSecretBox.decryptInPlace(frame, 0, 2, key));
+        assertEquals(-1, mSecretBox.encryptInPlace(frame, 0, 0, key));
+    }
+
+    private static byte[] key() {
+        byte[] key = new byte[Cryptography.KEY_LENGTH];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) i;
+        }
+        return key;
+    }
+
+    private static byte[] nonce() {
+        byte[] nonce = new byte[Cryptography.NONCE_LENGTH];
+        for (int i = 0; i < nonce.length; i++) {
+            nonce[i] = (byte) (100 + i);
+        }
+        return nonce;
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
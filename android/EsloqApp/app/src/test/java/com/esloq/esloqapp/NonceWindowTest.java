@@ -0,0 +1,145 @@
+package com.esloq.esloqapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link NonceWindow}.
+ */
+public class NonceWindowTest {
+
+    private NonceWindow mWindow;
+
+    @Before
+    public void setUp() {
+        mWindow = new NonceWindow();
+    }
+
+    @Test
+    public void testNext_isMarkedAsUsed() {
+        byte[] nonce = mWindow.next().clone();
+        assertArrayEquals(nonce(1), nonce);
+        assertFalse(isFresh(nonce));
+        assertArrayEquals(nonce(2), mWindow.peekNext());
+    }
+
+    @Test
+    public void testNonceZero_isNotFresh() {
+        assertFalse(isFresh(nonce(0)));
+    }
+
+    @Test
+    public void testInOrder() {
+        for (int i = 1; i < 3 * NonceWindow.SIZE; i++) {
+            assertTrue(isFresh(nonce(i)));
+            accept(nonce(i));
+            assertFalse(isFresh(nonce(i)));
+        }
+        assertArrayEquals(nonce(3 * NonceWindow.SIZE), mWindow.peekNext());
+    }
+
+    @Test
+    public void testOutOfOrder_acceptedOnce() {
+        accept(nonce(10));
+        assertTrue(isFresh(nonce(8)));
+        accept(nonce(8));
+        assertFalse(isFresh(nonce(8)));
+        assertTrue(isFresh(nonce(9)));
+
+        // A late frame does not move the window.
+        assertArrayEquals(nonce(11), mWindow.peekNext());
+    }
+
+    @Test
+    public void testTooOld() {
+        accept(nonce(NonceWindow.SIZE + 10));
+        assertTrue(isFresh(nonce(11)));
+        assertFalse(isFresh(nonce(10)));
+        assertFalse(isFresh(nonce(1)));
+    }
+
+    @Test
+    public void testWindowSlides() {
+        accept(nonce(5));
+        accept(nonce(5 + NonceWindow.SIZE - 1));
+        assertFalse(isFresh(nonce(5)));
+        accept(nonce(5 + NonceWindow.SIZE));
+        // Nonce 5 fell out of the window, it is too old rather than unknown.
+        assertFalse(isFresh(nonce(5)));
+        assertTrue(isFresh(nonce(6)));
+    }
+
+    @Test
+    public void testLargeJump() {
+        byte[] far = nonce(0);
+        far[0] = 1;
+        accept(nonce(3));
+        accept(far);
+        assertFalse(isFresh(far));
+        assertFalse(isFresh(nonce(4)));
+
+        byte[] justBelow = far.clone();
+        justBelow[0] = 0;
+        Arrays.fill(justBelow, 1, justBelow.length, (byte) 0xFF);
+        assertTrue(isFresh(justBelow));
+    }
+
+    @Test
+    public void testUnsignedComparison() {
+        // Nonces with the most significant bit set are larger, as on the esloq.
+        accept(nonce(0x7F));
+        byte[] nonce = nonce(0x80);
+        assertTrue(isFresh(nonce));
+
+        byte[] high = nonce(0);
+        high[0] = (byte) 0x80;
+        assertTrue(isFresh(high));
+        accept(high);
+        assertFalse(isFresh(nonce(0x81)));
+    }
+
+    @Test
+    public void testCarryAcrossBytes() {
+        accept(nonce(0xFF));
+        assertTrue(isFresh(nonce(0x100)));
+        accept(nonce(0x100));
+        assertTrue(isFresh(nonce(0xFE)));
+        assertFalse(isFresh(nonce(0xFF)));
+        assertArrayEquals(nonce(0x101), mWindow.peekNext());
+    }
+
+    @Test
+    public void testOffset() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Cryptography.NONCE_LENGTH + 3);
+        buffer.position(3);
+        buffer.put(nonce(7));
+        assertTrue(mWindow.isFresh(buffer, 3));
+        mWindow.accept(buffer, 3);
+        assertFalse(mWindow.isFresh(buffer, 3));
+        assertArrayEquals(nonce(8), mWindow.peekNext());
+    }
+
+    private boolean isFresh(byte[] nonce) {
+        return mWindow.isFresh(ByteBuffer.wrap(nonce), 0);
+    }
+
+    private void accept(byte[] nonce) {
+        mWindow.accept(ByteBuffer.wrap(nonce), 0);
+    }
+
+    private static byte[] nonce(long value) {
+        byte[] nonce = new byte[Cryptography.NONCE_LENGTH];
+        for (int i = Cryptography.NONCE_LENGTH - 1; i >= 0 && value != 0; i--) {
+            nonce[i] = (byte) value;
+            value >>>= 8;
+        }
+        return nonce;
+    }
+}
@@ -0,0 +1,148 @@
+package com.esloq.esloqapp.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ChangeNotificationDispatcher}.
+ */
+public class ChangeNotificationDispatcherTest {
+
+    private static final long WINDOW = 100;
+    private static final long MAX_DELAY = 1000;
+
+    private static final String LOCKS = "content://authority/locks";
+    private static final String LOCK_LOGS = LOCKS + "/AA:BB/logs";
+    private static final String LOCK_USERS = LOCKS + "/AA:BB/users";
+    private static final String USERS = "content://authority/users";
+
+    /**
+     * Scheduler with a clock that only advances when the test advances it.
+     */
+    private static class ManualScheduler implements ChangeNotificationDispatcher.Scheduler {
+
+        long mNow;
+        final List<Runnable> mTasks = new ArrayList<>();
+        final List<Long> mDueTimes = new ArrayList<>();
+
+        @Override
+        public long now() {
+            return mNow;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            mTasks.add(task);
+            mDueTimes.add(mNow + delayMillis);
+        }
+
+        /**
+         * Advances the clock and runs the tasks that are due.
+         */
+        void advance(long millis) {
+            long end = mNow + millis;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < mTasks.size(); i++) {
+                    if (mDueTimes.get(i) <= end && (next == -1
+                            || mDueTimes.get(i) < mDueTimes.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next == -1) {
+                    break;
+                }
+                mNow = Math.max(mNow, mDueTimes.remove(next));
+                mTasks.remove(next).run();
+            }
+            mNow = end;
+        }
+    }
+
+    private final List<String> mNotified = new ArrayList<>();
+    private ManualScheduler mScheduler;
+    private ChangeNotificationDispatcher mDispatcher;
+
+    @Before
+    public void setUp() {
+        mScheduler = new ManualScheduler();
+        mDispatcher = new ChangeNotificationDispatcher(WINDOW, MAX_DELAY, mScheduler,
+                new ChangeNotificationDispatcher.Sink() {
+                    @Override
+                    public void notifyChange(String uri) {
+                        mNotified.add(uri);
+                    }
+                });
+    }
+
+    @Test
+    public void testBurst_notifiesOnceAfterWindow() {
+        for (int i = 0; i < 20; i++) {
+            mDispatcher.notifyChange(LOCK_LOGS);
+            mScheduler.advance(10);
+        }
+        assertTrue(mNotified.isEmpty());
+
+        mScheduler.advance(WINDOW);
+        assertEquals(Arrays.asList(LOCK_LOGS), mNotified);
+    }
+
+    @Test
+    public void testDescendants_areMergedIntoAncestor() {
+        mDispatcher.notifyChange(LOCK_LOGS);
+        mDispatcher.notifyChange(LOCK_USERS);
+        mDispatcher.notifyChange(USERS);
+        mDispatcher.notifyChange(LOCKS);
+        mDispatcher.notifyChange(LOCK_LOGS);
+
+        assertEquals(Arrays.asList(USERS, LOCKS), mDispatcher.getPendingUris());
+        mScheduler.advance(WINDOW);
+        assertEquals(Arrays.asList(USERS, LOCKS), mNotified);
+    }
+
+    @Test
+    public void testSiblingWithSamePrefix_isNotMerged() {
+        mDispatcher.notifyChange(LOCKS + "/AA");
+        mDispatcher.notifyChange(LOCKS + "/AA:BB");
+
+        assertEquals(2, mDispatcher.getPendingUris().size());
+    }
+
+    @Test
+    public void testLongBurst_notifiesAtMaxDelay() {
+        for (int i = 0; i < 30; i++) {
+            mDispatcher.notifyChange(LOCK_LOGS);
+            mScheduler.advance(WINDOW / 2);
+        }
+        // The burst lasted 1500 ms, its notifications were dispatched after 1000 ms.
+        assertEquals(Arrays.asList(LOCK_LOGS), mNotified);
+    }
+
+    @Test
+    public void testNextBurst_isNotifiedAgain() {
+        mDispatcher.notifyChange(LOCK_LOGS);
+        mScheduler.advance(WINDOW);
+        mDispatcher.notifyChange(LOCK_LOGS);
+        mScheduler.advance(WINDOW);
+
+        assertEquals(Arrays.asList(LOCK_LOGS, LOCK_LOGS), mNotified);
+    }
+
+    @Test
+    public void testZeroWindow_notifiesImmediately() {
+        mDispatcher.setWindow(0);
+        mDispatcher.notifyChange(LOCK_LOGS);
+        mDispatcher.notifyChange(LOCK_LOGS);
+
+        assertEquals(Collections.nCopies(2, LOCK_LOGS), mNotified);
+        assertTrue(mScheduler.mTasks.isEmpty());
+    }
+}
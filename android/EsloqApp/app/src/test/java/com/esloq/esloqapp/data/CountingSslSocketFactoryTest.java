@@ -0,0 +1,54 @@
+package com.esloq.esloqapp.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.Socket;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link CountingSslSocketFactory}.
+ */
+public class CountingSslSocketFactoryTest {
+
+    private SSLSocketFactory mDelegate;
+    private CountingSslSocketFactory mFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, null, null);
+        mDelegate = sslContext.getSocketFactory();
+        mFactory = new CountingSslSocketFactory(mDelegate);
+    }
+
+    @Test
+    public void testCreateSocket_isCounted() throws Exception {
+        assertEquals(0, mFactory.getSocketCount());
+
+        Socket first = mFactory.createSocket();
+        Socket second = mFactory.createSocket();
+        try {
+            assertTrue(first instanceof SSLSocket);
+            assertEquals(2, mFactory.getSocketCount());
+            assertEquals(0, mFactory.getResumedCount());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void testCipherSuites_areDelegated() {
+        assertArrayEquals(mDelegate.getDefaultCipherSuites(), mFactory.getDefaultCipherSuites());
+        assertArrayEquals(mDelegate.getSupportedCipherSuites(),
+                mFactory.getSupportedCipherSuites());
+    }
+}
@@ -1,5 +1,7 @@
 package com.esloq.esloqapp.data;
 
+import com.esloq.esloqapp.CryptoSession;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -7,16 +9,30 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 
 /**
  * Unit tests for the implementation of {@link LockDataRepositoryImpl}.
  */
 public class LockDataRepositoryImplTest {
 
-    //TODO JSONobject/JSONArray is part of Android SDK, use POJO to enable local unit tests.
-
     @Mock
     private LocalDataServiceApi mLocalDataApi;
 
@@ -29,14 +45,40 @@ public class LockDataRepositoryImplTest {
     @Mock
     private LockDataRepository.OnResultCallback mOnResultCallback;
 
+    @Mock
+    private LockDataRepository.OnSessionCallback mOnSessionCallback;
+
+    @Mock
+    private LockDataRepository.OnSessionCallback mOtherSessionCallback;
+
+    @Mock
+    private OutboxDrainer mOutbox;
+
+    @Mock
+    private LockDataRepository.OnDirectionCallback mOnDirectionCallback;
+
     /**
      * {@link ArgumentCaptor} is a powerful Mockito API to capture argument values and use them to
      * perform further actions or assertions on them.
      */
     @Captor
-    private ArgumentCaptor<ServerDataServiceApi.ServerDataServiceCallback>
+    private ArgumentCaptor<ServerDataServiceApi.ServerDataServiceCallback<Void>>
             mServerDataCallbackCaptor;
 
+    @Captor
+    private ArgumentCaptor<OutboxEntry> mOutboxEntryCaptor;
+
+    @Captor
+    private ArgumentCaptor<ServerDataServiceApi.ServerDataServiceCallback<SessionKey>>
+            mSessionKeyCallbackCaptor;
+
+    @Captor
+    private ArgumentCaptor<CryptoSession> mSessionCaptor;
+
+    private LockTicketCache mTicketCache;
+
+    private LockMetadataCache mLockCache;
+
     private LockDataRepository mLockDataRepository;
     private static final String LOCK_MAC = "00:00:00:00:00:00";
     private static final String LOCK_NAME = "My Lock";
@@ -49,9 +91,18 @@ public class LockDataRepositoryImplTest {
         // inject the mocks in the test the initMocks method needs to be called.
         MockitoAnnotations.initMocks(this);
 
+        mTicketCache = new LockTicketCacheTest.TestTicketCache();
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        };
+        mLockCache = new LockMetadataCache(directExecutor, directExecutor);
+
         // Get a reference to the class under test
         mLockDataRepository = new LockDataRepositoryImpl(mLocalDataApi,
-                mServerDataApi, mPreferencesApi);
+                mServerDataApi, mPreferencesApi, mTicketCache, mLockCache, mOutbox);
     }
 
     @Test
@@ -80,25 +131,34 @@ public class LockDataRepositoryImplTest {
 
     @Test
     public void testFetchData_success() {
-//        mLockDataRepository.fetchData(mOnResultCallback);
-//
-//        // Callback success is captured
-//        verify(mServerDataApi).fetchUserData(mServerDataCallbackCaptor.capture());
-//        mServerDataCallbackCaptor.getValue().onResult(true, jsonObject);
-//
-//        //TODO verify that paresAndStore is called.
-//        verify(mOnResultCallback).onResult(true);
+        when(mLocalDataApi.getLocks()).thenReturn(Arrays.asList(
+                new LockMetadataCache.Lock(LOCK_MAC, LOCK_NAME, LOCK_CLOCKWISE, true)));
+        mLockDataRepository.fetchData(mOnResultCallback);
+
+        // The rows are imported while they are read, the callback only reports the result.
+        verify(mServerDataApi).fetchUserData(any(UserDataImport.class),
+                mServerDataCallbackCaptor.capture());
+        mServerDataCallbackCaptor.getValue().onResult(true, null);
+
+        verify(mServerDataApi).requestSessionKey(eq(LOCK_MAC),
+                mSessionKeyCallbackCaptor.capture());
+        verify(mOnResultCallback).onResult(true);
+        assertTrue(mLockCache.isLoaded());
+        verify(mLocalDataApi).getLocks();
     }
 
     @Test
     public void testFetchData_fail() {
-//        mLockDataRepository.fetchData(mOnResultCallback);
-//
-//        // Callback success is captured
-//        verify(mServerDataApi).fetchUserData(mServerDataCallbackCaptor.capture());
-//        mServerDataCallbackCaptor.getValue().onResult(true, jsonObject);
-//
-//        verify(mOnResultCallback).onResult(false);
+        mLockDataRepository.fetchData(mOnResultCallback);
+
+        // Callback success is captured
+        verify(mServerDataApi).fetchUserData(any(UserDataImport.class),
+                mServerDataCallbackCaptor.capture());
+        mServerDataCallbackCaptor.getValue().onResult(false, null);
+
+        verify(mServerDataApi, never()).requestSessionKey(anyString(),
+                mSessionKeyCallbackCaptor.capture());
+        verify(mOnResultCallback).onResult(false);
     }
 
     @Test
@@ -114,6 +174,11 @@ public class LockDataRepositoryImplTest {
         verify(mPreferencesApi).getUserId();
         verify(mLocalDataApi).addUserToLock(0, "me", true, LOCK_MAC, true);
         verify(mOnResultCallback).onResult(true);
+
+        // The lock is written through to the cache.
+        mLockDataRepository.locksClockwise(LOCK_MAC, mOnDirectionCallback);
+        verify(mOnDirectionCallback).onResult(true, LOCK_CLOCKWISE);
+        verify(mLocalDataApi, never()).getLocks();
     }
 
     @Test
@@ -129,40 +194,31 @@ public class LockDataRepositoryImplTest {
     }
 
     @Test
-    public void testAddUser_success() {
+    public void testAddUser_recordsInOutbox() {
         String email = "hello@world.com";
         mLockDataRepository.addUser(email, LOCK_MAC, true, mOnResultCallback);
 
-        // Callback success is captured
-        verify(mServerDataApi).addUser(eq(email), eq(LOCK_MAC), eq(true), mServerDataCallbackCaptor
-                .capture());
-//        mServerDataCallbackCaptor.getValue().onResult(true, null);
-
-        //TODO JSONObject is dependent on andriod.
-//        verify(mLocalDataApi).removeUserFromLock(eq(USER_ID), eq(LOCK_MAC));
-//        verify(mOnResultCallback).onResult(true);
+        // The request is recorded with the callback, the server is not called directly
+        verify(mOutbox).enqueue(mOutboxEntryCaptor.capture(), eq(mOnResultCallback));
+        OutboxEntry entry = mOutboxEntryCaptor.getValue();
+        assertEquals(OutboxEntry.Type.ADD_USER, entry.getType());
+        assertEquals(email, entry.getEmail());
+        assertEquals(LOCK_MAC, entry.getLockMac());
+        assertTrue(entry.isAdmin());
+        verifyZeroInteractions(mServerDataApi);
     }
 
     @Test
-    public void testAddUser_fail() {
-        String email = "hello@world.com";
-        mLockDataRepository.addUser(email, LOCK_MAC, true, mOnResultCallback);
-
-        // Callback success is captured
-        verify(mServerDataApi).addUser(eq(email), eq(LOCK_MAC), eq(true), mServerDataCallbackCaptor
-                .capture());
-        mServerDataCallbackCaptor.getValue().onResult(false, null);
-
-        verify(mOnResultCallback).onResult(false);
-    }
-
-    @Test
-    public void testAddLog() {
+    public void testAddLog_recordsInOutbox() {
         mLockDataRepository.addLog(LOCK_MAC, true);
 
-        // Callback success is captured
-        verify(mServerDataApi).addLog(eq(LOCK_MAC), eq(true), mServerDataCallbackCaptor.capture());
-//        mServerDataCallbackCaptor.getValue().onResult(true, null);
+        verify(mOutbox).enqueue(mOutboxEntryCaptor.capture(), isNull(
+                LockDataRepository.OnResultCallback.class));
+        OutboxEntry entry = mOutboxEntryCaptor.getValue();
+        assertEquals(OutboxEntry.Type.ADD_LOG, entry.getType());
+        assertEquals(LOCK_MAC, entry.getLockMac());
+        assertTrue(entry.isLocked());
+        verifyZeroInteractions(mServerDataApi);
     }
 
     @Test
@@ -175,6 +231,7 @@ public class LockDataRepositoryImplTest {
 
         verify(mLocalDataApi).removeLock(eq(LOCK_MAC));
         verify(mOnResultCallback).onResult(true);
+        assertNull(mLockCache.get(LOCK_MAC));
     }
 
     @Test
@@ -189,43 +246,222 @@ public class LockDataRepositoryImplTest {
     }
 
     @Test
-    public void testRemoveUser_success() {
+    public void testRemoveUser_recordsInOutbox() {
         mLockDataRepository.removeUser(USER_ID, LOCK_MAC, mOnResultCallback);
 
+        verify(mOutbox).enqueue(mOutboxEntryCaptor.capture(), eq(mOnResultCallback));
+        OutboxEntry entry = mOutboxEntryCaptor.getValue();
+        assertEquals(OutboxEntry.Type.REMOVE_USER, entry.getType());
+        assertEquals(USER_ID, entry.getUserId());
+        assertEquals(LOCK_MAC, entry.getLockMac());
+        verifyZeroInteractions(mServerDataApi);
+    }
+
+    @Test
+    public void testRequestSessionKey() {
+        byte[] sessionKey = new byte[32];
+        byte[] lockTicket = new byte[72];
+        lockTicket[0] = 1;
+        mLockDataRepository.requestSessionKey(LOCK_MAC, mOnSessionCallback);
+
         // Callback success is captured
-        verify(mServerDataApi).removeUser(eq(USER_ID), eq(LOCK_MAC), mServerDataCallbackCaptor
+        verify(mServerDataApi).requestSessionKey(eq(LOCK_MAC), mSessionKeyCallbackCaptor
                 .capture());
-        mServerDataCallbackCaptor.getValue().onResult(true, null);
+        mSessionKeyCallbackCaptor.getValue().onResult(true, new SessionKey(sessionKey,
+                lockTicket));
 
-        verify(mLocalDataApi).removeUserFromLock(eq(USER_ID), eq(LOCK_MAC));
-        verify(mOnResultCallback).onResult(true);
+        verify(mOnSessionCallback).onResult(eq(true), mSessionCaptor.capture());
+        assertArrayEquals(lockTicket, mSessionCaptor.getValue().getLockTicket());
     }
 
     @Test
-    public void testRemoveUser_fail() {
-        mLockDataRepository.removeUser(USER_ID, LOCK_MAC, mOnResultCallback);
+    public void testRequestSessionKey_cached() {
+        byte[] sessionKey = new byte[32];
+        byte[] lockTicket = new byte[72];
+        lockTicket[0] = 1;
+        mTicketCache.startFetch(LOCK_MAC, null);
+        mTicketCache.finishFetch(LOCK_MAC, sessionKey, lockTicket);
+
+        mLockDataRepository.requestSessionKey(LOCK_MAC, mOnSessionCallback);
+
+        // The cached ticket is used right away, a new ticket is prefetched.
+        verify(mOnSessionCallback).onResult(eq(true), mSessionCaptor.capture());
+        assertArrayEquals(lockTicket, mSessionCaptor.getValue().getLockTicket());
+        assertFalse(mTicketCache.contains(LOCK_MAC));
+        verify(mServerDataApi).requestSessionKey(eq(LOCK_MAC),
+                mSessionKeyCallbackCaptor.capture());
+    }
+
+    @Test
+    public void testRequestSessionKey_fail() {
+        mLockDataRepository.requestSessionKey(LOCK_MAC, mOnSessionCallback);
 
         // Callback success is captured
-        verify(mServerDataApi).removeUser(eq(USER_ID), eq(LOCK_MAC), mServerDataCallbackCaptor
+        verify(mServerDataApi).requestSessionKey(eq(LOCK_MAC), mSessionKeyCallbackCaptor
                 .capture());
-        mServerDataCallbackCaptor.getValue().onResult(false, null);
+        mSessionKeyCallbackCaptor.getValue().onResult(false, null);
 
-        verify(mOnResultCallback).onResult(false);
+        verify(mOnSessionCallback).onResult(false, null);
+        assertFalse(mTicketCache.contains(LOCK_MAC));
     }
 
     @Test
-    public void testRequestSessionKey() {
-        //TODO base64 is android class
+    public void testRequestSessionKey_waitsForPrefetch() {
+        mLockDataRepository.prefetchSessionKey(LOCK_MAC);
+        mLockDataRepository.requestSessionKey(LOCK_MAC, mOnSessionCallback);
+
+        // Only the prefetch is sent to the server, the request waits for its result.
+        verify(mServerDataApi).requestSessionKey(eq(LOCK_MAC), mSessionKeyCallbackCaptor
+                .capture());
+        verify(mOnSessionCallback, never()).onResult(anyBoolean(), any(CryptoSession.class));
+        mSessionKeyCallbackCaptor.getValue().onResult(false, null);
+
+        verify(mOnSessionCallback).onResult(false, null);
+    }
+
+    @Test
+    public void testRequestSessionKey_twoWaiters_oneTicketEach() {
+        byte[] sessionKey = new byte[32];
+        byte[] lockTicket = new byte[72];
+        lockTicket[0] = 1;
+        byte[] otherLockTicket = new byte[72];
+        otherLockTicket[0] = 2;
+        mLockDataRepository.requestSessionKey(LOCK_MAC, mOnSessionCallback);
+        mLockDataRepository.requestSessionKey(LOCK_MAC, mOtherSessionCallback);
+
+        // The first ticket goes to the first request only, the second request waits for a new
+        // ticket.
+        verify(mServerDataApi).requestSessionKey(eq(LOCK_MAC), mSessionKeyCallbackCaptor
+                .capture());
+        mSessionKeyCallbackCaptor.getValue().onResult(true, new SessionKey(sessionKey,
+                lockTicket));
+        verify(mOnSessionCallback).onResult(eq(true), mSessionCaptor.capture());
+        assertArrayEquals(lockTicket, mSessionCaptor.getValue().getLockTicket());
+        verify(mOtherSessionCallback, never()).onResult(anyBoolean(), any(CryptoSession.class));
+
+        verify(mServerDataApi, times(2)).requestSessionKey(eq(LOCK_MAC),
+                mSessionKeyCallbackCaptor.capture());
+        mSessionKeyCallbackCaptor.getValue().onResult(true, new SessionKey(sessionKey,
+                otherLockTicket));
+        verify(mOtherSessionCallback).onResult(eq(true), mSessionCaptor.capture());
+        assertArrayEquals(otherLockTicket, mSessionCaptor.getValue().getLockTicket());
+        verify(mOnSessionCallback).onResult(anyBoolean(), any(CryptoSession.class));
+    }
+
+    @Test
+    public void testPrefetchSessionKeys() {
+        String otherLockMac = "11:11:11:11:11:11";
+        when(mLocalDataApi.getLocks()).thenReturn(Arrays.asList(
+                new LockMetadataCache.Lock(LOCK_MAC, LOCK_NAME, LOCK_CLOCKWISE, true),
+                new LockMetadataCache.Lock(otherLockMac, LOCK_NAME, LOCK_CLOCKWISE, false)));
+        mLockDataRepository.prefetchSessionKeys();
+        // Prefetching again does not send requests while the first requests are in flight.
+        mLockDataRepository.prefetchSessionKeys();
+
+        // The locks are loaded into the lock metadata cache once, and then read from the cache.
+        verify(mLocalDataApi).getLocks();
+
+        verify(mServerDataApi, times(2)).requestSessionKey(anyString(),
+                mSessionKeyCallbackCaptor.capture());
+        verify(mServerDataApi).requestSessionKey(eq(LOCK_MAC),
+                mSessionKeyCallbackCaptor.capture());
+        verify(mServerDataApi).requestSessionKey(eq(otherLockMac),
+                mSessionKeyCallbackCaptor.capture());
+    }
+
+    @Test
+    public void testLocksClockwise_readsCacheOnly() {
+        when(mLocalDataApi.getLocks()).thenReturn(Arrays.asList(
+                new LockMetadataCache.Lock(LOCK_MAC, LOCK_NAME, LOCK_CLOCKWISE, true)));
+        mLockCache.load(mLocalDataApi);
+
+        mLockDataRepository.locksClockwise(LOCK_MAC, mOnDirectionCallback);
+        mLockDataRepository.locksClockwise(LOCK_MAC, mOnDirectionCallback);
+
+        verify(mOnDirectionCallback, times(2)).onResult(true, LOCK_CLOCKWISE);
+        verify(mLocalDataApi).getLocks();
+        verify(mLocalDataApi, never()).locksClockwise(anyString());
+    }
+
+    @Test
+    public void testLocksClockwise_invalidatedCache_loadsLocks() {
+        when(mLocalDataApi.getLocks()).thenReturn(Arrays.asList(
+                new LockMetadataCache.Lock(LOCK_MAC, LOCK_NAME, false, true)));
+
+        mLockDataRepository.locksClockwise(LOCK_MAC, mOnDirectionCallback);
+
+        verify(mOnDirectionCallback).onResult(true, false);
+        assertTrue(mLockCache.isLoaded());
+    }
+
+    @Test
+    public void testLocksClockwise_unknownLock() {
+        mLockCache.load(mLocalDataApi);
+
+        mLockDataRepository.locksClockwise(LOCK_MAC, mOnDirectionCallback);
+
+        verify(mOnDirectionCallback).onResult(false, false);
+    }
+
+    @Test
+    public void testClearData_clearsLockCache() {
+        mLockCache.put(new LockMetadataCache.Lock(LOCK_MAC, LOCK_NAME, LOCK_CLOCKWISE, true));
+
+        mLockDataRepository.clearData();
+
+        assertNull(mLockCache.get(LOCK_MAC));
+        assertFalse(mLockCache.isLoaded());
     }
 
     @Test
-    public void testLog() throws Exception {
+    public void testClearData_clearsOutbox() {
+        mLockDataRepository.clearData();
+
+        verify(mOutbox).clear();
+    }
+
+    @Test
+    public void testClearData_clearsTicketCache() {
+        mTicketCache.startFetch(LOCK_MAC, null);
+        mTicketCache.finishFetch(LOCK_MAC, new byte[32], new byte[72]);
+
+        mLockDataRepository.clearData();
+
+        assertFalse(mTicketCache.contains(LOCK_MAC));
+        verify(mLocalDataApi).clearDatabase();
+        verify(mServerDataApi).cancelRequests();
+    }
+
+    @Test
+    public void testInvalidateSessionKey() {
+        mTicketCache.startFetch(LOCK_MAC, null);
+        mTicketCache.finishFetch(LOCK_MAC, new byte[32], new byte[72]);
+
+        mLockDataRepository.invalidateSessionKey(LOCK_MAC);
+
+        assertFalse(mTicketCache.contains(LOCK_MAC));
+    }
+
+    @Test
+    public void testHasSessionKey() {
+        assertFalse(mLockDataRepository.hasSessionKey(LOCK_MAC));
+        mTicketCache.startFetch(LOCK_MAC, null);
+        mTicketCache.finishFetch(LOCK_MAC, new byte[32], new byte[72]);
+
+        assertTrue(mLockDataRepository.hasSessionKey(LOCK_MAC));
+    }
+
+    @Test
+    public void testLog_recordsInOutbox() throws Exception {
         String message = "message";
         mLockDataRepository.log(message);
 
-        // Callback success is captured
-        verify(mServerDataApi).log(eq(message), mServerDataCallbackCaptor.capture());
-//        mServerDataCallbackCaptor.getValue().onResult(true, null);
+        verify(mOutbox).enqueue(mOutboxEntryCaptor.capture(), isNull(
+                LockDataRepository.OnResultCallback.class));
+        OutboxEntry entry = mOutboxEntryCaptor.getValue();
+        assertEquals(OutboxEntry.Type.LOG, entry.getType());
+        assertEquals(message, entry.getMessage());
+        verifyZeroInteractions(mServerDataApi);
     }
 
     @Test
@@ -0,0 +1,258 @@
+package com.esloq.esloqapp.data;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link LockMetadataCache}.
+ */
+public class LockMetadataCacheTest {
+
+    private static final LockMetadataCache.Lock LOCK = new LockMetadataCache.Lock(
+            "AA:BB:CC:DD:EE:FF", "My Lock", true, true);
+    private static final LockMetadataCache.Lock OTHER_LOCK = new LockMetadataCache.Lock(
+            "00:11:22:33:44:55", "Other Lock", false, false);
+
+    /**
+     * Executor that runs its tasks when the test asks for it.
+     */
+    private static class ManualExecutor implements Executor {
+
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            mTasks.add(runnable);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+
+    @Mock
+    private LocalDataServiceApi mLocalDataApi;
+
+    @Mock
+    private LockMetadataCache.OnLockCallback mCallback;
+
+    @Mock
+    private LockMetadataCache.OnLockCallback mOtherCallback;
+
+    @Mock
+    private LockMetadataCache.OnLocksCallback mLocksCallback;
+
+    private ManualExecutor mLoadExecutor;
+
+    private ManualExecutor mCallbackExecutor;
+
+    private LockMetadataCache mCache;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mLoadExecutor = new ManualExecutor();
+        mCallbackExecutor = new ManualExecutor();
+        mCache = new LockMetadataCache(mLoadExecutor, mCallbackExecutor);
+    }
+
+    @Test
+    public void testLoad_storesAllLocks() {
+        when(mLocalDataApi.getLocks()).thenReturn(Arrays.asList(LOCK, OTHER_LOCK));
+
+        mCache.load(mLocalDataApi);
+
+        assertTrue(mCache.isLoaded());
+        assertSame(LOCK, mCache.get("aa:bb:cc:dd:ee:ff"));
+        assertSame(OTHER_LOCK, mCache.get(OTHER_LOCK.getMac()));
+    }
+
+    @Test
+    public void testPutAndRemove_writeThrough() {
+        mCache.put(LOCK);
+        assertSame(LOCK, mCache.get(LOCK.getMac()));
+
+        mCache.remove(LOCK.getMac().toLowerCase());
+        assertNull(mCache.get(LOCK.getMac()));
+    }
+
+    @Test
+    public void testInvalidate_keepsLocksUntilLoaded() {
+        when(mLocalDataApi.getLocks()).thenReturn(Arrays.asList(LOCK));
+        mCache.load(mLocalDataApi);
+
+        mCache.invalidate();
+
+        assertFalse(mCache.isLoaded());
+        assertSame(LOCK, mCache.get(LOCK.getMac()));
+    }
+
+    @Test
+    public void testInvalidateWhileLoading_discardsLoadedLocks() {
+        when(mLocalDataApi.getLocks()).thenAnswer(new Answer<List<LockMetadataCache.Lock>>() {
+            @Override
+            public List<LockMetadataCache.Lock> answer(InvocationOnMock invocation) {
+                // The locks change while they are read.
+                mCache.invalidate();
+                return Arrays.asList(LOCK);
+            }
+        });
+
+        mCache.load(mLocalDataApi);
+
+        assertFalse(mCache.isLoaded());
+        assertNull(mCache.get(LOCK.getMac()));
+    }
+
+    @Test
+    public void testGet_cachedLock_answersRightAway() {
+        mCache.put(LOCK);
+        mCache.invalidate();
+
+        // The locks that were loaded before stay readable while the locks are loaded again.
+        mCache.get(LOCK.getMac(), mLocalDataApi, mCallback);
+
+        verify(mCallback).onLock(LOCK);
+        assertTrue(mLoadExecutor.mTasks.isEmpty());
+        verifyZeroInteractions(mLocalDataApi);
+    }
+
+    @Test
+    public void testGet_notCached_waitsForBackgroundLoad() {
+        when(mLocalDataApi.getLocks()).thenReturn(Arrays.asList(LOCK, OTHER_LOCK));
+
+        mCache.get(LOCK.getMac(), mLocalDataApi, mCallback);
+        mCache.get(OTHER_LOCK.getMac(), mLocalDataApi, mOtherCallback);
+
+        // The database is not read on the calling thread, and only one load is started.
+        verifyZeroInteractions(mLocalDataApi, mCallback, mOtherCallback);
+        assertEquals(1, mLoadExecutor.mTasks.size());
+
+        mLoadExecutor.runAll();
+        verify(mLocalDataApi).getLocks();
+        verifyZeroInteractions(mCallback, mOtherCallback);
+
+        mCallbackExecutor.runAll();
+        verify(mCallback).onLock(LOCK);
+        verify(mOtherCallback).onLock(OTHER_LOCK);
+    }
+
+    @Test
+    public void testGet_loadInFlight_waitsForThatLoad() {
+        when(mLocalDataApi.getLocks()).thenAnswer(new Answer<List<LockMetadataCache.Lock>>() {
+            @Override
+            public List<LockMetadataCache.Lock> answer(InvocationOnMock invocation) {
+                // The lock is requested while the background load reads the locks.
+                mCache.get(LOCK.getMac(), mLocalDataApi, mCallback);
+                return Arrays.asList(LOCK);
+            }
+        });
+
+        mCache.load(mLocalDataApi);
+
+        assertTrue(mLoadExecutor.mTasks.isEmpty());
+        mCallbackExecutor.runAll();
+        verify(mCallback).onLock(LOCK);
+        verify(mLocalDataApi).getLocks();
+    }
+
+    @Test
+    public void testGet_invalidatedWhileLoading_loadsAgain() {
+        when(mLocalDataApi.getLocks()).thenAnswer(new Answer<List<LockMetadataCache.Lock>>() {
+            private boolean mFirst = true;
+
+            @Override
+            public List<LockMetadataCache.Lock> answer(InvocationOnMock invocation) {
+                if (mFirst) {
+                    // The locks change while they are read the first time.
+                    mFirst = false;
+                    mCache.invalidate();
+                }
+                return Arrays.asList(LOCK);
+            }
+        });
+
+        mCache.get(LOCK.getMac(), mLocalDataApi, mCallback);
+        mLoadExecutor.runAll();
+        mCallbackExecutor.runAll();
+
+        verify(mLocalDataApi, times(2)).getLocks();
+        verify(mCallback).onLock(LOCK);
+    }
+
+    @Test
+    public void testGet_unknownLock_answersNullOnceLoaded() {
+        when(mLocalDataApi.getLocks()).thenReturn(Arrays.asList(OTHER_LOCK));
+
+        mCache.get(LOCK.getMac(), mLocalDataApi, mCallback);
+        mLoadExecutor.runAll();
+        mCallbackExecutor.runAll();
+
+        verify(mCallback).onLock((LockMetadataCache.Lock) isNull());
+        verify(mCallback, never()).onLock(OTHER_LOCK);
+    }
+
+    @Test
+    public void testGetAll_loaded_answersRightAway() {
+        when(mLocalDataApi.getLocks()).thenReturn(Arrays.asList(LOCK));
+        mCache.load(mLocalDataApi);
+
+        mCache.getAll(mLocalDataApi, mLocksCallback);
+
+        verify(mLocksCallback).onLocks(Arrays.asList(LOCK));
+        verify(mLocalDataApi).getLocks();
+        assertTrue(mLoadExecutor.mTasks.isEmpty());
+    }
+
+    @Test
+    public void testGetAll_notLoaded_waitsForBackgroundLoad() {
+        when(mLocalDataApi.getLocks()).thenReturn(Arrays.asList(LOCK));
+
+        mCache.getAll(mLocalDataApi, mLocksCallback);
+        mCache.get(OTHER_LOCK.getMac(), mLocalDataApi, mCallback);
+
+        // The database is not read on the calling thread, and only one load is started.
+        verifyZeroInteractions(mLocalDataApi, mLocksCallback);
+        assertEquals(1, mLoadExecutor.mTasks.size());
+
+        mLoadExecutor.runAll();
+        mCallbackExecutor.runAll();
+        verify(mLocksCallback).onLocks(Arrays.asList(LOCK));
+        verify(mCallback).onLock((LockMetadataCache.Lock) isNull());
+    }
+
+    @Test
+    public void testClear_removesAllLocks() {
+        when(mLocalDataApi.getLocks()).thenReturn(Arrays.asList(LOCK, OTHER_LOCK));
+        mCache.load(mLocalDataApi);
+
+        mCache.clear();
+
+        assertFalse(mCache.isLoaded());
+        assertNull(mCache.get(LOCK.getMac()));
+        assertNull(mCache.get(OTHER_LOCK.getMac()));
+    }
+}
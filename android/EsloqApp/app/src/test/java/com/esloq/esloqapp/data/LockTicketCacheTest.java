@@ -0,0 +1,143 @@
+package com.esloq.esloqapp.data;
+
+import com.esloq.esloqapp.CryptoSession;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link LockTicketCache}.
+ */
+public class LockTicketCacheTest {
+
+    /**
+     * Ticket cache with a clock that is controlled by the test.
+     */
+    static class TestTicketCache extends LockTicketCache {
+
+        long mNow;
+
+        TestTicketCache() {
+            super(TTL_MS);
+        }
+
+        @Override
+        long elapsedRealtime() {
+            return mNow;
+        }
+    }
+
+    private final LockDataRepository.OnSessionCallback mOnSessionCallback =
+            new LockDataRepository.OnSessionCallback() {
+        @Override
+        public void onResult(boolean success, CryptoSession session) {
+        }
+    };
+
+    private TestTicketCache mTicketCache;
+    private static final long TTL_MS = 1000;
+    private static final String LOCK_MAC = "AA:BB:CC:DD:EE:FF";
+    private static final byte[] SESSION_KEY = new byte[32];
+    private static final byte[] LOCK_TICKET = new byte[72];
+
+    @Before
+    public void setUp() {
+        mTicketCache = new TestTicketCache();
+    }
+
+    @Test
+    public void testTake_singleUse() {
+        fetch(LOCK_MAC);
+        assertTrue(mTicketCache.contains(LOCK_MAC));
+
+        LockTicketCache.Ticket ticket = mTicketCache.take(LOCK_MAC);
+        assertNotNull(ticket);
+        assertArrayEquals(SESSION_KEY, ticket.getSessionKey());
+        assertArrayEquals(LOCK_TICKET, ticket.getLockTicket());
+
+        assertFalse(mTicketCache.contains(LOCK_MAC));
+        assertNull(mTicketCache.take(LOCK_MAC));
+    }
+
+    @Test
+    public void testTake_ignoresCase() {
+        fetch(LOCK_MAC.toLowerCase());
+        assertNotNull(mTicketCache.take(LOCK_MAC));
+    }
+
+    @Test
+    public void testTake_expired() {
+        fetch(LOCK_MAC);
+        mTicketCache.mNow += TTL_MS - 1;
+        assertTrue(mTicketCache.contains(LOCK_MAC));
+        mTicketCache.mNow++;
+        assertFalse(mTicketCache.contains(LOCK_MAC));
+        assertNull(mTicketCache.take(LOCK_MAC));
+    }
+
+    @Test
+    public void testInvalidate() {
+        fetch(LOCK_MAC);
+        mTicketCache.invalidate(LOCK_MAC);
+        assertNull(mTicketCache.take(LOCK_MAC));
+    }
+
+    @Test
+    public void testStartFetch_onlyOneInFlight() {
+        assertTrue(mTicketCache.startFetch(LOCK_MAC, null));
+        assertFalse(mTicketCache.startFetch(LOCK_MAC, mOnSessionCallback));
+        assertTrue(mTicketCache.isFetching(LOCK_MAC));
+
+        List<LockDataRepository.OnSessionCallback> callbacks = mTicketCache.finishFetch(LOCK_MAC,
+                SESSION_KEY, LOCK_TICKET);
+        assertEquals(1, callbacks.size());
+        assertSame(mOnSessionCallback, callbacks.get(0));
+        assertFalse(mTicketCache.isFetching(LOCK_MAC));
+    }
+
+    @Test
+    public void testStartFetch_lostFetchIsRestarted() {
+        assertTrue(mTicketCache.startFetch(LOCK_MAC, mOnSessionCallback));
+        mTicketCache.mNow += LockTicketCache.FETCH_TIMEOUT_MS;
+        assertTrue(mTicketCache.startFetch(LOCK_MAC, null));
+
+        // The callback that waited for the lost fetch waits for the new fetch.
+        List<LockDataRepository.OnSessionCallback> callbacks = mTicketCache.finishFetch(LOCK_MAC,
+                SESSION_KEY, LOCK_TICKET);
+        assertEquals(1, callbacks.size());
+    }
+
+    @Test
+    public void testFinishFetch_failure() {
+        mTicketCache.startFetch(LOCK_MAC, null);
+        mTicketCache.finishFetch(LOCK_MAC, null, null);
+        assertFalse(mTicketCache.contains(LOCK_MAC));
+    }
+
+    @Test
+    public void testClear_dropsFetchInFlight() {
+        fetch(LOCK_MAC);
+        mTicketCache.startFetch(LOCK_MAC, mOnSessionCallback);
+        mTicketCache.clear();
+        assertFalse(mTicketCache.contains(LOCK_MAC));
+
+        // A ticket that is fetched for the previous user is not stored.
+        assertTrue(mTicketCache.finishFetch(LOCK_MAC, SESSION_KEY, LOCK_TICKET).isEmpty());
+        assertFalse(mTicketCache.contains(LOCK_MAC));
+    }
+
+    private void fetch(String lockMac) {
+        mTicketCache.startFetch(lockMac, null);
+        mTicketCache.finishFetch(lockMac, SESSION_KEY, LOCK_TICKET);
+    }
+}
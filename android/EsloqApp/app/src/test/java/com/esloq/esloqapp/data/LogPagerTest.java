@@ -0,0 +1,332 @@
+package com.esloq.esloqapp.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link LogPager}.
+ */
+public class LogPagerTest {
+
+    /**
+     * Executor that keeps the tasks until the test runs them.
+     */
+    private static class ManualExecutor implements Executor {
+
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            mTasks.add(runnable);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+
+    /**
+     * Source that pages through a list of logs by time and id, as the database does.
+     */
+    private class ListSource implements LogPager.Source {
+
+        final List<LogEntry> mLogs = new ArrayList<>();
+        final List<LogEntry> mRequestedAfter = new ArrayList<>();
+
+        @Override
+        public List<LogEntry> load(LogEntry after, int limit) {
+            mRequestedAfter.add(after);
+            List<LogEntry> page = new ArrayList<>();
+            for (LogEntry log : mLogs) {
+                if (page.size() == limit) {
+                    break;
+                }
+                if (after == null || log.getTimestamp() < after.getTimestamp()
+                        || (log.getTimestamp() == after.getTimestamp()
+                        && log.getId() < after.getId())) {
+                    page.add(log);
+                }
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Listener that records the notifications as text.
+     */
+    private class RecordingListener implements LogPager.Listener {
+
+        @Override
+        public void onLogsInserted(int position, int count) {
+            mEvents.add("inserted " + position + " " + count);
+        }
+
+        @Override
+        public void onLogsRemoved(int position, int count) {
+            mEvents.add("removed " + position + " " + count);
+        }
+
+        @Override
+        public void onLogsChanged(int position, int count) {
+            mEvents.add("changed " + position + " " + count);
+        }
+
+        @Override
+        public void onLogsReset() {
+            mEvents.add("reset");
+        }
+    }
+
+    private final List<String> mEvents = new ArrayList<>();
+    private ManualExecutor mBackgroundExecutor;
+    private ManualExecutor mMainExecutor;
+    private ListSource mSource;
+    private LogPager mPager;
+
+    @Before
+    public void setUp() {
+        mBackgroundExecutor = new ManualExecutor();
+        mMainExecutor = new ManualExecutor();
+        mSource = new ListSource();
+        // Newest first, with several logs per second so that pages end within a second.
+        for (int i = 0; i < 5 * LogPager.PAGE_SIZE; i++) {
+            mSource.mLogs.add(new LogEntry(5 * LogPager.PAGE_SIZE - i, "user", 1000 - i / 3,
+                    true));
+        }
+        mPager = new LogPager(mSource, mBackgroundExecutor, mMainExecutor,
+                new RecordingListener());
+    }
+
+    @Test
+    public void testRefresh_readsFirstPage() {
+        mPager.refresh();
+        assertEquals(0, mPager.getCount());
+
+        runTasks();
+        assertEquals(LogPager.PAGE_SIZE, mPager.getCount());
+        assertSame(mSource.mLogs.get(0), mPager.get(0));
+        assertEquals(Arrays.asList("inserted 0 " + LogPager.PAGE_SIZE), mEvents);
+    }
+
+    @Test
+    public void testRefreshWithNewLogs_insertsOnlyNewLogs() {
+        mPager.refresh();
+        runTasks();
+        for (int i = 0; i < 2 * LogPager.PAGE_SIZE; i++) {
+            mPager.get(i);
+            runTasks();
+        }
+        mPager.get(0);
+        mEvents.clear();
+        mSource.mLogs.add(0, new LogEntry(1001, "user", 2000, false));
+        mSource.mLogs.add(0, new LogEntry(1002, "user", 2000, true));
+
+        mPager.refresh();
+        // The logs stay in place until the first page was read.
+        assertEquals(3 * LogPager.PAGE_SIZE, mPager.getCount());
+        assertSame(mSource.mLogs.get(2), mPager.get(0));
+        runTasks();
+        assertEquals(Arrays.asList("inserted 0 2"), mEvents);
+        // The later pages are kept, after the first page that grew by the new logs.
+        assertEquals(3 * LogPager.PAGE_SIZE + 2, mPager.getCount());
+        for (int i = 0; i < 2 * LogPager.PAGE_SIZE + 2; i++) {
+            assertSame(mSource.mLogs.get(i), mPager.get(i));
+        }
+    }
+
+    @Test
+    public void testRefreshWithRemovedLog_keepsLaterPages() {
+        mPager.refresh();
+        runTasks();
+        mPager.get(LogPager.PAGE_SIZE - 1);
+        runTasks();
+        mEvents.clear();
+        mSource.mLogs.remove(10);
+
+        mPager.refresh();
+        runTasks();
+        assertEquals(Arrays.asList("removed 10 1"), mEvents);
+        assertEquals(2 * LogPager.PAGE_SIZE - 1, mPager.getCount());
+        for (int i = 0; i < mPager.getCount(); i++) {
+            assertSame(mSource.mLogs.get(i), mPager.get(i));
+        }
+    }
+
+    @Test
+    public void testRefreshWithFewerLogsThanFirstPage_removesLaterPages() {
+        mPager.refresh();
+        runTasks();
+        mPager.get(LogPager.PAGE_SIZE - 1);
+        runTasks();
+        mEvents.clear();
+        mSource.mLogs.subList(10, mSource.mLogs.size()).clear();
+
+        mPager.refresh();
+        runTasks();
+        assertEquals(Arrays.asList("removed " + LogPager.PAGE_SIZE + " " + LogPager.PAGE_SIZE,
+                "removed 10 " + (LogPager.PAGE_SIZE - 10)), mEvents);
+        assertEquals(10, mPager.getCount());
+    }
+
+    @Test
+    public void testRefreshWithMoreNewLogsThanPage_resets() {
+        mPager.refresh();
+        runTasks();
+        mPager.get(LogPager.PAGE_SIZE - 1);
+        runTasks();
+        mEvents.clear();
+        for (int i = 0; i < LogPager.PAGE_SIZE + 10; i++) {
+            mSource.mLogs.add(0, new LogEntry(2000 + i, "user", 2000 + i, true));
+        }
+
+        mPager.refresh();
+        runTasks();
+        assertEquals(Arrays.asList("reset", "inserted 0 " + 2 * LogPager.PAGE_SIZE), mEvents);
+        for (int i = 0; i < mPager.getCount(); i++) {
+            assertSame(mSource.mLogs.get(i), mPager.get(i));
+        }
+    }
+
+    @Test
+    public void testRefreshWithChangedLog_changesOnlyThatLog() {
+        mPager.refresh();
+        runTasks();
+        mEvents.clear();
+        LogEntry log = mSource.mLogs.get(3);
+        mSource.mLogs.set(3, new LogEntry(log.getId(), "renamed", log.getTimestamp(),
+                log.isLocked()));
+
+        mPager.refresh();
+        runTasks();
+        assertEquals(Arrays.asList("changed 3 1"), mEvents);
+    }
+
+    @Test
+    public void testRefreshAfterFirstPageDropped_keepsLaterPages() {
+        mPager.refresh();
+        runTasks();
+        for (int i = 0; i < 3 * LogPager.PAGE_SIZE; i++) {
+            mPager.get(i);
+            runTasks();
+        }
+        int count = mPager.getCount();
+        mEvents.clear();
+        mSource.mLogs.add(0, new LogEntry(1001, "user", 2000, false));
+
+        mPager.refresh();
+        runTasks();
+        assertEquals(Arrays.asList("removed 0 " + LogPager.PAGE_SIZE,
+                "inserted 0 " + (LogPager.PAGE_SIZE + 1)), mEvents);
+        assertEquals(count + 1, mPager.getCount());
+        assertSame(mSource.mLogs.get(2 * LogPager.PAGE_SIZE + 1),
+                mPager.get(2 * LogPager.PAGE_SIZE + 1));
+    }
+
+    @Test
+    public void testGetNearEnd_prefetchesNextPageAfterLastLog() {
+        mPager.refresh();
+        runTasks();
+
+        mPager.get(LogPager.PAGE_SIZE - LogPager.PREFETCH_DISTANCE - 1);
+        assertEquals(0, mBackgroundExecutor.mTasks.size());
+        mPager.get(LogPager.PAGE_SIZE - LogPager.PREFETCH_DISTANCE);
+        mPager.get(LogPager.PAGE_SIZE - 1);
+        assertEquals(1, mBackgroundExecutor.mTasks.size());
+
+        runTasks();
+        assertEquals(2 * LogPager.PAGE_SIZE, mPager.getCount());
+        assertSame(mSource.mLogs.get(LogPager.PAGE_SIZE - 1), mSource.mRequestedAfter.get(1));
+        for (int i = 0; i < 2 * LogPager.PAGE_SIZE; i++) {
+            assertSame(mSource.mLogs.get(i), mPager.get(i));
+        }
+    }
+
+    @Test
+    public void testScrollToEnd_readsEveryLogOnce() {
+        mPager.refresh();
+        runTasks();
+        for (int i = 0; i < mPager.getCount(); i++) {
+            assertSame(mSource.mLogs.get(i), mPager.get(i));
+            runTasks();
+        }
+        assertEquals(mSource.mLogs.size(), mPager.getCount());
+        // The last page is empty, after which no page is read anymore.
+        mPager.get(mPager.getCount() - 1);
+        assertEquals(0, mBackgroundExecutor.mTasks.size());
+    }
+
+    @Test
+    public void testScroll_keepsOnlyPagesAroundPosition() {
+        mPager.refresh();
+        runTasks();
+        for (int i = 0; i < mPager.getCount(); i++) {
+            mPager.get(i);
+            runTasks();
+        }
+        assertEquals(1 + LogPager.RETAINED_PAGES, mPager.getRetainedPageCount());
+    }
+
+    @Test
+    public void testGetDroppedPage_readsPageAgain() {
+        mPager.refresh();
+        runTasks();
+        for (int i = 0; i < 4 * LogPager.PAGE_SIZE; i++) {
+            mPager.get(i);
+            runTasks();
+        }
+        mEvents.clear();
+
+        assertNull(mPager.get(0));
+        runTasks();
+        assertEquals("changed 0 " + LogPager.PAGE_SIZE, mEvents.get(0));
+        assertSame(mSource.mLogs.get(0), mPager.get(0));
+        assertNull(mSource.mRequestedAfter.get(mSource.mRequestedAfter.size() - 1));
+    }
+
+    @Test
+    public void testRefresh_keepsPageReadAfterFirstPage() {
+        mPager.refresh();
+        runTasks();
+        mPager.get(LogPager.PAGE_SIZE - 1);
+        mBackgroundExecutor.runAll();
+
+        mPager.refresh();
+        runTasks();
+        assertEquals(2 * LogPager.PAGE_SIZE, mPager.getCount());
+    }
+
+    @Test
+    public void testRefresh_ignoresPageReadAfterReplacedFirstPage() {
+        mPager.refresh();
+        runTasks();
+        mPager.get(LogPager.PAGE_SIZE - 1);
+        int count = LogPager.PAGE_SIZE + 30;
+        mSource.mLogs.subList(count, mSource.mLogs.size()).clear();
+        mPager.refresh();
+
+        // The first page is read before the second page, and now holds all logs.
+        mBackgroundExecutor.mTasks.remove(1).run();
+        mMainExecutor.runAll();
+        assertEquals(count, mPager.getCount());
+
+        // The second page was read after the old first page, and is ignored.
+        runTasks();
+        assertEquals(count, mPager.getCount());
+    }
+
+    private void runTasks() {
+        mBackgroundExecutor.runAll();
+        mMainExecutor.runAll();
+    }
+}
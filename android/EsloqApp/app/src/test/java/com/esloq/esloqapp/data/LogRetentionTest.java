@@ -0,0 +1,64 @@
+package com.esloq.esloqapp.data;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link LogRetention}.
+ */
+public class LogRetentionTest {
+
+    private static final long NOW = 1469000000L;
+
+    @Mock
+    private LocalDataServiceApi mLocalDataApi;
+
+    @Mock
+    private PreferencesServiceApi mPreferencesApi;
+
+    private LogRetention mRetention;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mPreferencesApi.getLogRetentionDays()).thenReturn(30);
+        mRetention = new LogRetention(mLocalDataApi, mPreferencesApi);
+    }
+
+    @Test
+    public void testRun_compactsLogsOlderThanWindow() {
+        when(mLocalDataApi.compactLogs(anyLong(), anyInt())).thenReturn(12);
+
+        assertTrue(mRetention.run(NOW, new AtomicBoolean()));
+        verify(mLocalDataApi).compactLogs(NOW - 30 * 24 * 60 * 60, LogRetention.BATCH_SIZE);
+    }
+
+    @Test
+    public void testRun_continuesUntilLastBatch() {
+        when(mLocalDataApi.compactLogs(anyLong(), anyInt())).thenReturn(LogRetention.BATCH_SIZE,
+                LogRetention.BATCH_SIZE, 0);
+
+        assertTrue(mRetention.run(NOW, new AtomicBoolean()));
+        verify(mLocalDataApi, times(3)).compactLogs(anyLong(), eq(LogRetention.BATCH_SIZE));
+    }
+
+    @Test
+    public void testRun_stopped_compactsNothing() {
+        assertFalse(mRetention.run(NOW, new AtomicBoolean(true)));
+        verify(mLocalDataApi, never()).compactLogs(anyLong(), anyInt());
+    }
+}
@@ -0,0 +1,63 @@
+package com.esloq.esloqapp.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link LogRollups}.
+ */
+public class LogRollupsTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final TimeZone BRUSSELS = TimeZone.getTimeZone("Europe/Brussels");
+
+    /**
+     * 2016-07-20 00:00:00 UTC, in seconds since the epoch.
+     */
+    private static final long DAY_START = 1468972800L;
+    private static final long DAY = DAY_START / (24 * 60 * 60);
+
+    @Test
+    public void testGetDay_startsAtMidnightOfTimeZone() {
+        assertEquals(DAY, LogRollups.getDay(DAY_START, UTC));
+        assertEquals(DAY - 1, LogRollups.getDay(DAY_START - 1, UTC));
+        // 23:30 UTC is already the next day in Brussels, in summer time.
+        assertEquals(DAY, LogRollups.getDay(DAY_START - 30 * 60, BRUSSELS));
+        assertEquals(DAY - 1, LogRollups.getDay(DAY_START - 2 * 60 * 60 - 1, BRUSSELS));
+    }
+
+    @Test
+    public void testGetDay_beforeEpoch_roundsDown() {
+        assertEquals(-1, LogRollups.getDay(-1, UTC));
+        assertEquals(-1, LogRollups.getDay(-24 * 60 * 60, UTC));
+    }
+
+    @Test
+    public void testAdd_countsPerUserAndDay() {
+        LogRollups rollups = new LogRollups(UTC);
+        rollups.add(1, DAY_START, true);
+        rollups.add(1, DAY_START + 60, false);
+        rollups.add(1, DAY_START + 120, false);
+        rollups.add(2, DAY_START + 60, true);
+        rollups.add(1, DAY_START - 60, true);
+
+        List<LogRollups.Rollup> result = new ArrayList<>(rollups.getRollups());
+        assertEquals(3, result.size());
+        assertRollup(result.get(0), 1, DAY, 1, 2);
+        assertRollup(result.get(1), 2, DAY, 1, 0);
+        assertRollup(result.get(2), 1, DAY - 1, 1, 0);
+    }
+
+    private static void assertRollup(LogRollups.Rollup rollup, int userId, long day,
+                                     int lockedCount, int unlockedCount) {
+        assertEquals(userId, rollup.getUserId());
+        assertEquals(day, rollup.getDay());
+        assertEquals(lockedCount, rollup.getLockedCount());
+        assertEquals(unlockedCount, rollup.getUnlockedCount());
+    }
+}
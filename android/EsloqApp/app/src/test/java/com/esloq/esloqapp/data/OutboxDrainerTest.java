@@ -0,0 +1,398 @@
+package com.esloq.esloqapp.data;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link OutboxDrainer}.
+ */
+public class OutboxDrainerTest {
+
+    /**
+     * Executor that keeps the tasks until the test runs them.
+     */
+    private static class ManualExecutor implements Executor {
+
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            mTasks.add(runnable);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+
+    /**
+     * Scheduler that records the requested delays.
+     */
+    private static class RecordingRetryScheduler implements OutboxDrainer.RetryScheduler {
+
+        final List<Long> mDelays = new ArrayList<>();
+
+        @Override
+        public void scheduleRetry(long delayMillis) {
+            mDelays.add(delayMillis);
+        }
+    }
+
+    @Mock
+    private LocalDataServiceApi mLocalApi;
+
+    @Mock
+    private ServerDataServiceApi mServerApi;
+
+    @Mock
+    private PreferencesServiceApi mPreferencesApi;
+
+    @Mock
+    private LockDataRepository.OnResultCallback mOnResultCallback;
+
+    @Captor
+    private ArgumentCaptor<ServerDataServiceApi.DeliveryCallback<Void>> mVoidCallbackCaptor;
+
+    @Captor
+    private ArgumentCaptor<ServerDataServiceApi.DeliveryCallback<UserData.User>>
+            mUserCallbackCaptor;
+
+    @Captor
+    private ArgumentCaptor<List<OutboxEntry>> mBatchCaptor;
+
+    private ManualExecutor mBackgroundExecutor;
+    private ManualExecutor mMainExecutor;
+    private RecordingRetryScheduler mRetryScheduler;
+    private OutboxDrainer mDrainer;
+
+    private static final long NOW = 1000000;
+    private static final long ENTRY_ID = 1;
+    private static final String LOCK_MAC = "00:00:00:00:00:00";
+    private static final long TIMESTAMP = 1500000000;
+    private static final int USER_ID = 1;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        mBackgroundExecutor = new ManualExecutor();
+        mMainExecutor = new ManualExecutor();
+        mRetryScheduler = new RecordingRetryScheduler();
+        when(mPreferencesApi.isSignedIn()).thenReturn(true);
+        when(mPreferencesApi.getUserId()).thenReturn(USER_ID);
+        when(mLocalApi.getOutboxEntries(anyInt())).thenReturn(Collections.<OutboxEntry>emptyList());
+
+        mDrainer = new OutboxDrainer(mLocalApi, mServerApi, mPreferencesApi,
+                mBackgroundExecutor, mMainExecutor, mRetryScheduler) {
+            @Override
+            long currentTimeMillis() {
+                return NOW;
+            }
+        };
+    }
+
+    /**
+     * Makes the mocked outbox return one list of entries, and another list on every later read.
+     */
+    private void stubOutbox(List<OutboxEntry> entries, List<OutboxEntry> laterEntries) {
+        when(mLocalApi.getOutboxEntries(anyInt())).thenReturn(entries).thenReturn(laterEntries);
+    }
+
+    /**
+     * Records an entry in the mocked outbox, as the head of the outbox until it is removed.
+     */
+    private OutboxEntry enqueue(OutboxEntry entry, LockDataRepository.OnResultCallback callback) {
+        OutboxEntry stored = entry.withId(ENTRY_ID);
+        when(mLocalApi.addOutboxEntry(entry)).thenReturn(ENTRY_ID);
+        stubOutbox(Collections.singletonList(stored), Collections.<OutboxEntry>emptyList());
+        mDrainer.enqueue(entry, callback);
+        mBackgroundExecutor.runAll();
+        return stored;
+    }
+
+    @Test
+    public void testEnqueue_sendsEntryWithRequestId() {
+        OutboxEntry entry = enqueue(OutboxEntry.log("message", TIMESTAMP), null);
+
+        verify(mLocalApi).addOutboxEntry(any(OutboxEntry.class));
+        verify(mServerApi).log(eq(entry.getRequestId()), eq("message"),
+                mVoidCallbackCaptor.capture());
+    }
+
+    @Test
+    public void testEnqueue_log_sentToLogBatchEndpoint() {
+        OutboxEntry entry = enqueue(OutboxEntry.addLog(LOCK_MAC, true, TIMESTAMP), null);
+
+        verify(mServerApi).addLogs(eq(USER_ID), mBatchCaptor.capture(),
+                mVoidCallbackCaptor.capture());
+        assertEquals(Collections.singletonList(entry), mBatchCaptor.getValue());
+    }
+
+    @Test
+    public void testEnqueue_sendsOneRequestAtATime() {
+        enqueue(OutboxEntry.addLog(LOCK_MAC, true, TIMESTAMP), null);
+        mDrainer.enqueue(OutboxEntry.addLog(LOCK_MAC, false, TIMESTAMP), null);
+        mBackgroundExecutor.runAll();
+
+        verify(mServerApi, times(1)).addLogs(anyInt(), mBatchCaptor.capture(),
+                mVoidCallbackCaptor.capture());
+    }
+
+    @Test
+    public void testResponse_success_removesEntryAndCallsBack() {
+        enqueue(OutboxEntry.log("message", TIMESTAMP), mOnResultCallback);
+        verify(mServerApi).log(anyString(), eq("message"), mVoidCallbackCaptor.capture());
+
+        mVoidCallbackCaptor.getValue().onResponse(new ServerResponse<Void>(true, null, null));
+        mBackgroundExecutor.runAll();
+
+        verify(mLocalApi).removeOutboxEntry(ENTRY_ID);
+        // The callback is called on the main thread
+        verify(mOnResultCallback, never()).onResult(anyBoolean());
+        mMainExecutor.runAll();
+        verify(mOnResultCallback).onResult(true);
+    }
+
+    @Test
+    public void testResponse_rejected_dropsEntry() {
+        enqueue(OutboxEntry.log("message", TIMESTAMP), mOnResultCallback);
+        verify(mServerApi).log(anyString(), eq("message"), mVoidCallbackCaptor.capture());
+
+        mVoidCallbackCaptor.getValue().onResponse(new ServerResponse<Void>(false, "error", null));
+        mBackgroundExecutor.runAll();
+        mMainExecutor.runAll();
+
+        verify(mLocalApi).removeOutboxEntry(ENTRY_ID);
+        verify(mLocalApi, never()).deferOutboxEntry(anyLong(), anyInt(), anyLong());
+        verify(mOnResultCallback).onResult(false);
+    }
+
+    @Test
+    public void testResponse_notReached_defersEntryWithBackoff() {
+        enqueue(OutboxEntry.log("message", TIMESTAMP), mOnResultCallback);
+        verify(mServerApi).log(anyString(), eq("message"), mVoidCallbackCaptor.capture());
+
+        mVoidCallbackCaptor.getValue().onResponse(null);
+        mBackgroundExecutor.runAll();
+        mMainExecutor.runAll();
+
+        verify(mLocalApi).deferOutboxEntry(ENTRY_ID, 1,
+                NOW + OutboxDrainer.INITIAL_BACKOFF_MILLIS);
+        verify(mLocalApi, never()).removeOutboxEntry(anyLong());
+        assertEquals(Collections.singletonList(OutboxDrainer.INITIAL_BACKOFF_MILLIS),
+                mRetryScheduler.mDelays);
+        // The caller learns the result of the first attempt, the retry has no callback.
+        verify(mOnResultCallback).onResult(false);
+    }
+
+    @Test
+    public void testResponse_notReachedOnLastAttempt_dropsEntry() {
+        OutboxEntry entry = new OutboxEntry(ENTRY_ID, "request", OutboxEntry.Type.LOG, null, 0,
+                null, false, false, TIMESTAMP, "message", OutboxDrainer.MAX_ATTEMPTS - 1, 0);
+        stubOutbox(Collections.singletonList(entry), Collections.<OutboxEntry>emptyList());
+        mDrainer.drain(null);
+        mBackgroundExecutor.runAll();
+        verify(mServerApi).log(eq("request"), eq("message"), mVoidCallbackCaptor.capture());
+
+        mVoidCallbackCaptor.getValue().onResponse(null);
+        mBackgroundExecutor.runAll();
+
+        verify(mLocalApi).removeOutboxEntry(ENTRY_ID);
+        verify(mLocalApi, never()).deferOutboxEntry(anyLong(), anyInt(), anyLong());
+        assertTrue(mRetryScheduler.mDelays.isEmpty());
+    }
+
+    @Test
+    public void testDrain_entryWaitsForRetry_schedulesRetry() {
+        OutboxEntry entry = new OutboxEntry(ENTRY_ID, "request", OutboxEntry.Type.LOG, null, 0,
+                null, false, false, TIMESTAMP, "message", 1, NOW + 5000);
+        when(mLocalApi.getOutboxEntries(anyInt())).thenReturn(Collections.singletonList(entry));
+        Runnable idleListener = mock(Runnable.class);
+
+        mDrainer.drain(idleListener);
+        mBackgroundExecutor.runAll();
+
+        verifyZeroInteractions(mServerApi);
+        assertEquals(Collections.singletonList(5000L), mRetryScheduler.mDelays);
+        verify(idleListener).run();
+    }
+
+    @Test
+    public void testEnqueue_headWaitsForRetry_reportsNotSent() {
+        OutboxEntry waiting = new OutboxEntry(ENTRY_ID, "request", OutboxEntry.Type.LOG, null, 0,
+                null, false, false, TIMESTAMP, "message", 1, NOW + 5000);
+        OutboxEntry entry = OutboxEntry.removeUser(USER_ID, LOCK_MAC, TIMESTAMP);
+        when(mLocalApi.addOutboxEntry(entry)).thenReturn(ENTRY_ID + 1);
+        when(mLocalApi.getOutboxEntries(anyInt())).thenReturn(Arrays.asList(waiting,
+                entry.withId(ENTRY_ID + 1)));
+
+        mDrainer.enqueue(entry, mOnResultCallback);
+        mBackgroundExecutor.runAll();
+        mMainExecutor.runAll();
+
+        // The request stays in the outbox, the callback is not kept until it is sent.
+        verifyZeroInteractions(mServerApi);
+        verify(mLocalApi, never()).removeOutboxEntry(anyLong());
+        verify(mOnResultCallback).onResult(false);
+    }
+
+    @Test
+    public void testResponse_signedOutWhileSending_keepsEntryWithoutAttempt() {
+        enqueue(OutboxEntry.log("message", TIMESTAMP), mOnResultCallback);
+        verify(mServerApi).log(anyString(), eq("message"), mVoidCallbackCaptor.capture());
+        Runnable idleListener = mock(Runnable.class);
+        mDrainer.drain(idleListener);
+
+        // The server API reports no response when no user is signed in anymore.
+        when(mPreferencesApi.isSignedIn()).thenReturn(false);
+        mVoidCallbackCaptor.getValue().onResponse(null);
+        mBackgroundExecutor.runAll();
+        mMainExecutor.runAll();
+
+        verify(mLocalApi, never()).deferOutboxEntry(anyLong(), anyInt(), anyLong());
+        verify(mLocalApi, never()).removeOutboxEntry(anyLong());
+        assertTrue(mRetryScheduler.mDelays.isEmpty());
+        verify(mOnResultCallback).onResult(false);
+        verify(idleListener).run();
+    }
+
+    @Test
+    public void testDrain_signedOut_sendsNothing() {
+        when(mPreferencesApi.isSignedIn()).thenReturn(false);
+        Runnable idleListener = mock(Runnable.class);
+
+        mDrainer.drain(idleListener);
+        mBackgroundExecutor.runAll();
+
+        verify(mLocalApi, never()).getOutboxEntries(anyInt());
+        verifyZeroInteractions(mServerApi);
+        verify(idleListener).run();
+    }
+
+    @Test
+    public void testAddUser_success_addsUserToLock() {
+        enqueue(OutboxEntry.addUser("hello@world.com", LOCK_MAC, true, TIMESTAMP),
+                mOnResultCallback);
+        verify(mServerApi).addUser(anyString(), eq("hello@world.com"), eq(LOCK_MAC), eq(true),
+                mUserCallbackCaptor.capture());
+
+        mUserCallbackCaptor.getValue().onResponse(new ServerResponse<UserData.User>(true, null,
+                new UserData.User(USER_ID, "Hello", false, true)));
+        mBackgroundExecutor.runAll();
+        mMainExecutor.runAll();
+
+        verify(mLocalApi).addUserToLock(USER_ID, "Hello", false, LOCK_MAC, true);
+        verify(mOnResultCallback).onResult(true);
+    }
+
+    @Test
+    public void testRemoveUser_removesUserBeforeSending() {
+        enqueue(OutboxEntry.removeUser(USER_ID, LOCK_MAC, TIMESTAMP), mOnResultCallback);
+
+        verify(mLocalApi).removeUserFromLock(USER_ID, LOCK_MAC);
+        verify(mServerApi).removeUser(anyString(), eq(USER_ID), eq(LOCK_MAC),
+                mVoidCallbackCaptor.capture());
+    }
+
+    @Test
+    public void testClear_ignoresResponseInFlight() {
+        enqueue(OutboxEntry.log("message", TIMESTAMP), mOnResultCallback);
+        verify(mServerApi).log(anyString(), eq("message"), mVoidCallbackCaptor.capture());
+
+        mDrainer.clear();
+        mBackgroundExecutor.runAll();
+        mVoidCallbackCaptor.getValue().onResponse(new ServerResponse<Void>(true, null, null));
+        mBackgroundExecutor.runAll();
+        mMainExecutor.runAll();
+
+        verify(mLocalApi).clearOutbox();
+        verify(mLocalApi, never()).removeOutboxEntry(anyLong());
+        verify(mOnResultCallback, never()).onResult(anyBoolean());
+    }
+
+    @Test
+    public void testDrain_logs_uploadedInOneBatch() {
+        OutboxEntry first = new OutboxEntry(1, "request1", OutboxEntry.Type.ADD_LOG, LOCK_MAC, 0,
+                null, false, false, TIMESTAMP, null, 0, 0);
+        OutboxEntry second = new OutboxEntry(2, "request2", OutboxEntry.Type.ADD_LOG, LOCK_MAC,
+                0, null, false, true, TIMESTAMP, null, 0, 0);
+        OutboxEntry addUser = new OutboxEntry(3, "request3", OutboxEntry.Type.ADD_USER, LOCK_MAC,
+                0, "hello@world.com", false, false, TIMESTAMP, null, 0, 0);
+        stubOutbox(Arrays.asList(first, second, addUser), Collections.singletonList(addUser));
+
+        mDrainer.drain(null);
+        mBackgroundExecutor.runAll();
+
+        // The user is added in a request of its own, after the batch
+        verify(mServerApi).addLogs(eq(USER_ID), mBatchCaptor.capture(),
+                mVoidCallbackCaptor.capture());
+        assertEquals(Arrays.asList(first, second), mBatchCaptor.getValue());
+        verify(mServerApi, never()).addUser(anyString(), anyString(), anyString(), anyBoolean(),
+                mUserCallbackCaptor.capture());
+
+        mVoidCallbackCaptor.getValue().onResponse(new ServerResponse<Void>(true, null, null));
+        mBackgroundExecutor.runAll();
+
+        verify(mLocalApi).removeOutboxEntry(1);
+        verify(mLocalApi).removeOutboxEntry(2);
+        verify(mServerApi).addUser(eq("request3"), eq("hello@world.com"), eq(LOCK_MAC),
+                eq(false), mUserCallbackCaptor.capture());
+    }
+
+    @Test
+    public void testAddLogs_notReached_defersAllLogs() {
+        OutboxEntry first = new OutboxEntry(1, "request1", OutboxEntry.Type.ADD_LOG, LOCK_MAC, 0,
+                null, false, true, TIMESTAMP, null, 1, 0);
+        OutboxEntry second = new OutboxEntry(2, "request2", OutboxEntry.Type.ADD_LOG, LOCK_MAC,
+                0, null, false, false, TIMESTAMP, null, 0, 0);
+        when(mLocalApi.getOutboxEntries(anyInt())).thenReturn(Arrays.asList(first, second));
+        mDrainer.drain(null);
+        mBackgroundExecutor.runAll();
+        verify(mServerApi).addLogs(eq(USER_ID), mBatchCaptor.capture(),
+                mVoidCallbackCaptor.capture());
+
+        mVoidCallbackCaptor.getValue().onResponse(null);
+        mBackgroundExecutor.runAll();
+
+        // The backoff of the batch is the backoff of its oldest entry
+        long backoff = OutboxDrainer.getBackoffMillis(2);
+        verify(mLocalApi).deferOutboxEntry(1, 2, NOW + backoff);
+        verify(mLocalApi).deferOutboxEntry(2, 1, NOW + backoff);
+        verify(mLocalApi, never()).removeOutboxEntry(anyLong());
+        assertEquals(Collections.singletonList(backoff), mRetryScheduler.mDelays);
+    }
+
+    @Test
+    public void testGetBackoffMillis() {
+        assertEquals(OutboxDrainer.INITIAL_BACKOFF_MILLIS, OutboxDrainer.getBackoffMillis(1));
+        assertEquals(2 * OutboxDrainer.INITIAL_BACKOFF_MILLIS, OutboxDrainer.getBackoffMillis(2));
+        assertEquals(OutboxDrainer.MAX_BACKOFF_MILLIS, OutboxDrainer.getBackoffMillis(100));
+    }
+}
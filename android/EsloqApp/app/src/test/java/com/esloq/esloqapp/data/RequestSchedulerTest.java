@@ -0,0 +1,182 @@
+package com.esloq.esloqapp.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link RequestScheduler}.
+ */
+public class RequestSchedulerTest {
+
+    /**
+     * Executor that keeps the started requests until the test runs them.
+     */
+    private static class ManualExecutor implements Executor {
+
+        final List<Runnable> mStarted = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            mStarted.add(runnable);
+        }
+
+        void runFirst() {
+            mStarted.remove(0).run();
+        }
+    }
+
+    /**
+     * Request that records its name when it runs.
+     */
+    private class NamedRequest extends RequestScheduler.Request {
+
+        private final String mName;
+
+        NamedRequest(RequestScheduler.Priority priority, String name) {
+            super(priority);
+            mName = name;
+        }
+
+        @Override
+        public void run() {
+            mRan.add(mName);
+        }
+    }
+
+    private final List<String> mRan = new ArrayList<>();
+    private ManualExecutor mExecutor;
+    private RequestScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mExecutor = new ManualExecutor();
+        mScheduler = new RequestScheduler(mExecutor);
+    }
+
+    @Test
+    public void testConcurrency_isBounded() {
+        for (int i = 0; i < 5; i++) {
+            submit(RequestScheduler.Priority.INTERACTIVE, "interactive" + i);
+        }
+        assertEquals(RequestScheduler.MAX_CONCURRENT_REQUESTS, mExecutor.mStarted.size());
+        assertEquals(2, mScheduler.getQueuedCount(RequestScheduler.Priority.INTERACTIVE));
+
+        mExecutor.runFirst();
+        assertEquals(RequestScheduler.MAX_CONCURRENT_REQUESTS, mExecutor.mStarted.size());
+        assertEquals(1, mScheduler.getQueuedCount(RequestScheduler.Priority.INTERACTIVE));
+    }
+
+    @Test
+    public void testBackgroundRequests_leaveSlotForInteractive() {
+        for (int i = 0; i < 4; i++) {
+            submit(RequestScheduler.Priority.SYNC, "sync" + i);
+        }
+        for (int i = 0; i < 4; i++) {
+            submit(RequestScheduler.Priority.TELEMETRY, "telemetry" + i);
+        }
+        assertEquals(2, mScheduler.getRunningCount(RequestScheduler.Priority.SYNC));
+        assertEquals(0, mScheduler.getRunningCount(RequestScheduler.Priority.TELEMETRY));
+
+        // The interactive request starts right away, without waiting for a sync to finish.
+        submit(RequestScheduler.Priority.INTERACTIVE, "interactive");
+        assertEquals(1, mScheduler.getRunningCount(RequestScheduler.Priority.INTERACTIVE));
+        assertEquals(RequestScheduler.MAX_CONCURRENT_REQUESTS, mExecutor.mStarted.size());
+    }
+
+    @Test
+    public void testTelemetry_runsOneAtATime() {
+        for (int i = 0; i < 3; i++) {
+            submit(RequestScheduler.Priority.TELEMETRY, "telemetry" + i);
+        }
+        assertEquals(1, mExecutor.mStarted.size());
+        mExecutor.runFirst();
+        mExecutor.runFirst();
+        mExecutor.runFirst();
+        assertEquals(Arrays.asList("telemetry0", "telemetry1", "telemetry2"), mRan);
+    }
+
+    @Test
+    public void testHigherPriority_startsFirst() {
+        // Fill all slots so that the next requests are queued.
+        for (int i = 0; i < RequestScheduler.MAX_CONCURRENT_REQUESTS; i++) {
+            submit(RequestScheduler.Priority.INTERACTIVE, "busy" + i);
+        }
+        submit(RequestScheduler.Priority.TELEMETRY, "telemetry");
+        submit(RequestScheduler.Priority.SYNC, "sync");
+        submit(RequestScheduler.Priority.INTERACTIVE, "interactive");
+
+        while (!mExecutor.mStarted.isEmpty()) {
+            mExecutor.runFirst();
+        }
+        assertEquals(Arrays.asList("busy0", "busy1", "busy2", "interactive", "sync",
+                "telemetry"), mRan);
+    }
+
+    @Test
+    public void testCancelQueued_neverRuns() {
+        for (int i = 0; i < 3; i++) {
+            submit(RequestScheduler.Priority.SYNC, "sync" + i);
+        }
+        RequestScheduler.Request queued = new NamedRequest(RequestScheduler.Priority.SYNC,
+                "cancelled");
+        mScheduler.submit(queued);
+
+        mScheduler.cancel(queued);
+        assertTrue(queued.isCancelled());
+        while (!mExecutor.mStarted.isEmpty()) {
+            mExecutor.runFirst();
+        }
+        assertFalse(mRan.contains("cancelled"));
+        assertEquals(3, mRan.size());
+    }
+
+    @Test
+    public void testCancelAll_onlyCancelsItsClass() {
+        NamedRequest running = submit(RequestScheduler.Priority.SYNC, "sync0");
+        submit(RequestScheduler.Priority.SYNC, "sync1");
+        submit(RequestScheduler.Priority.SYNC, "sync2");
+        NamedRequest telemetry = submit(RequestScheduler.Priority.TELEMETRY, "telemetry");
+
+        assertEquals(1, mScheduler.cancelAll(RequestScheduler.Priority.SYNC));
+        assertTrue(running.isCancelled());
+        assertFalse(telemetry.isCancelled());
+        while (!mExecutor.mStarted.isEmpty()) {
+            mExecutor.runFirst();
+        }
+        assertEquals(Arrays.asList("telemetry"), mRan);
+        assertEquals(0, mScheduler.getRunningCount(RequestScheduler.Priority.SYNC));
+    }
+
+    @Test
+    public void testFailingRequest_freesItsSlot() {
+        mScheduler.submit(new RequestScheduler.Request(RequestScheduler.Priority.TELEMETRY) {
+            @Override
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        submit(RequestScheduler.Priority.TELEMETRY, "telemetry");
+        try {
+            mExecutor.runFirst();
+        } catch (IllegalStateException expected) {
+            // The executor's thread would die, the scheduler carries on.
+        }
+        mExecutor.runFirst();
+        assertEquals(Arrays.asList("telemetry"), mRan);
+    }
+
+    private NamedRequest submit(RequestScheduler.Priority priority, String name) {
+        NamedRequest request = new NamedRequest(priority, name);
+        mScheduler.submit(request);
+        return request;
+    }
+}
@@ -0,0 +1,102 @@
+package com.esloq.esloqapp.data;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link UserDataImport}.
+ */
+public class UserDataImportTest {
+
+    private static final String LOCK_MAC = "aa:bb:cc:dd:ee:ff";
+
+    @Mock
+    private LocalDataServiceApi mLocalDataApi;
+
+    @Mock
+    private PreferencesServiceApi mPreferencesApi;
+
+    @Captor
+    private ArgumentCaptor<LocalDataBatch> mBatchCaptor;
+
+    private UserDataImport mImport;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mLocalDataApi.applyBatch(any(LocalDataBatch.class))).thenReturn(true);
+
+        mImport = new UserDataImport(mLocalDataApi, mPreferencesApi);
+    }
+
+    @Test
+    public void testRows_areWrittenInBatches() throws IOException {
+        int logCount = 10 * UserDataImport.BATCH_SIZE;
+        mImport.onUserId(1);
+        mImport.onLock(new UserData.Lock(LOCK_MAC, "Front door", true));
+        mImport.onUser(LOCK_MAC, new UserData.User(1, "Me", true, true));
+        for (int i = 0; i < logCount; i++) {
+            mImport.onLog(LOCK_MAC, new UserData.Log(1, i % 2 == 0, i));
+        }
+        mImport.onFinished();
+
+        verify(mPreferencesApi).setUserId(1);
+        verify(mLocalDataApi, atLeastOnce()).applyBatch(mBatchCaptor.capture());
+        int rowCount = 0;
+        for (LocalDataBatch batch : mBatchCaptor.getAllValues()) {
+            // The batches never grow beyond a batch, whatever the length of the log history.
+            assertTrue(batch.size() <= UserDataImport.BATCH_SIZE);
+            rowCount += batch.size();
+        }
+        assertEquals(logCount + 3, rowCount);
+        assertEquals(logCount + 3, mImport.getRowCount());
+        assertEquals((rowCount + UserDataImport.BATCH_SIZE - 1) / UserDataImport.BATCH_SIZE,
+                mBatchCaptor.getAllValues().size());
+    }
+
+    @Test
+    public void testLock_isWrittenBeforeItsRows() throws IOException {
+        mImport.onLock(new UserData.Lock(LOCK_MAC, "Front door", false));
+        mImport.onUser(LOCK_MAC, new UserData.User(2, "You", false, false));
+        mImport.onLog(LOCK_MAC, new UserData.Log(2, true, 1000L));
+        mImport.onFinished();
+
+        verify(mLocalDataApi).applyBatch(mBatchCaptor.capture());
+        LocalDataBatch batch = mBatchCaptor.getValue();
+        assertEquals(LOCK_MAC.toUpperCase(), batch.getLocks().get(0).getMac());
+        assertEquals(2, batch.getUsers().get(0).getId());
+        assertEquals(LOCK_MAC.toUpperCase(), batch.getLockAccesses().get(0).getLockMac());
+        assertEquals(LOCK_MAC.toUpperCase(), batch.getLogs().get(0).getLockMac());
+        assertEquals(1000L, batch.getLogs().get(0).getLog().getTimestamp());
+    }
+
+    @Test
+    public void testNoRows_writesNothing() throws IOException {
+        mImport.onUserId(1);
+        mImport.onFinished();
+
+        verify(mLocalDataApi, never()).applyBatch(any(LocalDataBatch.class));
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailedBatch_failsImport() throws IOException {
+        when(mLocalDataApi.applyBatch(any(LocalDataBatch.class))).thenReturn(false);
+
+        mImport.onLock(new UserData.Lock(LOCK_MAC, "Front door", false));
+        mImport.onFinished();
+    }
+}
@@ -0,0 +1,448 @@
+package com.esloq.esloqapp.lock;
+
+import com.esloq.esloqapp.Cryptography;
+import com.esloq.esloqapp.JavaSecretBox;
+import com.esloq.esloqapp.SecretBox;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Simulated esloq that implements the request/response protocol of the firmware
+ * (firmware/avr/src/main.c) on top of a {@link LockTransport}, for tests on the JVM.
+ * <p/>
+ * The lock runs in virtual time. Every packet, in either direction, occupies the link for the
+ * packet latency, so packets are delivered one after the other in the order they were sent. A
+ * packet can be lost with the configured loss rate, decided by a seeded random generator so that
+ * runs are reproducible. Nothing happens until the test runs the pending events with
+ * {@link #runUntilIdle()}.
+ * <p/>
+ * Like the firmware, the lock concatenates the written fragments until it has received exactly a
+ * ticket or a request, silently ignores tickets and requests with a stale nonce or that cannot
+ * be authenticated, and sends every response as notifications of at most 20 bytes. A lost
+ * fragment leaves the lock waiting until the link is dropped.
+ */
+class FakeEsloqLock implements LockTransport {
+
+    /**
+     * Length of a request: the nonce, the authenticator and a single byte request code.
+     */
+    static final int REQUEST_LENGTH = Cryptography.FRAME_HEADER_LENGTH + 1;
+
+    /**
+     * Maximum length of a notification, the length of the C_ESLOQ_TX characteristic.
+     */
+    static final int NOTIFICATION_LENGTH = 20;
+
+    /**
+     * Default time in microseconds that a packet occupies the link, one connection interval.
+     */
+    static final long DEFAULT_PACKET_LATENCY_MICROS = 7500;
+
+    private static final int ROTATE_COUNTER_CLOCKWISE = 0;
+    private static final int ROTATE_CLOCKWISE = 1;
+
+    private enum State {
+        DISCONNECTED, CONNECTED, REQUEST_W
+    }
+
+    /**
+     * A packet or other event that happens at a point in virtual time.
+     */
+    private static class Task {
+
+        final long time;
+        final long sequence;
+        final Runnable runnable;
+
+        Task(long time, long sequence, Runnable runnable) {
+            this.time = time;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+    }
+
+    private final SecretBox mSecretBox = new JavaSecretBox();
+    private final byte[] mMasterKey;
+    private final Random mRandom;
+
+    /**
+     * Last ticket nonce that was used, stored in EEPROM by the firmware.
+     */
+    private final byte[] mMasterNonce = new byte[Cryptography.NONCE_LENGTH];
+
+    /**
+     * Last ticket nonce that was issued, kept by the server.
+     */
+    private final byte[] mServerNonce = new byte[Cryptography.NONCE_LENGTH];
+
+    private final byte[] mSessionKey = new byte[Cryptography.KEY_LENGTH];
+    private final byte[] mSessionNonce = new byte[Cryptography.NONCE_LENGTH];
+
+    /**
+     * Receive buffer in which the written fragments are concatenated.
+     */
+    private final byte[] mMessage = new byte[Cryptography.TICKET_LENGTH];
+    private int mMessageLength;
+
+    private final PriorityQueue<Task> mTasks = new PriorityQueue<>(16, new Comparator<Task>() {
+        @Override
+        public int compare(Task a, Task b) {
+            if (a.time != b.time) {
+                return a.time < b.time ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    });
+    private long mTaskSequence;
+
+    private LockTransport.Listener mListener;
+    private State mState = State.DISCONNECTED;
+    private int mFragmentLength;
+    private long mNow;
+    private long mLinkFreeAt;
+
+    private long mPacketLatencyMicros = DEFAULT_PACKET_LATENCY_MICROS;
+    private long mRotateDurationMicros;
+    private double mLossRate;
+    private int mPacketsToDrop;
+    private boolean mLowBattery;
+    private boolean mCorruptNextResponse;
+    private byte[] mLastResponse;
+
+    private boolean mLocked;
+    private int mRotations;
+    private int mPacketsWritten;
+    private int mNotificationsSent;
+    private int mPacketsLost;
+    private int mRejectedWrites;
+
+    /**
+     * Construct a lock with the given master key, which the server shares with the lock.
+     *
+     * @param masterKey The master key.
+     * @param seed Seed of the random generator that decides which packets are lost.
+     */
+    FakeEsloqLock(byte[] masterKey, long seed) {
+        mMasterKey = masterKey.clone();
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Issues a lock ticket for a session key, the way the server does: the ticket nonce is the
+     * next value of the server's nonce counter, the session key is encrypted with the master key.
+     *
+     * @param sessionKey The session key.
+     * @return The ticket, nonce | mac | encrypted session key.
+     */
+    byte[] issueTicket(byte[] sessionKey) {
+        increment(mServerNonce);
+        byte[] box = mSecretBox.encrypt(sessionKey, mServerNonce, mMasterKey);
+        byte[] ticket = new byte[Cryptography.TICKET_LENGTH];
+        System.arraycopy(mServerNonce, 0, ticket, 0, Cryptography.NONCE_LENGTH);
+        System.arraycopy(box, 0, ticket, Cryptography.NONCE_LENGTH, box.length);
+        return ticket;
+    }
+
+    /**
+     * Connects the link. The listener is told that the link is ready once the notifications have
+     * been enabled, which takes one packet.
+     *
+     * @param fragmentLength Maximum length of the fragments that can be written, from the MTU.
+     */
+    void connect(final int fragmentLength) {
+        mState = State.CONNECTED;
+        mMessageLength = 0;
+        mFragmentLength = fragmentLength;
+        transmit(mNow, new Runnable() {
+            @Override
+            public void run() {
+                mListener.onLinkReady(fragmentLength);
+            }
+        }, false);
+    }
+
+    /**
+     * Drops the link. Packets that are in flight are lost and the lock discards its receive
+     * buffer, the listener is told immediately.
+     */
+    void dropLink() {
+        mState = State.DISCONNECTED;
+        mMessageLength = 0;
+        mTasks.clear();
+        mLinkFreeAt = mNow;
+        mListener.onLinkLost();
+    }
+
+    /**
+     * Runs all pending events in the order of their virtual time.
+     */
+    void runUntilIdle() {
+        Task task;
+        while ((task = mTasks.poll()) != null) {
+            mNow = task.time;
+            task.runnable.run();
+        }
+    }
+
+    @Override
+    public void setListener(LockTransport.Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public boolean write(final byte[] fragment) {
+        if (mState == State.DISCONNECTED) {
+            return false;
+        }
+        if (fragment.length > mFragmentLength) {
+            mRejectedWrites++;
+            return false;
+        }
+        mPacketsWritten++;
+        transmit(mNow, new Runnable() {
+            @Override
+            public void run() {
+                receive(fragment);
+            }
+        }, true);
+        return true;
+    }
+
+    /**
+     * Sends the last response again, as a duplicated or replayed notification would.
+     */
+    void replayLastResponse() {
+        if (mLastResponse != null) {
+            sendResponse(mLastResponse, 0);
+        }
+    }
+
+    void setPacketLatencyMicros(long packetLatencyMicros) {
+        mPacketLatencyMicros = packetLatencyMicros;
+    }
+
+    /**
+     * Sets the time it takes the motor to rotate, before the lock responds to a rotate request.
+     *
+     * @param rotateDurationMicros The rotate duration in microseconds.
+     */
+    void setRotateDurationMicros(long rotateDurationMicros) {
+        mRotateDurationMicros = rotateDurationMicros;
+    }
+
+    /**
+     * Sets the probability that a packet is lost, in either direction.
+     *
+     * @param lossRate The probability, between 0 and 1.
+     */
+    void setLossRate(double lossRate) {
+        mLossRate = lossRate;
+    }
+
+    /**
+     * Loses the next packets that are sent, in either direction, regardless of the loss rate.
+     *
+     * @param count The number of packets to lose.
+     */
+    void dropNextPackets(int count) {
+        mPacketsToDrop = count;
+    }
+
+    void setLowBattery(boolean lowBattery) {
+        mLowBattery = lowBattery;
+    }
+
+    /**
+     * Flips a bit in the ciphertext of the next response, so that it cannot be authenticated.
+     */
+    void corruptNextResponse() {
+        mCorruptNextResponse = true;
+    }
+
+    long getTimeMicros() {
+        return mNow;
+    }
+
+    boolean isLocked() {
+        return mLocked;
+    }
+
+    int getRotations() {
+        return mRotations;
+    }
+
+    int getPacketsWritten() {
+        return mPacketsWritten;
+    }
+
+    int getNotificationsSent() {
+        return mNotificationsSent;
+    }
+
+    int getPacketsLost() {
+        return mPacketsLost;
+    }
+
+    int getRejectedWrites() {
+        return mRejectedWrites;
+    }
+
+    /**
+     * Sends a packet over the link. The packet occupies the link for the packet latency once the
+     * link is free, and may be lost.
+     *
+     * @param notBefore Virtual time before which the packet is not sent.
+     * @param delivery Runs when the packet arrives.
+     * @param lossy Whether the packet can be lost.
+     */
+    private void transmit(long notBefore, Runnable delivery, boolean lossy) {
+        long time = Math.max(notBefore, mLinkFreeAt) + mPacketLatencyMicros;
+        mLinkFreeAt = time;
+        if (lossy && mPacketsToDrop > 0) {
+            mPacketsToDrop--;
+            mPacketsLost++;
+            return;
+        }
+        if (lossy && mLossRate > 0 && mRandom.nextDouble() < mLossRate) {
+            mPacketsLost++;
+            return;
+        }
+        mTasks.add(new Task(time, mTaskSequence++, delivery));
+    }
+
+    /**
+     * Appends a written fragment to the receive buffer, and processes the ticket or the request
+     * once it has been received completely.
+     */
+    private void receive(byte[] fragment) {
+        if (mState == State.DISCONNECTED) {
+            return;
+        }
+        int count = Math.min(fragment.length, mMessage.length - mMessageLength);
+        System.arraycopy(fragment, 0, mMessage, mMessageLength, Math.max(count, 0));
+        mMessageLength += fragment.length;
+        if (mState == State.CONNECTED && mMessageLength == Cryptography.TICKET_LENGTH) {
+            processTicket();
+        } else if (mState == State.REQUEST_W && mMessageLength == REQUEST_LENGTH) {
+            processRequest();
+        }
+    }
+
+    private void processTicket() {
+        byte[] nonce = Arrays.copyOf(mMessage, Cryptography.NONCE_LENGTH);
+        mMessageLength = 0;
+        if (!isGreater(nonce, mMasterNonce)) {
+            return;
+        }
+        // The master nonce is updated before the ticket is authenticated.
+        System.arraycopy(nonce, 0, mMasterNonce, 0, Cryptography.NONCE_LENGTH);
+        byte[] sessionKey = mSecretBox.decrypt(Arrays.copyOfRange(mMessage,
+                Cryptography.NONCE_LENGTH, Cryptography.TICKET_LENGTH), nonce, mMasterKey);
+        if (sessionKey == null) {
+            return;
+        }
+        System.arraycopy(sessionKey, 0, mSessionKey, 0, Cryptography.KEY_LENGTH);
+        Arrays.fill(mSessionNonce, (byte) 0);
+        mState = State.REQUEST_W;
+        respond(mLowBattery ? LockResponseCode.TICKET_RCV_SUCCESS_LOW_BAT
+                : LockResponseCode.TICKET_RCV_SUCCESS, 0);
+    }
+
+    private void processRequest() {
+        byte[] nonce = Arrays.copyOf(mMessage, Cryptography.NONCE_LENGTH);
+        mMessageLength = 0;
+        if (!isGreater(nonce, mSessionNonce)) {
+            return;
+        }
+        // The session nonce is updated before the request is authenticated.
+        System.arraycopy(nonce, 0, mSessionNonce, 0, Cryptography.NONCE_LENGTH);
+        byte[] request = mSecretBox.decrypt(Arrays.copyOfRange(mMessage,
+                Cryptography.NONCE_LENGTH, REQUEST_LENGTH), nonce, mSessionKey);
+        if (request == null) {
+            return;
+        }
+        switch (request[0]) {
+            case ROTATE_CLOCKWISE:
+                mLocked = true;
+                mRotations++;
+                respond(LockResponseCode.LOCKED, mRotateDurationMicros);
+                break;
+            case ROTATE_COUNTER_CLOCKWISE:
+                mLocked = false;
+                mRotations++;
+                respond(LockResponseCode.UNLOCKED, mRotateDurationMicros);
+                break;
+            default:
+                respond(LockResponseCode.INVALID_REQUEST, 0);
+                break;
+        }
+    }
+
+    /**
+     * Encrypts a response code with the next session nonce and sends it.
+     *
+     * @param code The response code.
+     * @param delayMicros Time it takes before the response is sent.
+     */
+    private void respond(LockResponseCode code, long delayMicros) {
+        increment(mSessionNonce);
+        byte[] box = mSecretBox.encrypt(new byte[] {(byte) code.getIntValue()}, mSessionNonce,
+                mSessionKey);
+        byte[] response = new byte[LockProtocol.RESPONSE_LENGTH];
+        System.arraycopy(mSessionNonce, 0, response, 0, Cryptography.NONCE_LENGTH);
+        System.arraycopy(box, 0, response, Cryptography.NONCE_LENGTH, box.length);
+        if (mCorruptNextResponse) {
+            mCorruptNextResponse = false;
+            response[response.length - 1] ^= 1;
+        }
+        mLastResponse = response;
+        sendResponse(response, delayMicros);
+    }
+
+    /**
+     * Sends a response as notifications of at most <code>NOTIFICATION_LENGTH</code> bytes, the
+     * last notification is not padded.
+     */
+    private void sendResponse(byte[] response, long delayMicros) {
+        for (int offset = 0; offset < response.length; offset += NOTIFICATION_LENGTH) {
+            final byte[] notification = Arrays.copyOfRange(response, offset,
+                    Math.min(offset + NOTIFICATION_LENGTH, response.length));
+            mNotificationsSent++;
+            transmit(mNow + delayMicros, new Runnable() {
+                @Override
+                public void run() {
+                    if (mState != State.DISCONNECTED) {
+                        mListener.onNotification(notification);
+                    }
+                }
+            }, true);
+        }
+    }
+
+    /**
+     * Returns whether a is greater than b, both unsigned big endian numbers of the same length.
+     */
+    private static boolean isGreater(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int difference = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (difference != 0) {
+                return difference > 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Increments an unsigned big endian number, as increment_array in the firmware.
+     */
+    private static void increment(byte[] number) {
+        for (int i = number.length - 1; i >= 0; i--) {
+            if (++number[i] != 0) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.esloq.esloqapp.lock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link FrameCodec}.
+ */
+public class FrameCodecTest {
+
+    private ByteBufferPool mPool;
+
+    /**
+     * Fragments produced by the encoder and frames produced by the decoder.
+     */
+    private List<byte[]> mFragments;
+    private List<byte[]> mFrames;
+
+    private final FrameCodec.FragmentListener mFragmentListener =
+            new FrameCodec.FragmentListener() {
+        @Override
+        public void onFragment(ByteBuffer fragment) {
+            mFragments.add(toArray(fragment));
+        }
+    };
+
+    private final FrameCodec.FrameListener mFrameListener = new FrameCodec.FrameListener() {
+        @Override
+        public void onFrame(ByteBuffer frame) {
+            mFrames.add(toArray(frame));
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mPool = new ByteBufferPool(64, 4);
+        mFragments = new ArrayList<>();
+        mFrames = new ArrayList<>();
+    }
+
+    @Test
+    public void testRoundTripLengthPrefixed() {
+        int[] fragmentLengths = {1, 2, 3, 20, 185, 244};
+        int[] payloadLengths = {0, 1, 18, 19, 20, 41, 72, 500};
+        for (int fragmentLength : fragmentLengths) {
+            for (int payloadLength : payloadLengths) {
+                mFragments.clear();
+                mFrames.clear();
+                byte[] payload = payload(payloadLength);
+
+                FrameCodec.Encoder encoder = new FrameCodec.Encoder(mPool, true);
+                encoder.setFragmentLength(fragmentLength);
+                int count = encoder.encode(ByteBuffer.wrap(payload), mFragmentListener);
+                assertEquals(FrameCodec.fragmentCount(payloadLength + FrameCodec.HEADER_LENGTH,
+                        fragmentLength), count);
+                assertEquals(count, mFragments.size());
+
+                FrameCodec.Decoder decoder = new FrameCodec.Decoder(mPool, mFrameListener);
+                for (byte[] fragment : mFragments) {
+                    assertTrue(fragment.length <= fragmentLength);
+                    decoder.decode(fragment);
+                }
+                assertEquals(1, mFrames.size());
+                assertArrayEquals(payload, mFrames.get(0));
+                assertFalse(decoder.isFrameInProgress());
+            }
+        }
+    }
+
+    @Test
+    public void testHeaderSplitOverFragments() {
+        FrameCodec.Decoder decoder = new FrameCodec.Decoder(mPool, mFrameListener);
+        decoder.decode(new byte[] {0x01});
+        assertTrue(decoder.isFrameInProgress());
+        decoder.decode(new byte[] {0x02});
+        assertTrue(decoder.isFrameInProgress());
+        decoder.decode(new byte[0x0102]);
+        assertEquals(1, mFrames.size());
+        assertEquals(0x0102, mFrames.get(0).length);
+    }
+
+    @Test
+    public void testPaddingIsDiscarded() {
+        FrameCodec.Decoder decoder = new FrameCodec.Decoder(mPool, mFrameListener);
+        decoder.decode(new byte[] {0, 3, 7, 8, 9, 0, 0, 0});
+        decoder.decode(new byte[] {0, 1, 5, 0});
+        assertEquals(2, mFrames.size());
+        assertArrayEquals(new byte[] {7, 8, 9}, mFrames.get(0));
+        assertArrayEquals(new byte[] {5}, mFrames.get(1));
+    }
+
+    @Test
+    public void testLegacyFixedLengthResponse() {
+        // The lock sends a 41 byte response in three padded 20 byte notifications.
+        byte[] response = payload(41);
+        FrameCodec.Encoder encoder = new FrameCodec.Encoder(mPool, false);
+        encoder.encode(ByteBuffer.wrap(response), mFragmentListener);
+        assertEquals(3, mFragments.size());
+
+        FrameCodec.Decoder decoder = new FrameCodec.Decoder(mPool, 41, mFrameListener);
+        for (byte[] fragment : mFragments) {
+            decoder.decode(Arrays.copyOf(fragment, FrameCodec.DEFAULT_FRAGMENT_LENGTH));
+        }
+        assertEquals(1, mFrames.size());
+        assertArrayEquals(response, mFrames.get(0));
+        assertFalse(decoder.isFrameInProgress());
+    }
+
+    @Test
+    public void testResetDiscardsPartialFrame() {
+        FrameCodec.Decoder decoder = new FrameCodec.Decoder(mPool, 41, mFrameListener);
+        decoder.decode(new byte[20]);
+        assertTrue(decoder.isFrameInProgress());
+        decoder.reset();
+        assertFalse(decoder.isFrameInProgress());
+
+        byte[] response = payload(41);
+        decoder.decode(response);
+        assertEquals(1, mFrames.size());
+        assertArrayEquals(response, mFrames.get(0));
+    }
+
+    @Test
+    public void testBuffersAreReused() {
+        FrameCodec.Encoder encoder = new FrameCodec.Encoder(mPool, true);
+        FrameCodec.Decoder decoder = new FrameCodec.Decoder(mPool, mFrameListener);
+        for (int i = 0; i < 100; i++) {
+            mFragments.clear();
+            encoder.encode(ByteBuffer.wrap(payload(41)), mFragmentListener);
+            for (byte[] fragment : mFragments) {
+                decoder.decode(fragment);
+            }
+        }
+        assertEquals(100, mFrames.size());
+        assertTrue(mPool.getAllocatedCount() <= 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPayloadTooLong() {
+        new FrameCodec.Encoder(mPool, true).encode(
+                ByteBuffer.allocate(FrameCodec.MAX_PAYLOAD_LENGTH + 1), mFragmentListener);
+    }
+
+    private static byte[] payload(int length) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (i * 31 + 7);
+        }
+        return payload;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] array = new byte[buffer.remaining()];
+        buffer.get(array);
+        return array;
+    }
+}
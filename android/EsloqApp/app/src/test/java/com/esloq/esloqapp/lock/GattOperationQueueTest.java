@@ -0,0 +1,274 @@
+package com.esloq.esloqapp.lock;
+
+import android.os.Handler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link GattOperationQueue}.
+ */
+public class GattOperationQueueTest {
+
+    private static final UUID CHARACTERISTIC_UUID =
+            UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+    private static final UUID OTHER_CHARACTERISTIC_UUID =
+            UUID.fromString("0000fff2-0000-1000-8000-00805f9b34fb");
+    private static final long TIMEOUT_MS = 100;
+
+    /**
+     * Operation that records whether it was executed and whether it timed out.
+     */
+    private static class TestOperation extends GattOperationQueue.Operation {
+
+        private final boolean mResult;
+        boolean mExecuted;
+        boolean mTimedOut;
+
+        TestOperation(GattOperationQueue.Type type, UUID uuid, boolean result) {
+            super(type, uuid, TIMEOUT_MS);
+            mResult = result;
+        }
+
+        TestOperation(UUID uuid) {
+            this(GattOperationQueue.Type.WRITE_CHARACTERISTIC, uuid, true);
+        }
+
+        @Override
+        boolean execute() {
+            mExecuted = true;
+            return mResult;
+        }
+
+        @Override
+        void onTimeout() {
+            mTimedOut = true;
+        }
+    }
+
+    /**
+     * A runnable that was posted to the fake handler, and the time at which it runs.
+     */
+    private static class Scheduled {
+
+        final Runnable mRunnable;
+        final long mTime;
+
+        Scheduled(Runnable runnable, long time) {
+            mRunnable = runnable;
+            mTime = time;
+        }
+    }
+
+    @Mock
+    private Handler mHandler;
+
+    /**
+     * The runnables that were posted to the fake handler and not yet run or removed.
+     */
+    private List<Scheduled> mScheduled;
+
+    /**
+     * Time of the fake handler, in milliseconds.
+     */
+    private long mNow;
+
+    private GattOperationQueue mQueue;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mScheduled = new ArrayList<>();
+        mNow = 0;
+        when(mHandler.postDelayed(any(Runnable.class), anyLong())).thenAnswer(
+                new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                Object[] arguments = invocation.getArguments();
+                mScheduled.add(new Scheduled((Runnable) arguments[0],
+                        mNow + (Long) arguments[1]));
+                return true;
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                Runnable runnable = (Runnable) invocation.getArguments()[0];
+                Iterator<Scheduled> iterator = mScheduled.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().mRunnable == runnable) {
+                        iterator.remove();
+                    }
+                }
+                return null;
+            }
+        }).when(mHandler).removeCallbacks(any(Runnable.class));
+        mQueue = new GattOperationQueue(mHandler);
+    }
+
+    @Test
+    public void testEnqueue_runsOneOperationAtATime() {
+        TestOperation first = new TestOperation(CHARACTERISTIC_UUID);
+        TestOperation second = new TestOperation(OTHER_CHARACTERISTIC_UUID);
+
+        mQueue.enqueue(first);
+        mQueue.enqueue(second);
+
+        assertTrue(first.mExecuted);
+        assertFalse(second.mExecuted);
+        assertEquals(2, mQueue.getQueueDepth());
+
+        mQueue.onOperationCompleted(GattOperationQueue.Type.WRITE_CHARACTERISTIC,
+                CHARACTERISTIC_UUID);
+
+        assertTrue(second.mExecuted);
+        assertEquals(1, mQueue.getQueueDepth());
+        assertEquals(1, mQueue.getCompletedCount());
+        assertEquals(2, mQueue.getMaxQueueDepth());
+    }
+
+    @Test
+    public void testOnOperationCompleted_otherOperation_ignored() {
+        TestOperation first = new TestOperation(CHARACTERISTIC_UUID);
+        TestOperation second = new TestOperation(OTHER_CHARACTERISTIC_UUID);
+        mQueue.enqueue(first);
+        mQueue.enqueue(second);
+
+        // Callbacks of another characteristic or of another type do not complete the head.
+        mQueue.onOperationCompleted(GattOperationQueue.Type.WRITE_CHARACTERISTIC,
+                OTHER_CHARACTERISTIC_UUID);
+        mQueue.onOperationCompleted(GattOperationQueue.Type.WRITE_DESCRIPTOR,
+                CHARACTERISTIC_UUID);
+        mQueue.onOperationCompleted(GattOperationQueue.Type.REQUEST_MTU, null);
+
+        assertFalse(second.mExecuted);
+        assertEquals(2, mQueue.getQueueDepth());
+        assertEquals(0, mQueue.getCompletedCount());
+        assertEquals(3, mQueue.getIgnoredCount());
+    }
+
+    @Test
+    public void testTimeout_skipsToNextOperation() {
+        TestOperation first = new TestOperation(CHARACTERISTIC_UUID);
+        TestOperation second = new TestOperation(OTHER_CHARACTERISTIC_UUID);
+        mQueue.enqueue(first);
+        mQueue.enqueue(second);
+
+        advanceTime(TIMEOUT_MS - 1);
+        assertFalse(first.mTimedOut);
+        assertFalse(second.mExecuted);
+
+        advanceTime(1);
+        assertTrue(first.mTimedOut);
+        assertTrue(second.mExecuted);
+        assertEquals(1, mQueue.getTimeoutCount());
+
+        // The late callback of the operation that timed out does not complete the next one.
+        mQueue.onOperationCompleted(GattOperationQueue.Type.WRITE_CHARACTERISTIC,
+                CHARACTERISTIC_UUID);
+        assertEquals(1, mQueue.getQueueDepth());
+        assertEquals(1, mQueue.getIgnoredCount());
+
+        mQueue.onOperationCompleted(GattOperationQueue.Type.WRITE_CHARACTERISTIC,
+                OTHER_CHARACTERISTIC_UUID);
+        assertEquals(0, mQueue.getQueueDepth());
+        assertTrue(mScheduled.isEmpty());
+    }
+
+    @Test
+    public void testCompleted_cancelsTimeout() {
+        TestOperation operation = new TestOperation(CHARACTERISTIC_UUID);
+        mQueue.enqueue(operation);
+
+        mQueue.onOperationCompleted(GattOperationQueue.Type.WRITE_CHARACTERISTIC,
+                CHARACTERISTIC_UUID);
+        advanceTime(TIMEOUT_MS);
+
+        assertFalse(operation.mTimedOut);
+        assertEquals(0, mQueue.getTimeoutCount());
+    }
+
+    @Test
+    public void testExecuteFails_skipsToNextOperation() {
+        TestOperation failing = new TestOperation(GattOperationQueue.Type.WRITE_DESCRIPTOR,
+                CHARACTERISTIC_UUID, false);
+        TestOperation next = new TestOperation(OTHER_CHARACTERISTIC_UUID);
+        mQueue.enqueue(new TestOperation(CHARACTERISTIC_UUID));
+        mQueue.enqueue(failing);
+        mQueue.enqueue(next);
+
+        mQueue.onOperationCompleted(GattOperationQueue.Type.WRITE_CHARACTERISTIC,
+                CHARACTERISTIC_UUID);
+
+        assertTrue(failing.mExecuted);
+        assertTrue(next.mExecuted);
+        assertEquals(1, mQueue.getFailedCount());
+        assertEquals(1, mQueue.getQueueDepth());
+        assertEquals(1, mScheduled.size());
+    }
+
+    @Test
+    public void testClear_dropsPendingOperations() {
+        TestOperation first = new TestOperation(CHARACTERISTIC_UUID);
+        TestOperation second = new TestOperation(OTHER_CHARACTERISTIC_UUID);
+        mQueue.enqueue(first);
+        mQueue.enqueue(second);
+
+        mQueue.clear();
+
+        assertEquals(0, mQueue.getQueueDepth());
+        assertTrue(mScheduled.isEmpty());
+        advanceTime(TIMEOUT_MS);
+        assertFalse(first.mTimedOut);
+
+        // A late callback of the cleared operation does not start the dropped operation.
+        mQueue.onOperationCompleted(GattOperationQueue.Type.WRITE_CHARACTERISTIC,
+                CHARACTERISTIC_UUID);
+        assertFalse(second.mExecuted);
+
+        // The queue accepts operations of a new connection.
+        TestOperation third = new TestOperation(CHARACTERISTIC_UUID);
+        mQueue.enqueue(third);
+        assertTrue(third.mExecuted);
+        assertEquals(1, mQueue.getQueueDepth());
+    }
+
+    /**
+     * Advances the time of the fake handler and runs the runnables that are due.
+     *
+     * @param ms Milliseconds to advance.
+     */
+    private void advanceTime(long ms) {
+        mNow += ms;
+        while (true) {
+            Scheduled due = null;
+            for (Scheduled scheduled : mScheduled) {
+                if (scheduled.mTime <= mNow && (due == null || scheduled.mTime < due.mTime)) {
+                    due = scheduled;
+                }
+            }
+            if (due == null) {
+                return;
+            }
+            mScheduled.remove(due);
+            due.mRunnable.run();
+        }
+    }
+}
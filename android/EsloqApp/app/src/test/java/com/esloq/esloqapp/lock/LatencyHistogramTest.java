@@ -0,0 +1,99 @@
+package com.esloq.esloqapp.lock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Largest relative error of a reported value.
+     */
+    private static final double PRECISION = 1.0 / (1 << (LatencyHistogram.SUB_BUCKET_BITS - 1));
+
+    private LatencyHistogram mHistogram;
+
+    @Before
+    public void setUp() {
+        mHistogram = new LatencyHistogram();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, mHistogram.getTotalCount());
+        assertEquals(0, mHistogram.getMin());
+        assertEquals(0, mHistogram.getMax());
+        assertEquals(0, mHistogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        for (int i = 1; i <= 10; i++) {
+            mHistogram.record(i);
+        }
+        assertEquals(10, mHistogram.getTotalCount());
+        assertEquals(1, mHistogram.getMin());
+        assertEquals(10, mHistogram.getMax());
+        assertEquals(5, mHistogram.getValueAtPercentile(50));
+        assertEquals(9, mHistogram.getValueAtPercentile(90));
+        assertEquals(10, mHistogram.getValueAtPercentile(100));
+        assertEquals(1, mHistogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testRelativePrecision() {
+        for (long value = 1; value <= LatencyHistogram.MAX_VALUE; value = value * 3 / 2 + 1) {
+            mHistogram.reset();
+            mHistogram.record(value);
+            mHistogram.record(LatencyHistogram.MAX_VALUE);
+            long reported = mHistogram.getValueAtPercentile(50);
+            assertTrue("value " + value + " reported as " + reported, reported >= value);
+            assertTrue("value " + value + " reported as " + reported,
+                    reported - value <= value * PRECISION);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        // Latencies of 1 to 1000 ms, in microseconds.
+        for (int i = 1; i <= 1000; i++) {
+            mHistogram.record(i * 1000L);
+        }
+        assertClose(500000, mHistogram.getValueAtPercentile(50));
+        assertClose(900000, mHistogram.getValueAtPercentile(90));
+        assertClose(990000, mHistogram.getValueAtPercentile(99));
+        assertEquals(1000000, mHistogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testLargeValuesAreClamped() {
+        mHistogram.record(Long.MAX_VALUE);
+        assertEquals(LatencyHistogram.MAX_VALUE, mHistogram.getMax());
+        assertEquals(LatencyHistogram.MAX_VALUE, mHistogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testReset() {
+        mHistogram.record(42);
+        mHistogram.reset();
+        assertEquals(0, mHistogram.getTotalCount());
+        assertEquals(0, mHistogram.getMax());
+        mHistogram.record(7);
+        assertEquals(7, mHistogram.getMin());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeValue() {
+        mHistogram.record(-1);
+    }
+
+    private static void assertClose(long expected, long actual) {
+        assertTrue("expected " + expected + ", actual " + actual,
+                actual >= expected && actual - expected <= expected * PRECISION);
+    }
+}
@@ -0,0 +1,319 @@
+package com.esloq.esloqapp.lock;
+
+import com.esloq.esloqapp.CryptoSession;
+import com.esloq.esloqapp.Cryptography;
+import com.esloq.esloqapp.JavaSecretBox;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link LockProtocol} against a {@link FakeEsloqLock}, in virtual time.
+ */
+public class LockProtocolTest {
+
+    /**
+     * Records the events of the protocol.
+     */
+    private static class RecordingListener implements LockProtocol.Listener {
+
+        final List<String> mEvents = new ArrayList<>();
+
+        @Override
+        public void onCommunicationReady() {
+            mEvents.add("ready");
+        }
+
+        @Override
+        public void onTicketAccepted(boolean lowBattery) {
+            mEvents.add(lowBattery ? "ticket low battery" : "ticket");
+        }
+
+        @Override
+        public void onLocked() {
+            mEvents.add("locked");
+        }
+
+        @Override
+        public void onUnlocked() {
+            mEvents.add("unlocked");
+        }
+
+        @Override
+        public void onInvalidRequest() {
+            mEvents.add("invalid request");
+        }
+
+        @Override
+        public void onResponseDropped(String reason) {
+            mEvents.add("dropped");
+        }
+
+        String takeLast() {
+            return mEvents.isEmpty() ? null : mEvents.remove(mEvents.size() - 1);
+        }
+    }
+
+    private static final long PACKET_LATENCY_MICROS = 7500;
+    private static final long ROTATE_DURATION_MICROS = 400000;
+
+    private final Random mRandom = new Random(1);
+    private FakeEsloqLock mLock;
+    private RecordingListener mListener;
+    private LockProtocol mProtocol;
+
+    @Before
+    public void setUp() {
+        byte[] masterKey = new byte[Cryptography.KEY_LENGTH];
+        mRandom.nextBytes(masterKey);
+        mLock = new FakeEsloqLock(masterKey, 42);
+        mLock.setPacketLatencyMicros(PACKET_LATENCY_MICROS);
+        mLock.setRotateDurationMicros(ROTATE_DURATION_MICROS);
+        mListener = new RecordingListener();
+        mProtocol = new LockProtocol(mLock, mListener);
+    }
+
+    @Test
+    public void testUnlockAndLock() {
+        connect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+
+        assertTrue(mProtocol.sendTicket(newSession()));
+        mLock.runUntilIdle();
+        assertEquals("ticket", mListener.takeLast());
+
+        assertTrue(mProtocol.sendRequest(LockRequestCode.ROTATE_COUNTER_CLOCKWISE));
+        mLock.runUntilIdle();
+        assertEquals("unlocked", mListener.takeLast());
+        assertFalse(mLock.isLocked());
+
+        assertTrue(mProtocol.sendRequest(LockRequestCode.ROTATE_CLOCKWISE));
+        mLock.runUntilIdle();
+        assertEquals("locked", mListener.takeLast());
+        assertTrue(mLock.isLocked());
+        assertEquals(2, mLock.getRotations());
+        assertEquals(0, mLock.getRejectedWrites());
+    }
+
+    @Test
+    public void testLowBattery() {
+        mLock.setLowBattery(true);
+        connect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+
+        mProtocol.sendTicket(newSession());
+        mLock.runUntilIdle();
+        assertEquals("ticket low battery", mListener.takeLast());
+    }
+
+    @Test
+    public void testRequestWithoutTicket_isNotSent() {
+        connect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+
+        assertFalse(mProtocol.sendRequest(LockRequestCode.ROTATE_COUNTER_CLOCKWISE));
+        assertEquals(0, mLock.getPacketsWritten());
+    }
+
+    @Test
+    public void testStaleTicket_isIgnored() {
+        CryptoSession staleSession = newSession();
+        connect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+        mProtocol.sendTicket(newSession());
+        mLock.runUntilIdle();
+        assertEquals("ticket", mListener.takeLast());
+
+        // The lock only accepts tickets with a nonce above the last ticket it accepted.
+        reconnect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+        mProtocol.sendTicket(staleSession);
+        mLock.runUntilIdle();
+        assertTrue(mListener.mEvents.isEmpty());
+
+        mProtocol.sendTicket(newSession());
+        mLock.runUntilIdle();
+        assertEquals("ticket", mListener.takeLast());
+    }
+
+    @Test
+    public void testTamperedResponse_isDropped() {
+        connect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+        mProtocol.sendTicket(newSession());
+        mLock.runUntilIdle();
+        assertEquals("ticket", mListener.takeLast());
+
+        mLock.corruptNextResponse();
+        mProtocol.sendRequest(LockRequestCode.ROTATE_COUNTER_CLOCKWISE);
+        mLock.runUntilIdle();
+        assertEquals("dropped", mListener.takeLast());
+        assertTrue(mListener.mEvents.isEmpty());
+
+        // The lock and the app share the nonce counter, the next request reuses the nonce of the
+        // dropped response and is ignored by the lock. A new ticket starts a new session.
+        mProtocol.sendRequest(LockRequestCode.ROTATE_CLOCKWISE);
+        mLock.runUntilIdle();
+        assertTrue(mListener.mEvents.isEmpty());
+
+        reconnect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+        mProtocol.sendTicket(newSession());
+        mLock.runUntilIdle();
+        mProtocol.sendRequest(LockRequestCode.ROTATE_CLOCKWISE);
+        mLock.runUntilIdle();
+        assertEquals(Arrays.asList("ticket", "locked"), mListener.mEvents);
+    }
+
+    @Test
+    public void testReplayedResponse_isDropped() {
+        connect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+        mProtocol.sendTicket(newSession());
+        mLock.runUntilIdle();
+        mProtocol.sendRequest(LockRequestCode.ROTATE_COUNTER_CLOCKWISE);
+        mLock.runUntilIdle();
+        assertEquals("unlocked", mListener.takeLast());
+
+        mLock.replayLastResponse();
+        mLock.runUntilIdle();
+        assertEquals("dropped", mListener.takeLast());
+        assertEquals(1, mLock.getRotations());
+    }
+
+    @Test
+    public void testResponseOnNewLink_withoutTicket_isDropped() {
+        connect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+        mProtocol.sendTicket(newSession());
+        mLock.runUntilIdle();
+        mListener.mEvents.clear();
+
+        // The session ends with the link.
+        reconnect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+        mLock.replayLastResponse();
+        mLock.runUntilIdle();
+        assertEquals(Arrays.asList("dropped"), mListener.mEvents);
+    }
+
+    @Test
+    public void testLostFragment_recoversAfterReconnect() {
+        connect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+        mProtocol.sendTicket(newSession());
+        mLock.runUntilIdle();
+        assertEquals("ticket", mListener.takeLast());
+
+        // The lock concatenates the rest of the request with the next request, neither can be
+        // authenticated.
+        mLock.dropNextPackets(1);
+        mProtocol.sendRequest(LockRequestCode.ROTATE_COUNTER_CLOCKWISE);
+        mLock.runUntilIdle();
+        mProtocol.sendRequest(LockRequestCode.ROTATE_COUNTER_CLOCKWISE);
+        mLock.runUntilIdle();
+        assertTrue(mListener.mEvents.isEmpty());
+        assertEquals(0, mLock.getRotations());
+
+        reconnect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+        mProtocol.sendTicket(newSession());
+        mLock.runUntilIdle();
+        mProtocol.sendRequest(LockRequestCode.ROTATE_COUNTER_CLOCKWISE);
+        mLock.runUntilIdle();
+        assertEquals(Arrays.asList("ticket", "unlocked"), mListener.mEvents);
+    }
+
+    @Test
+    public void testPacketsPerUnlock() {
+        connect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+        long start = mLock.getTimeMicros();
+        unlock();
+
+        // Ticket in 4 writes, request in 3 writes, both responses in 3 notifications.
+        assertEquals(7, mProtocol.getPacketsSent());
+        assertEquals(6, mProtocol.getPacketsReceived());
+        assertEquals(13 * PACKET_LATENCY_MICROS + ROTATE_DURATION_MICROS,
+                mLock.getTimeMicros() - start);
+    }
+
+    @Test
+    public void testLargerFragments_needFewerPackets() {
+        connect(Cryptography.TICKET_LENGTH);
+        long start = mLock.getTimeMicros();
+        unlock();
+
+        assertEquals(2, mProtocol.getPacketsSent());
+        assertEquals(6, mProtocol.getPacketsReceived());
+        assertEquals(8 * PACKET_LATENCY_MICROS + ROTATE_DURATION_MICROS,
+                mLock.getTimeMicros() - start);
+    }
+
+    @Test
+    public void testThroughputWithPacketLoss() {
+        final int cycles = 100;
+        mLock.setLossRate(0.02);
+        LatencyHistogram histogram = new LatencyHistogram();
+        int attempts = 0;
+
+        for (int i = 0; i < cycles; i++) {
+            long start = mLock.getTimeMicros();
+            do {
+                attempts++;
+                mListener.mEvents.clear();
+                reconnect(FrameCodec.DEFAULT_FRAGMENT_LENGTH);
+                mProtocol.sendTicket(newSession());
+                mLock.runUntilIdle();
+                if (mListener.mEvents.contains("ticket")) {
+                    mProtocol.sendRequest(LockRequestCode.ROTATE_COUNTER_CLOCKWISE);
+                    mLock.runUntilIdle();
+                }
+            } while (!mListener.mEvents.contains("unlocked"));
+            mListener.mEvents.clear();
+            histogram.record(mLock.getTimeMicros() - start);
+        }
+
+        // Every unlock is counted once, lost packets cost a reconnect and a new ticket.
+        assertEquals(cycles, histogram.getTotalCount());
+        assertTrue(mLock.getPacketsLost() > 0);
+        assertTrue(attempts > cycles);
+        long fastest = 14 * PACKET_LATENCY_MICROS + ROTATE_DURATION_MICROS;
+        assertEquals(fastest, histogram.getMin());
+        assertTrue(histogram.getValueAtPercentile(50) <= fastest + fastest / 16);
+        assertTrue(histogram.getMax() > 2 * fastest);
+    }
+
+    /**
+     * Connects the link and waits until it is ready.
+     */
+    private void connect(int fragmentLength) {
+        mLock.connect(fragmentLength);
+        mLock.runUntilIdle();
+        assertEquals("ready", mListener.takeLast());
+    }
+
+    /**
+     * Drops the link and connects it again.
+     */
+    private void reconnect(int fragmentLength) {
+        mLock.dropLink();
+        connect(fragmentLength);
+    }
+
+    /**
+     * Sends a new ticket and a rotate counter clockwise request.
+     */
+    private void unlock() {
+        mProtocol.sendTicket(newSession());
+        mLock.runUntilIdle();
+        mProtocol.sendRequest(LockRequestCode.ROTATE_COUNTER_CLOCKWISE);
+        mLock.runUntilIdle();
+        assertEquals(Arrays.asList("ticket", "unlocked"), mListener.mEvents);
+    }
+
+    /**
+     * Returns a session with a new session key and a ticket that was issued for it.
+     */
+    private CryptoSession newSession() {
+        byte[] sessionKey = new byte[Cryptography.KEY_LENGTH];
+        mRandom.nextBytes(sessionKey);
+        return new CryptoSession(sessionKey, mLock.issueTicket(sessionKey), new JavaSecretBox());
+    }
+}
@@ -0,0 +1,127 @@
+package com.esloq.esloqapp.lock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link UnlockTracer}.
+ */
+public class UnlockTracerTest {
+
+    /**
+     * Tracer with a clock that is controlled by the test.
+     */
+    private static class TestTracer extends UnlockTracer {
+
+        long mNowNanos = 1;
+
+        @Override
+        long elapsedRealtimeNanos() {
+            return mNowNanos;
+        }
+    }
+
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    private TestTracer mTracer;
+
+    @Before
+    public void setUp() {
+        mTracer = new TestTracer();
+        mTracer.setEnabled(true);
+    }
+
+    @Test
+    public void testNewTracer_disabled() {
+        TestTracer tracer = new TestTracer();
+        tracer.begin(UnlockTracer.Phase.ROTATE_ACK);
+        tracer.end(UnlockTracer.Phase.ROTATE_ACK);
+        assertEquals(0, tracer.getCount(UnlockTracer.Phase.ROTATE_ACK));
+    }
+
+    @Test
+    public void testBeginEnd() {
+        mTracer.begin(UnlockTracer.Phase.CONNECT_GATT);
+        mTracer.mNowNanos += 250 * NANOS_PER_MILLI;
+        mTracer.end(UnlockTracer.Phase.CONNECT_GATT);
+
+        assertEquals(1, mTracer.getCount(UnlockTracer.Phase.CONNECT_GATT));
+        assertTrue(mTracer.dump().contains("CONNECT_GATT n=1 p50=250.0"));
+    }
+
+    @Test
+    public void testEndWithoutBegin_isIgnored() {
+        mTracer.end(UnlockTracer.Phase.TICKET_ACK);
+        assertEquals(0, mTracer.getCount(UnlockTracer.Phase.TICKET_ACK));
+
+        // A phase is only recorded once per begin.
+        mTracer.begin(UnlockTracer.Phase.TICKET_ACK);
+        mTracer.end(UnlockTracer.Phase.TICKET_ACK);
+        mTracer.end(UnlockTracer.Phase.TICKET_ACK);
+        assertEquals(1, mTracer.getCount(UnlockTracer.Phase.TICKET_ACK));
+    }
+
+    @Test
+    public void testDisabled() {
+        mTracer.setEnabled(false);
+        mTracer.begin(UnlockTracer.Phase.ROTATE_ACK);
+        mTracer.end(UnlockTracer.Phase.ROTATE_ACK);
+        assertEquals(0, mTracer.getCount(UnlockTracer.Phase.ROTATE_ACK));
+
+        // A phase that was in progress when the tracer was disabled is dropped.
+        mTracer.setEnabled(true);
+        mTracer.begin(UnlockTracer.Phase.ROTATE_ACK);
+        mTracer.setEnabled(false);
+        mTracer.setEnabled(true);
+        mTracer.end(UnlockTracer.Phase.ROTATE_ACK);
+        assertEquals(0, mTracer.getCount(UnlockTracer.Phase.ROTATE_ACK));
+    }
+
+    @Test
+    public void testTakeReport_afterBatch() {
+        for (int i = 0; i < UnlockTracer.BATCH_SIZE - 1; i++) {
+            traceRotate(100);
+        }
+        assertNull(mTracer.takeReport());
+
+        traceRotate(100);
+        String report = mTracer.takeReport();
+        assertNotNull(report);
+        assertTrue(report.contains("ROTATE_ACK n=" + UnlockTracer.BATCH_SIZE));
+
+        // The next batch starts empty.
+        assertEquals(0, mTracer.getCount(UnlockTracer.Phase.ROTATE_ACK));
+        assertNull(mTracer.takeReport());
+    }
+
+    @Test
+    public void testTakeReport_disabled() {
+        for (int i = 0; i < UnlockTracer.BATCH_SIZE; i++) {
+            traceRotate(100);
+        }
+        mTracer.setEnabled(false);
+
+        // Nothing is uploaded while the tracer is disabled.
+        assertNull(mTracer.takeReport());
+    }
+
+    @Test
+    public void testDump_skipsPhasesWithoutData() {
+        traceRotate(100);
+        String report = mTracer.dump();
+        assertTrue(report.contains("ROTATE_ACK"));
+        assertFalse(report.contains("BIND_SERVICE"));
+    }
+
+    private void traceRotate(long millis) {
+        mTracer.begin(UnlockTracer.Phase.ROTATE_ACK);
+        mTracer.mNowNanos += millis * NANOS_PER_MILLI;
+        mTracer.end(UnlockTracer.Phase.ROTATE_ACK);
+    }
+}
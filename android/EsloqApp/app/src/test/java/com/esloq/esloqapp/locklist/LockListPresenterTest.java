@@ -73,6 +73,12 @@ public class LockListPresenterTest {
         verify(mLockListView).showLockDetails(LOCK_MAC, LOCK_NAME);
     }
 
+    @Test
+    public void testPrefetchSessionKeys() {
+        mLockListPresenter.prefetchSessionKeys();
+        verify(mLockDataRepository).prefetchSessionKeys();
+    }
+
     @Test
     public void testOpenLockManagement() throws Exception {
         mLockListPresenter.openLockDetails(LOCK_MAC, LOCK_NAME);
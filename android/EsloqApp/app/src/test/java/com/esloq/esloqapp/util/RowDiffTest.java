@@ -0,0 +1,167 @@
+package com.esloq.esloqapp.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link RowDiff}.
+ */
+public class RowDiffTest {
+
+    /**
+     * Applies the differences to a copy of the old rows, as a RecyclerView does.
+     */
+    private static class ApplyingCallback implements RowDiff.Callback {
+
+        final List<Long> mIds = new ArrayList<>();
+        final List<Long> mHashes = new ArrayList<>();
+        final List<String> mEvents = new ArrayList<>();
+        private final long[] mNewIds;
+        private final long[] mNewHashes;
+        private int mApplied;
+
+        ApplyingCallback(long[] oldIds, long[] oldHashes, long[] newIds, long[] newHashes) {
+            for (int i = 0; i < oldIds.length; i++) {
+                mIds.add(oldIds[i]);
+                mHashes.add(oldHashes[i]);
+            }
+            mNewIds = newIds;
+            mNewHashes = newHashes;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            mEvents.add("inserted " + position + " " + count);
+            for (int i = 0; i < count; i++) {
+                // Inserted rows are at the same position in the new list.
+                mIds.add(position + i, mNewIds[position + i]);
+                mHashes.add(position + i, mNewHashes[position + i]);
+            }
+            mApplied++;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mEvents.add("removed " + position + " " + count);
+            for (int i = 0; i < count; i++) {
+                mIds.remove(position);
+                mHashes.remove(position);
+            }
+            mApplied++;
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            mEvents.add("changed " + position + " " + count);
+            for (int i = 0; i < count; i++) {
+                assertEquals(mNewIds[position + i], (long) mIds.get(position + i));
+                mHashes.set(position + i, mNewHashes[position + i]);
+            }
+            mApplied++;
+        }
+    }
+
+    @Test
+    public void testSameRows_noDifferences() {
+        long[] ids = {1, 2, 3};
+        assertTrue(RowDiff.compute(ids, ids, ids, ids).isEmpty());
+    }
+
+    @Test
+    public void testNewRowsAtTop_areInserted() {
+        ApplyingCallback callback = diff(new long[] {3, 2, 1}, new long[] {5, 4, 3, 2, 1});
+        assertEquals(Arrays.asList("inserted 0 2"), callback.mEvents);
+    }
+
+    @Test
+    public void testRemovedAndChangedRows() {
+        long[] oldIds = {1, 2, 3, 4, 5};
+        long[] newIds = {1, 3, 5, 6};
+        long[] oldHashes = {10, 20, 30, 40, 50};
+        long[] newHashes = {10, 31, 50, 60};
+        ApplyingCallback callback = new ApplyingCallback(oldIds, oldHashes, newIds, newHashes);
+        RowDiff.compute(oldIds, oldHashes, newIds, newHashes).dispatch(callback);
+
+        assertEquals(Arrays.asList("removed 1 1", "changed 1 1", "removed 2 1", "inserted 3 1"),
+                callback.mEvents);
+        assertRows(callback, newIds, newHashes);
+    }
+
+    @Test
+    public void testRandomLists_resultInNewList() {
+        Random random = new Random(42);
+        for (int run = 0; run < 200; run++) {
+            long[] oldIds = randomIds(random);
+            long[] newIds = randomIds(random);
+            long[] oldHashes = randomHashes(random, oldIds.length);
+            long[] newHashes = randomHashes(random, newIds.length);
+            ApplyingCallback callback = new ApplyingCallback(oldIds, oldHashes, newIds,
+                    newHashes);
+            RowDiff.compute(oldIds, oldHashes, newIds, newHashes).dispatch(callback);
+            assertRows(callback, newIds, newHashes);
+        }
+    }
+
+    @Test
+    public void testLargeLists_areReplaced() {
+        long[] oldIds = new long[2000];
+        long[] newIds = new long[1000];
+        for (int i = 0; i < newIds.length; i++) {
+            newIds[i] = i;
+        }
+        ApplyingCallback callback = diff(oldIds, newIds);
+        assertEquals(Arrays.asList("removed 0 2000", "inserted 0 1000"), callback.mEvents);
+    }
+
+    private static ApplyingCallback diff(long[] oldIds, long[] newIds) {
+        long[] oldHashes = new long[oldIds.length];
+        long[] newHashes = new long[newIds.length];
+        ApplyingCallback callback = new ApplyingCallback(oldIds, oldHashes, newIds, newHashes);
+        RowDiff.compute(oldIds, oldHashes, newIds, newHashes).dispatch(callback);
+        assertRows(callback, newIds, newHashes);
+        return callback;
+    }
+
+    private static void assertRows(ApplyingCallback callback, long[] ids, long[] hashes) {
+        assertEquals(ids.length, callback.mIds.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], (long) callback.mIds.get(i));
+            assertEquals(hashes[i], (long) callback.mHashes.get(i));
+        }
+    }
+
+    /**
+     * Returns up to 30 distinct ids out of 40, in random order.
+     */
+    private static long[] randomIds(Random random) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = 0; id < 40; id++) {
+            if (random.nextInt(4) != 0) {
+                ids.add(id);
+            }
+        }
+        Collections.shuffle(ids, random);
+        int size = random.nextInt(Math.min(30, ids.size()) + 1);
+        long[] result = new long[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    private static long[] randomHashes(Random random, int size) {
+        long[] hashes = new long[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = random.nextInt(2);
+        }
+        return hashes;
+    }
+}
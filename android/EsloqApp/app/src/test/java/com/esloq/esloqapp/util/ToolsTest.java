@@ -0,0 +1,88 @@
+package com.esloq.esloqapp.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link Tools}.
+ */
+public class ToolsTest {
+
+    private static final int NONCE_LENGTH = 24;
+
+    @Test
+    public void testIncrementByteArray() {
+        byte[] array = new byte[NONCE_LENGTH];
+        Tools.incrementByteArray(array);
+
+        byte[] expected = new byte[NONCE_LENGTH];
+        expected[NONCE_LENGTH - 1] = 1;
+        assertArrayEquals(expected, array);
+    }
+
+    @Test
+    public void testIncrementByteArray_unsignedBytes() {
+        // 0x7F is not the largest value of a byte, incrementing it does not carry.
+        byte[] array = new byte[NONCE_LENGTH];
+        array[NONCE_LENGTH - 1] = 0x7F;
+        Tools.incrementByteArray(array);
+
+        byte[] expected = new byte[NONCE_LENGTH];
+        expected[NONCE_LENGTH - 1] = (byte) 0x80;
+        assertArrayEquals(expected, array);
+    }
+
+    @Test
+    public void testIncrementByteArray_carry() {
+        byte[] array = new byte[NONCE_LENGTH];
+        array[NONCE_LENGTH - 3] = 0x12;
+        array[NONCE_LENGTH - 2] = (byte) 0xFF;
+        array[NONCE_LENGTH - 1] = (byte) 0xFF;
+        Tools.incrementByteArray(array);
+
+        byte[] expected = new byte[NONCE_LENGTH];
+        expected[NONCE_LENGTH - 3] = 0x13;
+        assertArrayEquals(expected, array);
+    }
+
+    @Test
+    public void testIncrementByteArray_carryIntoFirstByte() {
+        byte[] array = new byte[NONCE_LENGTH];
+        for (int i = 1; i < NONCE_LENGTH; i++) {
+            array[i] = (byte) 0xFF;
+        }
+        Tools.incrementByteArray(array);
+
+        byte[] expected = new byte[NONCE_LENGTH];
+        expected[0] = 1;
+        assertArrayEquals(expected, array);
+    }
+
+    @Test
+    public void testIncrementByteArray_wrapsAround() {
+        byte[] array = new byte[NONCE_LENGTH];
+        for (int i = 0; i < NONCE_LENGTH; i++) {
+            array[i] = (byte) 0xFF;
+        }
+        Tools.incrementByteArray(array);
+        assertArrayEquals(new byte[NONCE_LENGTH], array);
+    }
+
+    @Test
+    public void testIncrementByteArray_isMonotonic() {
+        // Every increment gives a larger unsigned number, across byte boundaries.
+        byte[] array = new byte[NONCE_LENGTH];
+        long expected = 0;
+        for (int i = 0; i < 0x20000; i++) {
+            Tools.incrementByteArray(array);
+            expected++;
+            long actual = 0;
+            for (int j = NONCE_LENGTH - 8; j < NONCE_LENGTH; j++) {
+                actual = (actual << 8) | (array[j] & 0xFF);
+            }
+            assertEquals(expected, actual);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+# -*- coding: utf-8 -*-
+from __future__ import unicode_literals
+
+from django.db import migrations, models
+
+
+class Migration(migrations.Migration):
+
+    dependencies = [
+        ('esloq', '0002_auto_20161009_1348'),
+    ]
+
+    operations = [
+        migrations.AddField(
+            model_name='log',
+            name='request_id',
+            field=models.CharField(blank=True, max_length=36, null=True, unique=True),
+        ),
+    ]
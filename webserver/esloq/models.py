@@ -82,6 +82,7 @@ class Log(models.Model):
     user_id = models.ForeignKey(EsloqUser)
     access_time = models.PositiveIntegerField(default=time)
     lock_state = models.BooleanField()
+    request_id = models.CharField(max_length=36, unique=True, blank=True, null=True)
 
     def __str__(self):
         """String representation of this class."""
@@ -0,0 +1,34 @@
+from gzip import GzipFile
+from io import BytesIO
+from rest_framework import status
+from rest_framework.exceptions import APIException, ParseError
+from rest_framework.parsers import JSONParser
+
+class RequestEntityTooLarge(APIException):
+    """
+    The request body is larger than the server accepts.
+    """
+    status_code = status.HTTP_413_REQUEST_ENTITY_TOO_LARGE
+    default_detail = 'Request body is too large.'
+
+class GzipJSONParser(JSONParser):
+    """
+    Parses a JSON request body that may be compressed with gzip. The body is
+    decompressed if the request has the header:
+    Content-Encoding: gzip
+    The decompressed body is read up to max_decompressed_size bytes, so that a
+    small compressed body cannot expand to any size in memory.
+    """
+    max_decompressed_size = 2621440 # 2.5 MB, Django's limit of uploaded data in memory
+
+    def parse(self, stream, media_type=None, parser_context=None):
+        request = (parser_context or {}).get('request')
+        if request is None or request.META.get('HTTP_CONTENT_ENCODING') != 'gzip':
+            return super(GzipJSONParser, self).parse(stream, media_type, parser_context)
+        try:
+            data = GzipFile(fileobj=stream).read(self.max_decompressed_size + 1)
+        except (OSError, EOFError) as e:
+            raise ParseError('Gzip parse error - %s' % str(e))
+        if len(data) > self.max_decompressed_size:
+            raise RequestEntityTooLarge()
+        return super(GzipJSONParser, self).parse(BytesIO(data), media_type, parser_context)
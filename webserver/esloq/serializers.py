@@ -36,6 +36,17 @@ class LogSerializer(serializers.ModelSerializer):
     class Meta:
         model = Log
 
+class LogBatchItemSerializer(serializers.Serializer):
+    """
+    A log in a batch upload. The user of the log is the authenticated user, 
+    the lock is given by its mac address and is looked up for the whole batch 
+    at once, so that a batch needs no query per log.
+    """
+    request_id = serializers.CharField(max_length=36)
+    lock_mac = serializers.CharField(max_length=20)
+    lock_state = serializers.BooleanField()
+    access_time = serializers.IntegerField(min_value=0)
+
 class FcmRegistrationSerializer(serializers.ModelSerializer):
     class Meta:
         model = FcmRegistration
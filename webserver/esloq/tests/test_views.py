@@ -1,8 +1,10 @@
 from esloq.tests.db_helper import setup_testdb, get_valid_token_user1, get_valid_token_user2
 from django.test import TestCase, Client
 from json import loads, dumps
+from gzip import compress
 from rest_framework import status
 from esloq.models import *
+from esloq.parsers import GzipJSONParser
 
 class TestLockAccess(TestCase):
     def setUp(self):
@@ -506,6 +508,87 @@ class TestLockLogs(TestCase):
         response = self.client.get(url, HTTP_AUTHORIZATION='Bearer ' + get_valid_token_user1())
         self.assertEqual(response.status_code, status.HTTP_405_METHOD_NOT_ALLOWED)
 
+class TestLogBatch(TestCase):
+    def setUp(self):
+        self.client = Client()
+        setup_testdb()
+        self.payload = dumps({"logs": [
+            {"request_id": "request1", "lock_mac": "00:00:00:00:00:01", "lock_state": True, "access_time": 100},
+            {"request_id": "request2", "lock_mac": "00:00:00:00:00:01", "lock_state": False, "access_time": 101},
+        ]})
+
+    # POST. User is authenticated and has access on the locks.
+    def test_post_logbatch_authenticated(self):
+        url = "/users/1/logs/batch/"
+        count = Log.objects.count()
+        response = self.client.post(url, self.payload, content_type="application/json", HTTP_AUTHORIZATION='Bearer ' + get_valid_token_user1())
+        self.assertEqual(response.status_code, status.HTTP_200_OK)
+        self.assertEqual(loads(response.content.decode("utf-8")), {"success": True, "created": 2, "rejected": []})
+        self.assertEqual(Log.objects.count(), count + 2)
+        self.assertEqual(Log.objects.filter(user_id=1, lock_id=1, access_time=101, lock_state=False, request_id="request2").count(), 1)
+
+    # POST. Body is compressed with gzip.
+    def test_post_logbatch_gzip(self):
+        url = "/users/1/logs/batch/"
+        count = Log.objects.count()
+        response = self.client.post(url, compress(self.payload.encode("utf-8")), content_type="application/json", HTTP_CONTENT_ENCODING='gzip', HTTP_AUTHORIZATION='Bearer ' + get_valid_token_user1())
+        self.assertEqual(response.status_code, status.HTTP_200_OK)
+        self.assertEqual(Log.objects.count(), count + 2)
+
+    # POST. Body decompresses to more than the maximum size.
+    def test_post_logbatch_gzip_too_large(self):
+        url = "/users/1/logs/batch/"
+        payload = compress(b" " * (GzipJSONParser.max_decompressed_size + 1))
+        response = self.client.post(url, payload, content_type="application/json", HTTP_CONTENT_ENCODING='gzip', HTTP_AUTHORIZATION='Bearer ' + get_valid_token_user1())
+        self.assertEqual(response.status_code, status.HTTP_413_REQUEST_ENTITY_TOO_LARGE)
+
+    # POST. The batch is sent again, the logs that are already stored are skipped.
+    def test_post_logbatch_again(self):
+        url = "/users/1/logs/batch/"
+        count = Log.objects.count()
+        self.client.post(url, self.payload, content_type="application/json", HTTP_AUTHORIZATION='Bearer ' + get_valid_token_user1())
+        response = self.client.post(url, self.payload, content_type="application/json", HTTP_AUTHORIZATION='Bearer ' + get_valid_token_user1())
+        self.assertEqual(response.status_code, status.HTTP_200_OK)
+        self.assertEqual(loads(response.content.decode("utf-8"))["created"], 0)
+        self.assertEqual(Log.objects.count(), count + 2)
+
+    # POST. User has no access on the lock of one of the logs, only that log is rejected.
+    def test_post_logbatch_no_access(self):
+        url = "/users/1/logs/batch/"
+        count = Log.objects.count()
+        payload = dumps({"logs": [
+            {"request_id": "request1", "lock_mac": "00:00:00:00:00:01", "lock_state": True, "access_time": 100},
+            {"request_id": "request2", "lock_mac": "00:00:00:00:00:02", "lock_state": True, "access_time": 100},
+        ]})
+        response = self.client.post(url, payload, content_type="application/json", HTTP_AUTHORIZATION='Bearer ' + get_valid_token_user1())
+        self.assertEqual(response.status_code, status.HTTP_200_OK)
+        self.assertEqual(loads(response.content.decode("utf-8"))["rejected"], ["request2"])
+        self.assertEqual(Log.objects.count(), count + 1)
+
+    # POST. One of the logs is invalid, no log is added.
+    def test_post_logbatch_invalid_log(self):
+        url = "/users/1/logs/batch/"
+        count = Log.objects.count()
+        payload = dumps({"logs": [
+            {"request_id": "request1", "lock_mac": "00:00:00:00:00:01", "lock_state": True, "access_time": 100},
+            {"request_id": "request2", "lock_mac": "00:00:00:00:00:01", "lock_state": True},
+        ]})
+        response = self.client.post(url, payload, content_type="application/json", HTTP_AUTHORIZATION='Bearer ' + get_valid_token_user1())
+        self.assertEqual(response.status_code, status.HTTP_400_BAD_REQUEST)
+        self.assertEqual(Log.objects.count(), count)
+
+    # POST. User is not authenticated.
+    def test_post_logbatch_not_authenticated(self):
+        url = "/users/1/logs/batch/"
+        response = self.client.post(url, self.payload, content_type="application/json")
+        self.assertEqual(response.status_code, status.HTTP_403_FORBIDDEN)
+
+    # POST. User is authenticated as a different user than specified in the url.
+    def test_post_logbatch_authenticated_as_different_user(self):
+        url = "/users/2/logs/batch/"
+        response = self.client.post(url, self.payload, content_type="application/json", HTTP_AUTHORIZATION='Bearer ' + get_valid_token_user1())
+        self.assertEqual(response.status_code, status.HTTP_403_FORBIDDEN)
+
 class TestLockLockAccesses(TestCase):
     def setUp(self):
         self.client = Client()
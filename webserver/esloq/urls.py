@@ -1,7 +1,7 @@
 from django.conf.urls import url
 from rest_framework.urlpatterns import format_suffix_patterns
 from esloq import views
-from esloq.views import EsloqViewSet, EsloqUserViewSet, AllEsloqUserViewSet,  LockAccessViewSet, LogViewSet, FcmRegistrationViewSet, LockTicketViewSet, LockLogsViewSet, LockLockAccessesViewSet, AllEsloqViewSet
+from esloq.views import EsloqViewSet, EsloqUserViewSet, AllEsloqUserViewSet,  LockAccessViewSet, LogViewSet, LogBatchViewSet, FcmRegistrationViewSet, LockTicketViewSet, LockLogsViewSet, LockLockAccessesViewSet, AllEsloqViewSet
 
 lock_list = EsloqViewSet.as_view({
     'get': 'list',
@@ -28,6 +28,9 @@ log_list = LogViewSet.as_view({
 log_detail = LogViewSet.as_view({
     'get': 'retrieve',
 })
+log_batch = LogBatchViewSet.as_view({
+    'post': 'create',
+})
 user_list = EsloqUserViewSet.as_view({
     'get': 'list',
 })
@@ -67,6 +70,7 @@ urlpatterns = [
     url(r'^' + base_url + 'lockaccesses/(?P<pk>[0-9]+)/$', lockaccess_detail, name='lockaccess-detail'),
     url(r'^' + base_url + 'logs/$', log_list, name='log-list'),
     url(r'^' + base_url + 'logs/(?P<pk>[0-9]+)/$', log_detail, name='log-detail'),
+    url(r'^' + base_url + 'logs/batch/$', log_batch, name='log-batch'),
     url(r'^' + base_url + 'fcmregistrations/$', fcmregistration_list, name='fcmregistration-list'),
 ]
 
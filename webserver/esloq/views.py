@@ -2,6 +2,7 @@ from esloq.models import Esloq, EsloqUser, LockAccess, Log, FcmRegistration
 from esloq.serializers import *
 from esloq.authentication import FirebaseAuthentication
 from esloq.permissions import *
+from esloq.parsers import GzipJSONParser
 from rest_framework import generics
 from rest_framework.response import Response
 from rest_framework.reverse import reverse
@@ -13,6 +14,7 @@ from base64 import b64encode
 from rest_framework import status
 from django.shortcuts import get_object_or_404
 from django.http import Http404
+from django.db import IntegrityError, transaction
 
 """
 ViewSet representing the esloqs of a given user.
@@ -158,6 +160,66 @@ class LogViewSet(viewsets.ModelViewSet):
         logs = Log.objects.filter(lock_id__in=admin_lock_ids)
         return logs
 
+"""
+ViewSet for uploading a batch of logs of a given user in one request.
+"""
+class LogBatchViewSet(viewsets.ViewSet):
+    """
+    Permissions:
+        - Only authenticated users can use this viewset (IsAuthenticated)
+        - Authenticated user id must match URL user id (AuthenticatedUserIsURLUser) 
+    The body may be compressed with gzip (GzipJSONParser).
+    """
+    permission_classes = (permissions.IsAuthenticated, AuthenticatedUserIsURLUser, )
+    parser_classes = (GzipJSONParser, )
+
+    def create(self, request, *args, **kwargs):
+        """
+        Adds the logs in the "logs" list of the request for the authenticated 
+        user, with a single bulk insert. The response has the format of the 
+        app's other endpoints: {"success": true, "created": <count>, 
+        "rejected": [<request_id>, ...]}.
+            - A log of which the request id is already stored is skipped, so 
+              the app can send a batch again after its response was lost.
+            - A log of a lock the user has no access on is not stored and its 
+              request id is returned in "rejected".
+            - No log is added if a log is invalid (400).
+        """
+        logs = request.data.get('logs') if isinstance(request.data, dict) else None
+        if not isinstance(logs, list):
+            return Response({"logs": ["Expected a list of logs."]}, status=status.HTTP_400_BAD_REQUEST)
+        serializer = LogBatchItemSerializer(data=logs, many=True)
+        serializer.is_valid(raise_exception=True)
+        logs = serializer.validated_data
+
+        user_id = request.user.id
+        lock_ids = LockAccess.objects.filter(user_id=user_id).values_list('lock_id', flat=True)
+        macs = set(log['lock_mac'].lower() for log in logs)
+        locks = dict(Esloq.objects.filter(mac__in=macs, id__in=lock_ids).values_list('mac', 'id'))
+        request_ids = set(log['request_id'] for log in logs)
+        stored = set(Log.objects.filter(request_id__in=request_ids).values_list('request_id', flat=True))
+
+        new_logs = []
+        rejected = []
+        for log in logs:
+            if log['request_id'] in stored:
+                continue
+            stored.add(log['request_id'])
+            lock_id = locks.get(log['lock_mac'].lower())
+            if lock_id is None:
+                rejected.append(log['request_id'])
+                continue
+            new_logs.append(Log(lock_id_id=lock_id, user_id_id=user_id, lock_state=log['lock_state'],
+                                access_time=log['access_time'], request_id=log['request_id']))
+        try:
+            with transaction.atomic():
+                Log.objects.bulk_create(new_logs)
+        except IntegrityError:
+            # The same logs were stored by a concurrent request, the app sends 
+            # the batch again and then skips them.
+            return Response(status=status.HTTP_409_CONFLICT)
+        return Response({"success": True, "created": len(new_logs), "rejected": rejected}, status=status.HTTP_200_OK)
+
 """
 ViewSet representing the logs of a given lock for a given user.
 """